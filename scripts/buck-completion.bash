@@ -74,6 +74,7 @@ function _buck_completion_run() {
         project)    _buck_completion_try_project    "$@";;
         quickstart) _buck_completion_try_quickstart "$@";;
         run)        _buck_completion_try_run        "$@";;
+        stats)      _buck_completion_try_stats      "$@";;
         targets)    _buck_completion_try_targets    "$@";;
         test)       _buck_completion_try_test       "$@";;
         uninstall)  _buck_completion_try_uninstall  "$@";;
@@ -178,6 +179,10 @@ function _buck_completion_try_run() {
     || _buck_completion_try_target "$@"
 }
 
+function _buck_completion_try_stats() {
+  _buck_completion_try_long_arg "--builds --help --limit --no-cache --verbose"
+}
+
 function _buck_completion_try_targets() {
   _buck_completion_try_long_arg "
       --build-dependencies
@@ -489,7 +494,7 @@ function _buck_completion_log() {
 }
 
 function _buck_completion_echo_buck_commands() {
-  echo "audit build cache clean install project quickstart run targets test uninstall --version --help -V"
+  echo "audit build cache clean install project quickstart run stats targets test uninstall --version --help -V"
 }
 
 function _buck_completion_internal_error() {
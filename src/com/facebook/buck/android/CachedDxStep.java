@@ -0,0 +1,236 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.android.dex.Dex;
+import com.android.dex.DexFormat;
+import com.android.dex.util.ExceptionWithContext;
+import com.android.dx.Version;
+import com.android.dx.merge.CollisionPolicy;
+import com.android.dx.merge.DexMerger;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Produces a {@code .dex.jar} equivalent to that of {@code dx --dex --no-optimize --force-jumbo}
+ * run on a single jar, but only translates the classes that are not already in the
+ * {@link ClassDexCache}. The translated classes are merged with {@link DexMerger}, so changing one
+ * class in a large library costs one class worth of dexing plus a merge, rather than dexing the
+ * whole library.
+ * <p>
+ * The jar has the same manifest and resources as dx's, and its {@code classes.dex} has the same
+ * classes, ids and code. The merge lays out the sections of the dex file differently, though, so
+ * the bytes of {@code classes.dex} are not those that dx writes.
+ */
+public class CachedDxStep implements Step {
+
+  private static final Logger LOG = Logger.get(CachedDxStep.class);
+
+  private static final Attributes.Name CREATED_BY = new Attributes.Name("Created-By");
+
+  private final Path outputDexJar;
+  private final Path inputJar;
+  private final Path cacheDir;
+
+  private int classesFromCache;
+  private int classesTranslated;
+
+  /**
+   * @param outputDexJar path to the {@code .dex.jar} to write.
+   * @param inputJar path to the jar of {@code .class} files to dex.
+   * @param cacheDir path to the directory of the {@link ClassDexCache}.
+   */
+  public CachedDxStep(Path outputDexJar, Path inputJar, Path cacheDir) {
+    this.outputDexJar = Preconditions.checkNotNull(outputDexJar);
+    this.inputJar = Preconditions.checkNotNull(inputJar);
+    this.cacheDir = Preconditions.checkNotNull(cacheDir);
+  }
+
+  public CachedDxStep(Path outputDexJar, Path inputJar) {
+    this(outputDexJar, inputJar, ClassDexCache.DEFAULT_CACHE_DIR);
+  }
+
+  @Override
+  public int execute(final ExecutionContext context) throws InterruptedException {
+    final ProjectFilesystem filesystem = context.getProjectFilesystem();
+    try {
+      return DxWorker.getInstance().run(
+          context.getBuckEventBus(),
+          outputDexJar.toString(),
+          new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+              return dex(filesystem, context.getStdErr());
+            }
+          });
+    } catch (ExceptionWithContext e) {
+      context.getStdErr().println("\ntrouble processing " + inputJar + ":");
+      e.printContext(context.getStdErr());
+      return 1;
+    } catch (IOException e) {
+      context.logError(e, "Error dexing %s.", inputJar);
+      return 1;
+    }
+  }
+
+  private int dex(ProjectFilesystem filesystem, PrintStream stdErr) throws IOException {
+    ClassDexCache cache = ClassDexCache.forDirectory(filesystem.resolve(cacheDir));
+    classesFromCache = 0;
+    classesTranslated = 0;
+
+    // Keep the same order as dx, so that the output does not depend on the order of the input.
+    SortedMap<String, byte[]> resources = new TreeMap<>();
+    ImmutableList.Builder<Dex> classes = ImmutableList.builder();
+    try (ZipFile zip = new ZipFile(filesystem.resolve(inputJar).toFile())) {
+      SortedMap<String, ZipEntry> entries = new TreeMap<>();
+      for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+        ZipEntry entry = e.nextElement();
+        if (!entry.isDirectory()) {
+          entries.put(entry.getName(), entry);
+        }
+      }
+
+      for (Map.Entry<String, ZipEntry> entry : entries.entrySet()) {
+        String name = entry.getKey();
+        byte[] bytes;
+        try (InputStream in = zip.getInputStream(entry.getValue())) {
+          bytes = ByteStreams.toByteArray(in);
+        }
+
+        if (!name.endsWith(".class")) {
+          resources.put(name, bytes);
+          continue;
+        }
+
+        HashCode key = ClassDexCache.getKey(bytes);
+        Optional<Dex> cached = cache.get(key);
+        if (cached.isPresent()) {
+          classes.add(cached.get());
+          classesFromCache++;
+        } else {
+          Dex dex = ClassDexCache.translate(name, bytes, stdErr);
+          cache.put(key, dex);
+          classes.add(dex);
+          classesTranslated++;
+        }
+      }
+    }
+
+    ImmutableList<Dex> dexes = classes.build();
+    if (dexes.isEmpty()) {
+      stdErr.println("no classfiles specified");
+      return 1;
+    }
+    LOG.debug("Dexed %d classes of %s and took %d from the cache.",
+        classesTranslated,
+        inputJar,
+        classesFromCache);
+
+    Dex merged = dexes.size() == 1 ?
+        dexes.get(0) :
+        new DexMerger(dexes, CollisionPolicy.FAIL).merge();
+    resources.put(DexFormat.DEX_IN_JAR_NAME, merged.getBytes());
+    writeJar(filesystem.resolve(outputDexJar), resources);
+    return 0;
+  }
+
+  /**
+   * Writes the jar the way dx does: the input's manifest, amended to say that dx created it, and
+   * the resources of the input next to {@code classes.dex}.
+   */
+  private static void writeJar(Path output, SortedMap<String, byte[]> resources)
+      throws IOException {
+    Manifest manifest;
+    byte[] manifestBytes = resources.remove(JarFile.MANIFEST_NAME);
+    if (manifestBytes == null) {
+      manifest = new Manifest();
+      manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    } else {
+      manifest = new Manifest(new ByteArrayInputStream(manifestBytes));
+    }
+    Attributes attributes = manifest.getMainAttributes();
+    String createdBy = attributes.getValue(CREATED_BY);
+    attributes.put(
+        CREATED_BY,
+        (createdBy == null ? "" : createdBy + " + ") + "dx " + Version.VERSION);
+    attributes.putValue("Dex-Location", DexFormat.DEX_IN_JAR_NAME);
+
+    try (OutputStream out = Files.newOutputStream(output);
+         JarOutputStream jar = new JarOutputStream(out, manifest)) {
+      for (Map.Entry<String, byte[]> resource : resources.entrySet()) {
+        JarEntry entry = new JarEntry(resource.getKey());
+        entry.setSize(resource.getValue().length);
+        jar.putNextEntry(entry);
+        jar.write(resource.getValue());
+        jar.closeEntry();
+      }
+    }
+  }
+
+  @VisibleForTesting
+  int getClassesFromCache() {
+    return classesFromCache;
+  }
+
+  @VisibleForTesting
+  int getClassesTranslated() {
+    return classesTranslated;
+  }
+
+  @Override
+  public String getShortName() {
+    return "dx";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    return String.format(
+        "dx --dex --no-optimize --force-jumbo --output %s %s (classes cached in %s)",
+        filesystem.resolve(outputDexJar),
+        filesystem.resolve(inputJar),
+        filesystem.resolve(cacheDir));
+  }
+}
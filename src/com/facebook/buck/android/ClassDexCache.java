@@ -0,0 +1,262 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.android.dex.Dex;
+import com.android.dx.Version;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.dex.DexOptions;
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.cf.CodeStatistics;
+import com.android.dx.dex.cf.OptimizerOptions;
+import com.android.dx.dex.code.PositionList;
+import com.android.dx.dex.file.DexFile;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.MoreFiles;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk cache of the dex translation of individual {@code .class} files, keyed by the SHA-1 of
+ * the bytes of the class. Every class is translated the way {@code dx --dex --no-optimize
+ * --force-jumbo} would translate it, so the pieces can be merged into a dex file for a whole
+ * library with {@link com.android.dx.merge.DexMerger}.
+ * <p>
+ * Entries are written to a temporary file and moved into place, so several rules may share the
+ * cache at once. Like the dir artifact cache, the cache is kept to a maximum size by deleting the
+ * entries that were accessed least recently. This class is thread-safe.
+ */
+class ClassDexCache {
+
+  private static final Logger LOG = Logger.get(ClassDexCache.class);
+
+  /** Where the cache lives, relative to the root of the project. */
+  static final Path DEFAULT_CACHE_DIR = BuckConstant.BIN_PATH.resolve("__dex_class_cache__");
+
+  /**
+   * Salt for the cache key. Change it whenever the way classes are translated changes, so that
+   * stale entries are not picked up.
+   */
+  private static final String KEY_SALT = "dx " + Version.VERSION + " --no-optimize --force-jumbo";
+
+  /** Size above which the least recently used entries are deleted. */
+  static final long DEFAULT_MAX_SIZE_BYTES = 256L * 1024 * 1024;
+
+  /**
+   * Once this fraction of the maximum size has been written to the cache, old entries are deleted.
+   * Finding them means reading the attributes of every entry, so it is not done on every write.
+   */
+  private static final int WRITES_BETWEEN_TRIMS_DIVISOR = 8;
+
+  /** One instance per directory, so that writes from every rule count towards the next trim. */
+  private static final ConcurrentMap<Path, ClassDexCache> INSTANCES = Maps.newConcurrentMap();
+
+  private final Path cacheDir;
+  private final long maxSizeBytes;
+  private final long bytesToWriteBetweenTrims;
+
+  /**
+   * Starts at the threshold, so that the first write in a process also deletes whatever earlier
+   * processes left behind over the maximum size.
+   */
+  private final AtomicLong bytesWrittenSinceTrim;
+
+  /**
+   * @param cacheDir absolute path to the directory that holds the cache.
+   * @param maxSizeBytes size above which the least recently used entries are deleted.
+   */
+  @VisibleForTesting
+  ClassDexCache(Path cacheDir, long maxSizeBytes) {
+    Preconditions.checkArgument(maxSizeBytes > 0);
+    this.cacheDir = Preconditions.checkNotNull(cacheDir);
+    this.maxSizeBytes = maxSizeBytes;
+    this.bytesToWriteBetweenTrims = Math.max(1, maxSizeBytes / WRITES_BETWEEN_TRIMS_DIVISOR);
+    this.bytesWrittenSinceTrim = new AtomicLong(bytesToWriteBetweenTrims);
+  }
+
+  /**
+   * @param cacheDir absolute path to the directory that holds the cache.
+   * @return the cache in {@code cacheDir}, bounded by {@link #DEFAULT_MAX_SIZE_BYTES}.
+   */
+  static ClassDexCache forDirectory(Path cacheDir) {
+    ClassDexCache cache = INSTANCES.get(cacheDir);
+    if (cache == null) {
+      ClassDexCache newCache = new ClassDexCache(cacheDir, DEFAULT_MAX_SIZE_BYTES);
+      cache = INSTANCES.putIfAbsent(cacheDir, newCache);
+      if (cache == null) {
+        cache = newCache;
+      }
+    }
+    return cache;
+  }
+
+  static HashCode getKey(byte[] classBytes) {
+    return Hashing.sha1().newHasher()
+        .putString(KEY_SALT, Charsets.UTF_8)
+        .putBytes(classBytes)
+        .hash();
+  }
+
+  @VisibleForTesting
+  Path getPathToEntry(HashCode key) {
+    String name = key.toString();
+    return cacheDir.resolve(Paths.get(name.substring(0, 2), name + ".dex"));
+  }
+
+  /**
+   * @return the cached translation of the class with the given key, if there is one.
+   */
+  Optional<Dex> get(HashCode key) throws IOException {
+    Path entry = getPathToEntry(key);
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(entry);
+    } catch (NoSuchFileException e) {
+      // Never written, or deleted to keep the cache within its maximum size.
+      return Optional.absent();
+    }
+    // Record the access explicitly: file systems mounted with noatime or relatime would otherwise
+    // not, and the entry would be deleted as if it had not been used.
+    try {
+      Files.getFileAttributeView(entry, BasicFileAttributeView.class).setTimes(
+          /* lastModifiedTime */ null,
+          FileTime.fromMillis(System.currentTimeMillis()),
+          /* createTime */ null);
+    } catch (IOException e) {
+      LOG.debug(e, "Unable to record the access of %s.", entry);
+    }
+    return Optional.of(new Dex(bytes));
+  }
+
+  void put(HashCode key, Dex dex) throws IOException {
+    Path entry = getPathToEntry(key);
+    Files.createDirectories(entry.getParent());
+    Path tmp = entry.resolveSibling(entry.getFileName() + "." + UUID.randomUUID() + ".tmp");
+    try {
+      Files.write(tmp, dex.getBytes());
+      Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+
+    // Only the thread that resets the count trims, so concurrent writers do not all walk the cache.
+    if (bytesWrittenSinceTrim.addAndGet(dex.getLength()) >= bytesToWriteBetweenTrims &&
+        bytesWrittenSinceTrim.getAndSet(0) >= bytesToWriteBetweenTrims) {
+      deleteOldEntries();
+    }
+  }
+
+  /**
+   * Deletes the entries that were accessed least recently until the cache is no larger than its
+   * maximum size.
+   */
+  @VisibleForTesting
+  synchronized void deleteOldEntries() throws IOException {
+    if (!Files.isDirectory(cacheDir)) {
+      return;
+    }
+    final List<File> entries = Lists.newArrayList();
+    Files.walkFileTree(cacheDir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (file.getFileName().toString().endsWith(".dex")) {
+          entries.add(file.toFile());
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+
+    File[] files = entries.toArray(new File[entries.size()]);
+    MoreFiles.sortFilesByAccessTime(files);
+
+    long sizeBytes = 0;
+    int deleted = 0;
+    for (File file : files) {
+      sizeBytes += file.length();
+      if (sizeBytes > maxSizeBytes) {
+        // Another build may be deleting the same entries, or reading them; either is fine.
+        if (Files.deleteIfExists(file.toPath())) {
+          deleted++;
+        }
+      }
+    }
+    LOG.debug("Deleted %d of %d entries from %s.", deleted, files.length, cacheDir);
+  }
+
+  /**
+   * Translates a single class to a dex file that contains only that class.
+   *
+   * @param name path of the class file within its jar, such as {@code com/example/Foo.class}.
+   * @param warnings where dx reports problems that do not stop the translation.
+   * @throws RuntimeException if dx cannot translate the class.
+   */
+  static Dex translate(String name, byte[] classBytes, PrintStream warnings) throws IOException {
+    CfOptions cfOptions = new CfOptions();
+    cfOptions.positionInfo = PositionList.LINES;
+    cfOptions.localInfo = true;
+    cfOptions.optimize = false;
+    cfOptions.warn = warnings;
+    cfOptions.codeStatistics = new CodeStatistics();
+
+    DexOptions dexOptions = new DexOptions();
+    dexOptions.forceJumbo = true;
+
+    DirectClassFile classFile = new DirectClassFile(
+        classBytes,
+        name,
+        cfOptions.strictNameCheck);
+    classFile.setAttributeFactory(StdAttributeFactory.THE_ONE);
+    classFile.getMagic();
+
+    DexFile dexFile = new DexFile(dexOptions);
+    dexFile.add(CfTranslator.translate(
+        classFile,
+        classBytes,
+        cfOptions,
+        dexOptions,
+        new OptimizerOptions(),
+        dexFile));
+    return new Dex(dexFile.toDex(/* humanOut */ null, /* verbose */ false));
+  }
+}
@@ -49,8 +49,6 @@ import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 
 import java.nio.file.Path;
-import java.util.Collections;
-import java.util.EnumSet;
 import java.util.Map;
 
 import javax.annotation.Nullable;
@@ -114,15 +112,9 @@ public class DexProducedFromJavaLibrary extends AbstractBuildRule
       linearAllocEstimate = estimate;
 
       // To be conservative, use --force-jumbo for these intermediate .dex files so that they can be
-      // merged into a final classes.dex that uses jumbo instructions.
-      DxStep dx = new DxStep(getPathToDex(),
-          Collections.singleton(pathToOutputFile),
-          EnumSet.of(
-              DxStep.Option.USE_CUSTOM_DX_IF_AVAILABLE,
-              DxStep.Option.RUN_IN_PROCESS,
-              DxStep.Option.NO_OPTIMIZE,
-              DxStep.Option.FORCE_JUMBO));
-      steps.add(dx);
+      // merged into a final classes.dex that uses jumbo instructions. Classes that have not changed
+      // since they were last dexed, by this rule or any other, are taken from the class cache.
+      steps.add(new CachedDxStep(getPathToDex(), pathToOutputFile));
     } else {
       linearAllocEstimate = Suppliers.ofInstance(0);
     }
@@ -76,6 +76,7 @@ public class DxStep extends ShellStep {
   private final Path outputDexFile;
   private final Set<Path> filesToDex;
   private final Set<Option> options;
+  private final int numThreads;
   private final Supplier<String> getPathToCustomDx;
 
   /**
@@ -94,17 +95,36 @@ public class DxStep extends ShellStep {
    * @param options to pass to {@code dx}.
    */
   public DxStep(Path outputDexFile, Iterable<Path> filesToDex, EnumSet<Option> options) {
-    this(outputDexFile, filesToDex, options, DEFAULT_GET_CUSTOM_DX);
+    this(outputDexFile, filesToDex, options, /* numThreads */ 1);
+  }
+
+  /**
+   * @param outputDexFile path to the file where the generated classes.dex should go.
+   * @param filesToDex each element in this set is a path to a .class file, a zip file of .class
+   *     files, or a directory of .class files.
+   * @param options to pass to {@code dx}.
+   * @param numThreads number of threads {@code dx} may use to translate classes. The output does
+   *     not depend on this.
+   */
+  public DxStep(
+      Path outputDexFile,
+      Iterable<Path> filesToDex,
+      EnumSet<Option> options,
+      int numThreads) {
+    this(outputDexFile, filesToDex, options, numThreads, DEFAULT_GET_CUSTOM_DX);
   }
 
   @VisibleForTesting
   DxStep(Path outputDexFile, Iterable<Path> filesToDex, EnumSet<Option> options,
-      Supplier<String> getPathToCustomDx) {
+      int numThreads, Supplier<String> getPathToCustomDx) {
     this.outputDexFile = Preconditions.checkNotNull(outputDexFile);
     this.filesToDex = ImmutableSet.copyOf(filesToDex);
     this.options = Sets.immutableEnumSet(options);
+    this.numThreads = numThreads;
     this.getPathToCustomDx = Preconditions.checkNotNull(getPathToCustomDx);
 
+    Preconditions.checkArgument(numThreads > 0);
+
     Preconditions.checkArgument(
         !options.contains(Option.RUN_IN_PROCESS) ||
             options.contains(Option.USE_CUSTOM_DX_IF_AVAILABLE),
@@ -146,6 +166,10 @@ public class DxStep extends ShellStep {
       builder.add("--force-jumbo");
     }
 
+    if (numThreads > 1) {
+      builder.add("--num-threads=" + numThreads);
+    }
+
     // verbose flag, if appropriate.
     if (context.getVerbosity().shouldUseVerbosityFlagIfAvailable()) {
       builder.add("--verbose");
@@ -169,7 +193,7 @@ public class DxStep extends ShellStep {
     }
   }
 
-  private int executeInProcess(ExecutionContext context) {
+  private int executeInProcess(ExecutionContext context) throws InterruptedException {
     ImmutableList<String> argv = getShellCommandInternal(context);
 
     // The first arguments should be ".../dx --dex".  Strip them off
@@ -179,11 +203,12 @@ public class DxStep extends ShellStep {
     ImmutableList<String> args = argv.subList(2, argv.size());
 
     try {
-      return new com.android.dx.command.dexer.Main().run(
-          args.toArray(new String[args.size()]),
+      return DxWorker.getInstance().dex(
+          context.getBuckEventBus(),
+          outputDexFile.toString(),
+          args,
           context.getStdOut(),
-          context.getStdErr()
-      );
+          context.getStdErr());
     } catch (IOException e) {
       e.printStackTrace(context.getStdErr());
       return 1;
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.TraceEventLogger;
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs in-process dx jobs for every rule in the build. The number of jobs that run at once is
+ * bounded by the size of the heap, so running many pre-dex rules in parallel cannot run the build
+ * out of memory, and each job is recorded as a trace event.
+ * <p>
+ * dx keeps its interned types, prototypes and constants in static tables
+ * ({@code Type.internTable}, {@code Prototype.internTable} and {@code CstType.interns}). Every
+ * in-process job shares them, and nothing ever removes an entry, so in a long-lived daemon they
+ * grow with each distinct type that is dexed until the process exits.
+ */
+class DxWorker {
+
+  private static final Logger LOG = Logger.get(DxWorker.class);
+
+  /**
+   * Rough amount of heap that a single dx job needs. This is what {@code dx} is given when it runs
+   * in a JVM of its own.
+   */
+  @VisibleForTesting
+  static final long HEAP_BYTES_PER_JOB = 256L * 1024 * 1024;
+
+  private static final DxWorker INSTANCE = new DxWorker(getMaxConcurrentJobs(
+      Runtime.getRuntime().maxMemory(),
+      Runtime.getRuntime().availableProcessors()));
+
+  private final Semaphore permits;
+
+  @VisibleForTesting
+  DxWorker(int maxConcurrentJobs) {
+    Preconditions.checkArgument(maxConcurrentJobs > 0);
+    this.permits = new Semaphore(maxConcurrentJobs, /* fair */ true);
+  }
+
+  static DxWorker getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Runs {@code dx --dex} with the given arguments, waiting first if the maximum number of jobs
+   * are already running.
+   *
+   * @param args the arguments that follow {@code --dex} on the command line.
+   * @return the exit code of dx.
+   */
+  int dex(
+      BuckEventBus eventBus,
+      String outputDexFile,
+      final ImmutableList<String> args,
+      final PrintStream stdOut,
+      final PrintStream stdErr) throws IOException, InterruptedException {
+    return run(eventBus, outputDexFile, new Callable<Integer>() {
+      @Override
+      public Integer call() throws IOException {
+        return new com.android.dx.command.dexer.Main().run(
+            args.toArray(new String[args.size()]),
+            stdOut,
+            stdErr);
+      }
+    });
+  }
+
+  /**
+   * Runs a job once a permit is available. The time it took shows up in the trace of the build.
+   */
+  @VisibleForTesting
+  int run(BuckEventBus eventBus, String outputDexFile, Callable<Integer> job)
+      throws IOException, InterruptedException {
+    long waitStartNanos = System.nanoTime();
+    permits.acquire();
+    try {
+      long startNanos = System.nanoTime();
+      TraceEventLogger trace = TraceEventLogger.start(
+          eventBus,
+          "dx",
+          ImmutableMap.of("output", outputDexFile));
+      int exitCode = 1;
+      try {
+        exitCode = job.call();
+        return exitCode;
+      } catch (Exception e) {
+        Throwables.propagateIfInstanceOf(e, IOException.class);
+        throw Throwables.propagate(e);
+      } finally {
+        trace.end(ImmutableMap.of("exit_code", String.valueOf(exitCode)));
+        LOG.debug("Dexed %s in %d ms after waiting %d ms.",
+            outputDexFile,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+            TimeUnit.NANOSECONDS.toMillis(startNanos - waitStartNanos));
+      }
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * @return as many jobs as there are cores, as long as each job can have
+   *     {@link #HEAP_BYTES_PER_JOB} of the heap, and at least one job.
+   */
+  @VisibleForTesting
+  static int getMaxConcurrentJobs(long maxHeapBytes, int availableProcessors) {
+    long jobsThatFitInHeap = maxHeapBytes / HEAP_BYTES_PER_JOB;
+    return (int) Math.max(1, Math.min(availableProcessors, jobsThatFitInHeap));
+  }
+}
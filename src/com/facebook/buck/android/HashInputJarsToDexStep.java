@@ -16,9 +16,8 @@
 
 package com.facebook.buck.android;
 
-import com.facebook.buck.java.classes.ClasspathTraversal;
-import com.facebook.buck.java.classes.DefaultClasspathTraverser;
-import com.facebook.buck.java.classes.FileLike;
+import com.facebook.buck.java.classes.ClassIndex;
+import com.facebook.buck.java.classes.ClassIndexCache;
 import com.facebook.buck.rules.Sha1HashCode;
 import com.facebook.buck.step.AbstractExecutionStep;
 import com.facebook.buck.step.ExecutionContext;
@@ -34,7 +33,6 @@ import com.google.common.hash.Hashing;
 
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 
@@ -78,18 +76,16 @@ public class HashInputJarsToDexStep extends AbstractExecutionStep
 
     for (Path path : allInputs.build()) {
       try {
-        final Hasher hasher = Hashing.sha1().newHasher();
-        new DefaultClasspathTraverser().traverse(
-            new ClasspathTraversal(Collections.singleton(path), context.getProjectFilesystem()) {
-              @Override
-              public void visit(FileLike fileLike) throws IOException {
-                String className = fileLike.getRelativePath().replaceAll("\\.class$", "");
-                if (classNamesToHashes.containsKey(className)) {
-                  HashCode classHash = classNamesToHashes.get(className);
-                  hasher.putBytes(classHash.asBytes());
-                }
-              }
-            });
+        Hasher hasher = Hashing.sha1().newHasher();
+        ClassIndex classIndex = ClassIndexCache.getInstance().get(
+            path,
+            context.getProjectFilesystem());
+        for (String className : classIndex.getClasses().keySet()) {
+          if (classNamesToHashes.containsKey(className)) {
+            HashCode classHash = classNamesToHashes.get(className);
+            hasher.putBytes(classHash.asBytes());
+          }
+        }
         dexInputsToHashes.put(path, new Sha1HashCode(hasher.hash().toString()));
       } catch (IOException e) {
         context.logError(e, "Error hashing smart dex input: %s", path);
@@ -77,6 +77,7 @@ public class RobolectricTest extends JavaTest {
       ImmutableSet<Path> additionalClasspathEntries,
       JavacOptions javacOptions,
       List<String> vmArgs,
+      boolean forkJvm,
       ImmutableSet<BuildRule> sourceTargetsUnderTest,
       Optional<Path> resourcesRoot,
       Optional<DummyRDotJava> optionalDummyRDotJava) {
@@ -90,6 +91,7 @@ public class RobolectricTest extends JavaTest {
         additionalClasspathEntries,
         javacOptions,
         vmArgs,
+        forkJvm,
         sourceTargetsUnderTest,
         resourcesRoot);
     this.optionalDummyRDotJava = Preconditions.checkNotNull(optionalDummyRDotJava);
@@ -94,6 +94,7 @@ public class RobolectricTestDescription implements Description<RobolectricTestDe
         additionalClasspathEntries,
         javacOptions.build(),
         args.vmArgs.get(),
+        args.forkJvm.or(false),
         JavaTestDescription.validateAndGetSourcesUnderTest(
             args.sourceUnderTest.get(),
             params.getBuildTarget(),
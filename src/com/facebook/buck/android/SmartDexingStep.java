@@ -92,7 +92,9 @@ public class SmartDexingStep implements Step {
    *     corresponding jar files (value) as the input.
    * @param successDir Directory where success artifacts are written.
    * @param numThreads Number of threads to use when invoking dx commands.  If absent, a
-   *     reasonable default will be selected based on the number of available processors.
+   *     reasonable default will be selected based on the number of available processors.  When
+   *     there are fewer dx commands to run than threads, the remaining threads are used by dx to
+   *     translate classes in parallel.
    */
   public SmartDexingStep(
       final Path primaryOutputPath,
@@ -148,11 +150,14 @@ public class SmartDexingStep implements Step {
 
   private void runDxCommands(ExecutionContext context, Multimap<Path, Path> outputToInputs)
       throws StepFailedException, IOException, InterruptedException {
-    try (DefaultStepRunner stepRunner =
-             new DefaultStepRunner(context, numThreads.or(determineOptimalThreadCount()))) {
+    int threads = numThreads.or(determineOptimalThreadCount());
+    try (DefaultStepRunner stepRunner = new DefaultStepRunner(context, threads)) {
       // Invoke dx commands in parallel for maximum thread utilization.  In testing, dx revealed
       // itself to be CPU (and not I/O) bound making it a good candidate for parallelization.
-      List<Step> dxSteps = generateDxCommands(context.getProjectFilesystem(), outputToInputs);
+      List<Step> dxSteps = generateDxCommands(
+          context.getProjectFilesystem(),
+          outputToInputs,
+          threads);
       stepRunner.runStepsInParallelAndWait(dxSteps);
     }
   }
@@ -207,7 +212,8 @@ public class SmartDexingStep implements Step {
    */
   private List<Step> generateDxCommands(
       ProjectFilesystem filesystem,
-      Multimap<Path, Path> outputToInputs) throws IOException {
+      Multimap<Path, Path> outputToInputs,
+      int threads) throws IOException {
     ImmutableList.Builder<DxPseudoRule> pseudoRules = ImmutableList.builder();
 
     ImmutableMap<Path, Sha1HashCode> dexInputHashes = dexInputHashesProvider.getDexInputHashes();
@@ -223,16 +229,33 @@ public class SmartDexingStep implements Step {
               dxOptions));
     }
 
-    ImmutableList.Builder<Step> steps = ImmutableList.builder();
+    ImmutableList.Builder<DxPseudoRule> pseudoRulesToBuild = ImmutableList.builder();
     for (DxPseudoRule pseudoRule : pseudoRules.build()) {
       if (!pseudoRule.checkIsCached()) {
-        steps.addAll(pseudoRule.buildInternal());
+        pseudoRulesToBuild.add(pseudoRule);
       }
     }
 
+    ImmutableList<DxPseudoRule> toBuild = pseudoRulesToBuild.build();
+    int dxThreads = getThreadsPerDxStep(threads, toBuild.size());
+    ImmutableList.Builder<Step> steps = ImmutableList.builder();
+    for (DxPseudoRule pseudoRule : toBuild) {
+      steps.addAll(pseudoRule.buildInternal(dxThreads));
+    }
+
     return steps.build();
   }
 
+  /**
+   * Shares the threads between the dx commands that run at once. When only a few dx commands have
+   * to run, which is common after a small change, each one translates its classes on several
+   * threads instead of leaving cores idle.
+   */
+  @VisibleForTesting
+  static int getThreadsPerDxStep(int threads, int dxSteps) {
+    return Math.max(1, threads / Math.max(1, dxSteps));
+  }
+
   /**
    * Internally designed to simulate a dexing buck rule so that once refactored more broadly as
    * such it should be straightforward to convert this code.
@@ -301,12 +324,12 @@ public class SmartDexingStep implements Step {
       return newInputsHash.equals(currentInputsHash);
     }
 
-    public List<Step> buildInternal() {
+    public List<Step> buildInternal(int dxThreads) {
       Preconditions.checkState(newInputsHash != null, "Must call checkIsCached first!");
 
       List<Step> steps = Lists.newArrayList();
 
-      steps.add(createDxStepForDxPseudoRule(srcs, outputPath, dxOptions));
+      steps.add(createDxStepForDxPseudoRule(srcs, outputPath, dxOptions, dxThreads));
       steps.add(new WriteFileStep(newInputsHash, outputHashPath));
 
       // Use a composite step to ensure that runDxSteps can still make use of
@@ -323,14 +346,15 @@ public class SmartDexingStep implements Step {
    */
   static Step createDxStepForDxPseudoRule(Collection<Path> filesToDex,
       Path outputPath,
-      EnumSet<Option> dxOptions) {
+      EnumSet<Option> dxOptions,
+      int dxThreads) {
 
     String output = outputPath.toString();
 
     if (DexStore.XZ.matchesPath(outputPath)) {
       List<Step> steps = Lists.newArrayList();
       Path tempDexJarOutput = Paths.get(output.replaceAll("\\.jar\\.xz$", ".tmp.jar"));
-      steps.add(new DxStep(tempDexJarOutput, filesToDex, dxOptions));
+      steps.add(new DxStep(tempDexJarOutput, filesToDex, dxOptions, dxThreads));
       // We need to make sure classes.dex is STOREd in the .dex.jar file, otherwise .XZ
       // compression won't be effective.
       Path repackedJar = Paths.get(output.replaceAll("\\.xz$", ""));
@@ -344,7 +368,7 @@ public class SmartDexingStep implements Step {
       return new CompositeStep(steps);
     } else if (DexStore.JAR.matchesPath(outputPath) || DexStore.RAW.matchesPath(outputPath) ||
         output.endsWith("classes.dex")) {
-      return new DxStep(outputPath, filesToDex, dxOptions);
+      return new DxStep(outputPath, filesToDex, dxOptions, dxThreads);
     } else {
       throw new IllegalArgumentException(String.format(
           "Suffix of %s does not have a corresponding DexStore type.",
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.ConsoleEvent;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildFileTree;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.InMemoryBuildFileTree;
+import com.facebook.buck.rules.ActionGraph;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Predicates;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Deque;
+import java.util.Set;
+
+/**
+ * Finds the rules in an {@link ActionGraph} that may be affected by a set of changed files: the
+ * rules that own one of the files, and everything that transitively depends on them.
+ */
+class AffectedRulesFinder {
+
+  private static final Logger LOG = Logger.get(AffectedRulesFinder.class);
+
+  /** Files that configure every build, so a change to one of them may affect any rule. */
+  private static final ImmutableSet<Path> CONFIG_FILES = ImmutableSet.of(
+      Paths.get(BuckConfig.DEFAULT_BUCK_CONFIG_FILE_NAME),
+      Paths.get(BuckConfig.DEFAULT_BUCK_CONFIG_OVERRIDE_FILE_NAME));
+
+  private AffectedRulesFinder() {
+    // Utility class.
+  }
+
+  /**
+   * A rule owns a changed file if the file is one of its inputs, its build file, or a file that its
+   * build file includes. A file that no longer exists cannot be an input of any rule, so it is
+   * assumed to affect every rule in the nearest enclosing build file instead.
+   * <p>
+   * A change to {@code .buckconfig} may affect any rule in ways that cannot be traced, so every
+   * rule in the graph is returned, and the files responsible are reported on {@code eventBus}.
+   * Other existing files that no rule owns, such as files that a {@code genrule()} reads without
+   * listing them in its {@code srcs}, affect nothing.
+   *
+   * @param buildFilesByIncludedFile map from the absolute paths of included files, such as the
+   *     targets of {@code include_defs()}, to the absolute paths of the build files including them.
+   * @param changedPaths paths relative to the project root.
+   */
+  static ImmutableSet<BuildRule> findAffectedRules(
+      ActionGraph graph,
+      ProjectFilesystem projectFilesystem,
+      Multimap<Path, Path> buildFilesByIncludedFile,
+      Set<Path> changedPaths,
+      BuckEventBus eventBus) {
+    ImmutableSortedSet<Path> changedConfigFiles = FluentIterable.from(changedPaths)
+        .filter(Predicates.in(CONFIG_FILES))
+        .toSortedSet(Ordering.natural());
+    if (!changedConfigFiles.isEmpty()) {
+      String paths = Joiner.on(", ").join(changedConfigFiles);
+      LOG.info("Treating every rule as affected because of changes to %s.", paths);
+      eventBus.post(ConsoleEvent.warning(
+          "Running all tests because changes to %s cannot be traced to rules.",
+          paths));
+      return ImmutableSet.copyOf(graph.getNodes());
+    }
+
+    // Changing a build file, or a file that it includes, affects every rule in the build file.
+    Set<Path> deletedPaths = Sets.newHashSet();
+    Set<Path> changedBuildFiles = Sets.newHashSet();
+    for (Path changedPath : changedPaths) {
+      if (!projectFilesystem.exists(changedPath)) {
+        deletedPaths.add(changedPath);
+        continue;
+      }
+      Path absolutePath = projectFilesystem.resolve(changedPath);
+      for (Path buildFile : buildFilesByIncludedFile.get(absolutePath)) {
+        changedBuildFiles.add(projectFilesystem.getRootPath().relativize(buildFile));
+      }
+      if (changedPath.getFileName().toString().equals(BuckConstant.BUILD_RULES_FILE_NAME)) {
+        changedBuildFiles.add(changedPath);
+      }
+    }
+
+    Set<Path> basePathsOfDeletedPaths = Sets.newHashSet();
+    if (!deletedPaths.isEmpty()) {
+      BuildFileTree tree = new InMemoryBuildFileTree(
+          FluentIterable.from(graph.getNodes())
+              .transform(new Function<BuildRule, BuildTarget>() {
+                @Override
+                public BuildTarget apply(BuildRule rule) {
+                  return rule.getBuildTarget();
+                }
+              })
+              .toSet());
+      for (Path deletedPath : deletedPaths) {
+        basePathsOfDeletedPaths.add(tree.getBasePathOfAncestorTarget(deletedPath));
+      }
+    }
+
+    // Start from the owners of the changed files...
+    Set<BuildRule> affectedRules = Sets.newHashSet();
+    Deque<BuildRule> toVisit = Lists.newLinkedList();
+    for (BuildRule rule : graph.getNodes()) {
+      BuildTarget target = rule.getBuildTarget();
+      if (changedBuildFiles.contains(target.getBuildFilePath()) ||
+          basePathsOfDeletedPaths.contains(target.getBasePath()) ||
+          Iterables.any(rule.getInputs(), Predicates.in(changedPaths))) {
+        affectedRules.add(rule);
+        toVisit.add(rule);
+      }
+    }
+
+    // ...and walk the reverse dependency edges to everything that depends on them.
+    while (!toVisit.isEmpty()) {
+      for (BuildRule dependent : graph.getIncomingNodesFor(toVisit.remove())) {
+        if (affectedRules.add(dependent)) {
+          toVisit.add(dependent);
+        }
+      }
+    }
+
+    return ImmutableSet.copyOf(affectedRules);
+  }
+}
@@ -80,8 +80,8 @@ import javax.annotation.concurrent.Immutable;
 @Immutable
 public class BuckConfig {
 
-  private static final String DEFAULT_BUCK_CONFIG_FILE_NAME = ".buckconfig";
-  private static final String DEFAULT_BUCK_CONFIG_OVERRIDE_FILE_NAME = ".buckconfig.local";
+  static final String DEFAULT_BUCK_CONFIG_FILE_NAME = ".buckconfig";
+  static final String DEFAULT_BUCK_CONFIG_OVERRIDE_FILE_NAME = ".buckconfig.local";
 
   private static final String ALIAS_SECTION_HEADER = "alias";
 
@@ -103,6 +103,7 @@ public class BuckConfig {
   private static final String DEFAULT_HTTP_CACHE_PORT = "8080";
   private static final String DEFAULT_HTTP_CACHE_TIMEOUT_SECONDS = "10";
   private static final String DEFAULT_MAX_TRACES = "25";
+  private static final String DEFAULT_MAX_BUILD_STATS = "500";
 
   // Prefer "python2" where available (Linux), but fall back to "python" (Mac).
   private static final ImmutableList<String> PYTHON_INTERPRETER_NAMES =
@@ -479,6 +480,22 @@ public class BuckConfig {
     return Long.parseLong(getValue("test", "timeout").or("0"));
   }
 
+  /**
+   * @return how many test rules a JVM may run before it is replaced. 0, the default, runs each test
+   *     rule in a JVM of its own.
+   */
+  public int getTestJvmPoolMaxRuns() {
+    return Integer.parseInt(getValue("test", "jvm_pool_max_runs").or("0"));
+  }
+
+  /**
+   * @return how many JVMs the test classes of a single test rule may be split across. 1, the
+   *     default, runs all of a rule's test classes in one JVM.
+   */
+  public int getTestShardsPerRule() {
+    return Integer.parseInt(getValue("test", "shards_per_rule").or("1"));
+  }
+
   public boolean isTreatingAssumptionsAsErrors() {
     return getBooleanValue("test", "assumptions-are-errors", false);
   }
@@ -487,6 +504,14 @@ public class BuckConfig {
     return Integer.parseInt(getValue("log", "max_traces").or(DEFAULT_MAX_TRACES));
   }
 
+  public int getMaxBuildStats() {
+    return Integer.parseInt(getValue("log", "max_build_stats").or(DEFAULT_MAX_BUILD_STATS));
+  }
+
+  public boolean getStreamTraces() {
+    return getBooleanValue("log", "stream_traces", false);
+  }
+
   public boolean getRestartAdbOnFailure() {
     return Boolean.parseBoolean(getValue("adb", "adb_restart_on_failure").or("true"));
   }
@@ -183,16 +183,32 @@ public class BuildCommand extends AbstractCommandRunner<BuildCommandOptions> {
     }
   }
 
-  @SuppressWarnings("PMD.EmptyCatchBlock")
   static int executeBuildAndPrintAnyFailuresToConsole(
       Iterable<? extends HasBuildTarget> buildTargetsToBuild,
       Build build,
       Console console) throws InterruptedException {
-    final ActionGraph actionGraph = build.getActionGraph();
+    Set<BuildRule> rulesToBuild = getRulesToBuild(buildTargetsToBuild, build.getActionGraph());
+
+    try {
+      // Get the Future representing the build and then block until everything is built.
+      ListenableFuture<List<BuildRuleSuccess>> buildFuture = build.executeBuild(rulesToBuild);
+      return waitForBuildAndPrintAnyFailuresToConsole(buildFuture, console);
+    } catch (IOException e) {
+      console.printBuildFailureWithoutStacktrace(e);
+      return 1;
+    } catch (StepFailedException e) {
+      console.printBuildFailureWithoutStacktrace(e);
+      return e.getExitCode();
+    }
+  }
+
+  static ImmutableSet<BuildRule> getRulesToBuild(
+      Iterable<? extends HasBuildTarget> buildTargetsToBuild,
+      final ActionGraph actionGraph) {
     // It is important to use this logic to determine the set of rules to build rather than
     // build.getActionGraph().getNodesWithNoIncomingEdges() because, due to graph enhancement,
     // there could be disconnected subgraphs in the DependencyGraph that we do not want to build.
-    Set<BuildRule> rulesToBuild = FluentIterable
+    return FluentIterable
         .from(buildTargetsToBuild)
         .transform(new Function<HasBuildTarget, BuildRule>() {
           @Override
@@ -201,11 +217,19 @@ public class BuildCommand extends AbstractCommandRunner<BuildCommandOptions> {
           }
         })
         .toSet();
+  }
 
+  /**
+   * Blocks until the build represented by {@code buildFuture} finishes, printing any failure to
+   * the console.
+   * @return the exit code of the build.
+   */
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  static int waitForBuildAndPrintAnyFailuresToConsole(
+      ListenableFuture<List<BuildRuleSuccess>> buildFuture,
+      Console console) throws InterruptedException {
     int exitCode;
     try {
-      // Get the Future representing the build and then block until everything is built.
-      ListenableFuture<List<BuildRuleSuccess>> buildFuture = build.executeBuild(rulesToBuild);
       try {
         buildFuture.get();
       } catch (InterruptedException e) {
@@ -218,12 +242,6 @@ public class BuildCommand extends AbstractCommandRunner<BuildCommandOptions> {
         throw e;
       }
       exitCode = 0;
-    } catch (IOException e) {
-      console.printBuildFailureWithoutStacktrace(e);
-      exitCode = 1;
-    } catch (StepFailedException e) {
-      console.printBuildFailureWithoutStacktrace(e);
-      exitCode = e.getExitCode();
     } catch (ExecutionException e) {
       // This is likely a checked exception that was caught while building a build rule.
       Throwable cause = e.getCause();
@@ -59,6 +59,10 @@ public enum Command {
       "runs a target as a command",
       RunCommand.class,
       false),
+  STATS(
+      "reports where time went in recent builds",
+      StatsCommand.class,
+      true),
   TARGETS(
       "prints the list of buildable targets",
       TargetsCommand.class,
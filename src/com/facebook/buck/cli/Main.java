@@ -20,12 +20,17 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.listener.AbstractConsoleEventBusListener;
+import com.facebook.buck.event.listener.BuildStatsListener;
+import com.facebook.buck.event.listener.BuildStatsReport;
+import com.facebook.buck.event.listener.BuildStatsStore;
 import com.facebook.buck.event.listener.ChromeTraceBuildListener;
 import com.facebook.buck.event.listener.JavaUtilsLoggingBuildListener;
 import com.facebook.buck.event.listener.LoggingBuildListener;
 import com.facebook.buck.event.listener.SimpleConsoleEventBusListener;
 import com.facebook.buck.event.listener.SuperConsoleEventBusListener;
 import com.facebook.buck.httpserver.WebServer;
+import com.facebook.buck.java.ClasspathJarCache;
+import com.facebook.buck.java.JavaSymbolIndex;
 import com.facebook.buck.log.CommandThreadAssociation;
 import com.facebook.buck.log.LogConfig;
 import com.facebook.buck.log.Logger;
@@ -115,6 +120,9 @@ public final class Main {
   private static final TimeSpan SUPER_CONSOLE_REFRESH_RATE =
       new TimeSpan(100, TimeUnit.MILLISECONDS);
 
+  /** Number of earlier builds whose rule durations are used to estimate build times. */
+  private static final int BUILDS_FOR_ESTIMATES = 5;
+
   /**
    * Path to a directory of static content that should be served by the {@link WebServer}.
    */
@@ -174,6 +182,12 @@ public final class Main {
       this.filesystemWatcher = createWatcher(repository.getFilesystem());
       fileEventBus.register(parser);
       fileEventBus.register(hashCache);
+      fileEventBus.register(new ClasspathJarCache.FileChangeListener(
+          ClasspathJarCache.getInstance(),
+          repository.getFilesystem()));
+      fileEventBus.register(new JavaSymbolIndex.FileChangeListener(
+          JavaSymbolIndex.getInstance(),
+          repository.getFilesystem()));
       webServer = createWebServer(repository.getBuckConfig(), repository.getFilesystem());
       JavaUtilsLoggingBuildListener.ensureLogFileIsWritten(repository.getFilesystem());
     }
@@ -534,6 +548,7 @@ public final class Main {
                  console,
                  verbosity,
                  executionEnvironment,
+                 rootRepository.getFilesystem(),
                  rootRepository.getBuckConfig());
          BuckEventBus buildEventBus = new BuckEventBus(clock, buildId)) {
 
@@ -750,7 +765,14 @@ public final class Main {
     ImmutableList.Builder<BuckEventListener> eventListenersBuilder =
         ImmutableList.<BuckEventListener>builder()
             .add(new JavaUtilsLoggingBuildListener())
-            .add(new ChromeTraceBuildListener(projectFilesystem, config.getMaxTraces()))
+            .add(new ChromeTraceBuildListener(
+                projectFilesystem,
+                config.getMaxTraces(),
+                config.getStreamTraces()
+                    ? Optional.of(buckEvents.getBuildId())
+                    : Optional.<BuildId>absent()))
+            .add(new BuildStatsListener(
+                new BuildStatsStore(projectFilesystem, config.getMaxBuildStats())))
             .add(consoleEventBusListener)
             .add(new LoggingBuildListener());
 
@@ -788,15 +810,20 @@ public final class Main {
       Console console,
       Verbosity verbosity,
       ExecutionEnvironment executionEnvironment,
+      ProjectFilesystem projectFilesystem,
       BuckConfig config) {
     if (console.getAnsi().isAnsiTerminal() &&
         !verbosity.shouldPrintCommand() &&
         verbosity.shouldPrintStandardInformation()) {
+      BuildStatsStore buildStatsStore =
+          new BuildStatsStore(projectFilesystem, config.getMaxBuildStats());
       SuperConsoleEventBusListener superConsole = new SuperConsoleEventBusListener(
           console,
           clock,
           executionEnvironment,
-          config.isTreatingAssumptionsAsErrors());
+          config.isTreatingAssumptionsAsErrors(),
+          new BuildStatsReport(buildStatsStore.readLatest(BUILDS_FOR_ESTIMATES))
+              .getAverageDurationsMillis());
       superConsole.startRenderScheduler(SUPER_CONSOLE_REFRESH_RATE.getDuration(),
           SUPER_CONSOLE_REFRESH_RATE.getUnit());
       return superConsole;
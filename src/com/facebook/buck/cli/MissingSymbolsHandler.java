@@ -20,6 +20,7 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.event.MissingSymbolEvent;
 import com.facebook.buck.java.JavaSymbolFinder;
+import com.facebook.buck.java.JavaSymbolIndex;
 import com.facebook.buck.java.SrcRootsFinder;
 import com.facebook.buck.json.DefaultProjectBuildFileParserFactory;
 import com.facebook.buck.json.ProjectBuildFileParserFactory;
@@ -69,6 +70,7 @@ public class MissingSymbolsHandler {
     JavaSymbolFinder javaSymbolFinder = new JavaSymbolFinder(
         projectFilesystem,
         srcRootsFinder,
+        JavaSymbolIndex.getInstance(),
         projectBuildFileParserFactory,
         config,
         buckEventBus,
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.event.listener.BuildStats;
+import com.facebook.buck.event.listener.BuildStatsReport;
+import com.facebook.buck.event.listener.BuildStatsStore;
+import com.google.common.collect.ImmutableList;
+
+import java.io.PrintStream;
+
+/**
+ * Reports where build time went across the most recent builds, using the statistics that every
+ * build writes to {@link BuildStatsStore}.
+ */
+public class StatsCommand extends AbstractCommandRunner<StatsCommandOptions> {
+
+  protected StatsCommand(CommandRunnerParams params) {
+    super(params);
+  }
+
+  @Override
+  StatsCommandOptions createOptions(BuckConfig buckConfig) {
+    return new StatsCommandOptions(buckConfig);
+  }
+
+  @Override
+  int runCommandWithOptionsInternal(StatsCommandOptions options) {
+    if (options.getBuilds() <= 0 || options.getLimit() <= 0) {
+      console.printErrorText("--builds and --limit must be positive.");
+      return 1;
+    }
+
+    BuildStatsStore store = new BuildStatsStore(
+        getProjectFilesystem(),
+        options.getBuckConfig().getMaxBuildStats());
+    ImmutableList<BuildStats> builds = store.readLatest(options.getBuilds());
+    if (builds.isEmpty()) {
+      console.printErrorText("No build statistics found in " + BuildStatsStore.BUILD_STATS_DIR);
+      return 1;
+    }
+
+    printReport(new BuildStatsReport(builds), options.getLimit(), getStdOut());
+    return 0;
+  }
+
+  static void printReport(BuildStatsReport report, int limit, PrintStream out) {
+    ImmutableList<BuildStats> builds = report.getBuilds();
+    out.printf("Statistics for the last %d builds.\n", builds.size());
+
+    out.println();
+    out.println("Slowest rules (total / average / max ms, builds):");
+    for (BuildStatsReport.RuleSummary rule : report.getSlowestRules(limit)) {
+      out.printf("  %8d %8d %8d %4d  %s\n",
+          rule.getTotalMillis(),
+          rule.getAverageMillis(),
+          rule.getMaxMillis(),
+          rule.getBuilds(),
+          rule.getName());
+    }
+
+    out.println();
+    out.println("Most frequent cache misses (misses / builds):");
+    for (BuildStatsReport.RuleSummary rule : report.getMostMissedRules(limit)) {
+      out.printf("  %4d / %4d  %s\n", rule.getCacheMisses(), rule.getBuilds(), rule.getName());
+    }
+
+    out.println();
+    out.println("Most frequently changing rule keys (distinct keys / builds):");
+    for (BuildStatsReport.RuleSummary rule : report.getMostChangedRuleKeys(limit)) {
+      out.printf("  %4d / %4d  %s\n",
+          rule.getDistinctRuleKeys(),
+          rule.getBuilds(),
+          rule.getName());
+    }
+
+    out.println();
+    out.println("Critical paths (ms, build):");
+    for (BuildStats build : builds) {
+      ImmutableList<BuildStats.RuleStats> path = BuildStatsReport.getCriticalPath(build);
+      long totalMillis = 0;
+      for (BuildStats.RuleStats rule : path) {
+        totalMillis += rule.getDurationMillis();
+      }
+      out.printf("  %8d  buck %s (%s), %d rules on the critical path\n",
+          totalMillis,
+          build.getCommand(),
+          build.getBuildId(),
+          path.size());
+    }
+
+    BuildStats latest = builds.get(0);
+    out.println();
+    out.printf("Critical path of the most recent build (%s):\n", latest.getBuildId());
+    for (BuildStats.RuleStats rule : BuildStatsReport.getCriticalPath(latest)) {
+      out.printf("  %8d  %s (%s)\n",
+          rule.getDurationMillis(),
+          rule.getName(),
+          rule.getCacheResult());
+    }
+  }
+
+  @Override
+  String getUsageIntro() {
+    return "Reports the slowest rules, cache misses and critical paths of recent builds.";
+  }
+}
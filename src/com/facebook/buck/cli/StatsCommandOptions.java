@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import org.kohsuke.args4j.Option;
+
+/** Options for {@link StatsCommand}. */
+public class StatsCommandOptions extends AbstractCommandOptions {
+
+  @VisibleForTesting static final int DEFAULT_BUILDS = 20;
+  @VisibleForTesting static final int DEFAULT_LIMIT = 10;
+
+  StatsCommandOptions(BuckConfig buckConfig) {
+    super(buckConfig);
+  }
+
+  @Option(
+      name = "--builds",
+      aliases = { "-n" },
+      usage = "Number of most recent builds to aggregate. Defaults to " + DEFAULT_BUILDS + ".")
+  private int builds = DEFAULT_BUILDS;
+
+  @Option(
+      name = "--limit",
+      usage = "Number of rules to show in each section. Defaults to " + DEFAULT_LIMIT + ".")
+  private int limit = DEFAULT_LIMIT;
+
+  public int getBuilds() {
+    return builds;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+}
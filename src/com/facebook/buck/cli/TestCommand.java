@@ -36,6 +36,7 @@ import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleSuccess;
 import com.facebook.buck.rules.IndividualTestEvent;
+import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.TestRule;
 import com.facebook.buck.rules.TestRunEvent;
@@ -71,9 +72,13 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -121,6 +126,11 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     // If the user asked to run all of the tests, use a special method for that that is optimized to
     // parse all of the build files and traverse the action graph to find all of the tests to
     // run.
+    if (options.isPipelined() && !options.isRunAllTests()) {
+      console.printErrorText("--pipeline can only be used with --all.");
+      return 1;
+    }
+
     if (options.isRunAllTests()) {
       try {
         return runAllTests(options);
@@ -142,6 +152,7 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     Iterable<TestRule> results = getCandidateRules(build.getActionGraph());
 
     results = filterTestRules(options, results);
+    results = filterTestRulesAffectedByChangedFiles(options, build.getActionGraph(), results);
     if (options.isDryRun()) {
       printMatchingTestRules(console, results);
     }
@@ -308,6 +319,7 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
         });
 
     testRules = filterTestRules(options, testRules);
+    testRules = filterTestRulesAffectedByChangedFiles(options, graph, testRules);
     if (options.isDryRun()) {
       printMatchingTestRules(console, testRules);
     }
@@ -328,6 +340,10 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
         getCommandRunnerParams().getEnvironment(),
         getCommandRunnerParams().getObjectMapper())) {
 
+      if (options.isPipelined()) {
+        return runPipelinedBuildAndTests(testRules, build, options);
+      }
+
       // Build all of the test rules.
       int exitCode = BuildCommand.executeBuildAndPrintAnyFailuresToConsole(
           testRules, build, console);
@@ -422,6 +438,36 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     return builder.build();
   }
 
+  /**
+   * If {@code --changed-files} was given, drops the tests that do not depend, directly or
+   * transitively, on any of the changed files. If no files were given, no test is affected.
+   */
+  private Iterable<TestRule> filterTestRulesAffectedByChangedFiles(
+      TestCommandOptions options,
+      ActionGraph graph,
+      Iterable<TestRule> testRules) throws IOException {
+    Optional<ImmutableSortedSet<Path>> changedFiles =
+        options.getChangedFiles(getProjectFilesystem().getRootPath());
+    if (!changedFiles.isPresent()) {
+      return testRules;
+    }
+
+    final ImmutableSet<BuildRule> affectedRules = AffectedRulesFinder.findAffectedRules(
+        graph,
+        getProjectFilesystem(),
+        getParser().getBuildFilesByIncludedFile(),
+        changedFiles.get(),
+        getBuckEventBus());
+    return FluentIterable.from(testRules)
+        .filter(new Predicate<TestRule>() {
+          @Override
+          public boolean apply(TestRule testRule) {
+            return affectedRules.contains(testRule);
+          }
+        })
+        .toList();
+  }
+
   private int runTestsAndShutdownExecutor(
       Iterable<TestRule> tests,
       BuildContext buildContext,
@@ -431,17 +477,53 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
 
     try (DefaultStepRunner stepRunner =
             new DefaultStepRunner(executionContext, options.getNumThreads())) {
-      return runTests(tests, buildContext, executionContext, stepRunner, options);
+      return runTests(tests,
+          buildContext,
+          executionContext,
+          stepRunner,
+          options,
+          Optional.<ListenableFuture<List<BuildRuleSuccess>>>absent());
     }
   }
 
+  /**
+   * Builds the given tests and runs each one as soon as it and its deps have been built, rather
+   * than waiting for every test to be built first. The tests run on the {@link StepRunner} of the
+   * {@link Build}, so building and testing share the same executor and thread limit.
+   */
+  private int runPipelinedBuildAndTests(
+      Iterable<TestRule> tests,
+      Build build,
+      TestCommandOptions options)
+      throws IOException, ExecutionException, InterruptedException {
+    ListenableFuture<List<BuildRuleSuccess>> buildFuture;
+    try {
+      buildFuture = build.executeBuild(
+          BuildCommand.getRulesToBuild(tests, build.getActionGraph()));
+    } catch (StepFailedException e) {
+      console.printBuildFailureWithoutStacktrace(e);
+      getBuckEventBus().post(
+          BuildEvent.finished(ImmutableSet.<BuildTarget>of(), e.getExitCode()));
+      return e.getExitCode();
+    }
+
+    BuildContext buildContext = build.getBuildContext();
+    return runTests(tests,
+        buildContext,
+        build.getExecutionContext(),
+        buildContext.getStepRunner(),
+        options,
+        Optional.of(buildFuture));
+  }
+
   @SuppressWarnings("PMD.EmptyCatchBlock")
   private int runTests(
       Iterable<TestRule> tests,
-      BuildContext buildContext,
-      ExecutionContext executionContext,
-      StepRunner stepRunner,
-      final TestCommandOptions options)
+      final BuildContext buildContext,
+      final ExecutionContext executionContext,
+      final StepRunner stepRunner,
+      final TestCommandOptions options,
+      Optional<ListenableFuture<List<BuildRuleSuccess>>> pipelinedBuild)
       throws IOException, ExecutionException, InterruptedException {
 
     if (options.isUsingOneTimeOutputDirectories()) {
@@ -482,61 +564,78 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     final boolean printTestResults = (verbosity != Verbosity.SILENT);
 
     // For grouping results!
-    TestResultsGrouper grouper = null;
+    final TestResultsGrouper grouper;
     if (options.isIgnoreFailingDependencies()) {
       grouper = new TestResultsGrouper(tests);
+    } else {
+      grouper = null;
     }
 
-    TestRuleKeyFileHelper testRuleKeyFileHelper = new TestRuleKeyFileHelper(
+    final TestRuleKeyFileHelper testRuleKeyFileHelper = new TestRuleKeyFileHelper(
         executionContext.getProjectFilesystem(),
         getBuildEngine());
-    for (TestRule test : tests) {
-      // Determine whether the test needs to be executed.
-      boolean isTestRunRequired;
-      isTestRunRequired = isTestRunRequiredForTest(
-          test,
+    final Optional<TestResultCache> testResultCache;
+    if (options.isArtifactCacheResultsEnabled()) {
+      testResultCache = Optional.of(new TestResultCache(
+          executionContext.getProjectFilesystem(),
           getBuildEngine(),
-          executionContext,
-          testRuleKeyFileHelper,
-          options.isResultsCacheEnabled(),
-          !options.getTestSelectorList().isEmpty());
-
-
-      List<Step> steps;
-      if (isTestRunRequired) {
-        getBuckEventBus().post(IndividualTestEvent.started(
-            options.getArgumentsFormattedAsBuildTargets()));
-        ImmutableList.Builder<Step> stepsBuilder = ImmutableList.builder();
-        BuildEngine cachingBuildEngine = getBuildEngine();
-        Preconditions.checkState(cachingBuildEngine.isRuleBuilt(test.getBuildTarget()));
-        List<Step> testSteps = test.runTests(
+          buildContext.getArtifactCache()));
+    } else {
+      testResultCache = Optional.absent();
+    }
+    if (pipelinedBuild.isPresent()) {
+      results.addAll(runTestsAsTheyAreBuilt(
+          tests,
+          getBuildEngine(),
+          buildContext,
+          stepRunner.getListeningExecutorService(),
+          new AsyncFunction<TestRule, TestResults>() {
+            @Override
+            public ListenableFuture<TestResults> apply(TestRule test)
+                throws IOException, ExecutionException, InterruptedException {
+              return runTest(
+                  test,
+                  buildContext,
+                  executionContext,
+                  stepRunner,
+                  testRuleKeyFileHelper,
+                  testResultCache,
+                  grouper,
+                  options,
+                  printTestResults);
+            }
+          }));
+    } else {
+      for (TestRule test : tests) {
+        results.add(runTest(
+            test,
             buildContext,
             executionContext,
-            options.isDryRun(),
-            options.getTestSelectorList());
-        if (!testSteps.isEmpty()) {
-          stepsBuilder.addAll(testSteps);
-          stepsBuilder.add(testRuleKeyFileHelper.createRuleKeyInDirStep(test));
-        }
-        steps = stepsBuilder.build();
-      } else {
-        steps = ImmutableList.of();
+            stepRunner,
+            testRuleKeyFileHelper,
+            testResultCache,
+            grouper,
+            options,
+            printTestResults));
       }
+    }
 
-      // Always run the commands, even if the list of commands as empty. There may be zero commands
-      // because the rule is cached, but its results must still be processed.
-      ListenableFuture<TestResults> testResults =
-          stepRunner.runStepsAndYieldResult(steps,
-              getCachingStatusTransformingCallable(
-                  isTestRunRequired,
-                  test.interpretTestResults(executionContext,
-                      /*isUsingTestSelectors*/ !options.getTestSelectorList().isEmpty(),
-                      /*isDryRun*/ options.isDryRun())),
-              test.getBuildTarget());
-      FutureCallback<TestResults> onTestFinishedCallback =
-          getFutureCallback(grouper, test, options, printTestResults);
-      Futures.addCallback(testResults, onTestFinishedCallback);
-      results.add(testResults);
+    if (pipelinedBuild.isPresent()) {
+      // Report any build failure before waiting on the tests, as the tests of rules that failed to
+      // build will never run.
+      int exitCode = BuildCommand.waitForBuildAndPrintAnyFailuresToConsole(
+          pipelinedBuild.get(),
+          console);
+      getBuckEventBus().post(BuildEvent.finished(ImmutableSet.<BuildTarget>of(), exitCode));
+      if (exitCode != 0) {
+        // Tests whose rules were built may be running. Interrupt them, rather than reporting
+        // results for only some of the tests. This cancels only the test runs, not the builds of
+        // their rules. Closing the Build then waits for them to stop.
+        for (ListenableFuture<TestResults> testResults : results) {
+          testResults.cancel(/* mayInterruptIfRunning */ true);
+        }
+        return exitCode;
+      }
     }
 
     // Block until all the tests have finished running.
@@ -596,6 +695,162 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     return failures ? TEST_FAILURES_EXIT_CODE : 0;
   }
 
+  /**
+   * Runs each test with {@code runTest} as soon as the build engine has built it and its deps,
+   * whether or not the rest of the build has finished. The build engine hands back the future that
+   * the build is already waiting on, so this does not build anything a second time.
+   * <p>
+   * {@code runTest} is called on {@code executor}, not on the build engine thread that finished
+   * the rule, as it may block, such as to fetch the test's results from the artifact cache.
+   * Cancelling one of the returned futures interrupts the test, or stops it from starting, but
+   * leaves the build of its rule alone, since other rules may be waiting on it.
+   */
+  @VisibleForTesting
+  static ImmutableList<ListenableFuture<TestResults>> runTestsAsTheyAreBuilt(
+      Iterable<? extends TestRule> tests,
+      BuildEngine buildEngine,
+      BuildContext buildContext,
+      ListeningExecutorService executor,
+      final AsyncFunction<TestRule, TestResults> runTest) {
+    ImmutableList.Builder<ListenableFuture<TestResults>> results = ImmutableList.builder();
+    for (final TestRule test : tests) {
+      final SettableFuture<TestResults> result = SettableFuture.create();
+      Futures.addCallback(
+          buildEngine.build(
+              buildContext,
+              buildContext.getActionGraph().findBuildRuleByTarget(test.getBuildTarget())),
+          new FutureCallback<BuildRuleSuccess>() {
+            @Override
+            public void onSuccess(BuildRuleSuccess success) {
+              if (result.isCancelled()) {
+                return;
+              }
+              final ListenableFuture<TestResults> testRun;
+              try {
+                testRun = runTest.apply(test);
+              } catch (Exception e) {
+                result.setException(e);
+                return;
+              }
+              result.addListener(new Runnable() {
+                @Override
+                public void run() {
+                  if (result.isCancelled()) {
+                    testRun.cancel(/* mayInterruptIfRunning */ true);
+                  }
+                }
+              }, MoreExecutors.sameThreadExecutor());
+              Futures.addCallback(testRun, new FutureCallback<TestResults>() {
+                @Override
+                public void onSuccess(TestResults testResults) {
+                  result.set(testResults);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                  if (testRun.isCancelled()) {
+                    result.cancel(/* mayInterruptIfRunning */ false);
+                  } else {
+                    result.setException(t);
+                  }
+                }
+              });
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              result.setException(t);
+            }
+          },
+          executor);
+      results.add(result);
+    }
+    return results.build();
+  }
+
+  /**
+   * Schedules the steps of a single, already built, test on {@code stepRunner}.
+   */
+  private ListenableFuture<TestResults> runTest(
+      TestRule test,
+      BuildContext buildContext,
+      ExecutionContext executionContext,
+      StepRunner stepRunner,
+      TestRuleKeyFileHelper testRuleKeyFileHelper,
+      Optional<TestResultCache> testResultCache,
+      @Nullable TestResultsGrouper grouper,
+      TestCommandOptions options,
+      boolean printTestResults)
+      throws IOException, ExecutionException, InterruptedException {
+    // Determine whether the test needs to be executed.
+    boolean isTestRunRequired;
+    isTestRunRequired = isTestRunRequiredForTest(
+        test,
+        getBuildEngine(),
+        executionContext,
+        testRuleKeyFileHelper,
+        options.isResultsCacheEnabled(),
+        !options.getTestSelectorList().isEmpty());
+
+    // Before running the test, see whether it has already passed on another machine.
+    Optional<RuleKey> testResultCacheKey = Optional.absent();
+    if (isTestRunRequired &&
+        testResultCache.isPresent() &&
+        !executionContext.isDebugEnabled() &&
+        !options.isDryRun()) {
+      RuleKey cacheKey = testResultCache.get().getCacheKey(
+          test,
+          executionContext,
+          options.getTestSelectorList());
+      if (testResultCache.get().fetch(test, cacheKey)) {
+        isTestRunRequired = false;
+      } else {
+        testResultCacheKey = Optional.of(cacheKey);
+      }
+    }
+
+    List<Step> steps;
+    if (isTestRunRequired) {
+      getBuckEventBus().post(IndividualTestEvent.started(
+          options.getArgumentsFormattedAsBuildTargets()));
+      ImmutableList.Builder<Step> stepsBuilder = ImmutableList.builder();
+      BuildEngine cachingBuildEngine = getBuildEngine();
+      Preconditions.checkState(cachingBuildEngine.isRuleBuilt(test.getBuildTarget()));
+      List<Step> testSteps = test.runTests(
+          buildContext,
+          executionContext,
+          options.isDryRun(),
+          options.getTestSelectorList());
+      if (!testSteps.isEmpty()) {
+        stepsBuilder.addAll(testSteps);
+        stepsBuilder.add(testRuleKeyFileHelper.createRuleKeyInDirStep(test));
+      }
+      steps = stepsBuilder.build();
+    } else {
+      steps = ImmutableList.of();
+    }
+
+    // Always run the commands, even if the list of commands as empty. There may be zero commands
+    // because the rule is cached, but its results must still be processed.
+    Callable<TestResults> interpretTestResults = test.interpretTestResults(executionContext,
+        /*isUsingTestSelectors*/ !options.getTestSelectorList().isEmpty(),
+        /*isDryRun*/ options.isDryRun());
+    if (testResultCacheKey.isPresent() && !steps.isEmpty()) {
+      interpretTestResults = testResultCache.get().storingPassingResults(
+          test,
+          testResultCacheKey.get(),
+          interpretTestResults);
+    }
+    ListenableFuture<TestResults> testResults =
+        stepRunner.runStepsAndYieldResult(steps,
+            getCachingStatusTransformingCallable(isTestRunRequired, interpretTestResults),
+            test.getBuildTarget());
+    FutureCallback<TestResults> onTestFinishedCallback =
+        getFutureCallback(grouper, test, options, printTestResults);
+    Futures.addCallback(testResults, onTestFinishedCallback);
+    return testResults;
+  }
+
   private FutureCallback<TestResults> getFutureCallback(
       @Nullable final TestResultsGrouper grouper,
       final TestRule testRule,
@@ -21,10 +21,16 @@ import com.facebook.buck.java.DefaultJavaPackageFinder;
 import com.facebook.buck.rules.Label;
 import com.facebook.buck.step.TargetDevice;
 import com.facebook.buck.test.selectors.TestSelectorList;
+import com.facebook.buck.util.MorePaths;
 import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 
 import org.kohsuke.args4j.Option;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Set;
 
 import javax.annotation.Nullable;
@@ -32,6 +38,7 @@ import javax.annotation.Nullable;
 public class TestCommandOptions extends BuildCommandOptions {
 
   public static final String USE_RESULTS_CACHE = "use_results_cache";
+  public static final String ARTIFACT_CACHE_RESULTS = "artifact_cache_results";
 
   @Option(name = "--all",
           usage =
@@ -81,6 +88,22 @@ public class TestCommandOptions extends BuildCommandOptions {
           "WARNING: this is experimental, and only works for Java tests!")
   private boolean isUsingOneTimeOutput;
 
+  @Option(
+      name = "--pipeline",
+      usage =
+          "Start running each test as soon as it and its dependencies are built, rather than " +
+          "waiting for every test to be built first. Requires --all.")
+  private boolean isPipelined;
+
+  @Option(
+      name = "--changed-files",
+      usage =
+          "Only run the tests that depend, directly or transitively, on one of these files, " +
+          "--changed-files file1 file2 ... fileN --other_option",
+      handler = StringSetOptionHandler.class)
+  @Nullable
+  private Supplier<ImmutableSet<String>> changedFiles;
+
   @AdditionalOptions
   private TargetDeviceOptions targetDeviceOptions;
 
@@ -129,6 +152,15 @@ public class TestCommandOptions extends BuildCommandOptions {
     return !isResultsCacheDisabled;
   }
 
+  /**
+   * @return whether the results of passing tests should be shared with other machines through the
+   *     artifact cache. Like the local results cache, {@code --no-results-cache} turns this off.
+   */
+  public boolean isArtifactCacheResultsEnabled() {
+    return isResultsCacheEnabled() &&
+        getBuckConfig().getBooleanValue("test", ARTIFACT_CACHE_RESULTS, false);
+  }
+
   @Override
   public boolean isDebugEnabled() {
     return isDebugEnabled;
@@ -158,6 +190,24 @@ public class TestCommandOptions extends BuildCommandOptions {
     return isDryRun;
   }
 
+  public boolean isPipelined() {
+    return isPipelined;
+  }
+
+  /**
+   * @return the files given to {@code --changed-files} that are under the project root, relative
+   *     to it, or absent if tests should not be limited to those affected by changed files. An
+   *     empty set means that no test is affected.
+   */
+  public Optional<ImmutableSortedSet<Path>> getChangedFiles(Path projectRoot) throws IOException {
+    // The option handler rejects an empty list, so an empty set means the option was not given.
+    if (changedFiles == null || changedFiles.get().isEmpty()) {
+      return Optional.absent();
+    }
+    return Optional.of(MorePaths.asPaths(
+        TargetsCommandOptions.getCanonicalFilesUnderProjectRoot(projectRoot, changedFiles.get())));
+  }
+
   public boolean isMatchedByLabelOptions(Set<Label> labels) {
     return testLabelOptions.isMatchedByLabelOptions(getBuckConfig(), labels);
   }
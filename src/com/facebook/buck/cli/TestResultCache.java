@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.ArtifactCache;
+import com.facebook.buck.rules.BuildEngine;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.TestRule;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TargetDevice;
+import com.facebook.buck.test.TestResults;
+import com.facebook.buck.test.selectors.TestSelectorList;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.facebook.buck.zip.CustomZipEntry;
+import com.facebook.buck.zip.CustomZipOutputStream;
+import com.facebook.buck.zip.Unzip;
+import com.facebook.buck.zip.ZipOutputStreams;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Shares the results of passing tests between machines through the {@link ArtifactCache}, so that
+ * a test that has already passed somewhere at the same {@link RuleKey} does not have to run again.
+ * <p>
+ * The contents of a test's output directory are stored as a zip keyed by the test's rule key, the
+ * test selectors and the environment the test ran in. Fetching the zip restores the directory,
+ * including the {@code .rulekey} file written by {@link TestRuleKeyFileHelper}, so the fetched
+ * results are read exactly as if the test had run locally.
+ */
+public class TestResultCache {
+
+  private static final Logger LOG = Logger.get(TestResultCache.class);
+
+  private final ProjectFilesystem projectFilesystem;
+  private final BuildEngine buildEngine;
+  private final ArtifactCache artifactCache;
+
+  public TestResultCache(
+      ProjectFilesystem projectFilesystem,
+      BuildEngine buildEngine,
+      ArtifactCache artifactCache) {
+    this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
+    this.buildEngine = Preconditions.checkNotNull(buildEngine);
+    this.artifactCache = Preconditions.checkNotNull(artifactCache);
+  }
+
+  /**
+   * @return the key under which the results of {@code testRule} are cached. Anything that may
+   *     change the outcome of a test without changing its rule key must be part of it.
+   */
+  public RuleKey getCacheKey(
+      TestRule testRule,
+      ExecutionContext executionContext,
+      TestSelectorList testSelectorList) {
+    RuleKey ruleKey = Preconditions.checkNotNull(
+        buildEngine.getRuleKey(testRule.getBuildTarget()));
+    Hasher hasher = Hashing.sha1().newHasher()
+        .putString("test_results", Charsets.UTF_8)
+        .putString(ruleKey.toString(), Charsets.UTF_8)
+        .putString(System.getProperty("os.name"), Charsets.UTF_8)
+        .putString(System.getProperty("os.arch"), Charsets.UTF_8)
+        .putString(System.getProperty("java.version"), Charsets.UTF_8)
+        .putLong(executionContext.getDefaultTestTimeoutMillis());
+    for (String rawSelector : testSelectorList.getRawSelectors()) {
+      hasher.putString(rawSelector, Charsets.UTF_8);
+    }
+    Optional<TargetDevice> targetDevice = executionContext.getTargetDeviceOptional();
+    if (targetDevice.isPresent()) {
+      hasher.putBoolean(targetDevice.get().isEmulator());
+      if (targetDevice.get().hasIdentifier()) {
+        hasher.putString(targetDevice.get().getIdentifier(), Charsets.UTF_8);
+      }
+    }
+    return new RuleKey(hasher.hash().toString());
+  }
+
+  /**
+   * Replaces the output directory of {@code testRule} with the results cached under
+   * {@code cacheKey}, if there are any.
+   * @return whether cached results were found.
+   */
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  public boolean fetch(TestRule testRule, RuleKey cacheKey) throws InterruptedException {
+    Path outputDirectory = testRule.getPathToTestOutputDirectory();
+    File zip = null;
+    try {
+      zip = File.createTempFile(getTempFilePrefix(testRule), ".zip");
+      if (!artifactCache.fetch(cacheKey, zip).isSuccess()) {
+        return false;
+      }
+      projectFilesystem.rmdir(outputDirectory);
+      Unzip.extractZipFile(
+          zip.toPath(),
+          projectFilesystem.resolve(outputDirectory),
+          /* overwriteExistingFiles */ true);
+      return true;
+    } catch (IOException e) {
+      // Fall back on running the test, making sure it does not see a partially extracted zip.
+      LOG.warn(e, "Failed to fetch cached test results for %s", testRule.getBuildTarget());
+      try {
+        projectFilesystem.rmdir(outputDirectory);
+      } catch (IOException ignored) {
+        // The test will clean its output directory before it runs anyway.
+      }
+      return false;
+    } finally {
+      if (zip != null) {
+        zip.delete();
+      }
+    }
+  }
+
+  /**
+   * Stores the contents of the output directory of {@code testRule} under {@code cacheKey}.
+   */
+  public void store(TestRule testRule, RuleKey cacheKey) throws InterruptedException {
+    if (!artifactCache.isStoreSupported()) {
+      return;
+    }
+
+    Path outputDirectory = testRule.getPathToTestOutputDirectory();
+    File zip = null;
+    try {
+      Set<Path> files = projectFilesystem.getFilesUnderPath(outputDirectory);
+      if (files.isEmpty()) {
+        return;
+      }
+
+      // Entries are relative to the output directory, which may be a one-time directory that is
+      // named differently on every machine.
+      zip = File.createTempFile(getTempFilePrefix(testRule), ".zip");
+      try (CustomZipOutputStream out = ZipOutputStreams.newOutputStream(zip)) {
+        for (Path file : ImmutableSortedSet.copyOf(files)) {
+          out.putNextEntry(new CustomZipEntry(outputDirectory.relativize(file).toString()));
+          Files.copy(projectFilesystem.resolve(file), out);
+          out.closeEntry();
+        }
+      }
+      artifactCache.store(cacheKey, zip);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to store test results for %s", testRule.getBuildTarget());
+    } finally {
+      if (zip != null) {
+        zip.delete();
+      }
+    }
+  }
+
+  /**
+   * @return a {@link Callable} that returns the results of {@code interpretTestResults}, and also
+   *     stores them under {@code cacheKey} if every test passed.
+   */
+  public Callable<TestResults> storingPassingResults(
+      final TestRule testRule,
+      final RuleKey cacheKey,
+      final Callable<TestResults> interpretTestResults) {
+    return new Callable<TestResults>() {
+      @Override
+      public TestResults call() throws Exception {
+        TestResults testResults = interpretTestResults.call();
+        if (testResults.isSuccess() && !testResults.getTestCases().isEmpty()) {
+          store(testRule, cacheKey);
+        }
+        return testResults;
+      }
+    };
+  }
+
+  private static String getTempFilePrefix(TestRule testRule) {
+    return testRule.getBuildTarget().getFullyQualifiedName().replace('/', '_');
+  }
+}
@@ -112,6 +112,8 @@ public class Build implements Closeable {
         .setAndroidPlatformTarget(androidPlatformTarget)
         .setTargetDevice(targetDevice)
         .setDefaultTestTimeoutMillis(defaultTestTimeoutMillis)
+        .setTestJvmPoolMaxRuns(buckConfig.getTestJvmPoolMaxRuns())
+        .setTestShardsPerRule(buckConfig.getTestShardsPerRule())
         .setCodeCoverageEnabled(isCodeCoverageEnabled)
         .setDebugEnabled(isDebugEnabled)
         .setEventBus(eventBus)
@@ -17,50 +17,60 @@
 package com.facebook.buck.dalvik;
 
 import com.facebook.buck.java.classes.FileLike;
+import com.facebook.buck.zip.CustomZipOutputStream;
+import com.facebook.buck.zip.ZipOutputStreams;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 /**
  * Helper to write a Zip file used by {@link DalvikAwareZipSplitter}.
+ * <p>
+ * Entries are only recorded as they are put. The zip is written on {@code writeExecutor} once
+ * the helper is closed, so the zips of a split are written in parallel while the splitter goes on
+ * to fill the next one. Entries of a {@link RawZipEntryFileLike} are copied without being
+ * recompressed.
  */
 public class DalvikAwareOutputStreamHelper implements ZipOutputStreamHelper {
 
   private static final int MAX_METHOD_REFERENCES = 64 * 1024;
 
-  private final ZipOutputStream outStream;
+  private final File outputFile;
+  private final ImmutableList.Builder<FileLike> entries = ImmutableList.builder();
   private final Set<String> entryNames = Sets.newHashSet();
   private final long linearAllocLimit;
   private final File reportFile;
+  private final StringBuilder report = new StringBuilder();
   private final DalvikStatsCache dalvikStatsCache;
+  private final ListeningExecutorService writeExecutor;
 
   private final Set<DalvikStatsTool.MethodReference> currentMethodReferences = Sets.newHashSet();
   private long currentLinearAllocSize;
+  private ListenableFuture<Void> written;
 
   DalvikAwareOutputStreamHelper(
       File outputFile,
       long linearAllocLimit,
       File reportDir,
-      DalvikStatsCache dalvikStatsCache)
-      throws FileNotFoundException {
-    this.outStream = new ZipOutputStream(
-      new BufferedOutputStream(
-          new FileOutputStream(outputFile)));
+      DalvikStatsCache dalvikStatsCache,
+      ListeningExecutorService writeExecutor) {
+    this.outputFile = Preconditions.checkNotNull(outputFile);
     this.linearAllocLimit = linearAllocLimit;
     this.reportFile = new File(reportDir, outputFile.getName() + ".txt");
     this.dalvikStatsCache = dalvikStatsCache;
+    this.writeExecutor = Preconditions.checkNotNull(writeExecutor);
   }
 
   private boolean isEntryTooBig(FileLike entry) {
@@ -92,10 +102,7 @@ public class DalvikAwareOutputStreamHelper implements ZipOutputStreamHelper {
     // proguard seems to handle merging multiple -injars into a single -outjar.
     if (!containsEntry(fileLike)) {
       entryNames.add(name);
-      outStream.putNextEntry(new ZipEntry(name));
-      try (InputStream in = fileLike.getInput()) {
-        ByteStreams.copy(in, outStream);
-      }
+      entries.add(fileLike);
 
       // Make sure FileLike#getSize didn't lie (or we forgot to call canPutEntry).
       DalvikStatsTool.Stats stats = dalvikStatsCache.getStats(fileLike);
@@ -104,15 +111,48 @@ public class DalvikAwareOutputStreamHelper implements ZipOutputStreamHelper {
           name, stats.estimatedLinearAllocSize, linearAllocLimit);
       currentLinearAllocSize += stats.estimatedLinearAllocSize;
       currentMethodReferences.addAll(stats.methodReferences);
-      String report = String.format(
+      report.append(String.format(
           "%d %d %s\n",
-          stats.estimatedLinearAllocSize, stats.methodReferences.size(), name);
-      Files.append(report, reportFile, Charsets.UTF_8);
+          stats.estimatedLinearAllocSize, stats.methodReferences.size(), name));
     }
   }
 
+  /**
+   * Schedules the zip and its report to be written. Nothing may be put after this is called.
+   */
   @Override
-  public void close() throws IOException {
-    outStream.close();
+  public void close() {
+    if (written != null) {
+      return;
+    }
+    final ImmutableList<FileLike> entriesToWrite = entries.build();
+    final String reportToWrite = report.toString();
+    written = writeExecutor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        try (CustomZipOutputStream out = ZipOutputStreams.newOutputStream(outputFile)) {
+          for (FileLike entry : entriesToWrite) {
+            if (entry instanceof RawZipEntryFileLike) {
+              ((RawZipEntryFileLike) entry).copyRawTo(out);
+            } else {
+              out.putNextEntry(new ZipEntry(entry.getRelativePath()));
+              try (InputStream in = entry.getInput()) {
+                ByteStreams.copy(in, out);
+              }
+            }
+          }
+        }
+        Files.write(reportToWrite, reportFile, Charsets.UTF_8);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * @return a future that completes once the zip has been written, or null if the helper has not
+   *     been closed.
+   */
+  ListenableFuture<Void> getWritten() {
+    return written;
   }
 }
@@ -16,33 +16,39 @@
 
 package com.facebook.buck.dalvik;
 
-import com.facebook.buck.java.classes.AbstractFileLike;
 import com.facebook.buck.java.classes.ClasspathTraversal;
-import com.facebook.buck.java.classes.ClasspathTraverser;
 import com.facebook.buck.java.classes.DefaultClasspathTraverser;
 import com.facebook.buck.java.classes.FileLike;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.ProjectFilesystem;
+import com.facebook.buck.zip.RawZipFile;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.io.ByteStreams;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
 
 /**
  * Alternative to {@link DefaultZipSplitter} that uses estimates from {@link DalvikStatsTool}
  * to determine how many classes to pack into a dex.
  * <p>
- * It does three passes through the .class files:
+ * The entries of all of the inputs are listed once, without reading their contents, and their
+ * stats are computed in parallel. The entries are then assigned to zips in three passes:
  * <ul>
  *   <li>
  *     During the first pass, it uses the {@code requiredInPrimaryZip} predicate to filter the set
@@ -59,6 +65,9 @@ import java.util.Set;
  *     to zips as space allows. This is a simple, greedy algorithm.
  *   </li>
  * </ul>
+ * Each zip is written in the background as soon as it is full, and entries are copied from the
+ * input jars without being recompressed, so no more than a buffer's worth of any entry is held in
+ * memory.
  */
 public class DalvikAwareZipSplitter implements ZipSplitter {
 
@@ -73,6 +82,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
   private final DexSplitStrategy dexSplitStrategy;
 
   private final MySecondaryDexHelper secondaryDexWriter;
+  private final List<DalvikAwareOutputStreamHelper> outputs = Lists.newArrayList();
+  private ListeningExecutorService executor;
   private DalvikAwareOutputStreamHelper primaryOut;
 
   /**
@@ -105,7 +116,7 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
     this.reportDir = reportDir;
     this.dexSplitStrategy = Preconditions.checkNotNull(dexSplitStrategy);
     this.linearAllocLimit = linearAllocLimit;
-    this.dalvikStatsCache = new DalvikStatsCache();
+    this.dalvikStatsCache = DalvikStatsCache.getInstance();
   }
 
   public static DalvikAwareZipSplitter splitZip(
@@ -136,64 +147,120 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
 
   @Override
   public List<File> execute() throws IOException {
-    ClasspathTraverser classpathTraverser = new DefaultClasspathTraverser();
+    executor = MoreExecutors.listeningDecorator(
+        Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder()
+                .setNameFormat("zip-splitter-%d")
+                .setDaemon(true)
+                .build()));
+    List<RawZipFile> openZipFiles = Lists.newArrayList();
+    try {
+      outputs.clear();
+      return split(openZipFiles);
+    } finally {
+      executor.shutdownNow();
+      for (RawZipFile zipFile : openZipFiles) {
+        zipFile.close();
+      }
+    }
+  }
 
-    // Start out by writing the primary zip and recording which entries were added to it.
+  private List<File> split(List<RawZipFile> openZipFiles) throws IOException {
+    ImmutableList<FileLike> entries = indexInputs(openZipFiles);
+    // Working out where each class goes needs the stats of nearly all of them, so compute those
+    // that are not cached in parallel up front.
+    dalvikStatsCache.computeStats(entries, executor);
+
+    // Start out by filling the primary zip and recording which entries were added to it.
     primaryOut = newZipOutput(outPrimary);
     secondaryDexWriter.reset();
 
-    final ImmutableMap.Builder<String, FileLike> entriesBuilder = ImmutableMap.builder();
-
-    // Iterate over all of the inFiles and add all entries that match the requiredInPrimaryZip
-    // predicate.
-    classpathTraverser.traverse(new ClasspathTraversal(inFiles, filesystem) {
-      @Override
-      public void visit(FileLike entry) throws IOException {
-        String relativePath = entry.getRelativePath();
-        if (requiredInPrimaryZip.apply(relativePath)) {
-          primaryOut.putEntry(entry);
-        } else if (wantedInPrimaryZip.contains(relativePath)) {
-          entriesBuilder.put(relativePath, new BufferedFileLike(entry));
-        }
+    // Add all entries that match the requiredInPrimaryZip predicate.
+    ImmutableMap.Builder<String, FileLike> wantedEntriesBuilder = ImmutableMap.builder();
+    for (FileLike entry : entries) {
+      String relativePath = entry.getRelativePath();
+      if (requiredInPrimaryZip.apply(relativePath)) {
+        primaryOut.putEntry(entry);
+      } else if (wantedInPrimaryZip.contains(relativePath)) {
+        wantedEntriesBuilder.put(relativePath, entry);
       }
-    });
+    }
 
     // Put as many of the items wanted in the primary dex as we can into the primary dex.
-    ImmutableMap<String, FileLike> entries = entriesBuilder.build();
+    ImmutableMap<String, FileLike> wantedEntries = wantedEntriesBuilder.build();
     for (String wanted : wantedInPrimaryZip) {
-      FileLike entry = entries.get(wanted);
+      FileLike entry = wantedEntries.get(wanted);
       if ((entry != null) && !primaryOut.containsEntry(entry) && primaryOut.canPutEntry(entry)) {
         primaryOut.putEntry(entry);
       }
     }
 
     // Now that all of the required entries have been added to the primary zip, fill the rest of
-    // the zip up with the remaining entries.
-    classpathTraverser.traverse(new ClasspathTraversal(inFiles, filesystem) {
-      @Override
-      public void visit(FileLike entry) throws IOException {
-        if (primaryOut.containsEntry(entry)) {
-          return;
-        }
+    // the zip up with the remaining entries. Each secondary zip is written as soon as it is full.
+    for (FileLike entry : entries) {
+      if (primaryOut.containsEntry(entry)) {
+        continue;
+      }
 
-        // Even if we have started writing a secondary dex, we still check if there is any leftover
-        // room in the primary dex for the current entry in the traversal.
-        if (dexSplitStrategy == DexSplitStrategy.MAXIMIZE_PRIMARY_DEX_SIZE &&
-            primaryOut.canPutEntry(entry)) {
-          primaryOut.putEntry(entry);
-        } else {
-          secondaryDexWriter.getOutputToWriteTo(entry).putEntry(entry);
-        }
+      // Even if we have started writing a secondary dex, we still check if there is any leftover
+      // room in the primary dex for the current entry in the traversal.
+      if (dexSplitStrategy == DexSplitStrategy.MAXIMIZE_PRIMARY_DEX_SIZE &&
+          primaryOut.canPutEntry(entry)) {
+        primaryOut.putEntry(entry);
+      } else {
+        secondaryDexWriter.getOutputToWriteTo(entry).putEntry(entry);
       }
-    });
+    }
 
     primaryOut.close();
     secondaryDexWriter.close();
+    for (DalvikAwareOutputStreamHelper output : outputs) {
+      Futures.get(output.getWritten(), IOException.class);
+    }
     return secondaryDexWriter.getFiles();
   }
 
-  private DalvikAwareOutputStreamHelper newZipOutput(File file) throws FileNotFoundException {
-    return new DalvikAwareOutputStreamHelper(file, linearAllocLimit, reportDir, dalvikStatsCache);
+  /**
+   * @return every entry of {@link #inFiles}, in the order that a {@link ClasspathTraversal} would
+   *     visit them. Entries of jars are read through {@code openZipFiles}, which the caller must
+   *     close once the outputs have been written.
+   */
+  private ImmutableList<FileLike> indexInputs(final List<RawZipFile> openZipFiles)
+      throws IOException {
+    final ImmutableList.Builder<FileLike> entries = ImmutableList.builder();
+    for (Path path : inFiles) {
+      File file = filesystem.getFileForRelativePath(path);
+      String extension = Files.getFileExtension(file.getName());
+      if (extension.equalsIgnoreCase("jar") || extension.equalsIgnoreCase("zip")) {
+        RawZipFile zipFile = new RawZipFile(file);
+        openZipFiles.add(zipFile);
+        for (ZipEntry entry : zipFile.getEntries()) {
+          entries.add(new RawZipEntryFileLike(file, zipFile, entry));
+        }
+      } else {
+        // Files outside of jars can be read at any time, so they need no special treatment.
+        new DefaultClasspathTraverser().traverse(
+            new ClasspathTraversal(Collections.singleton(path), filesystem) {
+              @Override
+              public void visit(FileLike entry) {
+                entries.add(entry);
+              }
+            });
+      }
+    }
+    return entries.build();
+  }
+
+  private DalvikAwareOutputStreamHelper newZipOutput(File file) {
+    DalvikAwareOutputStreamHelper output = new DalvikAwareOutputStreamHelper(
+        file,
+        linearAllocLimit,
+        reportDir,
+        dalvikStatsCache,
+        executor);
+    outputs.add(output);
+    return output;
   }
 
   private class MySecondaryDexHelper
@@ -207,43 +274,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
     }
 
     @Override
-    protected DalvikAwareOutputStreamHelper newZipOutput(File file) throws IOException {
+    protected DalvikAwareOutputStreamHelper newZipOutput(File file) {
       return DalvikAwareZipSplitter.this.newZipOutput(file);
     }
   }
-
-  private static class BufferedFileLike extends AbstractFileLike {
-    private final File container;
-    private final String relativePath;
-    private final byte[] contents;
-
-    public BufferedFileLike(FileLike original) throws IOException {
-      this.container = original.getContainer();
-      this.relativePath = original.getRelativePath();
-
-      try (InputStream stream = original.getInput()) {
-        contents = ByteStreams.toByteArray(stream);
-      }
-    }
-
-    @Override
-    public File getContainer() {
-      return container;
-    }
-
-    @Override
-    public String getRelativePath() {
-      return relativePath;
-    }
-
-    @Override
-    public long getSize() {
-      return contents.length;
-    }
-
-    @Override
-    public InputStream getInput() throws IOException {
-      return new ByteArrayInputStream(contents);
-    }
-  }
 }
@@ -16,21 +16,88 @@
 
 package com.facebook.buck.dalvik;
 
+import com.facebook.buck.java.classes.ClassIndexCache;
 import com.facebook.buck.java.classes.FileLike;
-import com.google.common.collect.MapMaker;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.ConcurrentMap;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * Cache to memoize results from DalvikStatsTool.
+ * <p>
+ * Stats are keyed by the SHA-1 of the contents of the class, so they are shared by every step
+ * that looks at the class, and, when Buck runs as a daemon, by every build that follows, no
+ * matter which jar the class is in. To avoid reading and hashing a class each time it is looked
+ * up, the hash of each class in a jar is remembered by the SHA-1 of the jar, as recorded by the
+ * {@link ClassIndexCache}, and the class's path within it. Stats are softly referenced, as the
+ * method references of every class in a large app take up a lot of memory.
  */
 class DalvikStatsCache {
 
-  private final ConcurrentMap<FileLike, DalvikStatsTool.Stats> cache;
+  /** Bounds the memory used by the cache, in terms of the number of method references held. */
+  private static final long MAX_METHOD_REFERENCES = 4 * 1000 * 1000;
 
-  DalvikStatsCache() {
-    cache = new MapMaker().weakKeys().makeMap();
+  /** Bounds the memory used to remember the hashes of classes in jars. */
+  private static final long MAX_CLASS_HASHES = 1000 * 1000;
+
+  private static final DalvikStatsCache INSTANCE = new DalvikStatsCache(MAX_METHOD_REFERENCES);
+
+  private final Cache<HashCode, DalvikStatsTool.Stats> stats;
+  private final Cache<String, HashCode> classHashes;
+
+  @VisibleForTesting
+  DalvikStatsCache(long maxMethodReferences) {
+    this.stats = CacheBuilder.newBuilder()
+        .maximumWeight(maxMethodReferences)
+        .weigher(new Weigher<HashCode, DalvikStatsTool.Stats>() {
+          @Override
+          public int weigh(HashCode key, DalvikStatsTool.Stats value) {
+            return 1 + value.methodReferences.size();
+          }
+        })
+        .softValues()
+        .build();
+    this.classHashes = CacheBuilder.newBuilder()
+        .maximumSize(MAX_CLASS_HASHES)
+        .build();
+  }
+
+  static DalvikStatsCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Computes the stats of {@code entries} that are not cached yet on {@code executor}, so that
+   * subsequent calls to {@link #getStats(FileLike)} for them are lookups.
+   */
+  void computeStats(Iterable<? extends FileLike> entries, ListeningExecutorService executor)
+      throws IOException {
+    List<ListenableFuture<DalvikStatsTool.Stats>> futures = Lists.newArrayList();
+    for (final FileLike entry : entries) {
+      futures.add(executor.submit(new Callable<DalvikStatsTool.Stats>() {
+        @Override
+        public DalvikStatsTool.Stats call() {
+          return getStats(entry);
+        }
+      }));
+    }
+    Futures.get(Futures.allAsList(futures), IOException.class);
   }
 
   DalvikStatsTool.Stats getStats(FileLike entry) {
@@ -41,19 +108,50 @@ class DalvikStatsCache {
       return DalvikStatsTool.Stats.ZERO;
     }
 
-    DalvikStatsTool.Stats stats = cache.get(entry);
-    if (stats != null) {
-      return stats;
-    }
-
     try {
-      stats = DalvikStatsTool.getEstimate(entry.getInput());
-      cache.put(entry, stats);
-      return stats;
+      Optional<String> classHashKey = getClassHashKey(entry);
+      if (classHashKey.isPresent()) {
+        HashCode classHash = classHashes.getIfPresent(classHashKey.get());
+        DalvikStatsTool.Stats cached = classHash == null ? null : stats.getIfPresent(classHash);
+        if (cached != null) {
+          return cached;
+        }
+      }
+
+      byte[] bytes;
+      try (InputStream input = entry.getInput()) {
+        bytes = ByteStreams.toByteArray(input);
+      }
+      HashCode classHash = Hashing.sha1().hashBytes(bytes);
+      if (classHashKey.isPresent()) {
+        classHashes.put(classHashKey.get(), classHash);
+      }
+      DalvikStatsTool.Stats cached = stats.getIfPresent(classHash);
+      if (cached != null) {
+        return cached;
+      }
+
+      DalvikStatsTool.Stats computed = DalvikStatsTool.getEstimate(new ByteArrayInputStream(bytes));
+      stats.put(classHash, computed);
+      return computed;
     } catch (IOException e) {
       throw new RuntimeException(String.format("Error calculating size for %s.", name), e);
     } catch (RuntimeException e) {
       throw new RuntimeException(String.format("Error calculating size for %s.", name), e);
     }
   }
+
+  /**
+   * @return a key under which the hash of {@code entry} can be remembered, or absent if it is not
+   *     in a jar. Files in directories may be changed in place between builds, so they are always
+   *     hashed afresh.
+   */
+  private Optional<String> getClassHashKey(FileLike entry) throws IOException {
+    File container = entry.getContainer().getAbsoluteFile();
+    if (!container.isFile() || container.getName().endsWith(".class")) {
+      return Optional.absent();
+    }
+    HashCode jarHash = ClassIndexCache.getInstance().getContentHash(container.toPath());
+    return Optional.of(jarHash + "!" + entry.getRelativePath());
+  }
 }
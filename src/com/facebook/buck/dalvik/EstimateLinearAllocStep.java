@@ -16,6 +16,8 @@
 
 package com.facebook.buck.dalvik;
 
+import com.facebook.buck.java.classes.ClassIndex;
+import com.facebook.buck.java.classes.ClassIndexCache;
 import com.facebook.buck.java.classes.ClasspathTraversal;
 import com.facebook.buck.java.classes.DefaultClasspathTraverser;
 import com.facebook.buck.java.classes.FileLike;
@@ -24,6 +26,7 @@ import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 
@@ -38,45 +41,49 @@ public class EstimateLinearAllocStep implements Step, Supplier<Integer> {
     public int getEstimate(FileLike fileLike) throws IOException;
   }
 
-  /**
-   * This is a linear alloc estimator that uses the size of the {@code .class} file as the
-   * estimate. This should be used when speed is more important than accuracy. If accuracy is a
-   * priority, an estimator based on {@link DalvikStatsTool#getEstimate(java.io.InputStream)} should
-   * be used instead.
-   */
-  private static final LinearAllocEstimator DEFAULT_LINEAR_ALLOC_ESTIMATOR =
-      new LinearAllocEstimator() {
-    @Override
-    public int getEstimate(FileLike fileLike) throws IOException {
-      return (int) fileLike.getSize();
-    }
-  };
-
   private final Path pathToJarOrClassesDirectory;
-  private final LinearAllocEstimator linearAllocEstimator;
+  private final Optional<LinearAllocEstimator> linearAllocEstimator;
 
   private int linearAllocEstimate = -1;
 
   /**
-   * This uses a linear alloc estimator that uses the size of the {@code .class} file as the
-   * estimate. This should be used when speed is more important than accuracy. If accuracy is a
-   * priority, an estimator based on {@link DalvikStatsTool#getEstimate(java.io.InputStream)} should
-   * be used instead.
+   * This uses the size of the {@code .class} files as the estimate, as recorded in their
+   * {@link ClassIndex}. This should be used when speed is more important than accuracy. If
+   * accuracy is a priority, an estimator based on
+   * {@link DalvikStatsTool#getEstimate(java.io.InputStream)} should be used instead.
    */
   public EstimateLinearAllocStep(Path pathToJarOrClassesDirectory) {
-    this(pathToJarOrClassesDirectory, DEFAULT_LINEAR_ALLOC_ESTIMATOR);
+    this.pathToJarOrClassesDirectory = Preconditions.checkNotNull(pathToJarOrClassesDirectory);
+    this.linearAllocEstimator = Optional.absent();
   }
 
   @VisibleForTesting
   EstimateLinearAllocStep(Path pathToJarOrClassesDirectory,
       LinearAllocEstimator linearAllocEstimator) {
     this.pathToJarOrClassesDirectory = Preconditions.checkNotNull(pathToJarOrClassesDirectory);
-    this.linearAllocEstimator = Preconditions.checkNotNull(linearAllocEstimator);
+    this.linearAllocEstimator = Optional.of(linearAllocEstimator);
   }
 
   @Override
   public int execute(ExecutionContext context) {
-    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    try {
+      if (linearAllocEstimator.isPresent()) {
+        this.linearAllocEstimate = estimate(context.getProjectFilesystem());
+      } else {
+        // The jar has almost always been indexed already, when the library that produced it
+        // was built, so this is a lookup.
+        this.linearAllocEstimate = (int) ClassIndexCache.getInstance()
+            .get(pathToJarOrClassesDirectory, context.getProjectFilesystem())
+            .getTotalSize();
+      }
+    } catch (IOException e) {
+      context.logError(e, "Error accumulating class names for %s.", pathToJarOrClassesDirectory);
+      return 1;
+    }
+    return 0;
+  }
+
+  private int estimate(ProjectFilesystem filesystem) throws IOException {
     Path path = filesystem.resolve(pathToJarOrClassesDirectory);
     ClasspathTraversal traversal = new ClasspathTraversal(Collections.singleton(path), filesystem) {
 
@@ -90,7 +97,7 @@ public class EstimateLinearAllocStep implements Step, Supplier<Integer> {
           return;
         }
 
-        totalLinearAllocEstimate += linearAllocEstimator.getEstimate(fileLike);
+        totalLinearAllocEstimate += linearAllocEstimator.get().getEstimate(fileLike);
       }
 
       @Override
@@ -99,15 +106,8 @@ public class EstimateLinearAllocStep implements Step, Supplier<Integer> {
       }
     };
 
-    try {
-      new DefaultClasspathTraverser().traverse(traversal);
-    } catch (IOException e) {
-      context.logError(e, "Error accumulating class names for %s.", pathToJarOrClassesDirectory);
-      return 1;
-    }
-
-    this.linearAllocEstimate = (Integer) traversal.getResult();
-    return 0;
+    new DefaultClasspathTraverser().traverse(traversal);
+    return (Integer) traversal.getResult();
   }
 
   @Override
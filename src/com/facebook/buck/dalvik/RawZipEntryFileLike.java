@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.dalvik;
+
+import com.facebook.buck.java.classes.AbstractFileLike;
+import com.facebook.buck.zip.CustomZipOutputStream;
+import com.facebook.buck.zip.RawZipFile;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * An entry of a jar that is read with a {@link RawZipFile}. Unlike the entries visited by a
+ * {@link com.facebook.buck.java.classes.ClasspathTraversal}, it stays readable for as long as the
+ * {@link RawZipFile} is open, and it can be copied into another zip exactly as it is stored,
+ * without being inflated and deflated again.
+ */
+class RawZipEntryFileLike extends AbstractFileLike {
+
+  private final File container;
+  private final RawZipFile zipFile;
+  private final ZipEntry entry;
+
+  RawZipEntryFileLike(File container, RawZipFile zipFile, ZipEntry entry) {
+    this.container = Preconditions.checkNotNull(container);
+    this.zipFile = Preconditions.checkNotNull(zipFile);
+    this.entry = Preconditions.checkNotNull(entry);
+  }
+
+  @Override
+  public File getContainer() {
+    return container;
+  }
+
+  @Override
+  public String getRelativePath() {
+    return entry.getName();
+  }
+
+  @Override
+  public long getSize() {
+    return entry.getSize();
+  }
+
+  @Override
+  public InputStream getInput() throws IOException {
+    return zipFile.getInputStream(entry);
+  }
+
+  /**
+   * Writes the compressed data of this entry as the next entry of {@code out}.
+   */
+  void copyRawTo(CustomZipOutputStream out) throws IOException {
+    out.putNextRawEntry(new ZipEntry(entry));
+    try (InputStream in = zipFile.getRawInputStream(entry)) {
+      ByteStreams.copy(in, out);
+    }
+  }
+}
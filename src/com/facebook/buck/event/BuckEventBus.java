@@ -19,7 +19,6 @@ import com.facebook.buck.log.CommandThreadFactory;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.timing.Clock;
-import com.facebook.buck.util.concurrent.MoreExecutors;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
@@ -29,10 +28,14 @@ import com.google.common.eventbus.AsyncEventBus;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
 
 /**
- * Thin wrapper around guava event bus.
+ * Event bus that timestamps {@link BuckEvent}s and delivers them asynchronously to listeners with
+ * guava {@link com.google.common.eventbus.Subscribe} methods.
+ * <p>
+ * In production, events are queued in a lock-free ring buffer and delivered by a single thread
+ * (see {@link RingBufferEventDispatcher}). Tests can supply an {@link ExecutorService} instead, in
+ * which case a guava {@link AsyncEventBus} running on that executor does the delivery.
  */
 public class BuckEventBus implements Closeable {
 
@@ -48,15 +51,14 @@ public class BuckEventBus implements Closeable {
   };
 
   private final Clock clock;
-  private final ExecutorService executorService;
-  private final AsyncEventBus eventBus;
+  private final EventDispatcher dispatcher;
   private final Supplier<Long> threadIdSupplier;
   private final BuildId buildId;
   private final int shutdownTimeoutMillis;
 
   public BuckEventBus(Clock clock, BuildId buildId) {
     this(clock,
-        MoreExecutors.newSingleThreadExecutor(
+        new RingBufferEventDispatcher(
             new CommandThreadFactory(BuckEventBus.class.getSimpleName())),
         buildId,
         DEFAULT_SHUTDOWN_TIMEOUT_MS);
@@ -67,9 +69,16 @@ public class BuckEventBus implements Closeable {
                ExecutorService executorService,
                BuildId buildId,
                int shutdownTimeoutMillis) {
+    this(clock, new ExecutorEventDispatcher(executorService), buildId, shutdownTimeoutMillis);
+  }
+
+  @VisibleForTesting
+  BuckEventBus(Clock clock,
+               EventDispatcher dispatcher,
+               BuildId buildId,
+               int shutdownTimeoutMillis) {
     this.clock = Preconditions.checkNotNull(clock);
-    this.executorService = Preconditions.checkNotNull(executorService);
-    this.eventBus = new AsyncEventBus("buck-build-events", executorService);
+    this.dispatcher = Preconditions.checkNotNull(dispatcher);
     this.threadIdSupplier = DEFAULT_THREAD_ID_SUPPLIER;
     this.buildId = Preconditions.checkNotNull(buildId);
     this.shutdownTimeoutMillis = shutdownTimeoutMillis;
@@ -77,7 +86,7 @@ public class BuckEventBus implements Closeable {
 
   public void post(BuckEvent event) {
     timestamp(event);
-    eventBus.post(event);
+    dispatcher.post(event);
   }
 
   public void logVerboseAndPost(Logger logger, BuckEvent event) {
@@ -95,20 +104,27 @@ public class BuckEventBus implements Closeable {
    */
   public void post(BuckEvent event, BuckEvent atTime) {
     event.configure(atTime.getTimestamp(), atTime.getNanoTime(), threadIdSupplier.get(), buildId);
-    eventBus.post(event);
+    dispatcher.post(event);
   }
 
   public void register(Object object) {
-    eventBus.register(object);
+    dispatcher.register(object);
   }
 
   public void unregister(Object object) {
-    eventBus.unregister(object);
+    dispatcher.unregister(object);
   }
 
+  /**
+   * @return the underlying guava event bus, which only exists if this was created with an
+   *     {@link ExecutorService}.
+   */
   @VisibleForTesting
   AsyncEventBus getEventBus() {
-    return eventBus;
+    Preconditions.checkState(
+        dispatcher instanceof ExecutorEventDispatcher,
+        "Only an executor-based BuckEventBus is backed by a guava event bus.");
+    return ((ExecutorEventDispatcher) dispatcher).getEventBus();
   }
 
   @VisibleForTesting
@@ -133,22 +149,19 @@ public class BuckEventBus implements Closeable {
   }
 
   /**
-   * {@link ExecutorService#awaitTermination(long, java.util.concurrent.TimeUnit)} is called
-   * to wait for events which have been posted, but which have been queued by the
-   * {@link AsyncEventBus}, to be delivered. This allows listeners to record or report as much
+   * {@link EventDispatcher#shutdown(long)} is called to wait for events which have been posted,
+   * but which are still queued, to be delivered. This allows listeners to record or report as much
    * information as possible. This aids debugging when close is called during exception processing.
    */
   @Override
   public void close() throws IOException {
-    executorService.shutdown();
     try {
-      if (!executorService.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+      if (!dispatcher.shutdown(shutdownTimeoutMillis)) {
         LOG.warn(Joiner.on(System.lineSeparator()).join(
           "The BuckEventBus failed to shut down within the standard timeout.",
           "Your build might have succeeded, but some messages were probably lost.",
           "Here's some debugging information:",
-          executorService.toString()));
-        executorService.shutdownNow();
+          dispatcher.toString()));
       }
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
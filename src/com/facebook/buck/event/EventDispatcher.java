@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+/**
+ * Delivers events posted to a {@link BuckEventBus} to the {@code @Subscribe} methods of the
+ * registered listeners.
+ */
+interface EventDispatcher {
+
+  void post(Object event);
+
+  void register(Object listener);
+
+  void unregister(Object listener);
+
+  /**
+   * Stops accepting new events and waits for the events that have already been posted to be
+   * delivered. If that does not happen within {@code timeoutMillis}, delivery is abandoned.
+   *
+   * @return whether all posted events were delivered before the timeout.
+   */
+  boolean shutdown(long timeoutMillis) throws InterruptedException;
+}
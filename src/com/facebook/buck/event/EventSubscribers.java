@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of {@code @Subscribe} methods with a precomputed table of the subscribers for each
+ * concrete event class, so that posting an event does not have to walk the type hierarchy of the
+ * event or look up annotated methods. Method discovery mirrors guava's {@code EventBus}: every
+ * public method annotated with {@link Subscribe} on the listener's class or any of its supertypes
+ * receives events whose type is assignable to its single parameter.
+ */
+class EventSubscribers {
+
+  private static final Logger LOG = Logger.get(EventSubscribers.class);
+
+  private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+
+  private final Object lock = new Object();
+
+  /** Guarded by {@link #lock}. */
+  private final List<Subscriber> subscribers = Lists.newArrayList();
+
+  /** Cleared whenever {@link #subscribers} changes. */
+  private final ConcurrentMap<Class<?>, Subscriber[]> subscribersByEventClass =
+      new ConcurrentHashMap<>();
+
+  public void register(Object listener) {
+    ImmutableList<Subscriber> found = findSubscribers(listener);
+    synchronized (lock) {
+      subscribers.addAll(found);
+      subscribersByEventClass.clear();
+    }
+  }
+
+  public void unregister(Object listener) {
+    ImmutableList<Subscriber> found = findSubscribers(listener);
+    synchronized (lock) {
+      for (Subscriber subscriber : found) {
+        Preconditions.checkArgument(
+            subscribers.remove(subscriber),
+            "missing event subscriber for an annotated method. Is %s registered?",
+            listener);
+      }
+      subscribersByEventClass.clear();
+    }
+  }
+
+  /**
+   * @return the subscribers that receive events of exactly {@code eventClass}, in registration
+   *     order. The returned array must not be modified.
+   */
+  public Subscriber[] getSubscribers(Class<?> eventClass) {
+    Subscriber[] cached = subscribersByEventClass.get(eventClass);
+    if (cached != null) {
+      return cached;
+    }
+    synchronized (lock) {
+      List<Subscriber> matching = Lists.newArrayList();
+      for (Subscriber subscriber : subscribers) {
+        if (subscriber.eventType.isAssignableFrom(eventClass)) {
+          matching.add(subscriber);
+        }
+      }
+      Subscriber[] table = matching.isEmpty()
+          ? NO_SUBSCRIBERS
+          : matching.toArray(new Subscriber[matching.size()]);
+      subscribersByEventClass.put(eventClass, table);
+      return table;
+    }
+  }
+
+  private static ImmutableList<Subscriber> findSubscribers(Object listener) {
+    ImmutableList.Builder<Subscriber> found = ImmutableList.builder();
+    Set<? extends Class<?>> supertypes = TypeToken.of(listener.getClass()).getTypes().rawTypes();
+    List<String> seenSignatures = Lists.newArrayList();
+    for (Class<?> type : supertypes) {
+      for (Method method : type.getMethods()) {
+        if (!method.isAnnotationPresent(Subscribe.class) || method.isSynthetic()) {
+          continue;
+        }
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        Preconditions.checkArgument(
+            parameterTypes.length == 1,
+            "Method %s has @Subscribe annotation, but requires %s arguments. " +
+                "Event subscriber methods must require a single argument.",
+            method,
+            parameterTypes.length);
+        String signature = method.getName() + Arrays.toString(parameterTypes);
+        if (seenSignatures.contains(signature)) {
+          continue;
+        }
+        seenSignatures.add(signature);
+        method.setAccessible(true);
+        found.add(new Subscriber(
+            listener,
+            method,
+            parameterTypes[0],
+            !method.isAnnotationPresent(AllowConcurrentEvents.class)));
+      }
+    }
+    return found.build();
+  }
+
+  /**
+   * A single {@code @Subscribe} method bound to its listener.
+   */
+  static class Subscriber {
+    private final Object listener;
+    private final Method method;
+    private final Class<?> eventType;
+    private final boolean synchronizeCalls;
+
+    private Subscriber(
+        Object listener,
+        Method method,
+        Class<?> eventType,
+        boolean synchronizeCalls) {
+      this.listener = listener;
+      this.method = method;
+      this.eventType = eventType;
+      this.synchronizeCalls = synchronizeCalls;
+    }
+
+    /**
+     * Delivers {@code event}. Like guava's {@code EventBus}, an exception thrown by the subscriber
+     * is logged rather than propagated, so that one broken listener cannot stop the others from
+     * receiving events.
+     */
+    void dispatch(Object event) {
+      try {
+        if (synchronizeCalls) {
+          synchronized (listener) {
+            method.invoke(listener, event);
+          }
+        } else {
+          method.invoke(listener, event);
+        }
+      } catch (InvocationTargetException e) {
+        LOG.error(e.getCause(), "Could not dispatch event: %s to %s", event, method);
+      } catch (IllegalAccessException e) {
+        LOG.error(e, "Could not dispatch event: %s to %s", event, method);
+      }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Subscriber)) {
+        return false;
+      }
+      Subscriber that = (Subscriber) obj;
+      return this.listener == that.listener && this.method.equals(that.method);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(listener) + method.hashCode();
+    }
+  }
+}
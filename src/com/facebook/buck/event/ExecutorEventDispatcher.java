@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.google.common.base.Preconditions;
+import com.google.common.eventbus.AsyncEventBus;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EventDispatcher} that hands each event to a guava {@link AsyncEventBus} running on the
+ * given {@link ExecutorService}. Tests use this with a same-thread executor so that events are
+ * delivered synchronously.
+ */
+class ExecutorEventDispatcher implements EventDispatcher {
+
+  private final ExecutorService executorService;
+  private final AsyncEventBus eventBus;
+
+  ExecutorEventDispatcher(ExecutorService executorService) {
+    this.executorService = Preconditions.checkNotNull(executorService);
+    this.eventBus = new AsyncEventBus("buck-build-events", executorService);
+  }
+
+  AsyncEventBus getEventBus() {
+    return eventBus;
+  }
+
+  @Override
+  public void post(Object event) {
+    eventBus.post(event);
+  }
+
+  @Override
+  public void register(Object listener) {
+    eventBus.register(listener);
+  }
+
+  @Override
+  public void unregister(Object listener) {
+    eventBus.unregister(listener);
+  }
+
+  @Override
+  public boolean shutdown(long timeoutMillis) throws InterruptedException {
+    executorService.shutdown();
+    if (executorService.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+      return true;
+    }
+    executorService.shutdownNow();
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return executorService.toString();
+  }
+}
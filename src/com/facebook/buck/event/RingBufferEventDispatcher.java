@@ -0,0 +1,252 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.event.EventSubscribers.Subscriber;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link EventDispatcher} that queues events in a preallocated ring buffer and delivers them from
+ * a single consumer thread.
+ * <p>
+ * Posting threads claim a sequence number with a single atomic increment, fill in the slot for
+ * that sequence and then publish it, so posting neither allocates nor takes a lock. The subscribers
+ * for an event are looked up from the precomputed tables in {@link EventSubscribers} when the event
+ * is posted, which keeps guava's semantics that only listeners registered at that point see it.
+ * The consumer drains all consecutively published slots in one batch before handing them back to
+ * the producers. A producer that finds the buffer full waits for the consumer to catch up, which
+ * bounds the memory used by a backlog of events.
+ */
+class RingBufferEventDispatcher implements EventDispatcher {
+
+  static final int DEFAULT_CAPACITY = 1 << 14;
+
+  private static final int MAX_BATCH_SIZE = 512;
+
+  private static final int SPINS_BEFORE_PARKING = 100;
+
+  /**
+   * Upper bound for a single park of the consumer or of a producer waiting for space. Wake-ups are
+   * signalled explicitly, so this only limits the cost of a missed signal.
+   */
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final EventSubscribers subscribers = new EventSubscribers();
+  private final int mask;
+  private final Slot[] slots;
+
+  /** Holds, for each slot, the sequence number of the event most recently published to it. */
+  private final AtomicLongArray publishedSequences;
+
+  /** The sequence number that will be handed to the next posted event. */
+  private final AtomicLong nextSequence = new AtomicLong(0);
+
+  /** Every sequence number below this one has been delivered and its slot can be reused. */
+  private final AtomicLong consumedSequence = new AtomicLong(0);
+
+  private final AtomicBoolean consumerParked = new AtomicBoolean(false);
+  private final Thread consumer;
+
+  /**
+   * Events posted by subscribers on the consumer thread. These cannot go through the ring buffer,
+   * because the consumer would deadlock waiting for itself if the buffer were full. Only accessed
+   * from the consumer thread.
+   */
+  private final Queue<Object> reentrantEvents = new ArrayDeque<>();
+
+  private volatile boolean isShutdown = false;
+  private volatile boolean isAbandoned = false;
+
+  RingBufferEventDispatcher(ThreadFactory threadFactory) {
+    this(threadFactory, DEFAULT_CAPACITY);
+  }
+
+  @VisibleForTesting
+  RingBufferEventDispatcher(ThreadFactory threadFactory, int capacity) {
+    Preconditions.checkArgument(
+        capacity > 0 && Integer.bitCount(capacity) == 1,
+        "Capacity must be a power of two but was %s.",
+        capacity);
+    this.mask = capacity - 1;
+    this.slots = new Slot[capacity];
+    this.publishedSequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      slots[i] = new Slot();
+      publishedSequences.set(i, -1);
+    }
+    this.consumer = threadFactory.newThread(new Runnable() {
+      @Override
+      public void run() {
+        consumeEvents();
+      }
+    });
+    consumer.start();
+  }
+
+  @Override
+  public void register(Object listener) {
+    subscribers.register(listener);
+  }
+
+  @Override
+  public void unregister(Object listener) {
+    subscribers.unregister(listener);
+  }
+
+  @Override
+  public void post(Object event) {
+    if (Thread.currentThread() == consumer) {
+      reentrantEvents.add(event);
+      return;
+    }
+    if (isShutdown) {
+      // Match the executor-based dispatcher, which silently discards events after shutdown.
+      return;
+    }
+
+    Subscriber[] eventSubscribers = subscribers.getSubscribers(event.getClass());
+    long sequence = nextSequence.getAndIncrement();
+    long wrapPoint = sequence - slots.length;
+    int spins = 0;
+    while (wrapPoint >= consumedSequence.get()) {
+      if (isAbandoned) {
+        return;
+      }
+      if (spins < SPINS_BEFORE_PARKING) {
+        spins++;
+        Thread.yield();
+      } else {
+        LockSupport.parkNanos(this, MAX_PARK_NANOS);
+      }
+    }
+
+    int index = (int) sequence & mask;
+    Slot slot = slots[index];
+    slot.event = event;
+    slot.subscribers = eventSubscribers;
+    // The volatile write publishes the plain writes to the slot above to the consumer.
+    publishedSequences.set(index, sequence);
+
+    if (consumerParked.get()) {
+      LockSupport.unpark(consumer);
+    }
+  }
+
+  private void consumeEvents() {
+    long next = 0;
+    while (!isAbandoned) {
+      int available = 0;
+      while (available < MAX_BATCH_SIZE && isPublished(next + available)) {
+        available++;
+      }
+
+      if (available == 0) {
+        if (isShutdown && next == nextSequence.get()) {
+          return;
+        }
+        awaitPublication(next);
+        continue;
+      }
+
+      for (int i = 0; i < available && !isAbandoned; i++) {
+        Slot slot = slots[(int) (next + i) & mask];
+        Object event = slot.event;
+        Subscriber[] eventSubscribers = slot.subscribers;
+        slot.event = null;
+        slot.subscribers = null;
+        dispatch(event, eventSubscribers);
+      }
+      next += available;
+      consumedSequence.set(next);
+    }
+  }
+
+  private void dispatch(Object event, Subscriber[] eventSubscribers) {
+    for (Subscriber subscriber : eventSubscribers) {
+      subscriber.dispatch(event);
+    }
+    Object reentrantEvent;
+    while ((reentrantEvent = reentrantEvents.poll()) != null) {
+      for (Subscriber subscriber : subscribers.getSubscribers(reentrantEvent.getClass())) {
+        subscriber.dispatch(reentrantEvent);
+      }
+    }
+  }
+
+  private boolean isPublished(long sequence) {
+    return publishedSequences.get((int) sequence & mask) == sequence;
+  }
+
+  private void awaitPublication(long sequence) {
+    for (int spins = 0; spins < SPINS_BEFORE_PARKING; spins++) {
+      if (isPublished(sequence) || isShutdown) {
+        return;
+      }
+      Thread.yield();
+    }
+    consumerParked.set(true);
+    // Re-check after announcing that we are about to park, so that a producer that published in
+    // the meantime either is seen here or sees the flag and unparks us.
+    if (!isPublished(sequence) && !isShutdown) {
+      LockSupport.parkNanos(this, MAX_PARK_NANOS);
+    }
+    consumerParked.set(false);
+  }
+
+  @Override
+  public boolean shutdown(long timeoutMillis) throws InterruptedException {
+    isShutdown = true;
+    LockSupport.unpark(consumer);
+    consumer.join(timeoutMillis);
+    if (!consumer.isAlive()) {
+      return true;
+    }
+    isAbandoned = true;
+    consumer.interrupt();
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s[posted = %d, delivered = %d, capacity = %d, consumer = %s]",
+        getClass().getSimpleName(),
+        nextSequence.get(),
+        consumedSequence.get(),
+        slots.length,
+        consumer.getState());
+  }
+
+  /**
+   * Preallocated entry of the ring buffer. Its fields are written by the producer that claimed the
+   * slot before the slot is published, and read by the consumer after it observed the publication.
+   */
+  private static class Slot {
+    private Object event;
+    private Subscriber[] subscribers;
+  }
+}
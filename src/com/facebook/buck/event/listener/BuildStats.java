@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timing and caching data for the rules and steps of a single build, as persisted by
+ * {@link BuildStatsStore}. Property names are kept short because a store holds hundreds of builds.
+ */
+public class BuildStats {
+
+  private final String buildId;
+  private final String command;
+  private final long timestamp;
+  private final long durationMillis;
+  private final ImmutableList<RuleStats> rules;
+  private final ImmutableMap<String, StepStats> steps;
+
+  public BuildStats(
+      @JsonProperty("id") String buildId,
+      @JsonProperty("cmd") String command,
+      @JsonProperty("ts") long timestamp,
+      @JsonProperty("ms") long durationMillis,
+      @JsonProperty("rules") List<RuleStats> rules,
+      @JsonProperty("steps") Map<String, StepStats> steps) {
+    this.buildId = Preconditions.checkNotNull(buildId);
+    this.command = Preconditions.checkNotNull(command);
+    this.timestamp = timestamp;
+    this.durationMillis = durationMillis;
+    this.rules = ImmutableList.copyOf(rules);
+    this.steps = ImmutableMap.copyOf(steps);
+  }
+
+  @JsonProperty("id")
+  public String getBuildId() {
+    return buildId;
+  }
+
+  @JsonProperty("cmd")
+  public String getCommand() {
+    return command;
+  }
+
+  /** @return when the build started, in milliseconds since the epoch. */
+  @JsonProperty("ts")
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  @JsonProperty("ms")
+  public long getDurationMillis() {
+    return durationMillis;
+  }
+
+  @JsonProperty("rules")
+  public ImmutableList<RuleStats> getRules() {
+    return rules;
+  }
+
+  /** @return aggregate timings keyed by step short name. */
+  @JsonProperty("steps")
+  public ImmutableMap<String, StepStats> getSteps() {
+    return steps;
+  }
+
+  /**
+   * How long a single rule took to build, whether it came from the cache and which of its deps
+   * were part of the same build.
+   */
+  public static class RuleStats {
+
+    private final String name;
+    private final String ruleKey;
+    private final long durationMillis;
+    private final String cacheResult;
+    private final String status;
+    private final ImmutableList<String> deps;
+
+    public RuleStats(
+        @JsonProperty("name") String name,
+        @JsonProperty("key") String ruleKey,
+        @JsonProperty("ms") long durationMillis,
+        @JsonProperty("cache") String cacheResult,
+        @JsonProperty("status") String status,
+        @JsonProperty("deps") List<String> deps) {
+      this.name = Preconditions.checkNotNull(name);
+      this.ruleKey = Preconditions.checkNotNull(ruleKey);
+      this.durationMillis = durationMillis;
+      this.cacheResult = Preconditions.checkNotNull(cacheResult);
+      this.status = Preconditions.checkNotNull(status);
+      this.deps = ImmutableList.copyOf(deps);
+    }
+
+    @JsonProperty("name")
+    public String getName() {
+      return name;
+    }
+
+    @JsonProperty("key")
+    public String getRuleKey() {
+      return ruleKey;
+    }
+
+    @JsonProperty("ms")
+    public long getDurationMillis() {
+      return durationMillis;
+    }
+
+    /** @return the name of the {@link com.facebook.buck.rules.CacheResult}. */
+    @JsonProperty("cache")
+    public String getCacheResult() {
+      return cacheResult;
+    }
+
+    /** @return the name of the {@link com.facebook.buck.rules.BuildRuleStatus}. */
+    @JsonProperty("status")
+    public String getStatus() {
+      return status;
+    }
+
+    @JsonProperty("deps")
+    public ImmutableList<String> getDeps() {
+      return deps;
+    }
+  }
+
+  /** The number of times a kind of step ran during a build, and how long it took in total. */
+  public static class StepStats {
+
+    private final int count;
+    private final long durationMillis;
+
+    public StepStats(
+        @JsonProperty("n") int count,
+        @JsonProperty("ms") long durationMillis) {
+      this.count = count;
+      this.durationMillis = durationMillis;
+    }
+
+    @JsonProperty("n")
+    public int getCount() {
+      return count;
+    }
+
+    @JsonProperty("ms")
+    public long getDurationMillis() {
+      return durationMillis;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.cli.CommandEvent;
+import com.facebook.buck.event.BuckEventListener;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepEvent;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.eventbus.Subscribe;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Collects per-rule and per-step timings, cache results and rule keys during a command and writes
+ * them to a {@link BuildStatsStore} in {@link #outputTrace(BuildId)}. Commands that do not build
+ * anything are not recorded.
+ */
+public class BuildStatsListener implements BuckEventListener {
+
+  private static final Logger LOG = Logger.get(BuildStatsListener.class);
+
+  private final BuildStatsStore store;
+
+  private final ConcurrentMap<BuildRule, Long> ruleStartNanos = new ConcurrentHashMap<>();
+  private final ConcurrentMap<BuildRule, BuildRuleEvent.Finished> finishedRules =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<BuildRule, Long> ruleDurationNanos = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Step, Long> stepStartNanos = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, StepTotals> stepTotals = new ConcurrentHashMap<>();
+
+  @Nullable
+  private volatile CommandEvent.Started commandStarted;
+  @Nullable
+  private volatile CommandEvent.Finished commandFinished;
+
+  public BuildStatsListener(BuildStatsStore store) {
+    this.store = Preconditions.checkNotNull(store);
+  }
+
+  @Subscribe
+  public void commandStarted(CommandEvent.Started started) {
+    commandStarted = started;
+  }
+
+  @Subscribe
+  public void commandFinished(CommandEvent.Finished finished) {
+    commandFinished = finished;
+  }
+
+  @Subscribe
+  public void ruleStarted(BuildRuleEvent.Started started) {
+    ruleStartNanos.put(started.getBuildRule(), started.getNanoTime());
+  }
+
+  @Subscribe
+  public void ruleFinished(BuildRuleEvent.Finished finished) {
+    Long startNanos = ruleStartNanos.remove(finished.getBuildRule());
+    if (startNanos == null) {
+      return;
+    }
+    ruleDurationNanos.put(finished.getBuildRule(), finished.getNanoTime() - startNanos);
+    finishedRules.put(finished.getBuildRule(), finished);
+  }
+
+  @Subscribe
+  public void stepStarted(StepEvent.Started started) {
+    stepStartNanos.put(started.getStep(), started.getNanoTime());
+  }
+
+  @Subscribe
+  public void stepFinished(StepEvent.Finished finished) {
+    Long startNanos = stepStartNanos.remove(finished.getStep());
+    if (startNanos == null) {
+      return;
+    }
+    StepTotals totals = stepTotals.get(finished.getCategory());
+    if (totals == null) {
+      StepTotals newTotals = new StepTotals();
+      totals = stepTotals.putIfAbsent(finished.getCategory(), newTotals);
+      if (totals == null) {
+        totals = newTotals;
+      }
+    }
+    totals.add(finished.getNanoTime() - startNanos);
+  }
+
+  @VisibleForTesting
+  BuildStats getBuildStats(BuildId buildId) {
+    ImmutableList.Builder<BuildStats.RuleStats> rules = ImmutableList.builder();
+    for (Map.Entry<BuildRule, BuildRuleEvent.Finished> entry : finishedRules.entrySet()) {
+      BuildRule rule = entry.getKey();
+      BuildRuleEvent.Finished finished = entry.getValue();
+      ImmutableList.Builder<String> deps = ImmutableList.builder();
+      for (BuildRule dep : rule.getDeps()) {
+        if (finishedRules.containsKey(dep)) {
+          deps.add(dep.getFullyQualifiedName());
+        }
+      }
+      rules.add(new BuildStats.RuleStats(
+          rule.getFullyQualifiedName(),
+          finished.getRuleKeySafe(),
+          TimeUnit.NANOSECONDS.toMillis(ruleDurationNanos.get(rule)),
+          finished.getCacheResult().name(),
+          finished.getStatus().name(),
+          deps.build()));
+    }
+
+    ImmutableMap.Builder<String, BuildStats.StepStats> steps = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, StepTotals> entry : stepTotals.entrySet()) {
+      steps.put(entry.getKey(), entry.getValue().toStepStats());
+    }
+
+    CommandEvent.Started started = commandStarted;
+    CommandEvent.Finished finished = commandFinished;
+    return new BuildStats(
+        buildId.toString(),
+        started == null ? "unknown" : started.getCommandName(),
+        started == null ? 0 : started.getTimestamp(),
+        started == null || finished == null
+            ? 0
+            : TimeUnit.NANOSECONDS.toMillis(finished.getNanoTime() - started.getNanoTime()),
+        rules.build(),
+        steps.build());
+  }
+
+  @Override
+  public void outputTrace(BuildId buildId) {
+    if (finishedRules.isEmpty()) {
+      return;
+    }
+    try {
+      store.write(getBuildStats(buildId));
+    } catch (IOException e) {
+      // Statistics are a diagnostic aid; they should never fail the command.
+      LOG.warn(e, "Unable to write build statistics.");
+    }
+  }
+
+  private static class StepTotals {
+    private int count;
+    private long durationNanos;
+
+    synchronized void add(long nanos) {
+      count++;
+      durationNanos += nanos;
+    }
+
+    synchronized BuildStats.StepStats toStepStats() {
+      return new BuildStats.StepStats(count, TimeUnit.NANOSECONDS.toMillis(durationNanos));
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Aggregates the {@link BuildStats} of several builds into the per-rule summaries shown by
+ * {@code buck stats}.
+ */
+public class BuildStatsReport {
+
+  private final ImmutableList<BuildStats> builds;
+  private final ImmutableList<RuleSummary> ruleSummaries;
+
+  public BuildStatsReport(ImmutableList<BuildStats> builds) {
+    this.builds = Preconditions.checkNotNull(builds);
+
+    Map<String, RuleSummary> summaries = Maps.newHashMap();
+    for (BuildStats build : builds) {
+      for (BuildStats.RuleStats rule : build.getRules()) {
+        RuleSummary summary = summaries.get(rule.getName());
+        if (summary == null) {
+          summary = new RuleSummary(rule.getName());
+          summaries.put(rule.getName(), summary);
+        }
+        summary.add(rule);
+      }
+    }
+    this.ruleSummaries = ImmutableList.copyOf(summaries.values());
+  }
+
+  public ImmutableList<BuildStats> getBuilds() {
+    return builds;
+  }
+
+  /** @return the average duration of every rule that appears in any of the builds. */
+  public ImmutableMap<String, Long> getAverageDurationsMillis() {
+    ImmutableMap.Builder<String, Long> durations = ImmutableMap.builder();
+    for (RuleSummary summary : ruleSummaries) {
+      durations.put(summary.getName(), summary.getAverageMillis());
+    }
+    return durations.build();
+  }
+
+  /** @return the rules that took the most time in total, slowest first. */
+  public ImmutableList<RuleSummary> getSlowestRules(int limit) {
+    return top(ruleSummaries, limit, new Comparator<RuleSummary>() {
+      @Override
+      public int compare(RuleSummary a, RuleSummary b) {
+        return Long.compare(b.getTotalMillis(), a.getTotalMillis());
+      }
+    });
+  }
+
+  /** @return the rules that were built after missing the artifact cache most often. */
+  public ImmutableList<RuleSummary> getMostMissedRules(int limit) {
+    return top(
+        FluentIterable.from(ruleSummaries).filter(new Predicate<RuleSummary>() {
+          @Override
+          public boolean apply(RuleSummary summary) {
+            return summary.getCacheMisses() > 0;
+          }
+        }).toList(),
+        limit,
+        new Comparator<RuleSummary>() {
+          @Override
+          public int compare(RuleSummary a, RuleSummary b) {
+            return Integer.compare(b.getCacheMisses(), a.getCacheMisses());
+          }
+        });
+  }
+
+  /** @return the rules whose rule key changed most often across the builds. */
+  public ImmutableList<RuleSummary> getMostChangedRuleKeys(int limit) {
+    return top(
+        FluentIterable.from(ruleSummaries).filter(new Predicate<RuleSummary>() {
+          @Override
+          public boolean apply(RuleSummary summary) {
+            return summary.getDistinctRuleKeys() > 1;
+          }
+        }).toList(),
+        limit,
+        new Comparator<RuleSummary>() {
+          @Override
+          public int compare(RuleSummary a, RuleSummary b) {
+            return Integer.compare(b.getDistinctRuleKeys(), a.getDistinctRuleKeys());
+          }
+        });
+  }
+
+  private static ImmutableList<RuleSummary> top(
+      Collection<RuleSummary> summaries,
+      int limit,
+      final Comparator<RuleSummary> comparator) {
+    List<RuleSummary> sorted = Lists.newArrayList(summaries);
+    Collections.sort(sorted, new Comparator<RuleSummary>() {
+      @Override
+      public int compare(RuleSummary a, RuleSummary b) {
+        int result = comparator.compare(a, b);
+        return result != 0 ? result : a.getName().compareTo(b.getName());
+      }
+    });
+    return ImmutableList.copyOf(sorted.subList(0, Math.min(limit, sorted.size())));
+  }
+
+  /**
+   * @return the chain of rules in {@code build} whose durations add up to the longest path through
+   *     the dependency graph, starting with the rule that was built first.
+   */
+  public static ImmutableList<BuildStats.RuleStats> getCriticalPath(BuildStats build) {
+    return getCriticalPath(build.getRules());
+  }
+
+  /**
+   * @return the chain of {@code rules} whose durations add up to the longest path through the
+   *     dependency graph, starting with the rule that was built first. Deps that are not among
+   *     {@code rules} are ignored.
+   */
+  public static ImmutableList<BuildStats.RuleStats> getCriticalPath(
+      Iterable<BuildStats.RuleStats> rules) {
+    Map<String, BuildStats.RuleStats> rulesByName = Maps.newHashMap();
+    for (BuildStats.RuleStats rule : rules) {
+      rulesByName.put(rule.getName(), rule);
+    }
+
+    // Longest path ending at each rule, and the dep it goes through. Computed with an explicit
+    // stack because dependency chains can be deeper than the call stack allows.
+    Map<String, Long> pathMillis = Maps.newHashMap();
+    Map<String, String> predecessors = Maps.newHashMap();
+    Set<String> expanded = Sets.newHashSet();
+    Deque<String> stack = new ArrayDeque<>();
+    for (String root : rulesByName.keySet()) {
+      stack.push(root);
+      while (!stack.isEmpty()) {
+        String name = stack.peek();
+        if (pathMillis.containsKey(name)) {
+          stack.pop();
+          continue;
+        }
+        BuildStats.RuleStats rule = rulesByName.get(name);
+        if (expanded.add(name)) {
+          for (String dep : rule.getDeps()) {
+            if (rulesByName.containsKey(dep) && !pathMillis.containsKey(dep)) {
+              stack.push(dep);
+            }
+          }
+          continue;
+        }
+        stack.pop();
+        long longestDep = 0;
+        for (String dep : rule.getDeps()) {
+          Long depMillis = pathMillis.get(dep);
+          if (depMillis != null && (depMillis > longestDep || !predecessors.containsKey(name))) {
+            longestDep = depMillis;
+            predecessors.put(name, dep);
+          }
+        }
+        pathMillis.put(name, longestDep + rule.getDurationMillis());
+      }
+    }
+
+    String end = null;
+    for (Map.Entry<String, Long> entry : pathMillis.entrySet()) {
+      if (end == null || entry.getValue() > pathMillis.get(end)) {
+        end = entry.getKey();
+      }
+    }
+
+    List<BuildStats.RuleStats> path = Lists.newArrayList();
+    for (String name = end; name != null; name = predecessors.get(name)) {
+      path.add(rulesByName.get(name));
+    }
+    return ImmutableList.copyOf(Lists.reverse(path));
+  }
+
+  /** A single rule's timings, cache misses and rule keys across all of the builds. */
+  public static class RuleSummary {
+    private final String name;
+    private final Set<String> ruleKeys = Sets.newHashSet();
+    private int builds;
+    private int cacheMisses;
+    private long totalMillis;
+    private long maxMillis;
+
+    private RuleSummary(String name) {
+      this.name = name;
+    }
+
+    private void add(BuildStats.RuleStats rule) {
+      builds++;
+      totalMillis += rule.getDurationMillis();
+      maxMillis = Math.max(maxMillis, rule.getDurationMillis());
+      if ("MISS".equals(rule.getCacheResult())) {
+        cacheMisses++;
+      }
+      ruleKeys.add(rule.getRuleKey());
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /** @return the number of builds in which this rule was built or fetched. */
+    public int getBuilds() {
+      return builds;
+    }
+
+    public int getCacheMisses() {
+      return cacheMisses;
+    }
+
+    public long getTotalMillis() {
+      return totalMillis;
+    }
+
+    public long getAverageMillis() {
+      return totalMillis / builds;
+    }
+
+    public long getMaxMillis() {
+      return maxMillis;
+    }
+
+    public int getDistinctRuleKeys() {
+      return ruleKeys.size();
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the {@link BuildStats} of the most recent builds in {@code buck-out/log/stats}, one
+ * gzipped JSON file per build, so that {@code buck stats} can aggregate them later.
+ */
+public class BuildStatsStore {
+
+  private static final Logger LOG = Logger.get(BuildStatsStore.class);
+
+  public static final Path BUILD_STATS_DIR = BuckConstant.LOG_PATH.resolve("stats");
+
+  private static final String STATS_FILE_PATTERN = "build\\..*\\.stats\\.gz";
+
+  private final ProjectFilesystem projectFilesystem;
+  private final int buildsToKeep;
+  private final ObjectMapper objectMapper;
+
+  public BuildStatsStore(ProjectFilesystem projectFilesystem, int buildsToKeep) {
+    Preconditions.checkArgument(buildsToKeep > 0);
+    this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
+    this.buildsToKeep = buildsToKeep;
+    this.objectMapper = new ObjectMapper();
+  }
+
+  /**
+   * Persists {@code stats} and deletes the oldest entries beyond the configured limit.
+   */
+  public void write(BuildStats stats) throws IOException {
+    Path statsPath = BUILD_STATS_DIR.resolve(
+        String.format("build.%s.stats.gz", stats.getBuildId()));
+    projectFilesystem.createParentDirs(statsPath);
+    try (OutputStream output =
+             new GZIPOutputStream(projectFilesystem.newFileOutputStream(statsPath))) {
+      objectMapper.writeValue(output, stats);
+    }
+
+    ImmutableList<File> files = getFilesNewestFirst();
+    for (File file : files.subList(Math.min(buildsToKeep, files.size()), files.size())) {
+      file.delete();
+    }
+  }
+
+  /**
+   * @return up to {@code count} builds, most recent first. Entries that cannot be read, for
+   *     instance because they were written by an older version of Buck, are skipped.
+   */
+  public ImmutableList<BuildStats> readLatest(int count) {
+    ImmutableList.Builder<BuildStats> builds = ImmutableList.builder();
+    int read = 0;
+    for (File file : getFilesNewestFirst()) {
+      if (read == count) {
+        break;
+      }
+      try (InputStream input = new GZIPInputStream(new FileInputStream(file))) {
+        builds.add(objectMapper.readValue(input, BuildStats.class));
+        read++;
+      } catch (IOException e) {
+        LOG.warn(e, "Ignoring unreadable build stats in %s.", file);
+      }
+    }
+    return builds.build();
+  }
+
+  private ImmutableList<File> getFilesNewestFirst() {
+    if (!projectFilesystem.exists(BUILD_STATS_DIR)) {
+      return ImmutableList.of();
+    }
+
+    return FluentIterable.
+        from(Arrays.asList(projectFilesystem.listFiles(BUILD_STATS_DIR))).
+        filter(new Predicate<File>() {
+          @Override
+          public boolean apply(File input) {
+            return input.getName().matches(STATS_FILE_PATTERN);
+          }
+        }).
+        toSortedList(new Comparator<File>() {
+          @Override
+          public int compare(File a, File b) {
+            return Long.signum(b.lastModified() - a.lastModified());
+          }
+        });
+  }
+}
@@ -32,14 +32,17 @@ import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleEvent;
 import com.facebook.buck.step.StepEvent;
+import com.facebook.buck.step.StepResourceUsage;
 import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.Optionals;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
@@ -57,18 +60,75 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * Logs events to a json file formatted to be viewed in Chrome Trace View (chrome://tracing).
+ * <p>
+ * By default, events are kept in memory and written, sorted by timestamp, by
+ * {@link #outputTrace(BuildId)}. In streaming mode, they are instead appended to the trace file by
+ * a {@link StreamingChromeTraceWriter} while the command runs, which keeps memory use bounded for
+ * long-running commands.
  */
 public class ChromeTraceBuildListener implements BuckEventListener {
   private static final String TRACE_FILE_PATTERN = "build\\.\\d*\\.trace";
 
+  private static final Function<Long, String> NANOS_TO_MILLIS_STRING =
+      new Function<Long, String>() {
+        @Override
+        public String apply(Long nanos) {
+          return Long.toString(TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+      };
+
   private final ProjectFilesystem projectFilesystem;
   private final int tracesToKeep;
+  private final Optional<StreamingChromeTraceWriter> streamingWriter;
   private ConcurrentLinkedQueue<ChromeTraceEvent> eventList =
       new ConcurrentLinkedQueue<ChromeTraceEvent>();
 
   public ChromeTraceBuildListener(ProjectFilesystem projectFilesystem, int tracesToKeep) {
+    this(projectFilesystem, tracesToKeep, Optional.<BuildId>absent());
+  }
+
+  /**
+   * @param streamingBuildId if present, events are streamed to the trace file for this build id as
+   *     they arrive instead of being buffered until {@link #outputTrace(BuildId)}.
+   */
+  public ChromeTraceBuildListener(
+      ProjectFilesystem projectFilesystem,
+      int tracesToKeep,
+      Optional<BuildId> streamingBuildId) {
+    this(
+        projectFilesystem,
+        tracesToKeep,
+        streamingBuildId,
+        StreamingChromeTraceWriter.DEFAULT_SORT_WINDOW_SIZE);
+  }
+
+  @VisibleForTesting
+  ChromeTraceBuildListener(
+      ProjectFilesystem projectFilesystem,
+      int tracesToKeep,
+      Optional<BuildId> streamingBuildId,
+      int sortWindowSize) {
     this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
     this.tracesToKeep = tracesToKeep;
+    if (streamingBuildId.isPresent()) {
+      String tracePath = getTracePath(streamingBuildId.get());
+      try {
+        projectFilesystem.createParentDirs(tracePath);
+        this.streamingWriter = Optional.of(new StreamingChromeTraceWriter(
+            projectFilesystem.getFileForRelativePath(tracePath),
+            sortWindowSize));
+      } catch (IOException e) {
+        throw new HumanReadableException(e, "Unable to write trace file: " + e);
+      }
+    } else {
+      this.streamingWriter = Optional.absent();
+    }
+  }
+
+  private static String getTracePath(BuildId buildId) {
+    return String.format("%s/build.%s.trace",
+        BuckConstant.BUCK_TRACE_DIR,
+        buildId);
   }
 
   @VisibleForTesting
@@ -105,23 +165,29 @@ public class ChromeTraceBuildListener implements BuckEventListener {
   public void outputTrace(BuildId buildId) {
     Preconditions.checkNotNull(buildId);
     try {
-      String tracePath = String.format("%s/build.%s.trace",
-          BuckConstant.BUCK_TRACE_DIR,
-          buildId);
-      File traceOutput = projectFilesystem.getFileForRelativePath(tracePath);
-      projectFilesystem.createParentDirs(tracePath);
-
-      ImmutableList<ChromeTraceEvent> tsSortedEvents = FluentIterable.
-          from(eventList).
-          toSortedList(new Comparator<ChromeTraceEvent>() {
-            @Override
-            public int compare(ChromeTraceEvent a, ChromeTraceEvent b) {
-              return Long.signum(a.getMicroTime() - b.getMicroTime());
-            }
-          });
-
-      ObjectMapper mapper = new ObjectMapper();
-      mapper.writeValue(traceOutput, tsSortedEvents);
+      File traceOutput;
+      if (streamingWriter.isPresent()) {
+        // The writer already knows where the trace goes; it only has to finish writing it.
+        StreamingChromeTraceWriter writer = streamingWriter.get();
+        writer.close();
+        traceOutput = writer.getTraceOutput();
+      } else {
+        String tracePath = getTracePath(buildId);
+        traceOutput = projectFilesystem.getFileForRelativePath(tracePath);
+        projectFilesystem.createParentDirs(tracePath);
+
+        ImmutableList<ChromeTraceEvent> tsSortedEvents = FluentIterable.
+            from(eventList).
+            toSortedList(new Comparator<ChromeTraceEvent>() {
+              @Override
+              public int compare(ChromeTraceEvent a, ChromeTraceEvent b) {
+                return Long.signum(a.getMicroTime() - b.getMicroTime());
+              }
+            });
+
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.writeValue(traceOutput, tsSortedEvents);
+      }
 
       String symlinkPath = String.format("%s/build.trace",
           BuckConstant.BUCK_TRACE_DIR);
@@ -211,12 +277,36 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   @Subscribe
   public void stepFinished(StepEvent.Finished finished) {
+    ImmutableMap.Builder<String, String> argumentsBuilder = ImmutableMap.<String, String>builder()
+        .put("description", finished.getDescription())
+        .put("exit_code", Integer.toString(finished.getExitCode()));
+    if (finished.getResourceUsage().isPresent()) {
+      StepResourceUsage usage = finished.getResourceUsage().get();
+      Optionals.putIfPresent(
+          usage.getCpuTimeNanos().transform(NANOS_TO_MILLIS_STRING),
+          "cpu_ms",
+          argumentsBuilder);
+      Optionals.putIfPresent(
+          usage.getAllocatedBytes().transform(Functions.toStringFunction()),
+          "allocated_bytes",
+          argumentsBuilder);
+      if (usage.getChildProcessCount() > 0) {
+        argumentsBuilder.put("child_processes", Integer.toString(usage.getChildProcessCount()));
+        Optionals.putIfPresent(
+            usage.getChildCpuTimeNanos().transform(NANOS_TO_MILLIS_STRING),
+            "child_cpu_ms",
+            argumentsBuilder);
+        Optionals.putIfPresent(
+            usage.getChildPeakRssBytes().transform(Functions.toStringFunction()),
+            "child_peak_rss_bytes",
+            argumentsBuilder);
+      }
+    }
+
     writeChromeTraceEvent("buck",
         finished.getStep().getShortName(),
         ChromeTraceEvent.Phase.END,
-        ImmutableMap.of(
-            "description", finished.getDescription(),
-            "exit_code", Integer.toString(finished.getExitCode())),
+        argumentsBuilder.build(),
         finished);
   }
 
@@ -358,12 +448,17 @@ public class ChromeTraceBuildListener implements BuckEventListener {
       ChromeTraceEvent.Phase phase,
       ImmutableMap<String, String> arguments,
       BuckEvent event) {
-    eventList.add(new ChromeTraceEvent(category,
+    ChromeTraceEvent chromeTraceEvent = new ChromeTraceEvent(category,
         name,
         phase,
         0,
         event.getThreadId(),
         TimeUnit.NANOSECONDS.toMicros(event.getNanoTime()),
-        arguments));
+        arguments);
+    if (streamingWriter.isPresent()) {
+      streamingWriter.get().add(chromeTraceEvent);
+    } else {
+      eventList.add(chromeTraceEvent);
+    }
   }
 }
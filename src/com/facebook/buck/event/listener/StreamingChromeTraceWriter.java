@@ -0,0 +1,207 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.event.ChromeTraceEvent;
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.annotation.Nullable;
+
+/**
+ * Appends {@link ChromeTraceEvent}s to a trace file from a background thread as they arrive, so
+ * that the trace of a long-running command never has to be held in memory.
+ * <p>
+ * Events are reordered by timestamp within a sliding window of {@code sortWindowSize} events, which
+ * is enough to undo the small reorderings caused by posting events from many threads. Together with
+ * the bounded hand-off queue, this bounds the memory used by the writer regardless of how many
+ * events are written. The file is a JSON array whose closing bracket is only written by
+ * {@link #close()}; the trace viewer also accepts the file without it, so the trace of a build that
+ * crashed is still readable.
+ */
+class StreamingChromeTraceWriter implements Closeable {
+
+  static final int DEFAULT_SORT_WINDOW_SIZE = 1024;
+
+  private static final int QUEUE_CAPACITY = 4096;
+
+  /** Marks the end of the stream in {@link #queue}. Compared by identity. */
+  private static final ChromeTraceEvent END_OF_STREAM = new ChromeTraceEvent(
+      "",
+      "",
+      ChromeTraceEvent.Phase.METADATA,
+      0,
+      0,
+      0,
+      ImmutableMap.<String, String>of());
+
+  private final BlockingQueue<ChromeTraceEvent> queue =
+      new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private final File traceOutput;
+  private final int sortWindowSize;
+  private final ObjectMapper mapper;
+  private final JsonGenerator generator;
+  private final Thread writerThread;
+
+  private volatile boolean isClosed = false;
+
+  /** Set by the writer thread if writing fails. Later events are then discarded. */
+  @Nullable
+  private volatile IOException failure;
+
+  StreamingChromeTraceWriter(File traceOutput, int sortWindowSize) throws IOException {
+    Preconditions.checkArgument(sortWindowSize > 0);
+    this.traceOutput = Preconditions.checkNotNull(traceOutput);
+    this.sortWindowSize = sortWindowSize;
+    this.mapper = new ObjectMapper();
+    // Let the generator's buffer decide when to hit the disk rather than flushing every event.
+    mapper.disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    this.generator = mapper.getJsonFactory().createJsonGenerator(traceOutput, JsonEncoding.UTF8);
+    generator.writeStartArray();
+
+    this.writerThread = new MoreExecutors.NamedThreadFactory(
+        StreamingChromeTraceWriter.class.getSimpleName()).newThread(new Runnable() {
+          @Override
+          public void run() {
+            writeEvents();
+          }
+        });
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  public File getTraceOutput() {
+    return traceOutput;
+  }
+
+  /**
+   * Hands {@code event} to the writer thread. Blocks if the writer has fallen behind by more than
+   * the capacity of its queue. Events added after {@link #close()} are discarded.
+   */
+  public void add(ChromeTraceEvent event) {
+    if (isClosed) {
+      return;
+    }
+    try {
+      queue.put(event);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void writeEvents() {
+    PriorityQueue<SequencedEvent> window = new PriorityQueue<>(
+        sortWindowSize + 1,
+        new Comparator<SequencedEvent>() {
+          @Override
+          public int compare(SequencedEvent a, SequencedEvent b) {
+            int result = Long.compare(a.event.getMicroTime(), b.event.getMicroTime());
+            return result != 0 ? result : Long.compare(a.sequence, b.sequence);
+          }
+        });
+    long sequence = 0;
+    while (true) {
+      ChromeTraceEvent event;
+      try {
+        event = queue.take();
+      } catch (InterruptedException e) {
+        // Nothing interrupts this thread on purpose, so keep draining the queue.
+        continue;
+      }
+      if (event == END_OF_STREAM) {
+        break;
+      }
+      window.add(new SequencedEvent(event, sequence++));
+      if (window.size() > sortWindowSize) {
+        write(window.remove().event);
+      }
+    }
+
+    while (!window.isEmpty()) {
+      write(window.remove().event);
+    }
+    try {
+      generator.writeEndArray();
+      generator.close();
+    } catch (IOException e) {
+      recordFailure(e);
+    }
+  }
+
+  private void write(ChromeTraceEvent event) {
+    if (failure != null) {
+      return;
+    }
+    try {
+      mapper.writeValue(generator, event);
+    } catch (IOException e) {
+      recordFailure(e);
+    }
+  }
+
+  private void recordFailure(IOException e) {
+    if (failure == null) {
+      failure = e;
+    }
+  }
+
+  /**
+   * Writes the events still waiting to be written, terminates the JSON array and closes the file.
+   *
+   * @throws IOException if writing any of the events failed.
+   */
+  @Override
+  public void close() throws IOException {
+    if (isClosed) {
+      return;
+    }
+    isClosed = true;
+    try {
+      queue.put(END_OF_STREAM);
+      writerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing trace file.", e);
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private static class SequencedEvent {
+    private final ChromeTraceEvent event;
+    private final long sequence;
+
+    private SequencedEvent(ChromeTraceEvent event, long sequence) {
+      this.event = event;
+      this.sequence = sequence;
+    }
+  }
+}
@@ -19,23 +19,31 @@ package com.facebook.buck.event.listener;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.LeafEvent;
 import com.facebook.buck.rules.ArtifactCacheEvent;
+import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleEvent;
 import com.facebook.buck.rules.IndividualTestEvent;
 import com.facebook.buck.rules.TestRunEvent;
+import com.facebook.buck.rules.TestSummaryEvent;
 import com.facebook.buck.step.StepEvent;
+import com.facebook.buck.test.result.type.ResultType;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.environment.ExecutionEnvironment;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.IOException;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -44,6 +52,9 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
 
 /**
  * Console that provides rich, updating ansi output about the current build.
@@ -59,16 +70,48 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
    */
   private static final long ERROR_THRESHOLD_MS = 30000;
 
+  /**
+   * Maximum number of rules on the critical path to list after a build. If the path is longer,
+   * only the slowest of its rules are listed.
+   */
+  private static final int MAX_CRITICAL_PATH_RULES = 10;
+
   private final ConcurrentMap<Long, Optional<? extends BuildRuleEvent>> threadsToRunningEvent;
   private final ConcurrentMap<Long, Optional<? extends LeafEvent>> threadsToRunningStep;
   private final AtomicInteger numRulesCompleted = new AtomicInteger();
 
+  /** Start times of the rules that are running, used to time them once they finish. */
+  private final ConcurrentMap<BuildRule, Long> ruleStartMillis = new ConcurrentHashMap<>();
+
+  /** Rules that have finished, keyed by name, with the finished deps they waited for. */
+  private final ConcurrentMap<String, BuildStats.RuleStats> finishedRules =
+      new ConcurrentHashMap<>();
+
+  /** Average rule durations from earlier builds, used to estimate when the build will finish. */
+  private final ImmutableMap<String, Long> expectedRuleDurationsMillis;
+
+  @Nullable
+  private ImmutableList<String> criticalPathLines;
+
+  /** CPU time of finished steps, including that of their child processes. */
+  private final AtomicLong stepCpuTimeNanos = new AtomicLong();
+
   private final ConcurrentLinkedQueue<ConsoleEvent> logEvents;
 
   private final ScheduledExecutorService renderScheduler;
 
   private final TestResultFormatter testFormatter;
 
+  @Nullable
+  private volatile TestRunEvent.Started testRunStarted;
+  @Nullable
+  private volatile TestRunEvent.Finished testRunFinished;
+
+  /** Tests that have finished so far, counted as they finish rather than once per rule. */
+  private final AtomicInteger testPasses = new AtomicInteger();
+  private final AtomicInteger testFailures = new AtomicInteger();
+  private final AtomicInteger testAssumptionViolations = new AtomicInteger();
+
   private int lastNumLinesPrinted;
 
   public SuperConsoleEventBusListener(
@@ -76,7 +119,26 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
       Clock clock,
       ExecutionEnvironment executionEnvironment,
       boolean isTreatingAssumptionsAsErrors) {
+    this(
+        console,
+        clock,
+        executionEnvironment,
+        isTreatingAssumptionsAsErrors,
+        ImmutableMap.<String, Long>of());
+  }
+
+  /**
+   * @param expectedRuleDurationsMillis how long rules took in earlier builds, keyed by fully
+   *     qualified name. If empty, no estimated time to completion is shown.
+   */
+  public SuperConsoleEventBusListener(
+      Console console,
+      Clock clock,
+      ExecutionEnvironment executionEnvironment,
+      boolean isTreatingAssumptionsAsErrors,
+      ImmutableMap<String, Long> expectedRuleDurationsMillis) {
     super(console, clock);
+    this.expectedRuleDurationsMillis = Preconditions.checkNotNull(expectedRuleDurationsMillis);
 
     this.threadsToRunningEvent = new ConcurrentHashMap<>(executionEnvironment.getAvailableCores());
     this.threadsToRunningStep = new ConcurrentHashMap<>(executionEnvironment.getAvailableCores());
@@ -147,12 +209,24 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     // If parsing has not finished, then there is no build rule information to print yet.
     if (parseTime != UNFINISHED_EVENT_PAIR) {
       // Log build time, excluding time spent in parsing.
-      Optional<String> suffix = Optional.absent();
+      List<String> suffixParts = Lists.newArrayList();
       if (ruleCount.isPresent()) {
-        suffix = Optional.of(String.format(
-                "(%d/%d JOBS)",
+        suffixParts.add(String.format(
+                "%d/%d JOBS",
                 numRulesCompleted.get(),
                 ruleCount.get()));
+        Optional<Long> remainingMillis = estimateRemainingMillis(ruleCount.get());
+        if (buildFinished == null && remainingMillis.isPresent()) {
+          suffixParts.add("ETA " + formatElapsedTime(remainingMillis.get()));
+        }
+      }
+      long cpuTimeMs = TimeUnit.NANOSECONDS.toMillis(stepCpuTimeNanos.get());
+      if (cpuTimeMs > 0) {
+        suffixParts.add(formatElapsedTime(cpuTimeMs) + " CPU");
+      }
+      Optional<String> suffix = Optional.absent();
+      if (!suffixParts.isEmpty()) {
+        suffix = Optional.of("(" + Joiner.on(", ").join(suffixParts) + ")");
       }
       long buildTime = logEventPair("BUILDING",
           suffix,
@@ -164,6 +238,8 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
 
       if (buildTime == UNFINISHED_EVENT_PAIR) {
         renderRules(currentTimeMillis, lines);
+      } else {
+        lines.addAll(getCriticalPathLines());
       }
 
       logEventPair("INSTALLING",
@@ -173,11 +249,106 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
           installStarted,
           installFinished,
           lines);
+
+      Optional<String> testSuffix = Optional.absent();
+      if (testPasses.get() + testFailures.get() + testAssumptionViolations.get() > 0) {
+        testSuffix = Optional.of("(" + testFormatter.formatTestProgress(
+            testPasses.get(),
+            testFailures.get(),
+            testAssumptionViolations.get()) + ")");
+      }
+      logEventPair("TESTING",
+          testSuffix,
+          currentTimeMillis,
+          0L,
+          testRunStarted,
+          testRunFinished,
+          lines);
     }
     renderLogMessages(lines);
     return lines.build();
   }
 
+  /**
+   * Estimates how long the build will take to finish from the number of rules left to build, how
+   * long rules that have not been built yet took in earlier builds and how many threads are
+   * building rules.
+   *
+   * @return the estimated time in ms, or absent if there are no earlier builds to go by.
+   */
+  private Optional<Long> estimateRemainingMillis(int totalRules) {
+    int remainingRules = totalRules - numRulesCompleted.get();
+    if (expectedRuleDurationsMillis.isEmpty() || remainingRules <= 0) {
+      return Optional.absent();
+    }
+
+    // The rules that are left are most likely the ones from earlier builds that have not finished
+    // yet. If all of those have finished, fall back to the average of every earlier rule.
+    long unfinishedMillis = 0;
+    int unfinishedRules = 0;
+    long allMillis = 0;
+    for (Map.Entry<String, Long> entry : expectedRuleDurationsMillis.entrySet()) {
+      allMillis += entry.getValue();
+      if (!finishedRules.containsKey(entry.getKey())) {
+        unfinishedMillis += entry.getValue();
+        unfinishedRules++;
+      }
+    }
+    long millisPerRule = unfinishedRules > 0
+        ? unfinishedMillis / unfinishedRules
+        : allMillis / expectedRuleDurationsMillis.size();
+
+    int parallelism = Math.max(1, threadsToRunningEvent.size());
+    return Optional.of(millisPerRule * remainingRules / parallelism);
+  }
+
+  /**
+   * @return lines describing the longest chain of dependent rules in the finished build, which is
+   *     the part of the build that more threads could not have made faster.
+   */
+  private synchronized ImmutableList<String> getCriticalPathLines() {
+    if (criticalPathLines != null) {
+      return criticalPathLines;
+    }
+
+    ImmutableList<BuildStats.RuleStats> path =
+        BuildStatsReport.getCriticalPath(finishedRules.values());
+    ImmutableList.Builder<String> lines = ImmutableList.builder();
+    if (!path.isEmpty()) {
+      long totalMillis = 0;
+      for (BuildStats.RuleStats rule : path) {
+        totalMillis += rule.getDurationMillis();
+      }
+      lines.add(String.format(" |=> CRITICAL PATH...  %s (%d %s)",
+          formatElapsedTime(totalMillis),
+          path.size(),
+          path.size() == 1 ? "RULE" : "RULES"));
+
+      // List the slowest rules in the order in which they were built.
+      ImmutableList<BuildStats.RuleStats> slowestFirst = FluentIterable.from(path)
+          .toSortedList(new Comparator<BuildStats.RuleStats>() {
+            @Override
+            public int compare(BuildStats.RuleStats a, BuildStats.RuleStats b) {
+              return Long.compare(b.getDurationMillis(), a.getDurationMillis());
+            }
+          });
+      ImmutableSet<BuildStats.RuleStats> listed = ImmutableSet.copyOf(
+          slowestFirst.subList(0, Math.min(MAX_CRITICAL_PATH_RULES, path.size())));
+      for (BuildStats.RuleStats rule : path) {
+        if (listed.contains(rule)) {
+          lines.add(String.format("     %s...  %s",
+              rule.getName(),
+              formatElapsedTime(rule.getDurationMillis())));
+        }
+      }
+      if (path.size() > listed.size()) {
+        lines.add(String.format("     ...AND %d FASTER RULES", path.size() - listed.size()));
+      }
+    }
+    criticalPathLines = lines.build();
+    return criticalPathLines;
+  }
+
   /**
    * Adds log messages for rendering.
    * @param lines Builder of lines to render this frame.
@@ -266,12 +437,31 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
   @Subscribe
   public void buildRuleStarted(BuildRuleEvent.Started started) {
     threadsToRunningEvent.put(started.getThreadId(), Optional.of(started));
+    ruleStartMillis.put(started.getBuildRule(), started.getTimestamp());
   }
 
   @Subscribe
   public void buildRuleFinished(BuildRuleEvent.Finished finished) {
     threadsToRunningEvent.put(finished.getThreadId(), Optional.<BuildRuleEvent>absent());
     numRulesCompleted.getAndIncrement();
+
+    BuildRule rule = finished.getBuildRule();
+    Long startMillis = ruleStartMillis.remove(rule);
+    if (startMillis != null) {
+      ImmutableList.Builder<String> deps = ImmutableList.builder();
+      for (BuildRule dep : rule.getDeps()) {
+        if (finishedRules.containsKey(dep.getFullyQualifiedName())) {
+          deps.add(dep.getFullyQualifiedName());
+        }
+      }
+      finishedRules.put(rule.getFullyQualifiedName(), new BuildStats.RuleStats(
+          rule.getFullyQualifiedName(),
+          finished.getRuleKeySafe(),
+          finished.getTimestamp() - startMillis,
+          finished.getCacheResult().name(),
+          finished.getStatus().name(),
+          deps.build()));
+    }
   }
 
   @Subscribe
@@ -282,6 +472,9 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
   @Subscribe
   public void stepFinished(StepEvent.Finished finished) {
     threadsToRunningStep.put(finished.getThreadId(), Optional.<StepEvent>absent());
+    if (finished.getResourceUsage().isPresent()) {
+      stepCpuTimeNanos.addAndGet(finished.getResourceUsage().get().getTotalCpuTimeNanos());
+    }
   }
 
   @Subscribe
@@ -296,6 +489,7 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
 
   @Subscribe
   public void testRunStarted(TestRunEvent.Started event) {
+    testRunStarted = event;
     ImmutableList.Builder<String> builder = ImmutableList.builder();
     testFormatter.runStarted(builder,
         event.isRunAllTests(),
@@ -321,8 +515,21 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     }
   }
 
+  @Subscribe
+  public void testSummaryFinished(TestSummaryEvent event) {
+    ResultType type = event.getTestResultSummary().getType();
+    if (type == ResultType.SUCCESS) {
+      testPasses.incrementAndGet();
+    } else if (type == ResultType.FAILURE) {
+      testFailures.incrementAndGet();
+    } else if (type == ResultType.ASSUMPTION_VIOLATION) {
+      testAssumptionViolations.incrementAndGet();
+    }
+  }
+
   @Subscribe
   public void testRunComplete(TestRunEvent.Finished event) {
+    testRunFinished = event;
     ImmutableList.Builder<String> builder = ImmutableList.builder();
     testFormatter.runComplete(builder, event.getResults());
     console.getStdErr().println(Joiner.on('\n').join(builder.build()));
@@ -29,6 +29,7 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
 
 import java.util.List;
 
@@ -114,6 +115,26 @@ public class TestResultFormatter {
     }
   }
 
+  /**
+   * Summarizes the tests that have finished so far, such as {@code "12 PASS, 1 FAIL"}. Assumption
+   * violations are counted as failures if they are treated as errors.
+   */
+  public String formatTestProgress(int successes, int failures, int assumptionViolations) {
+    if (isTreatingAssumptionsAsErrors) {
+      failures += assumptionViolations;
+      assumptionViolations = 0;
+    }
+
+    List<String> parts = Lists.newArrayList(successes + " PASS");
+    if (failures > 0) {
+      parts.add(failures + " FAIL");
+    }
+    if (assumptionViolations > 0) {
+      parts.add(assumptionViolations + " ASSUMPTION VIOLATIONS");
+    }
+    return Joiner.on(", ").join(parts);
+  }
+
   public void runComplete(ImmutableList.Builder<String> addTo, List<TestResults> completedResults) {
     // Print whether each test succeeded or failed.
     boolean isAllTestsPassed = true;
@@ -23,6 +23,7 @@ import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.BuildRuleEvent;
 import com.facebook.buck.rules.IndividualTestEvent;
 import com.facebook.buck.rules.TestRunEvent;
+import com.facebook.buck.step.StepEvent;
 import com.google.common.base.Preconditions;
 import com.google.common.eventbus.Subscribe;
 
@@ -73,6 +74,12 @@ public class WebServerBuckEventListener implements BuckEventListener {
     streamingWebSocketServlet.tellClients(finished);
   }
 
+  @Subscribe
+  public void stepFinished(StepEvent.Finished finished) {
+    // Sent so that clients can show the resources used by each step.
+    streamingWebSocketServlet.tellClients(finished);
+  }
+
   @Subscribe
   public void testRunStarted(TestRunEvent.Started event) {
     streamingWebSocketServlet.tellClients(event);
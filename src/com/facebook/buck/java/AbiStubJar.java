@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static com.facebook.buck.rules.BuildableProperties.Kind.ANDROID;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargets;
+import com.facebook.buck.rules.AbiRule;
+import com.facebook.buck.rules.AbstractBuildRule;
+import com.facebook.buck.rules.BuildContext;
+import com.facebook.buck.rules.BuildOutputInitializer;
+import com.facebook.buck.rules.BuildRuleParams;
+import com.facebook.buck.rules.BuildRuleType;
+import com.facebook.buck.rules.BuildableContext;
+import com.facebook.buck.rules.InitializableFromDisk;
+import com.facebook.buck.rules.OnDiskBuildInfo;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.Sha1HashCode;
+import com.facebook.buck.rules.SourcePaths;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.nio.file.Path;
+import java.util.Collections;
+
+/**
+ * The ABI of a {@link DefaultJavaLibrary}, generated from its sources alone: a jar with a stub of
+ * each of its classes, which has the signatures of the classes but no method bodies. See
+ * {@link AbiStubWriter}.
+ * <p>
+ * Generating the stubs only requires the stubs of the library's deps, not their compiled classes,
+ * so the stubs for a whole dependency chain can be generated well before the chain is compiled.
+ * Dependents of the library that are compiled against its stubs can then be compiled at the same
+ * time as the library, rather than after it.
+ */
+public class AbiStubJar extends AbstractBuildRule
+    implements HasJavaAbi, InitializableFromDisk<Sha1HashCode> {
+
+  public static final BuildRuleType TYPE = new BuildRuleType("abi_stub_jar");
+
+  private final DefaultJavaLibrary library;
+  private final Path outputJar;
+  private final BuildOutputInitializer<Sha1HashCode> buildOutputInitializer;
+
+  AbiStubJar(BuildRuleParams params, DefaultJavaLibrary library) {
+    super(params);
+    this.library = Preconditions.checkNotNull(library);
+    BuildTarget target = params.getBuildTarget();
+    this.outputJar = BuildTargets.getGenPath(target, "lib__%s__output")
+        .resolve(target.getShortName() + ".jar");
+    this.buildOutputInitializer = new BuildOutputInitializer<>(target, this);
+  }
+
+  @Override
+  protected Iterable<Path> getInputsToCompareToOutput() {
+    return SourcePaths.filterInputsToCompareToOutput(library.getJavaSrcs());
+  }
+
+  @Override
+  protected RuleKey.Builder appendDetailsToRuleKey(RuleKey.Builder builder) {
+    return library.getJavacOptions().appendToRuleKey(builder);
+  }
+
+  @Override
+  public ImmutableList<Step> getBuildSteps(
+      BuildContext context,
+      BuildableContext buildableContext) {
+    JavacOptions javacOptions = library.getJavacOptions();
+    if (library.getProperties().is(ANDROID)) {
+      javacOptions = JavacOptions.builder(javacOptions)
+          .setBootclasspath(context.getAndroidBootclasspathSupplier().get())
+          .build();
+    }
+
+    ImmutableList.Builder<Step> steps = ImmutableList.builder();
+    Path classesDirectory = BuildTargets.getBinPath(getBuildTarget(), "lib__%s__classes");
+    steps.add(new MakeCleanDirectoryStep(classesDirectory));
+    steps.add(new GenerateAbiStubsStep(
+        classesDirectory,
+        library.getJavaSrcs(),
+        library.getClasspathEntriesForAbiStubs(),
+        javacOptions,
+        buildableContext));
+
+    steps.add(new MakeCleanDirectoryStep(outputJar.getParent()));
+    steps.add(new JarDirectoryStep(
+        outputJar,
+        Collections.singleton(classesDirectory),
+        /* mainClass */ null,
+        /* manifestFile */ null));
+    buildableContext.recordArtifact(outputJar);
+
+    return steps.build();
+  }
+
+  @Override
+  public Path getPathToOutputFile() {
+    return outputJar;
+  }
+
+  @Override
+  public Sha1HashCode getAbiKey() {
+    return buildOutputInitializer.getBuildOutput();
+  }
+
+  @Override
+  public Sha1HashCode initializeFromDisk(OnDiskBuildInfo onDiskBuildInfo) {
+    Optional<Sha1HashCode> abiKey = onDiskBuildInfo.getHash(AbiRule.ABI_KEY_ON_DISK_METADATA);
+    if (!abiKey.isPresent()) {
+      throw new IllegalStateException(String.format(
+          "Should not be initializing %s from disk if the ABI key is not written.",
+          getBuildTarget()));
+    }
+    return abiKey.get();
+  }
+
+  @Override
+  public BuildOutputInitializer<Sha1HashCode> getBuildOutputInitializer() {
+    return buildOutputInitializer;
+  }
+}
@@ -0,0 +1,686 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.signature.SignatureVisitor;
+import org.objectweb.asm.signature.SignatureWriter;
+
+import java.lang.annotation.Retention;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.TypeVariable;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.SimpleAnnotationValueVisitor7;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * An annotation processor that writes an ABI stub for every non-private class in the sources that
+ * javac is given. A stub is a class file with the same signature, fields, method signatures,
+ * constants, annotations and nested classes as the class that javac would compile, but without
+ * any method bodies. That is enough for other code to be compiled against it.
+ * <p>
+ * This is meant to be run with {@code -proc:only}: javac then only parses the sources and resolves
+ * the types in their declarations, and never attributes or generates code for the method bodies,
+ * which is where most of the time of a compilation goes.
+ */
+@SupportedAnnotationTypes("*")
+class AbiStubWriter extends AbstractProcessor {
+
+  private final int classFileVersion;
+  private final SortedMap<String, byte[]> stubs = Maps.newTreeMap();
+
+  /**
+   * @param classFileVersion the class file version to give the stubs, such as
+   *     {@link Opcodes#V1_7}.
+   */
+  AbiStubWriter(int classFileVersion) {
+    this.classFileVersion = classFileVersion;
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    if (roundEnv.processingOver()) {
+      return false;
+    }
+
+    for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+      try {
+        writeStub(type);
+      } catch (UnresolvedTypeException e) {
+        reportUnresolvedType(e, type);
+      }
+    }
+    for (PackageElement pkg : ElementFilter.packagesIn(roundEnv.getRootElements())) {
+      try {
+        writePackageInfoStub(pkg);
+      } catch (UnresolvedTypeException e) {
+        reportUnresolvedType(e, pkg);
+      }
+    }
+    return false;
+  }
+
+  private void reportUnresolvedType(UnresolvedTypeException e, Element element) {
+    processingEnv.getMessager().printMessage(
+        Diagnostic.Kind.ERROR,
+        String.format("Cannot generate an ABI stub because %s cannot be resolved.", e.type),
+        element);
+  }
+
+  /**
+   * @return the stubs written so far, keyed by the internal name of their class, such as
+   *     {@code com/example/Foo$Bar}.
+   */
+  ImmutableSortedMap<String, byte[]> getStubs() {
+    return ImmutableSortedMap.copyOfSorted(stubs);
+  }
+
+  private void writeStub(TypeElement type) {
+    if (type.getModifiers().contains(Modifier.PRIVATE)) {
+      return;
+    }
+
+    String name = getInternalName(type);
+    ClassWriter writer = new ClassWriter(0);
+    TypeMirror superclass = type.getSuperclass();
+    String superName = superclass.getKind() == TypeKind.NONE ?
+        (type.getKind().isInterface() ? "java/lang/Object" : null) :
+        getInternalName(superclass);
+    List<? extends TypeMirror> interfaces = type.getInterfaces();
+    String[] interfaceNames = new String[interfaces.size()];
+    for (int i = 0; i < interfaceNames.length; i++) {
+      interfaceNames[i] = getInternalName(interfaces.get(i));
+    }
+    writer.visit(
+        classFileVersion,
+        getClassAccess(type),
+        name,
+        getClassSignature(type),
+        superName,
+        interfaceNames);
+
+    for (AnnotationMirror annotation : type.getAnnotationMirrors()) {
+      Boolean visible = isVisible(annotation);
+      if (visible != null) {
+        writeAnnotation(writer.visitAnnotation(getDescriptor(annotation), visible), annotation);
+      }
+    }
+
+    // Record the nesting of this class, and of the classes nested in it.
+    for (Element enclosing = type;
+         enclosing instanceof TypeElement &&
+             ((TypeElement) enclosing).getNestingKind() == NestingKind.MEMBER;
+         enclosing = enclosing.getEnclosingElement()) {
+      visitInnerClass(writer, (TypeElement) enclosing);
+    }
+    for (TypeElement member : ElementFilter.typesIn(type.getEnclosedElements())) {
+      if (!member.getModifiers().contains(Modifier.PRIVATE)) {
+        visitInnerClass(writer, member);
+      }
+    }
+
+    for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+      writeField(writer, field);
+    }
+    for (ExecutableElement method : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+      // The constructors of an enum are private: only the enum itself can call them.
+      if (type.getKind() != ElementKind.ENUM) {
+        writeMethod(writer, type, method);
+      }
+    }
+    for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+      writeMethod(writer, type, method);
+    }
+
+    writer.visitEnd();
+    stubs.put(name, writer.toByteArray());
+
+    for (TypeElement member : ElementFilter.typesIn(type.getEnclosedElements())) {
+      writeStub(member);
+    }
+  }
+
+  private void writePackageInfoStub(PackageElement pkg) {
+    String name = pkg.getQualifiedName().toString().replace('.', '/') + "/package-info";
+    ClassWriter writer = new ClassWriter(0);
+    writer.visit(
+        classFileVersion,
+        Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT | Opcodes.ACC_SYNTHETIC,
+        name,
+        /* signature */ null,
+        "java/lang/Object",
+        /* interfaces */ null);
+    for (AnnotationMirror annotation : pkg.getAnnotationMirrors()) {
+      Boolean visible = isVisible(annotation);
+      if (visible != null) {
+        writeAnnotation(writer.visitAnnotation(getDescriptor(annotation), visible), annotation);
+      }
+    }
+    writer.visitEnd();
+    stubs.put(name, writer.toByteArray());
+  }
+
+  private void visitInnerClass(ClassVisitor writer, TypeElement member) {
+    // Whether a nested class is deprecated is recorded in its own class file.
+    int access = getAccess(member) & ~Opcodes.ACC_DEPRECATED;
+    if (member.getKind().isInterface()) {
+      access |= Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT;
+    }
+    if (member.getKind() == ElementKind.ANNOTATION_TYPE) {
+      access |= Opcodes.ACC_ANNOTATION;
+    }
+    if (member.getKind() == ElementKind.ENUM) {
+      access |= Opcodes.ACC_ENUM;
+    }
+    writer.visitInnerClass(
+        getInternalName(member),
+        getInternalName((TypeElement) member.getEnclosingElement()),
+        member.getSimpleName().toString(),
+        access);
+  }
+
+  private void writeField(ClassVisitor writer, VariableElement field) {
+    if (field.getModifiers().contains(Modifier.PRIVATE)) {
+      return;
+    }
+
+    int access = getAccess(field);
+    if (field.getKind() == ElementKind.ENUM_CONSTANT) {
+      access |= Opcodes.ACC_ENUM;
+    }
+    TypeMirror type = field.asType();
+    FieldVisitor fieldVisitor = writer.visitField(
+        access,
+        field.getSimpleName().toString(),
+        getDescriptor(type),
+        needsSignature(type) ? getTypeSignature(type) : null,
+        field.getConstantValue());
+    for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+      Boolean visible = isVisible(annotation);
+      if (visible != null) {
+        writeAnnotation(
+            fieldVisitor.visitAnnotation(getDescriptor(annotation), visible),
+            annotation);
+      }
+    }
+    fieldVisitor.visitEnd();
+  }
+
+  private void writeMethod(ClassVisitor writer, TypeElement owner, ExecutableElement method) {
+    if (method.getModifiers().contains(Modifier.PRIVATE)) {
+      return;
+    }
+
+    int access = getAccess(method);
+    if (method.isVarArgs()) {
+      access |= Opcodes.ACC_VARARGS;
+    }
+
+    // javac passes the enclosing instance of an inner class to its constructors as an extra first
+    // parameter, which appears in the descriptor but not in the generic signature.
+    boolean isInnerClassConstructor = method.getKind() == ElementKind.CONSTRUCTOR &&
+        owner.getNestingKind() == NestingKind.MEMBER &&
+        !owner.getModifiers().contains(Modifier.STATIC);
+    StringBuilder descriptor = new StringBuilder("(");
+    if (isInnerClassConstructor) {
+      descriptor.append(getDescriptor(owner.getEnclosingElement().asType()));
+    }
+    boolean needsSignature = isInnerClassConstructor ||
+        !method.getTypeParameters().isEmpty() ||
+        needsSignature(method.getReturnType());
+    for (VariableElement parameter : method.getParameters()) {
+      descriptor.append(getDescriptor(parameter.asType()));
+      needsSignature |= needsSignature(parameter.asType());
+    }
+    descriptor.append(')').append(getDescriptor(method.getReturnType()));
+
+    List<? extends TypeMirror> thrownTypes = method.getThrownTypes();
+    String[] exceptions = new String[thrownTypes.size()];
+    boolean throwsTypeVariable = false;
+    for (int i = 0; i < exceptions.length; i++) {
+      exceptions[i] = getInternalName(thrownTypes.get(i));
+      throwsTypeVariable |= thrownTypes.get(i).getKind() == TypeKind.TYPEVAR;
+    }
+
+    String signature = null;
+    if (needsSignature || throwsTypeVariable) {
+      SignatureWriter signatureWriter = new SignatureWriter();
+      writeTypeParameters(signatureWriter, method.getTypeParameters());
+      for (VariableElement parameter : method.getParameters()) {
+        writeType(signatureWriter.visitParameterType(), parameter.asType());
+      }
+      writeType(signatureWriter.visitReturnType(), method.getReturnType());
+      if (throwsTypeVariable) {
+        for (TypeMirror thrownType : thrownTypes) {
+          writeType(signatureWriter.visitExceptionType(), thrownType);
+        }
+      }
+      signature = signatureWriter.toString();
+    }
+
+    MethodVisitor methodVisitor = writer.visitMethod(
+        access,
+        method.getKind() == ElementKind.CONSTRUCTOR ? "<init>" : method.getSimpleName().toString(),
+        descriptor.toString(),
+        signature,
+        exceptions);
+    for (AnnotationMirror annotation : method.getAnnotationMirrors()) {
+      Boolean visible = isVisible(annotation);
+      if (visible != null) {
+        writeAnnotation(
+            methodVisitor.visitAnnotation(getDescriptor(annotation), visible),
+            annotation);
+      }
+    }
+    List<? extends VariableElement> parameters = method.getParameters();
+    for (int i = 0; i < parameters.size(); i++) {
+      for (AnnotationMirror annotation : parameters.get(i).getAnnotationMirrors()) {
+        Boolean visible = isVisible(annotation);
+        if (visible != null) {
+          writeAnnotation(
+              methodVisitor.visitParameterAnnotation(i, getDescriptor(annotation), visible),
+              annotation);
+        }
+      }
+    }
+    AnnotationValue defaultValue = method.getDefaultValue();
+    if (defaultValue != null) {
+      AnnotationVisitor annotationVisitor = methodVisitor.visitAnnotationDefault();
+      writeAnnotationValue(annotationVisitor, null, defaultValue);
+      annotationVisitor.visitEnd();
+    }
+    methodVisitor.visitEnd();
+  }
+
+  /**
+   * @return whether an annotation is visible at runtime, or {@code null} if it is not kept in class
+   *     files at all.
+   */
+  @Nullable
+  private static Boolean isVisible(AnnotationMirror annotation) {
+    Retention retention =
+        annotation.getAnnotationType().asElement().getAnnotation(Retention.class);
+    if (retention == null) {
+      return false;
+    }
+    switch (retention.value()) {
+      case SOURCE:
+        return null;
+      case RUNTIME:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private void writeAnnotation(AnnotationVisitor visitor, AnnotationMirror annotation) {
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+        annotation.getElementValues().entrySet()) {
+      writeAnnotationValue(visitor, entry.getKey().getSimpleName().toString(), entry.getValue());
+    }
+    visitor.visitEnd();
+  }
+
+  private void writeAnnotationValue(
+      final AnnotationVisitor visitor,
+      @Nullable final String name,
+      AnnotationValue value) {
+    value.accept(new SimpleAnnotationValueVisitor7<Void, Void>() {
+      @Override
+      protected Void defaultAction(Object primitiveOrString, Void ignored) {
+        visitor.visit(name, primitiveOrString);
+        return null;
+      }
+
+      @Override
+      public Void visitType(TypeMirror type, Void ignored) {
+        visitor.visit(name, Type.getType(getDescriptor(type)));
+        return null;
+      }
+
+      @Override
+      public Void visitEnumConstant(VariableElement constant, Void ignored) {
+        visitor.visitEnum(
+            name,
+            getDescriptor(constant.asType()),
+            constant.getSimpleName().toString());
+        return null;
+      }
+
+      @Override
+      public Void visitAnnotation(AnnotationMirror annotation, Void ignored) {
+        writeAnnotation(visitor.visitAnnotation(name, getDescriptor(annotation)), annotation);
+        return null;
+      }
+
+      @Override
+      public Void visitArray(List<? extends AnnotationValue> values, Void ignored) {
+        AnnotationVisitor arrayVisitor = visitor.visitArray(name);
+        for (AnnotationValue element : values) {
+          writeAnnotationValue(arrayVisitor, null, element);
+        }
+        arrayVisitor.visitEnd();
+        return null;
+      }
+    }, null);
+  }
+
+  private int getClassAccess(TypeElement type) {
+    int access = getAccess(type);
+    // A class file only records whether a class is public: protected nested classes are public,
+    // and whether a nested class is private or static is only recorded in the InnerClasses
+    // attribute.
+    if ((access & Opcodes.ACC_PROTECTED) != 0) {
+      access |= Opcodes.ACC_PUBLIC;
+    }
+    access &= ~(Opcodes.ACC_PROTECTED | Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC);
+
+    switch (type.getKind()) {
+      case ANNOTATION_TYPE:
+        access |= Opcodes.ACC_ANNOTATION | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT;
+        break;
+      case INTERFACE:
+        access |= Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT;
+        break;
+      case ENUM:
+        access |= Opcodes.ACC_ENUM | Opcodes.ACC_SUPER;
+        break;
+      default:
+        access |= Opcodes.ACC_SUPER;
+        break;
+    }
+    return access;
+  }
+
+  private int getAccess(Element element) {
+    int access = 0;
+    for (Modifier modifier : element.getModifiers()) {
+      switch (modifier) {
+        case PUBLIC:
+          access |= Opcodes.ACC_PUBLIC;
+          break;
+        case PROTECTED:
+          access |= Opcodes.ACC_PROTECTED;
+          break;
+        case PRIVATE:
+          access |= Opcodes.ACC_PRIVATE;
+          break;
+        case ABSTRACT:
+          access |= Opcodes.ACC_ABSTRACT;
+          break;
+        case STATIC:
+          access |= Opcodes.ACC_STATIC;
+          break;
+        case FINAL:
+          access |= Opcodes.ACC_FINAL;
+          break;
+        case TRANSIENT:
+          access |= Opcodes.ACC_TRANSIENT;
+          break;
+        case VOLATILE:
+          access |= Opcodes.ACC_VOLATILE;
+          break;
+        case SYNCHRONIZED:
+          access |= Opcodes.ACC_SYNCHRONIZED;
+          break;
+        case NATIVE:
+          access |= Opcodes.ACC_NATIVE;
+          break;
+        case STRICTFP:
+          access |= Opcodes.ACC_STRICT;
+          break;
+        default:
+          break;
+      }
+    }
+    if (processingEnv.getElementUtils().isDeprecated(element)) {
+      access |= Opcodes.ACC_DEPRECATED;
+    }
+    return access;
+  }
+
+  @Nullable
+  private String getClassSignature(TypeElement type) {
+    boolean needsSignature = !type.getTypeParameters().isEmpty() ||
+        needsSignature(type.getSuperclass());
+    for (TypeMirror implemented : type.getInterfaces()) {
+      needsSignature |= needsSignature(implemented);
+    }
+    if (!needsSignature) {
+      return null;
+    }
+
+    SignatureWriter signatureWriter = new SignatureWriter();
+    writeTypeParameters(signatureWriter, type.getTypeParameters());
+    if (type.getSuperclass().getKind() == TypeKind.NONE) {
+      SignatureVisitor superclassVisitor = signatureWriter.visitSuperclass();
+      superclassVisitor.visitClassType("java/lang/Object");
+      superclassVisitor.visitEnd();
+    } else {
+      writeType(signatureWriter.visitSuperclass(), type.getSuperclass());
+    }
+    for (TypeMirror implemented : type.getInterfaces()) {
+      writeType(signatureWriter.visitInterface(), implemented);
+    }
+    return signatureWriter.toString();
+  }
+
+  private String getTypeSignature(TypeMirror type) {
+    SignatureWriter signatureWriter = new SignatureWriter();
+    writeType(signatureWriter, type);
+    return signatureWriter.toString();
+  }
+
+  /**
+   * @return whether {@code type} has generic information that its erasure lacks.
+   */
+  private static boolean needsSignature(TypeMirror type) {
+    switch (type.getKind()) {
+      case TYPEVAR:
+        return true;
+      case ARRAY:
+        return needsSignature(((ArrayType) type).getComponentType());
+      case DECLARED:
+        return isParameterized((DeclaredType) type);
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isParameterized(DeclaredType type) {
+    TypeMirror enclosing = type.getEnclosingType();
+    return !type.getTypeArguments().isEmpty() ||
+        (enclosing.getKind() == TypeKind.DECLARED && isParameterized((DeclaredType) enclosing));
+  }
+
+  private void writeTypeParameters(
+      SignatureVisitor visitor,
+      List<? extends TypeParameterElement> typeParameters) {
+    for (TypeParameterElement typeParameter : typeParameters) {
+      visitor.visitFormalTypeParameter(typeParameter.getSimpleName().toString());
+      boolean isFirst = true;
+      for (TypeMirror bound : typeParameter.getBounds()) {
+        // The first bound is a class bound unless it is an interface, in which case the class
+        // bound is left empty.
+        if (isFirst && !isInterface(bound)) {
+          writeType(visitor.visitClassBound(), bound);
+        } else {
+          writeType(visitor.visitInterfaceBound(), bound);
+        }
+        isFirst = false;
+      }
+    }
+  }
+
+  private static boolean isInterface(TypeMirror type) {
+    return type.getKind() == TypeKind.DECLARED &&
+        ((DeclaredType) type).asElement().getKind().isInterface();
+  }
+
+  private void writeType(SignatureVisitor visitor, TypeMirror type) {
+    switch (type.getKind()) {
+      case ARRAY:
+        writeType(visitor.visitArrayType(), ((ArrayType) type).getComponentType());
+        break;
+      case TYPEVAR:
+        visitor.visitTypeVariable(
+            ((TypeVariable) type).asElement().getSimpleName().toString());
+        break;
+      case DECLARED:
+        writeClassType(visitor, (DeclaredType) type);
+        visitor.visitEnd();
+        break;
+      default:
+        visitor.visitBaseType(getDescriptor(type).charAt(0));
+        break;
+    }
+  }
+
+  private void writeClassType(SignatureVisitor visitor, DeclaredType type) {
+    TypeMirror enclosing = type.getEnclosingType();
+    if (enclosing.getKind() == TypeKind.DECLARED && isParameterized((DeclaredType) enclosing)) {
+      writeClassType(visitor, (DeclaredType) enclosing);
+      visitor.visitInnerClassType(type.asElement().getSimpleName().toString());
+    } else {
+      visitor.visitClassType(getInternalName(type));
+    }
+
+    for (TypeMirror typeArgument : type.getTypeArguments()) {
+      if (typeArgument.getKind() != TypeKind.WILDCARD) {
+        writeType(visitor.visitTypeArgument(SignatureVisitor.INSTANCEOF), typeArgument);
+        continue;
+      }
+      WildcardType wildcard = (WildcardType) typeArgument;
+      if (wildcard.getExtendsBound() != null) {
+        writeType(visitor.visitTypeArgument(SignatureVisitor.EXTENDS), wildcard.getExtendsBound());
+      } else if (wildcard.getSuperBound() != null) {
+        writeType(visitor.visitTypeArgument(SignatureVisitor.SUPER), wildcard.getSuperBound());
+      } else {
+        visitor.visitTypeArgument();
+      }
+    }
+  }
+
+  private String getDescriptor(AnnotationMirror annotation) {
+    return getDescriptor(annotation.getAnnotationType());
+  }
+
+  private String getDescriptor(TypeMirror type) {
+    TypeMirror erasure = getTypes().erasure(type);
+    switch (erasure.getKind()) {
+      case BOOLEAN:
+        return "Z";
+      case BYTE:
+        return "B";
+      case CHAR:
+        return "C";
+      case SHORT:
+        return "S";
+      case INT:
+        return "I";
+      case LONG:
+        return "J";
+      case FLOAT:
+        return "F";
+      case DOUBLE:
+        return "D";
+      case VOID:
+        return "V";
+      case ARRAY:
+        return "[" + getDescriptor(((ArrayType) erasure).getComponentType());
+      case DECLARED:
+        return "L" + getInternalName(erasure) + ";";
+      default:
+        throw new UnresolvedTypeException(type);
+    }
+  }
+
+  private String getInternalName(TypeMirror type) {
+    TypeMirror erasure = getTypes().erasure(type);
+    if (erasure.getKind() != TypeKind.DECLARED) {
+      throw new UnresolvedTypeException(type);
+    }
+    return getInternalName((TypeElement) ((DeclaredType) erasure).asElement());
+  }
+
+  private String getInternalName(TypeElement type) {
+    return getElements().getBinaryName(type).toString().replace('.', '/');
+  }
+
+  private Types getTypes() {
+    return processingEnv.getTypeUtils();
+  }
+
+  private Elements getElements() {
+    return processingEnv.getElementUtils();
+  }
+
+  /**
+   * Thrown when a type that appears in a declaration cannot be resolved against the classpath, so
+   * that the error can be reported against the class that could not be stubbed.
+   */
+  private static class UnresolvedTypeException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final TypeMirror type;
+
+    private UnresolvedTypeException(TypeMirror type) {
+      this.type = type;
+    }
+  }
+}
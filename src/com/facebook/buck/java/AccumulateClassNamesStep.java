@@ -17,45 +17,35 @@
 package com.facebook.buck.java;
 
 import com.facebook.buck.event.ThrowableConsoleEvent;
-import com.facebook.buck.java.classes.ClasspathTraversal;
-import com.facebook.buck.java.classes.DefaultClasspathTraverser;
-import com.facebook.buck.java.classes.FileLike;
-import com.facebook.buck.java.classes.FileLikes;
+import com.facebook.buck.java.classes.ClassIndex;
+import com.facebook.buck.java.classes.ClassIndexCache;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
-import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableSortedMap;
-import com.google.common.collect.Iterables;
 import com.google.common.hash.HashCode;
-import com.google.common.hash.Hashing;
-import com.google.common.io.ByteSource;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Path;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
 /**
  * {@link Step} that takes a directory or zip of {@code .class} files and traverses it to get the
  * total set of {@code .class} files included by the directory or zip.
+ * <p>
+ * What is written is the {@link ClassIndex} of the directory or zip, which is also shared with
+ * later steps through the {@link ClassIndexCache}.
  */
 public class AccumulateClassNamesStep implements Step {
 
   /**
    * In the generated {@code classes.txt} file, each line will contain the path to a {@code .class}
-   * file (without its suffix) and the SHA-1 hash of its contents, separated by this separator.
+   * file (without its suffix) and the SHA-1 hash of its contents, followed by the other fields
+   * of a {@link ClassIndex}, separated by this separator.
    */
-  static final String CLASS_NAME_HASH_CODE_SEPARATOR = " ";
-
-  private static final Splitter CLASS_NAME_AND_HASH_SPLITTER = Splitter.on(
-      CLASS_NAME_HASH_CODE_SEPARATOR);
+  static final String CLASS_NAME_HASH_CODE_SEPARATOR = ClassIndex.SEPARATOR;
 
   private final Optional<Path> pathToJarOrClassesDirectory;
   private final Path whereClassNamesShouldBeWritten;
@@ -75,29 +65,25 @@ public class AccumulateClassNamesStep implements Step {
 
   @Override
   public int execute(ExecutionContext context) {
-    ImmutableSortedMap<String, HashCode> classNames;
+    ClassIndex classIndex;
     if (pathToJarOrClassesDirectory.isPresent()) {
-      Optional<ImmutableSortedMap<String, HashCode>> classNamesOptional = calculateClassHashes(
-          context,
-          context.getProjectFilesystem().resolve(pathToJarOrClassesDirectory.get()));
-      if (classNamesOptional.isPresent()) {
-        classNames = classNamesOptional.get();
-      } else {
+      try {
+        classIndex = ClassIndexCache.getInstance().get(
+            pathToJarOrClassesDirectory.get(),
+            context.getProjectFilesystem());
+      } catch (IOException e) {
+        context.logError(e, "Error accumulating class names for %s.", pathToJarOrClassesDirectory);
         return 1;
       }
     } else {
-      classNames = ImmutableSortedMap.of();
+      classIndex = new ClassIndex(
+          Optional.<HashCode>absent(),
+          ImmutableSortedMap.<String, ClassIndex.ClassInfo>of());
     }
 
     try {
       context.getProjectFilesystem().writeLinesToPath(
-          Iterables.transform(classNames.entrySet(),
-              new Function<Map.Entry<String, HashCode>, String>() {
-            @Override
-            public String apply(Entry<String, HashCode> entry) {
-              return entry.getKey() + CLASS_NAME_HASH_CODE_SEPARATOR + entry.getValue();
-            }
-          }),
+          classIndex.toLines(),
           whereClassNamesShouldBeWritten);
     } catch (IOException e) {
       context.getBuckEventBus().post(ThrowableConsoleEvent.create(e,
@@ -125,60 +111,17 @@ public class AccumulateClassNamesStep implements Step {
   }
 
   /**
-   * @return an Optional that will be absent if there was an error.
+   * @param lines that were written in the same format output by {@link #execute(ExecutionContext)}.
    */
-  private Optional<ImmutableSortedMap<String, HashCode>> calculateClassHashes(
-      ExecutionContext context, Path path) {
-    final ImmutableSortedMap.Builder<String, HashCode> classNamesBuilder =
-        ImmutableSortedMap.naturalOrder();
-    ClasspathTraversal traversal =
-        new ClasspathTraversal(Collections.singleton(path), context.getProjectFilesystem()) {
-          @Override
-          public void visit(final FileLike fileLike) throws IOException {
-            // When traversing a JAR file, it may have resources or directory entries that do not
-            // end in .class, which should be ignored.
-            if (!FileLikes.isClassFile(fileLike)) {
-              return;
-            }
-
-            String key = FileLikes.getFileNameWithoutClassSuffix(fileLike);
-            ByteSource input = new ByteSource() {
-              @Override
-              public InputStream openStream() throws IOException {
-                return fileLike.getInput();
-              }
-            };
-            HashCode value = input.hash(Hashing.sha1());
-            classNamesBuilder.put(key, value);
-          }
-        };
-
-    try {
-      new DefaultClasspathTraverser().traverse(traversal);
-    } catch (IOException e) {
-      context.logError(e, "Error accumulating class names for %s.", pathToJarOrClassesDirectory);
-      return Optional.absent();
-    }
-
-    return Optional.of(classNamesBuilder.build());
+  public static ImmutableSortedMap<String, HashCode> parseClassHashes(List<String> lines) {
+    return parseClassIndex(lines).getClassNamesToHashes();
   }
 
   /**
    * @param lines that were written in the same format output by {@link #execute(ExecutionContext)}.
    */
-  public static ImmutableSortedMap<String, HashCode> parseClassHashes(List<String> lines) {
-    ImmutableSortedMap.Builder<String, HashCode> classNamesBuilder =
-        ImmutableSortedMap.naturalOrder();
-
-    for (String line : lines) {
-      List<String> parts = CLASS_NAME_AND_HASH_SPLITTER.splitToList(line);
-      Preconditions.checkState(parts.size() == 2);
-      String key = parts.get(0);
-      HashCode value = HashCode.fromString(parts.get(1));
-      classNamesBuilder.put(key, value);
-    }
-
-    return classNamesBuilder.build();
+  public static ClassIndex parseClassIndex(List<String> lines) {
+    return ClassIndex.fromLines(lines);
   }
 
 }
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * A {@link javax.tools.JavaFileManager} that serves the jars on the classpath from the
+ * {@link ClasspathJarCache} instead of letting javac open each of them. Directories on the
+ * classpath are listed directly and read through the standard file manager. Everything other than
+ * the classpath, such as the boot classpath and the output directory, is left to the standard file
+ * manager.
+ * <p>
+ * Because this class owns the classpath, {@code -classpath} must not also be passed to javac.
+ * <p>
+ * It also records which packages javac looked up on the classpath and which classpath entries it
+ * read classes from, so that callers can tell which parts of the classpath a compilation used.
+ */
+class CachingJavaFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+  private static final ImmutableSet<String> CLASSPATH_OPTIONS = ImmutableSet.of(
+      "-classpath",
+      "-cp");
+
+  private final ClasspathJarCache cache;
+
+  /** The classpath in order. Each element is either a jar's index or a directory. */
+  private final ImmutableList<Object> classpath;
+  private final ImmutableList<ClasspathJarIndex> indexes;
+  private final ImmutableList<File> directories;
+  private final ImmutableList<URL> urls;
+  private boolean isDirectoryClasspathSet;
+  private boolean isClosed;
+  private final Set<String> listedPackages = Sets.newConcurrentHashSet();
+  private final Set<Path> usedClasspathEntries = Sets.newConcurrentHashSet();
+
+  CachingJavaFileManager(
+      StandardJavaFileManager fileManager,
+      ClasspathJarCache cache,
+      Iterable<Path> absoluteClasspathEntries) throws IOException {
+    super(fileManager);
+    this.cache = Preconditions.checkNotNull(cache);
+
+    ImmutableList.Builder<Object> classpath = ImmutableList.builder();
+    List<ClasspathJarIndex> indexes = Lists.newArrayList();
+    List<File> directories = Lists.newArrayList();
+    ImmutableList.Builder<URL> urls = ImmutableList.builder();
+    try {
+      for (Path entry : absoluteClasspathEntries) {
+        if (Files.isDirectory(entry)) {
+          classpath.add(entry.toFile());
+          directories.add(entry.toFile());
+        } else if (Files.isRegularFile(entry)) {
+          ClasspathJarIndex index = cache.getIndex(entry);
+          indexes.add(index);
+          classpath.add(index);
+        } else {
+          // Like javac, ignore entries that do not exist.
+          continue;
+        }
+        urls.add(entry.toUri().toURL());
+      }
+    } catch (IOException | RuntimeException e) {
+      release(indexes);
+      throw e;
+    }
+    this.classpath = classpath.build();
+    this.indexes = ImmutableList.copyOf(indexes);
+    this.directories = ImmutableList.copyOf(directories);
+    this.urls = urls.build();
+  }
+
+  /**
+   * Releases the indexes of the jars on the classpath, which may then be closed by the
+   * {@link ClasspathJarCache}. Nothing may be read from the classpath afterwards.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!isClosed) {
+      isClosed = true;
+      release(indexes);
+    }
+    super.close();
+  }
+
+  private static void release(List<ClasspathJarIndex> indexes) throws IOException {
+    for (ClasspathJarIndex index : indexes) {
+      index.release();
+    }
+  }
+
+  /**
+   * The standard file manager still needs to know about the directories on the classpath so that
+   * it can infer the binary names of the files that are listed from them. This cannot be done in
+   * the constructor: setting a location makes the standard file manager ignore location options,
+   * such as {@code -d}, that javac passes to it afterwards.
+   */
+  private synchronized void setDirectoryClasspath() throws IOException {
+    if (!isDirectoryClasspathSet) {
+      fileManager.setLocation(StandardLocation.CLASS_PATH, directories);
+      isDirectoryClasspathSet = true;
+    }
+  }
+
+  @Override
+  public Iterable<JavaFileObject> list(
+      Location location,
+      String packageName,
+      Set<JavaFileObject.Kind> kinds,
+      boolean recurse) throws IOException {
+    if (location != StandardLocation.CLASS_PATH) {
+      return super.list(location, packageName, kinds, recurse);
+    }
+    setDirectoryClasspath();
+    listedPackages.add(packageName);
+
+    // Preserve the order of the classpath, since javac uses the first definition of a class that
+    // it finds.
+    ImmutableList.Builder<JavaFileObject> files = ImmutableList.builder();
+    for (Object entry : classpath) {
+      if (entry instanceof ClasspathJarIndex) {
+        ClasspathJarIndex index = (ClasspathJarIndex) entry;
+        for (String entryName : index.getEntries(packageName, recurse)) {
+          if (kinds.contains(ClasspathJarIndex.getKind(entryName))) {
+            files.add(new UsageRecordingJarEntryJavaFileObject(index, entryName));
+          }
+        }
+      } else {
+        File packageDirectory =
+            new File((File) entry, packageName.replace('.', File.separatorChar));
+        List<File> matches = Lists.newArrayList();
+        listDirectory(packageDirectory, kinds, recurse, matches);
+        // Files from directories are read through the standard file manager, so a directory counts
+        // as used as soon as anything is listed from it.
+        if (!matches.isEmpty()) {
+          usedClasspathEntries.add(((File) entry).toPath());
+        }
+        files.addAll(fileManager.getJavaFileObjectsFromFiles(matches));
+      }
+    }
+    return files.build();
+  }
+
+  /**
+   * @return the names of the packages, such as {@code com.example}, that javac listed on the
+   *     classpath. Only the classes in these packages can affect the compilation.
+   */
+  ImmutableSet<String> getListedPackages() {
+    return ImmutableSet.copyOf(listedPackages);
+  }
+
+  /**
+   * @return the absolute paths of the jars on the classpath that javac read classes from, and of
+   *     the directories on the classpath that javac listed files from.
+   */
+  ImmutableSet<Path> getUsedClasspathEntries() {
+    return ImmutableSet.copyOf(usedClasspathEntries);
+  }
+
+  private static void listDirectory(
+      File directory,
+      Set<JavaFileObject.Kind> kinds,
+      boolean recurse,
+      List<File> matches) {
+    File[] children = directory.listFiles();
+    if (children == null) {
+      return;
+    }
+    Arrays.sort(children);
+    for (File child : children) {
+      if (child.isDirectory()) {
+        if (recurse) {
+          listDirectory(child, kinds, recurse, matches);
+        }
+      } else if (kinds.contains(ClasspathJarIndex.getKind(child.getName()))) {
+        matches.add(child);
+      }
+    }
+  }
+
+  @Override
+  public String inferBinaryName(Location location, JavaFileObject file) {
+    if (file instanceof JarEntryJavaFileObject) {
+      return ((JarEntryJavaFileObject) file).getBinaryName();
+    }
+    return super.inferBinaryName(location, file);
+  }
+
+  @Override
+  public boolean isSameFile(FileObject a, FileObject b) {
+    if (a instanceof JarEntryJavaFileObject || b instanceof JarEntryJavaFileObject) {
+      return a.equals(b);
+    }
+    return super.isSameFile(a, b);
+  }
+
+  /**
+   * javac looks for annotation processors on the classpath when no {@code -processorpath} is
+   * given, so the class loader must see the jars as well as the directories.
+   */
+  @Override
+  public ClassLoader getClassLoader(Location location) {
+    if (location != StandardLocation.CLASS_PATH) {
+      return super.getClassLoader(location);
+    }
+    return new URLClassLoader(urls.toArray(new URL[urls.size()]), getClass().getClassLoader());
+  }
+
+  @Override
+  public boolean hasLocation(Location location) {
+    return location == StandardLocation.CLASS_PATH || super.hasLocation(location);
+  }
+
+  private class UsageRecordingJarEntryJavaFileObject extends JarEntryJavaFileObject {
+
+    private final ClasspathJarIndex index;
+
+    private UsageRecordingJarEntryJavaFileObject(ClasspathJarIndex index, String entryName) {
+      super(cache, index, entryName);
+      this.index = index;
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+      usedClasspathEntries.add(index.getJarPath());
+      return super.openInputStream();
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+      usedClasspathEntries.add(index.getJarPath());
+      return super.getCharContent(ignoreEncodingErrors);
+    }
+  }
+
+  /**
+   * @return {@code options} without {@code -classpath} and its value.
+   */
+  static ImmutableList<String> removeClasspathOption(List<String> options) {
+    ImmutableList.Builder<String> filtered = ImmutableList.builder();
+    for (int i = 0; i < options.size(); i++) {
+      if (CLASSPATH_OPTIONS.contains(options.get(i))) {
+        i++;
+        continue;
+      }
+      filtered.add(options.get(i));
+    }
+    return filtered.build();
+  }
+}
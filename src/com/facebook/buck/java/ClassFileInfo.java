@@ -0,0 +1,372 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.commons.RemappingClassAdapter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+
+import javax.annotation.Nullable;
+
+/**
+ * What Buck needs to know about a single compiled class: the source file it came from, the classes
+ * it refers to, and a hash of the parts of it that other classes can compile against.
+ * <p>
+ * The ABI hash covers the class's signature, its superclass and interfaces, its annotations, and
+ * the signatures, annotations and constant values of its non-private, non-synthetic fields and
+ * methods, including the annotations of their parameters and the defaults of annotation members.
+ * Annotations are hashed along with their element values, since annotation processors and
+ * constant-dependent code read them. Members, and the elements of an annotation, are hashed in
+ * sorted order, so reordering them in the source does not change the hash. Private nested
+ * classes, local classes and anonymous classes are not part of the ABI.
+ */
+final class ClassFileInfo {
+
+  private final String className;
+  private final Optional<String> sourceFile;
+  private final boolean isPartOfAbi;
+  private final HashCode abiHash;
+  private final ImmutableSet<String> referencedClasses;
+
+  private ClassFileInfo(
+      String className,
+      Optional<String> sourceFile,
+      boolean isPartOfAbi,
+      HashCode abiHash,
+      ImmutableSet<String> referencedClasses) {
+    this.className = className;
+    this.sourceFile = sourceFile;
+    this.isPartOfAbi = isPartOfAbi;
+    this.abiHash = abiHash;
+    this.referencedClasses = referencedClasses;
+  }
+
+  /**
+   * @throws IOException if the class file cannot be read, including when its version is newer than
+   *     ASM supports.
+   */
+  static ClassFileInfo read(InputStream classFile) throws IOException {
+    ClassReader reader;
+    try {
+      reader = new ClassReader(classFile);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Unsupported class file.", e);
+    }
+    final Set<String> referencedClasses = Sets.newHashSet();
+    Remapper referenceCollector = new Remapper() {
+      @Override
+      public String map(String typeName) {
+        referencedClasses.add(typeName);
+        return typeName;
+      }
+    };
+    AbiVisitor abiVisitor = new AbiVisitor();
+    reader.accept(
+        new RemappingClassAdapter(abiVisitor, referenceCollector),
+        ClassReader.SKIP_FRAMES);
+
+    referencedClasses.remove(abiVisitor.className);
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (String member : abiVisitor.members) {
+      hasher.putUnencodedChars(member).putChar('\n');
+    }
+    return new ClassFileInfo(
+        abiVisitor.className,
+        Optional.fromNullable(abiVisitor.sourceFile),
+        abiVisitor.isPartOfAbi,
+        hasher.hash(),
+        ImmutableSet.copyOf(referencedClasses));
+  }
+
+  /**
+   * @return the internal name of the class, such as {@code com/example/Foo$Bar}.
+   */
+  String getClassName() {
+    return className;
+  }
+
+  /**
+   * @return the path of the class's source file relative to its source root, such as
+   *     {@code com/example/Foo.java}, if the class was compiled with source file debug information.
+   */
+  Optional<String> getSourcePath() {
+    if (!sourceFile.isPresent()) {
+      return Optional.absent();
+    }
+    int lastSlash = className.lastIndexOf('/');
+    return Optional.of(className.substring(0, lastSlash + 1) + sourceFile.get());
+  }
+
+  boolean isPartOfAbi() {
+    return isPartOfAbi;
+  }
+
+  HashCode getAbiHash() {
+    return abiHash;
+  }
+
+  /**
+   * @return the internal names of the other classes that this class refers to.
+   */
+  ImmutableSet<String> getReferencedClasses() {
+    return referencedClasses;
+  }
+
+  private static boolean isInAbi(int access) {
+    return (access & (Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC)) == 0;
+  }
+
+  private static class AbiVisitor extends ClassVisitor {
+    private final SortedSet<String> members = Sets.newTreeSet();
+    private String className = "";
+    @Nullable
+    private String sourceFile;
+    private boolean isPartOfAbi = true;
+
+    private AbiVisitor() {
+      super(Opcodes.ASM4);
+    }
+
+    @Override
+    public void visit(
+        int version,
+        int access,
+        String name,
+        String signature,
+        String superName,
+        String[] interfaces) {
+      className = name;
+      isPartOfAbi = (access & Opcodes.ACC_SYNTHETIC) == 0;
+      members.add(describe("class", access, name, signature, superName, sortedJoin(interfaces)));
+    }
+
+    @Override
+    public void visitSource(String source, String debug) {
+      sourceFile = source;
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+      return describeAnnotation("annotation", desc);
+    }
+
+    @Override
+    public void visitInnerClass(String name, String outerName, String innerName, int access) {
+      if (!name.equals(className)) {
+        return;
+      }
+      // Local and anonymous classes have no outer name, and anonymous classes have no inner name.
+      if (outerName == null || innerName == null || (access & Opcodes.ACC_PRIVATE) != 0) {
+        isPartOfAbi = false;
+      }
+      // The access flags of a nested class, such as static or protected, are only recorded here.
+      members.add(describe("inner", access, name));
+    }
+
+    @Override
+    public FieldVisitor visitField(
+        int access,
+        String name,
+        String desc,
+        String signature,
+        Object value) {
+      if (!isInAbi(access)) {
+        return new FieldVisitor(Opcodes.ASM4) {};
+      }
+      final String field = describe("field", access, name, desc, signature, value);
+      members.add(field);
+      return new FieldVisitor(Opcodes.ASM4) {
+        @Override
+        public AnnotationVisitor visitAnnotation(String annotationDesc, boolean visible) {
+          return describeAnnotation(field + " annotation", annotationDesc);
+        }
+      };
+    }
+
+    @Override
+    public MethodVisitor visitMethod(
+        int access,
+        String name,
+        String desc,
+        String signature,
+        String[] exceptions) {
+      // The body of every method is still visited so that the classes it refers to are recorded.
+      // Whether a class has a static initializer makes no difference to code compiled against it.
+      if (!isInAbi(access) || "<clinit>".equals(name)) {
+        return new MethodVisitor(Opcodes.ASM4) {};
+      }
+      final String method =
+          describe("method", access, name, desc, signature, sortedJoin(exceptions));
+      members.add(method);
+      return new MethodVisitor(Opcodes.ASM4) {
+        @Override
+        public AnnotationVisitor visitAnnotation(String annotationDesc, boolean visible) {
+          return describeAnnotation(method + " annotation", annotationDesc);
+        }
+
+        @Override
+        public AnnotationVisitor visitParameterAnnotation(
+            int parameter,
+            String annotationDesc,
+            boolean visible) {
+          return describeAnnotation(method + " parameter " + parameter + " annotation",
+              annotationDesc);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotationDefault() {
+          // The default is visited as a single unnamed value.
+          return new AnnotationDescriber(/* isArray */ true) {
+            @Override
+            protected void visitEnd(String values) {
+              members.add(describe(method + " default", 0, values));
+            }
+          };
+        }
+      };
+    }
+
+    /**
+     * @return a visitor that adds the annotation {@code desc}, and the values of its elements, to
+     *     the members of the ABI once they have all been visited.
+     */
+    private AnnotationVisitor describeAnnotation(final String kind, final String desc) {
+      return new AnnotationDescriber(/* isArray */ false) {
+        @Override
+        protected void visitEnd(String values) {
+          members.add(describe(kind, 0, desc, values));
+        }
+      };
+    }
+
+    private static String describe(String kind, int access, Object... parts) {
+      return kind + " " + access + " " + Joiner.on(' ').useForNull("-").join(parts);
+    }
+
+    @Nullable
+    private static String sortedJoin(@Nullable String[] names) {
+      if (names == null) {
+        return null;
+      }
+      String[] sorted = names.clone();
+      Arrays.sort(sorted);
+      return Joiner.on(',').join(sorted);
+    }
+  }
+
+  /**
+   * Describes the values of an annotation, or of an array within one, including nested annotations
+   * and arrays. The elements of an annotation are sorted by name; the values of an array keep their
+   * order, since it is part of the value.
+   */
+  private abstract static class AnnotationDescriber extends AnnotationVisitor {
+    private final boolean isArray;
+    private final List<String> values = Lists.newArrayList();
+
+    private AnnotationDescriber(boolean isArray) {
+      super(Opcodes.ASM4);
+      this.isArray = isArray;
+    }
+
+    /**
+     * @param values the description of every value that was visited.
+     */
+    protected abstract void visitEnd(String values);
+
+    @Override
+    public void visit(String name, Object value) {
+      add(name, describeValue(value));
+    }
+
+    @Override
+    public void visitEnum(String name, String desc, String value) {
+      add(name, desc + "." + value);
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(final String name, final String desc) {
+      return new AnnotationDescriber(/* isArray */ false) {
+        @Override
+        protected void visitEnd(String nestedValues) {
+          add(name, "@" + desc + nestedValues);
+        }
+      };
+    }
+
+    @Override
+    public AnnotationVisitor visitArray(final String name) {
+      return new AnnotationDescriber(/* isArray */ true) {
+        @Override
+        protected void visitEnd(String arrayValues) {
+          add(name, arrayValues);
+        }
+      };
+    }
+
+    @Override
+    public void visitEnd() {
+      if (isArray) {
+        visitEnd("{" + Joiner.on(',').join(values) + "}");
+      } else {
+        Collections.sort(values);
+        visitEnd("(" + Joiner.on(',').join(values) + ")");
+      }
+    }
+
+    private void add(@Nullable String name, String value) {
+      values.add(name == null ? value : name + "=" + value);
+    }
+
+    /**
+     * Strings are prefixed with their length, so that no string can be mistaken for the separators
+     * between values.
+     */
+    private static String describeValue(Object value) {
+      if (value instanceof String) {
+        String string = (String) value;
+        return string.length() + "\"" + string;
+      }
+      if (value.getClass().isArray()) {
+        // Arrays of primitives are visited as a single value.
+        return Arrays.deepToString(new Object[] {value});
+      }
+      return value.getClass().getSimpleName() + " " + value;
+    }
+  }
+}
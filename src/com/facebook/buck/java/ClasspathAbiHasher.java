@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.java.classes.ClasspathTraversal;
+import com.facebook.buck.java.classes.DefaultClasspathTraverser;
+import com.facebook.buck.java.classes.FileLike;
+import com.facebook.buck.java.classes.FileLikes;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Computes the ABI key of a jar or directory of {@code .class} files that Buck did not compile
+ * itself, such as the {@code binary_jar} of a {@code prebuilt_jar()}.
+ * <p>
+ * The key is derived from the {@link ClassFileInfo#getAbiHash() ABI hash} of each class, so it
+ * does not change when only method bodies, debug information, resources or the order and
+ * timestamps of the entries in the jar change. A class file that cannot be parsed contributes its
+ * raw bytes instead.
+ */
+final class ClasspathAbiHasher {
+
+  /** Utility class: do not instantiate. */
+  private ClasspathAbiHasher() {}
+
+  static HashCode hash(Path jarOrClassesDirectory, ProjectFilesystem filesystem)
+      throws IOException {
+    // If a class appears more than once, the first copy is the one that javac would see.
+    final SortedMap<String, HashCode> classHashes = Maps.newTreeMap();
+    ClasspathTraversal traversal =
+        new ClasspathTraversal(Collections.singleton(jarOrClassesDirectory), filesystem) {
+          @Override
+          public void visit(FileLike fileLike) throws IOException {
+            if (!FileLikes.isClassFile(fileLike)) {
+              return;
+            }
+            String className = FileLikes.getFileNameWithoutClassSuffix(fileLike);
+            if (classHashes.containsKey(className)) {
+              return;
+            }
+
+            byte[] classFile;
+            try (InputStream input = fileLike.getInput()) {
+              classFile = ByteStreams.toByteArray(input);
+            }
+            HashCode classHash;
+            try {
+              ClassFileInfo info = ClassFileInfo.read(new ByteArrayInputStream(classFile));
+              if (!info.isPartOfAbi()) {
+                return;
+              }
+              classHash = info.getAbiHash();
+            } catch (IOException e) {
+              classHash = Hashing.sha1().hashBytes(classFile);
+            }
+            classHashes.put(className, classHash);
+          }
+        };
+    new DefaultClasspathTraverser().traverse(traversal);
+
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (Map.Entry<String, HashCode> entry : classHashes.entrySet()) {
+      hasher.putUnencodedChars(entry.getKey()).putChar('\n');
+      hasher.putBytes(entry.getValue().asBytes());
+    }
+    return hasher.hash();
+  }
+}
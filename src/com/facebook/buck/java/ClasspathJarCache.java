@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.eventbus.Subscribe;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Indexes of the jars on javac classpaths, and the bytes of the entries that javac has read from
+ * them, shared by every {@link JavacInMemoryStep} for the lifetime of the process. Without this,
+ * each compilation reopens and rereads the central directory of every jar on its classpath, and
+ * most rules in a large app have the same few hundred third-party and SDK jars on theirs.
+ * <p>
+ * An index is rebuilt whenever the jar's {@link ClasspathJarIndex.Fingerprint} changes, and can
+ * also be dropped explicitly when the file system reports that the jar changed. Either way, the
+ * old index is closed, and the entry bytes read through it are evicted.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ClasspathJarCache {
+
+  private static final Logger LOG = Logger.get(ClasspathJarCache.class);
+
+  private static final ClasspathJarCache INSTANCE = new ClasspathJarCache(
+      /* maxEntryBytes */ 128 * 1024 * 1024);
+
+  private final ConcurrentMap<Path, ClasspathJarIndex> indexes = new ConcurrentHashMap<>();
+  private final Cache<EntryKey, byte[]> entryBytes;
+
+  @VisibleForTesting
+  ClasspathJarCache(long maxEntryBytes) {
+    this.entryBytes = CacheBuilder.newBuilder()
+        .maximumWeight(maxEntryBytes)
+        .weigher(new Weigher<EntryKey, byte[]>() {
+          @Override
+          public int weigh(EntryKey key, byte[] value) {
+            return value.length;
+          }
+        })
+        .build();
+  }
+
+  public static ClasspathJarCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param jarPath absolute path to a jar.
+   * @return an index of {@code jarPath} that is up to date with its current contents. The caller
+   *     holds a reference to it and must {@link ClasspathJarIndex#release()} it once it no longer
+   *     reads its entries.
+   */
+  ClasspathJarIndex getIndex(Path jarPath) throws IOException {
+    ClasspathJarIndex.Fingerprint fingerprint = ClasspathJarIndex.Fingerprint.of(jarPath);
+    while (true) {
+      ClasspathJarIndex index = indexes.get(jarPath);
+      if (index != null && index.getFingerprint().equals(fingerprint)) {
+        if (index.retain()) {
+          return index;
+        }
+        // Invalidated since we looked it up.
+        indexes.remove(jarPath, index);
+        continue;
+      }
+
+      LOG.verbose("Indexing %s", jarPath);
+      ClasspathJarIndex newIndex = ClasspathJarIndex.create(jarPath);
+      Preconditions.checkState(newIndex.retain());
+      boolean isStored = index == null ?
+          indexes.putIfAbsent(jarPath, newIndex) == null :
+          indexes.replace(jarPath, index, newIndex);
+      if (isStored) {
+        if (index != null) {
+          retire(index);
+        }
+        return newIndex;
+      }
+
+      // Another thread stored an index for this jar first. Drop ours and use whatever is there.
+      newIndex.release();
+      newIndex.close();
+    }
+  }
+
+  /**
+   * @return the contents of {@code entryName} in the jar that {@code index} was built from.
+   */
+  byte[] getEntryBytes(final ClasspathJarIndex index, final String entryName) throws IOException {
+    try {
+      return entryBytes.get(
+          new EntryKey(index, entryName),
+          new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+              return index.readEntry(entryName);
+            }
+          });
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Drops the index of the jar at {@code jarPath}, if there is one.
+   */
+  public void invalidate(Path jarPath) {
+    Preconditions.checkArgument(jarPath.isAbsolute(), "%s must be absolute", jarPath);
+    ClasspathJarIndex index = indexes.remove(jarPath);
+    if (index != null) {
+      LOG.verbose("Invalidated %s", jarPath);
+      retire(index);
+    }
+  }
+
+  public void invalidateAll() {
+    for (Path jarPath : indexes.keySet()) {
+      invalidate(jarPath);
+    }
+    entryBytes.invalidateAll();
+  }
+
+  @VisibleForTesting
+  long getEntryCount() {
+    return entryBytes.size();
+  }
+
+  /**
+   * Closes an index that is no longer in {@link #indexes}, and evicts the bytes read through it.
+   * Compilations that still hold a reference keep the jar open until they release it.
+   */
+  private void retire(ClasspathJarIndex index) {
+    for (Iterator<EntryKey> keys = entryBytes.asMap().keySet().iterator(); keys.hasNext();) {
+      if (keys.next().isFrom(index)) {
+        keys.remove();
+      }
+    }
+    try {
+      index.close();
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to close %s.", index.getJarPath());
+    }
+  }
+
+  /**
+   * Drops the indexes of jars in a project as the file system reports changes to them. Register it
+   * with the event bus that receives the project's {@link WatchEvent}s.
+   */
+  public static class FileChangeListener {
+    private final ClasspathJarCache cache;
+    private final ProjectFilesystem projectFilesystem;
+
+    public FileChangeListener(ClasspathJarCache cache, ProjectFilesystem projectFilesystem) {
+      this.cache = Preconditions.checkNotNull(cache);
+      this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
+    }
+
+    @Subscribe
+    public void onFileSystemChange(WatchEvent<?> event) {
+      if (projectFilesystem.isPathChangeEvent(event)) {
+        Path path = ((Path) event.context()).normalize();
+        cache.invalidate(projectFilesystem.resolve(path));
+      } else {
+        // Most likely an overflow of change events, so anything may have changed.
+        cache.invalidateAll();
+      }
+    }
+  }
+
+  /**
+   * Entries are keyed by the path and {@link ClasspathJarIndex.Fingerprint} of the jar they were
+   * read from, so that bytes from an older version of a jar are never returned for a newer one.
+   * The key does not refer to the index itself, so cached bytes never keep a replaced index, and
+   * its open jar, reachable.
+   */
+  private static class EntryKey {
+    private final Path jarPath;
+    private final ClasspathJarIndex.Fingerprint fingerprint;
+    private final String entryName;
+
+    private EntryKey(ClasspathJarIndex index, String entryName) {
+      this.jarPath = index.getJarPath();
+      this.fingerprint = index.getFingerprint();
+      this.entryName = entryName;
+    }
+
+    private boolean isFrom(ClasspathJarIndex index) {
+      return jarPath.equals(index.getJarPath()) && fingerprint.equals(index.getFingerprint());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof EntryKey)) {
+        return false;
+      }
+      EntryKey that = (EntryKey) obj;
+      return jarPath.equals(that.jarPath) &&
+          fingerprint.equals(that.fingerprint) &&
+          entryName.equals(that.entryName);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(jarPath, fingerprint, entryName);
+    }
+  }
+}
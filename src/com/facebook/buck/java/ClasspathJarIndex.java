@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.io.ByteStreams;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.tools.JavaFileObject;
+
+/**
+ * The {@code .class} and {@code .java} entries of a jar on the classpath, grouped by package, so
+ * that javac can look up a package without rereading the jar's central directory.
+ * <p>
+ * The jar stays open so that entries can be read without reopening it. The index is reference
+ * counted: the {@link ClasspathJarCache} holds one reference for as long as the index is current,
+ * and each compilation holds one while it may read entries, from {@link #retain()} until
+ * {@link #release()}. The jar is closed once the last reference is released, so an index that is
+ * replaced or invalidated while compilations still read from it is closed when they finish.
+ */
+class ClasspathJarIndex implements Closeable {
+
+  private final Path jarPath;
+  private final Fingerprint fingerprint;
+  private final ZipFile zipFile;
+
+  /** Entry names keyed by the package, in dotted form, that they belong to. */
+  private final ImmutableListMultimap<String, String> entriesByPackage;
+
+  /** Starts with the reference that {@link #close()} releases. */
+  private final AtomicInteger references = new AtomicInteger(1);
+  private final AtomicBoolean isClosed = new AtomicBoolean(false);
+
+  private ClasspathJarIndex(
+      Path jarPath,
+      Fingerprint fingerprint,
+      ZipFile zipFile,
+      ImmutableListMultimap<String, String> entriesByPackage) {
+    this.jarPath = jarPath;
+    this.fingerprint = fingerprint;
+    this.zipFile = zipFile;
+    this.entriesByPackage = entriesByPackage;
+  }
+
+  static ClasspathJarIndex create(Path jarPath) throws IOException {
+    Preconditions.checkArgument(jarPath.isAbsolute(), "%s must be absolute", jarPath);
+    Fingerprint fingerprint = Fingerprint.of(jarPath);
+    ZipFile zipFile = new ZipFile(jarPath.toFile());
+    ImmutableListMultimap.Builder<String, String> entriesByPackage =
+        ImmutableListMultimap.builder();
+    try {
+      for (Enumeration<? extends ZipEntry> entries = zipFile.entries();
+           entries.hasMoreElements();) {
+        ZipEntry entry = entries.nextElement();
+        String name = entry.getName();
+        if (entry.isDirectory() || getKind(name) == JavaFileObject.Kind.OTHER) {
+          continue;
+        }
+        int lastSlash = name.lastIndexOf('/');
+        String packageName = lastSlash < 0 ? "" : name.substring(0, lastSlash).replace('/', '.');
+        entriesByPackage.put(packageName, name);
+      }
+    } catch (RuntimeException e) {
+      zipFile.close();
+      throw e;
+    }
+    return new ClasspathJarIndex(jarPath, fingerprint, zipFile, entriesByPackage.build());
+  }
+
+  /**
+   * Takes a reference to this index, which must be given back with {@link #release()}.
+   *
+   * @return false if the jar has already been closed, in which case no reference was taken.
+   */
+  boolean retain() {
+    while (true) {
+      int current = references.get();
+      if (current == 0) {
+        return false;
+      }
+      if (references.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Gives back a reference taken by {@link #retain()}, closing the jar if it was the last one.
+   */
+  void release() throws IOException {
+    int remaining = references.decrementAndGet();
+    Preconditions.checkState(remaining >= 0, "%s was released too many times.", jarPath);
+    if (remaining == 0) {
+      zipFile.close();
+    }
+  }
+
+  /**
+   * Gives back the reference that the index was created with. The jar is closed now, or once the
+   * last compilation that retained the index releases it. Calling this more than once has no
+   * further effect.
+   */
+  @Override
+  public void close() throws IOException {
+    if (isClosed.compareAndSet(false, true)) {
+      release();
+    }
+  }
+
+  Path getJarPath() {
+    return jarPath;
+  }
+
+  Fingerprint getFingerprint() {
+    return fingerprint;
+  }
+
+  long getLastModified() {
+    return fingerprint.lastModifiedMillis;
+  }
+
+  /**
+   * @return the names of the entries in {@code packageName}, and in its subpackages if
+   *     {@code recurse} is set.
+   */
+  ImmutableList<String> getEntries(String packageName, boolean recurse) {
+    if (!recurse) {
+      return entriesByPackage.get(packageName);
+    }
+    ImmutableList.Builder<String> entries = ImmutableList.builder();
+    String prefix = packageName.isEmpty() ? "" : packageName + ".";
+    for (String candidate : ImmutableSortedSet.copyOf(entriesByPackage.keySet())) {
+      if (candidate.equals(packageName) || candidate.startsWith(prefix)) {
+        entries.addAll(entriesByPackage.get(candidate));
+      }
+    }
+    return entries.build();
+  }
+
+  byte[] readEntry(String entryName) throws IOException {
+    ZipEntry entry = zipFile.getEntry(entryName);
+    if (entry == null) {
+      throw new IOException(String.format("%s has no entry %s", jarPath, entryName));
+    }
+    try (InputStream input = zipFile.getInputStream(entry)) {
+      return ByteStreams.toByteArray(input);
+    }
+  }
+
+  static JavaFileObject.Kind getKind(String entryName) {
+    if (entryName.endsWith(JavaFileObject.Kind.CLASS.extension)) {
+      return JavaFileObject.Kind.CLASS;
+    } else if (entryName.endsWith(JavaFileObject.Kind.SOURCE.extension)) {
+      return JavaFileObject.Kind.SOURCE;
+    }
+    return JavaFileObject.Kind.OTHER;
+  }
+
+  /**
+   * Identifies a version of a jar without reading it: a rewritten jar gets a new modification time
+   * and usually a new size or inode.
+   */
+  static class Fingerprint {
+    private final long lastModifiedMillis;
+    private final long lastModifiedNanos;
+    private final long size;
+    private final Object fileKey;
+
+    private Fingerprint(long lastModifiedNanos, long size, Object fileKey) {
+      this.lastModifiedMillis = lastModifiedNanos / 1000000;
+      this.lastModifiedNanos = lastModifiedNanos;
+      this.size = size;
+      this.fileKey = fileKey;
+    }
+
+    static Fingerprint of(Path path) throws IOException {
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      return new Fingerprint(
+          attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+          attributes.size(),
+          attributes.fileKey());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Fingerprint)) {
+        return false;
+      }
+      Fingerprint that = (Fingerprint) obj;
+      return lastModifiedNanos == that.lastModifiedNanos &&
+          size == that.size &&
+          Objects.equal(fileKey, that.fileKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(lastModifiedNanos, size, fileKey);
+    }
+  }
+}
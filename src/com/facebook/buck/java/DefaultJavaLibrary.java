@@ -28,7 +28,6 @@ import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetPattern;
 import com.facebook.buck.model.BuildTargets;
 import com.facebook.buck.model.HasBuildTarget;
-import com.facebook.buck.rules.AbiRule;
 import com.facebook.buck.rules.AbstractBuildRule;
 import com.facebook.buck.rules.AnnotationProcessingData;
 import com.facebook.buck.rules.BuildContext;
@@ -38,7 +37,9 @@ import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleParams;
 import com.facebook.buck.rules.BuildableContext;
 import com.facebook.buck.rules.BuildableProperties;
+import com.facebook.buck.rules.DependencyFileAbiRule;
 import com.facebook.buck.rules.ExportDependencies;
+import com.facebook.buck.rules.HasBuildTimeDeps;
 import com.facebook.buck.rules.InitializableFromDisk;
 import com.facebook.buck.rules.OnDiskBuildInfo;
 import com.facebook.buck.rules.RuleKey;
@@ -64,6 +65,7 @@ import com.google.common.base.Suppliers;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ImmutableSortedMap;
@@ -106,11 +108,25 @@ import javax.annotation.Nullable;
  * from the {@code //src/com/facebook/feed/model:model} rule.
  */
 public class DefaultJavaLibrary extends AbstractBuildRule
-    implements JavaLibrary, AbiRule, HasClasspathEntries, ExportDependencies,
-    InitializableFromDisk<JavaLibrary.Data>, AndroidPackageable {
+    implements JavaLibrary, DependencyFileAbiRule, HasClasspathEntries, ExportDependencies,
+    InitializableFromDisk<JavaLibrary.Data>, AndroidPackageable, HasBuildTimeDeps {
 
   private static final BuildableProperties OUTPUT_TYPE = new BuildableProperties(LIBRARY);
 
+  /**
+   * Key for {@link OnDiskBuildInfo} to identify the libraries on the classpath that javac read
+   * classes from.
+   */
+  @VisibleForTesting
+  static final String USED_DEPS_ON_DISK_METADATA = "DEPENDENCY_FILE_USED_DEPS";
+
+  /**
+   * Key for {@link OnDiskBuildInfo} to identify the packages that javac looked up on the
+   * classpath.
+   */
+  @VisibleForTesting
+  static final String LISTED_PACKAGES_ON_DISK_METADATA = "DEPENDENCY_FILE_LISTED_PACKAGES";
+
   private final ImmutableSortedSet<SourcePath> srcs;
   private final ImmutableSortedSet<SourcePath> resources;
   private final Optional<Path> outputJar;
@@ -126,6 +142,8 @@ public class DefaultJavaLibrary extends AbstractBuildRule
       transitiveClasspathEntriesSupplier;
   private final Supplier<ImmutableSetMultimap<JavaLibrary, Path>>
       declaredClasspathEntriesSupplier;
+  private final Supplier<Optional<AbiStubJar>> abiStubJarSupplier;
+  private final Supplier<ImmutableMap<Path, AbiStubJar>> abiStubJarsOnClasspathSupplier;
   private final BuildOutputInitializer<Data> buildOutputInitializer;
   private final Optional<Path> resourcesRoot;
   private final ImmutableSet<BuildTargetPattern> visibilityPatterns;
@@ -171,7 +189,7 @@ public class DefaultJavaLibrary extends AbstractBuildRule
   };
 
   public DefaultJavaLibrary(
-      BuildRuleParams params,
+      final BuildRuleParams params,
       Set<? extends SourcePath> srcs,
       Set<? extends SourcePath> resources,
       Optional<Path> proguardConfig,
@@ -240,6 +258,21 @@ public class DefaultJavaLibrary extends AbstractBuildRule
           }
         });
 
+    this.abiStubJarSupplier = Suppliers.memoize(new Supplier<Optional<AbiStubJar>>() {
+      @Override
+      public Optional<AbiStubJar> get() {
+        return createAbiStubJar(params);
+      }
+    });
+
+    this.abiStubJarsOnClasspathSupplier =
+        Suppliers.memoize(new Supplier<ImmutableMap<Path, AbiStubJar>>() {
+          @Override
+          public ImmutableMap<Path, AbiStubJar> get() {
+            return findAbiStubJarsOnClasspath();
+          }
+        });
+
     this.buildOutputInitializer = new BuildOutputInitializer<>(params.getBuildTarget(), this);
   }
 
@@ -250,6 +283,7 @@ public class DefaultJavaLibrary extends AbstractBuildRule
    * @param javacOptions javac configuration.
    * @param suggestBuildRules Function to convert from missing symbols to the suggested rules.
    * @param commands List of steps to add to.
+   * @param buildableContext Receives the metadata recorded by incremental compilation.
    * @return a {@link Supplier} that will return the ABI for this rule after javac is executed.
    */
   @VisibleForTesting
@@ -261,7 +295,8 @@ public class DefaultJavaLibrary extends AbstractBuildRule
       BuildDependencies buildDependencies,
       Optional<JavacInMemoryStep.SuggestBuildRules> suggestBuildRules,
       ImmutableList.Builder<Step> commands,
-      BuildTarget target) {
+      BuildTarget target,
+      BuildableContext buildableContext) {
     // Make sure that this directory exists because ABI information will be written here.
     Step mkdir = new MakeCleanDirectoryStep(getPathToAbiOutputDir());
     commands.add(mkdir);
@@ -271,6 +306,31 @@ public class DefaultJavaLibrary extends AbstractBuildRule
       Path pathToSrcsList = BuildTargets.getGenPath(getBuildTarget(), "__%s__srcs");
       commands.add(new MkdirStep(pathToSrcsList.getParent()));
 
+      if (canCompileIncrementally(javacOptions)) {
+        final IncrementalJavacStep incrementalJavacStep = new IncrementalJavacStep(
+            outputDirectory,
+            getJavaSrcs(),
+            transitiveClasspathEntries,
+            declaredClasspathEntries,
+            javacOptions,
+            getPathToAbiOutputFile(),
+            target,
+            buildDependencies,
+            suggestBuildRules,
+            pathToSrcsList,
+            outputJar.get(),
+            getAbiKeyForDeps(),
+            buildableContext);
+        commands.add(incrementalJavacStep);
+
+        return Suppliers.memoize(new Supplier<Sha1HashCode>() {
+          @Override
+          public Sha1HashCode get() {
+            return createTotalAbiKey(incrementalJavacStep.getAbiKey());
+          }
+        });
+      }
+
       final JavacStep javacStep;
       if (javacOptions.getJavaCompilerEnvironment().getJavacPath().isPresent()) {
         Path workingDirectory = BuildTargets.getGenPath(target, "lib__%s____working_directory");
@@ -303,6 +363,16 @@ public class DefaultJavaLibrary extends AbstractBuildRule
       }
       commands.add(javacStep);
 
+      // Annotation processors may read anything on the classpath, so only compilations without
+      // them can tell which parts of the classpath they used.
+      if (javacStep instanceof JavacInMemoryStep &&
+          javacOptions.getAnnotationProcessingData().isEmpty()) {
+        addStepToRecordDependencyFile(
+            commands,
+            (JavacInMemoryStep) javacStep,
+            buildableContext);
+      }
+
       // Create a supplier that extracts the ABI key from javac after it executes.
       return Suppliers.memoize(new Supplier<Sha1HashCode>() {
         @Override
@@ -317,6 +387,166 @@ public class DefaultJavaLibrary extends AbstractBuildRule
     }
   }
 
+  /**
+   * Incremental compilation relies on being able to attribute every class in the output jar to one
+   * of {@link #getJavaSrcs()}, so it is only used when nothing but javac writes classes.
+   */
+  private boolean canCompileIncrementally(JavacOptions javacOptions) {
+    return javacOptions.getJavaCompilerEnvironment().isIncrementalCompilationEnabled() &&
+        !javacOptions.getJavaCompilerEnvironment().getJavacPath().isPresent() &&
+        outputJar.isPresent() &&
+        areClassesCompiledOnlyFromJavaSrcs(javacOptions);
+  }
+
+  /**
+   * @return whether all of this library's classes are compiled by javac from the {@code .java}
+   *     files in {@link #getJavaSrcs()}: there are no annotation processors, no postprocessing
+   *     commands and no source zips.
+   */
+  private boolean areClassesCompiledOnlyFromJavaSrcs(JavacOptions javacOptions) {
+    if (!javacOptions.getAnnotationProcessingData().isEmpty() ||
+        !postprocessClassesCommands.isEmpty()) {
+      return false;
+    }
+    for (SourcePath src : getJavaSrcs()) {
+      if (!src.resolve().toString().endsWith(".java")) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean isSourceAbiEnabled() {
+    return javacOptions.getJavaCompilerEnvironment().isSourceAbiEnabled();
+  }
+
+  /**
+   * @return the rule that generates the ABI stubs of this library, if {@code [java] source_abi} is
+   *     enabled and the ABI of this library can be told from its sources alone.
+   */
+  public Optional<AbiStubJar> getAbiStubJar() {
+    return abiStubJarSupplier.get();
+  }
+
+  private Optional<AbiStubJar> createAbiStubJar(BuildRuleParams params) {
+    if (!isSourceAbiEnabled() ||
+        getBuildTarget().isFlavored() ||
+        getJavaSrcs().isEmpty() ||
+        !areClassesCompiledOnlyFromJavaSrcs(javacOptions)) {
+      return Optional.absent();
+    }
+
+    // The stubs are generated against the stubs of the deps, just as this library is compiled.
+    return Optional.of(
+        new AbiStubJar(
+            params.copyWithChanges(
+                AbiStubJar.TYPE,
+                BuildTargets.createFlavoredBuildTarget(this, JavaLibrary.ABI_STUB_FLAVOR),
+                getBuildTimeDeps(),
+                /* extraDeps */ ImmutableSortedSet.<BuildRule>of()),
+            this));
+  }
+
+  /**
+   * When {@code [java] source_abi} is enabled, this library is compiled against the ABI stubs of
+   * the libraries on its classpath, so it only has to wait for those stubs to be generated rather
+   * than for the libraries to be compiled. The libraries themselves are still built before this
+   * rule is reported as built.
+   */
+  @Override
+  public ImmutableSortedSet<BuildRule> getBuildTimeDeps() {
+    if (!isSourceAbiEnabled()) {
+      return getDeps();
+    }
+
+    ImmutableSortedSet.Builder<BuildRule> buildTimeDeps = ImmutableSortedSet.naturalOrder();
+    buildTimeDeps.addAll(getAbiStubJarsOnClasspath().values());
+
+    // A rule whose output is one of the srcs or resources is needed in full.
+    ImmutableSet<BuildRule> sourcePathRules = ImmutableSet.copyOf(
+        SourcePaths.filterBuildRuleInputs(Iterables.concat(srcs, resources)));
+    for (BuildRule dep : Iterables.concat(getDeps(), exportedDeps, providedDeps)) {
+      if (dep instanceof DefaultJavaLibrary &&
+          ((DefaultJavaLibrary) dep).getAbiStubJar().isPresent() &&
+          !sourcePathRules.contains(dep)) {
+        continue;
+      }
+      buildTimeDeps.add(dep);
+    }
+    return buildTimeDeps.build();
+  }
+
+  /**
+   * @return the {@link AbiStubJar}s to compile this library against, keyed by the output jar of the
+   *     library that each of them stands in for.
+   */
+  private ImmutableMap<Path, AbiStubJar> getAbiStubJarsOnClasspath() {
+    return abiStubJarsOnClasspathSupplier.get();
+  }
+
+  private ImmutableMap<Path, AbiStubJar> findAbiStubJarsOnClasspath() {
+    Set<JavaLibrary> libraries = Sets.newHashSet(getTransitiveClasspathEntries().keySet());
+    for (JavaLibrary providedDep : JavaLibraryClasspathProvider.getJavaLibraryDeps(providedDeps)) {
+      libraries.addAll(providedDep.getOutputClasspathEntries().keySet());
+    }
+
+    ImmutableMap.Builder<Path, AbiStubJar> abiStubJars = ImmutableMap.builder();
+    for (JavaLibrary library : libraries) {
+      if (library == this || !(library instanceof DefaultJavaLibrary)) {
+        continue;
+      }
+      DefaultJavaLibrary javaLibrary = (DefaultJavaLibrary) library;
+      Optional<AbiStubJar> abiStubJar = javaLibrary.getAbiStubJar();
+      if (abiStubJar.isPresent()) {
+        abiStubJars.put(javaLibrary.outputJar.get(), abiStubJar.get());
+      }
+    }
+    return abiStubJars.build();
+  }
+
+  /**
+   * @return {@code classpathEntries} with the output jars of the libraries that have
+   *     {@link AbiStubJar}s replaced by the stubs, when {@code [java] source_abi} is enabled.
+   */
+  private ImmutableSet<Path> useAbiStubJars(ImmutableSet<Path> classpathEntries) {
+    if (!isSourceAbiEnabled()) {
+      return classpathEntries;
+    }
+
+    ImmutableMap<Path, AbiStubJar> abiStubJars = getAbiStubJarsOnClasspath();
+    ImmutableSet.Builder<Path> entries = ImmutableSet.builder();
+    for (Path entry : classpathEntries) {
+      AbiStubJar abiStubJar = abiStubJars.get(entry);
+      entries.add(abiStubJar == null ? entry : abiStubJar.getPathToOutputFile());
+    }
+    return entries.build();
+  }
+
+  /**
+   * @return the classpath that the {@link AbiStubJar} of this library is generated against.
+   */
+  ImmutableSet<Path> getClasspathEntriesForAbiStubs() {
+    return useAbiStubJars(
+        ImmutableSet.<Path>builder()
+            .addAll(getTransitiveClasspathEntries().values())
+            .addAll(additionalClasspathEntries)
+            .addAll(getProvidedClasspathEntries())
+            .build());
+  }
+
+  private ImmutableSet<Path> getProvidedClasspathEntries() {
+    return JavaLibraryClasspathProvider.getJavaLibraryDeps(providedDeps)
+        .transformAndConcat(
+            new Function<JavaLibrary, Collection<Path>>() {
+              @Override
+              public Collection<Path> apply(JavaLibrary input) {
+                return input.getOutputClasspathEntries().values();
+              }
+            })
+        .filter(Predicates.notNull())
+        .toSet();
+  }
+
   /**
    * Creates the total ABI key for this rule. If export_deps is true, the total key is computed by
    * hashing the ABI keys of the dependencies together with the ABI key of this rule. If export_deps
@@ -391,6 +621,19 @@ public class DefaultJavaLibrary extends AbstractBuildRule
       }
     }
 
+    // Libraries that this rule is compiled against the stubs of may not be built yet, but the ABI
+    // of their stubs is known.
+    if (isSourceAbiEnabled()) {
+      for (HasBuildTarget rule : ImmutableList.copyOf(rulesWithAbiToConsider)) {
+        if (rule != this &&
+            rule instanceof DefaultJavaLibrary &&
+            ((DefaultJavaLibrary) rule).getAbiStubJar().isPresent()) {
+          rulesWithAbiToConsider.remove(rule);
+          rulesWithAbiToConsider.add(((DefaultJavaLibrary) rule).getAbiStubJar().get());
+        }
+      }
+    }
+
     // We also need to iterate over inputs that are SourcePaths, since they're only listed as
     // compile-time deps and not in the "deps" field. If any of these change, we should recompile
     // the library, since we will (at least) need to repack it.
@@ -413,17 +656,76 @@ public class DefaultJavaLibrary extends AbstractBuildRule
       if (candidate == this) {
         continue;
       }
+      putAbiKey(hasher, candidate);
+    }
+
+    return hasher;
+  }
+
+  private static void putAbiKey(Hasher hasher, HasBuildTarget candidate) {
+    if (candidate instanceof HasJavaAbi) {
+      Sha1HashCode abiKey = ((HasJavaAbi) candidate).getAbiKey();
+      hasher.putUnencodedChars(abiKey.getHash());
+    } else if (candidate instanceof BuildRule) {
+      HashCode hashCode = ((BuildRule) candidate).getRuleKey().getHashCode();
+      hasher.putBytes(hashCode.asBytes());
+    }
+  }
+
+  @Override
+  public Optional<Sha1HashCode> getAbiKeyForDependencyFile(OnDiskBuildInfo onDiskBuildInfo) {
+    Optional<ImmutableList<String>> usedDeps =
+        onDiskBuildInfo.getValues(USED_DEPS_ON_DISK_METADATA);
+    Optional<ImmutableList<String>> listedPackages =
+        onDiskBuildInfo.getValues(LISTED_PACKAGES_ON_DISK_METADATA);
+    if (!usedDeps.isPresent() || !listedPackages.isPresent()) {
+      return Optional.absent();
+    }
+    return createAbiKeyForDependencyFile(
+        ImmutableSet.copyOf(usedDeps.get()),
+        ImmutableSet.copyOf(listedPackages.get()));
+  }
 
-      if (candidate instanceof HasJavaAbi) {
-        Sha1HashCode abiKey = ((HasJavaAbi) candidate).getAbiKey();
-        hasher.putUnencodedChars(abiKey.getHash());
-      } else if (candidate instanceof BuildRule) {
-        HashCode hashCode = ((BuildRule) candidate).getRuleKey().getHashCode();
-        hasher.putBytes(hashCode.asBytes());
+  /**
+   * The dependency file of a library lists the libraries on its classpath that javac read classes
+   * from, and the packages that javac looked up on the classpath. Its ABI key covers:
+   * <ul>
+   *   <li>the build targets of all of the deps, so that adding or removing one forces a rebuild;
+   *   <li>the ABI of each library that was used, and of each dep that is not a library;
+   *   <li>the names of the classes in the listed packages of each library that was not used, so
+   *   that a new class that javac would have found forces a rebuild.
+   * </ul>
+   * @return absent if a library that was used is no longer a dep.
+   */
+  private Optional<Sha1HashCode> createAbiKeyForDependencyFile(
+      ImmutableSet<String> usedDeps,
+      ImmutableSet<String> listedPackages) {
+    Set<String> usedDepsToFind = Sets.newHashSet(usedDeps);
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (HasBuildTarget candidate : getDepsForAbiKey()) {
+      if (candidate == this) {
+        continue;
+      }
+      String name = candidate.getBuildTarget().getFullyQualifiedName();
+      hasher.putUnencodedChars(name).putChar('\n');
+      if (!(candidate instanceof JavaLibrary) || usedDepsToFind.remove(name)) {
+        putAbiKey(hasher, candidate);
+        continue;
+      }
+      for (String className : ((JavaLibrary) candidate).getClassNamesToHashes().keySet()) {
+        int lastSlash = className.lastIndexOf('/');
+        String packageName =
+            lastSlash < 0 ? "" : className.substring(0, lastSlash).replace('/', '.');
+        if (listedPackages.contains(packageName)) {
+          hasher.putUnencodedChars(className).putChar('\n');
+        }
       }
     }
 
-    return hasher;
+    if (!usedDepsToFind.isEmpty()) {
+      return Optional.absent();
+    }
+    return Optional.of(new Sha1HashCode(hasher.hash().toString()));
   }
 
   @Override
@@ -549,26 +851,17 @@ public class DefaultJavaLibrary extends AbstractBuildRule
 
     // We don't want to add these to the declared or transitive deps, since they're only used at
     // compile time.
-    Collection<Path> provided = JavaLibraryClasspathProvider.getJavaLibraryDeps(providedDeps)
-        .transformAndConcat(
-            new Function<JavaLibrary, Collection<Path>>() {
-              @Override
-              public Collection<Path> apply(JavaLibrary input) {
-                return input.getOutputClasspathEntries().values();
-              }
-            })
-        .filter(Predicates.notNull())
-        .toSet();
+    ImmutableSet<Path> provided = getProvidedClasspathEntries();
 
-    ImmutableSet<Path> transitive = ImmutableSet.<Path>builder()
+    ImmutableSet<Path> transitive = useAbiStubJars(ImmutableSet.<Path>builder()
         .addAll(transitiveClasspathEntries.values())
         .addAll(provided)
-        .build();
+        .build());
 
-    ImmutableSet<Path> declared = ImmutableSet.<Path>builder()
+    ImmutableSet<Path> declared = useAbiStubJars(ImmutableSet.<Path>builder()
         .addAll(declaredClasspathEntries.values())
         .addAll(provided)
-        .build();
+        .build());
 
     // This adds the javac command, along with any supporting commands.
     Supplier<Sha1HashCode> abiKeySupplier = createCommandsForJavac(
@@ -579,7 +872,8 @@ public class DefaultJavaLibrary extends AbstractBuildRule
         context.getBuildDependencies(),
         suggestBuildRule,
         steps,
-        getBuildTarget());
+        getBuildTarget(),
+        buildableContext);
 
     addPostprocessClassesCommands(steps, postprocessClassesCommands, outputDirectory);
 
@@ -635,6 +929,38 @@ public class DefaultJavaLibrary extends AbstractBuildRule
     });
   }
 
+  /**
+   * Once javac has run, records which libraries on the classpath it used, so that later builds can
+   * skip recompiling this library when only the ABI of the libraries that it did not use changes.
+   */
+  private void addStepToRecordDependencyFile(
+      ImmutableList.Builder<Step> commands,
+      final JavacInMemoryStep javacStep,
+      final BuildableContext buildableContext) {
+    commands.add(new AbstractExecutionStep("recording dependency file") {
+      @Override
+      public int execute(ExecutionContext context) {
+        ImmutableSet<Path> usedClasspathEntries = javacStep.getUsedClasspathEntries().get();
+        ImmutableSortedSet.Builder<String> usedDeps = ImmutableSortedSet.naturalOrder();
+        for (HasBuildTarget candidate : getDepsForAbiKey()) {
+          if (candidate instanceof JavaLibrary &&
+              usedClasspathEntries.contains(((JavaLibrary) candidate).getPathToOutputFile())) {
+            usedDeps.add(candidate.getBuildTarget().getFullyQualifiedName());
+          }
+        }
+        ImmutableSortedSet<String> listedPackages =
+            ImmutableSortedSet.copyOf(javacStep.getListedPackages().get());
+
+        buildableContext.addMetadata(USED_DEPS_ON_DISK_METADATA, usedDeps.build());
+        buildableContext.addMetadata(LISTED_PACKAGES_ON_DISK_METADATA, listedPackages);
+        buildableContext.addMetadata(
+            ABI_KEY_FOR_DEPENDENCY_FILE_ON_DISK_METADATA,
+            createAbiKeyForDependencyFile(usedDeps.build(), listedPackages).get().getHash());
+        return 0;
+      }
+    });
+  }
+
   /**
    *  @param transitiveNotDeclaredRule A {@link BuildRule} that is contained in the transitive
    *      dependency list but is not declared as a dependency.
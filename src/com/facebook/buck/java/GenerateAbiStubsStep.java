@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.rules.AbiRule;
+import com.facebook.buck.rules.BuildableContext;
+import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Writes the ABI stubs of a set of Java sources to a directory, using javac with
+ * {@code -proc:only} and an {@link AbiStubWriter}. The sources are parsed and their declarations
+ * are resolved against the classpath, but their method bodies are never compiled, so this is much
+ * faster than compiling them.
+ * <p>
+ * Once the stubs are written, a hash of them is recorded as the ABI key of the rule that runs this
+ * step.
+ */
+public class GenerateAbiStubsStep implements Step {
+
+  private final Path outputDirectory;
+  private final ImmutableSortedSet<SourcePath> javaSourceFilePaths;
+  private final ImmutableSet<Path> classpathEntries;
+  private final JavacOptions javacOptions;
+  private final BuildableContext buildableContext;
+
+  public GenerateAbiStubsStep(
+      Path outputDirectory,
+      Set<? extends SourcePath> javaSourceFilePaths,
+      Set<Path> classpathEntries,
+      JavacOptions javacOptions,
+      BuildableContext buildableContext) {
+    this.outputDirectory = Preconditions.checkNotNull(outputDirectory);
+    this.javaSourceFilePaths = ImmutableSortedSet.copyOf(javaSourceFilePaths);
+    this.classpathEntries = ImmutableSet.copyOf(classpathEntries);
+    this.javacOptions = Preconditions.checkNotNull(javacOptions);
+    this.buildableContext = Preconditions.checkNotNull(buildableContext);
+  }
+
+  @Override
+  public int execute(ExecutionContext context) {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    Preconditions.checkNotNull(compiler,
+        "If using JRE instead of JDK, ToolProvider.getSystemJavaCompiler() may be null.");
+    StandardJavaFileManager standardFileManager =
+        compiler.getStandardFileManager(null, null, null);
+    List<File> sourceFiles = Lists.newArrayList();
+    for (SourcePath source : javaSourceFilePaths) {
+      sourceFiles.add(filesystem.getAbsolutifier().apply(source.resolve()).toFile());
+    }
+    Iterable<? extends JavaFileObject> compilationUnits =
+        standardFileManager.getJavaFileObjectsFromFiles(sourceFiles);
+
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    AbiStubWriter stubWriter = new AbiStubWriter(getClassFileVersion());
+    boolean isSuccess;
+    JavaFileManager fileManager = standardFileManager;
+    try {
+      fileManager = new CachingJavaFileManager(
+          standardFileManager,
+          ClasspathJarCache.getInstance(),
+          FluentIterable.from(classpathEntries).transform(filesystem.getAbsolutifier()));
+      JavaCompiler.CompilationTask compilationTask = compiler.getTask(
+          new PrintWriter(context.getStdErr()),
+          fileManager,
+          diagnostics,
+          getOptions(context),
+          /* classes */ null,
+          compilationUnits);
+      compilationTask.setProcessors(ImmutableList.of(stubWriter));
+      isSuccess = compilationTask.call();
+    } catch (IOException e) {
+      context.logError(e, "Could not read the classpath to generate ABI stubs.");
+      return 1;
+    } finally {
+      try {
+        fileManager.close();
+      } catch (IOException e) {
+        context.logError(e, "Unable to close java filemanager.");
+      }
+    }
+
+    if (!isSuccess) {
+      for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+        if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+          context.getStdErr().println(diagnostic);
+        }
+      }
+      return 1;
+    }
+
+    // The stubs are hashed in the order of their names, so the key does not depend on the order
+    // in which javac returned the classes.
+    Hasher hasher = Hashing.sha1().newHasher();
+    try {
+      for (Map.Entry<String, byte[]> stub : stubWriter.getStubs().entrySet()) {
+        Path classFile = outputDirectory.resolve(stub.getKey() + ".class");
+        filesystem.createParentDirs(classFile);
+        filesystem.writeBytesToPath(stub.getValue(), classFile);
+        hasher.putUnencodedChars(stub.getKey());
+        hasher.putBytes(stub.getValue());
+      }
+    } catch (IOException e) {
+      context.logError(e, "Failed to write ABI stubs to %s.", outputDirectory);
+      return 1;
+    }
+
+    buildableContext.addMetadata(AbiRule.ABI_KEY_ON_DISK_METADATA, hasher.hash().toString());
+    return 0;
+  }
+
+  private List<String> getOptions(ExecutionContext context) {
+    ImmutableList.Builder<String> options = ImmutableList.builder();
+    javacOptions.appendOptionsToList(options, context.getProjectFilesystem().getAbsolutifier());
+    options.add("-proc:only");
+    return options.build();
+  }
+
+  private int getClassFileVersion() {
+    String targetLevel = javacOptions.getJavaCompilerEnvironment().getTargetLevel();
+    switch (targetLevel.startsWith("1.") ? targetLevel.substring(2) : targetLevel) {
+      case "5":
+        return Opcodes.V1_5;
+      case "6":
+        return Opcodes.V1_6;
+      case "7":
+        return Opcodes.V1_7;
+      default:
+        // ASM predates Java 8, but the stubs have no code for it to know about.
+        return Opcodes.V1_7 + 1;
+    }
+  }
+
+  @Override
+  public String getShortName() {
+    return "abi_stubs";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format(
+        "javac %s -d %s %s",
+        Joiner.on(' ').join(getOptions(context)),
+        outputDirectory,
+        Joiner.on(' ').join(javaSourceFilePaths));
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What {@link IncrementalJavacStep} records about a java_library() after compiling it, so that the
+ * next build can tell which sources need to be recompiled. It is stored as JSON in the rule's
+ * on-disk metadata.
+ */
+class IncrementalCompilationInfo {
+
+  private final String configuration;
+  private final String abiKey;
+  private final ImmutableSortedMap<String, SourceInfo> sources;
+
+  IncrementalCompilationInfo(
+      @JsonProperty("configuration") String configuration,
+      @JsonProperty("abiKey") String abiKey,
+      @JsonProperty("sources") Map<String, SourceInfo> sources) {
+    this.configuration = Preconditions.checkNotNull(configuration);
+    this.abiKey = Preconditions.checkNotNull(abiKey);
+    this.sources = ImmutableSortedMap.copyOf(sources);
+  }
+
+  /**
+   * @return a hash of everything other than the sources that affects the output of javac, such as
+   *     the options, the classpath and the ABI of the rule's deps.
+   */
+  @JsonProperty("configuration")
+  public String getConfiguration() {
+    return configuration;
+  }
+
+  /**
+   * @return the ABI key that javac computed for the rule, when it last compiled all of it.
+   */
+  @JsonProperty("abiKey")
+  public String getAbiKey() {
+    return abiKey;
+  }
+
+  /**
+   * @return information about each source, keyed by its path relative to the project root.
+   */
+  @JsonProperty("sources")
+  public ImmutableSortedMap<String, SourceInfo> getSources() {
+    return sources;
+  }
+
+  static class SourceInfo {
+    private final String hash;
+    private final String abi;
+    private final ImmutableList<String> classes;
+    private final ImmutableList<String> dependencies;
+
+    SourceInfo(
+        @JsonProperty("hash") String hash,
+        @JsonProperty("abi") String abi,
+        @JsonProperty("classes") List<String> classes,
+        @JsonProperty("dependencies") List<String> dependencies) {
+      this.hash = Preconditions.checkNotNull(hash);
+      this.abi = Preconditions.checkNotNull(abi);
+      this.classes = ImmutableList.copyOf(classes);
+      this.dependencies = ImmutableList.copyOf(dependencies);
+    }
+
+    /** @return the SHA-1 of the contents of the source. */
+    @JsonProperty("hash")
+    public String getHash() {
+      return hash;
+    }
+
+    /** @return a hash of the ABI of the classes compiled from the source. */
+    @JsonProperty("abi")
+    public String getAbi() {
+      return abi;
+    }
+
+    /** @return the internal names of the classes compiled from the source. */
+    @JsonProperty("classes")
+    public ImmutableList<String> getClasses() {
+      return classes;
+    }
+
+    /** @return the other sources in the rule whose classes this source refers to. */
+    @JsonProperty("dependencies")
+    public ImmutableList<String> getDependencies() {
+      return dependencies;
+    }
+  }
+}
@@ -0,0 +1,551 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.rules.BuildDependencies;
+import com.facebook.buck.rules.BuildableContext;
+import com.facebook.buck.rules.DefaultOnDiskBuildInfo;
+import com.facebook.buck.rules.Sha1HashCode;
+import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.util.CapturingPrintStream;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.base.Functions;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SortedSetMultimap;
+import com.google.common.collect.TreeMultimap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.annotation.Nullable;
+
+/**
+ * Compiles a java_library() by recompiling only the sources that changed since it was last built,
+ * when that is safe.
+ * <p>
+ * After each successful compilation, this step records an {@link IncrementalCompilationInfo} in
+ * the rule's metadata: the hash of each source, the classes compiled from it, the hash of their
+ * ABI and the other sources that they refer to. The classes are attributed to sources using their
+ * {@code SourceFile} attributes, and their references are read from their constant pools.
+ * <p>
+ * On the next build, if the javac options, the classpath and the ABI of the rule's deps are
+ * unchanged and no source was deleted, the classes of the unchanged sources are extracted from the
+ * previous output jar, and only the changed sources and the sources that refer to them are
+ * compiled against them. If that fails, or if it changes the ABI of any of those sources (which
+ * could affect sources that inline their constants or resolve overloads against them), everything
+ * is recompiled from scratch. Because the ABI is unchanged, the ABI key of the previous build is
+ * reused.
+ */
+public class IncrementalJavacStep implements Step {
+
+  /** Key in the rule's metadata under which the {@link IncrementalCompilationInfo} is stored. */
+  static final String METADATA_KEY = "incremental_compilation";
+
+  private static final Logger LOG = Logger.get(IncrementalJavacStep.class);
+
+  private final Path outputDirectory;
+  private final ImmutableSet<SourcePath> javaSourceFilePaths;
+  private final ImmutableSet<Path> transitiveClasspathEntries;
+  private final ImmutableSet<Path> declaredClasspathEntries;
+  private final JavacOptions javacOptions;
+  private final Path pathToOutputAbiFile;
+  private final BuildTarget invokingRule;
+  private final BuildDependencies buildDependencies;
+  private final Optional<JavacStep.SuggestBuildRules> suggestBuildRules;
+  private final Path pathToSrcsList;
+  private final Path pathToPreviousOutputJar;
+  private final Sha1HashCode abiKeyForDeps;
+  private final BuildableContext buildableContext;
+  private final ObjectMapper objectMapper;
+  private final AtomicBoolean isExecuted = new AtomicBoolean(false);
+
+  @Nullable
+  private Sha1HashCode abiKey;
+
+  /**
+   * @param pathToPreviousOutputJar the jar that the rule wrote the last time it was built.
+   * @param abiKeyForDeps the ABI key of the rule's deps, which determines whether the classes in
+   *     the previous output jar can be reused.
+   */
+  public IncrementalJavacStep(
+      Path outputDirectory,
+      Set<? extends SourcePath> javaSourceFilePaths,
+      Set<Path> transitiveClasspathEntries,
+      Set<Path> declaredClasspathEntries,
+      JavacOptions javacOptions,
+      Path pathToOutputAbiFile,
+      BuildTarget invokingRule,
+      BuildDependencies buildDependencies,
+      Optional<JavacStep.SuggestBuildRules> suggestBuildRules,
+      Path pathToSrcsList,
+      Path pathToPreviousOutputJar,
+      Sha1HashCode abiKeyForDeps,
+      BuildableContext buildableContext) {
+    this.outputDirectory = Preconditions.checkNotNull(outputDirectory);
+    this.javaSourceFilePaths = ImmutableSet.copyOf(javaSourceFilePaths);
+    this.transitiveClasspathEntries = ImmutableSet.copyOf(transitiveClasspathEntries);
+    this.declaredClasspathEntries = ImmutableSet.copyOf(declaredClasspathEntries);
+    this.javacOptions = Preconditions.checkNotNull(javacOptions);
+    this.pathToOutputAbiFile = Preconditions.checkNotNull(pathToOutputAbiFile);
+    this.invokingRule = Preconditions.checkNotNull(invokingRule);
+    this.buildDependencies = Preconditions.checkNotNull(buildDependencies);
+    this.suggestBuildRules = Preconditions.checkNotNull(suggestBuildRules);
+    this.pathToSrcsList = Preconditions.checkNotNull(pathToSrcsList);
+    this.pathToPreviousOutputJar = Preconditions.checkNotNull(pathToPreviousOutputJar);
+    this.abiKeyForDeps = Preconditions.checkNotNull(abiKeyForDeps);
+    this.buildableContext = Preconditions.checkNotNull(buildableContext);
+    this.objectMapper = new ObjectMapper();
+  }
+
+  @Override
+  public int execute(ExecutionContext context) throws InterruptedException {
+    try {
+      return executeBuild(context);
+    } finally {
+      isExecuted.set(true);
+    }
+  }
+
+  private int executeBuild(ExecutionContext context) throws InterruptedException {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    ImmutableSortedMap<String, String> sourceHashes;
+    try {
+      sourceHashes = hashSources(filesystem);
+    } catch (IOException e) {
+      context.logError(e, "Unable to read the sources of %s.", invokingRule);
+      return 1;
+    }
+    String configuration = getConfiguration();
+
+    Optional<IncrementalCompilationInfo> previous = readPreviousInfo(filesystem);
+    if (previous.isPresent() && previous.get().getConfiguration().equals(configuration)) {
+      Optional<ImmutableSortedSet<String>> sourcesToRecompile =
+          getSourcesToRecompile(previous.get(), sourceHashes);
+      if (sourcesToRecompile.isPresent()) {
+        LOG.debug("Recompiling %d of %d sources of %s",
+            sourcesToRecompile.get().size(),
+            sourceHashes.size(),
+            invokingRule);
+        if (compileIncrementally(
+            context,
+            previous.get(),
+            sourcesToRecompile.get(),
+            sourceHashes,
+            configuration)) {
+          return 0;
+        }
+        LOG.debug("Falling back to recompiling all of %s", invokingRule);
+        try {
+          filesystem.rmdir(outputDirectory);
+          filesystem.mkdirs(outputDirectory);
+        } catch (IOException e) {
+          context.logError(e, "Unable to clean %s.", outputDirectory);
+          return 1;
+        }
+      }
+    }
+
+    return compileFully(context, sourceHashes, configuration);
+  }
+
+  private int compileFully(
+      ExecutionContext context,
+      ImmutableSortedMap<String, String> sourceHashes,
+      String configuration) throws InterruptedException {
+    JavacStep javac = createJavacStep(
+        javaSourceFilePaths,
+        transitiveClasspathEntries,
+        declaredClasspathEntries);
+    int exitCode = javac.execute(context);
+    if (exitCode != 0) {
+      return exitCode;
+    }
+
+    abiKey = javac.getAbiKey();
+    if (abiKey != null) {
+      Optional<IncrementalCompilationInfo> info = createInfo(
+          context.getProjectFilesystem(),
+          sourceHashes,
+          configuration,
+          abiKey.getHash());
+      if (info.isPresent()) {
+        recordInfo(info.get());
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * @return whether the sources were compiled incrementally. If not, everything must be
+   *     recompiled.
+   */
+  private boolean compileIncrementally(
+      ExecutionContext context,
+      IncrementalCompilationInfo previous,
+      ImmutableSortedSet<String> sourcesToRecompile,
+      ImmutableSortedMap<String, String> sourceHashes,
+      String configuration) throws InterruptedException {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+
+    ImmutableSet.Builder<String> staleClasses = ImmutableSet.builder();
+    for (String source : sourcesToRecompile) {
+      IncrementalCompilationInfo.SourceInfo sourceInfo = previous.getSources().get(source);
+      if (sourceInfo != null) {
+        staleClasses.addAll(sourceInfo.getClasses());
+      }
+    }
+    try {
+      extractClasses(filesystem, staleClasses.build());
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to extract the classes of %s from %s",
+          invokingRule,
+          pathToPreviousOutputJar);
+      return false;
+    }
+
+    // Errors are only reported from the full compilation that follows a failure, since they may
+    // be caused by the previous classes.
+    CapturingPrintStream stdout = new CapturingPrintStream();
+    CapturingPrintStream stderr = new CapturingPrintStream();
+    if (!sourcesToRecompile.isEmpty()) {
+      ImmutableSet.Builder<SourcePath> sources = ImmutableSet.builder();
+      for (SourcePath sourcePath : javaSourceFilePaths) {
+        if (sourcesToRecompile.contains(sourcePath.resolve().toString())) {
+          sources.add(sourcePath);
+        }
+      }
+      // The classes of the other sources are compiled against from the output directory.
+      JavacStep javac = createJavacStep(
+          sources.build(),
+          ImmutableSet.<Path>builder()
+              .addAll(transitiveClasspathEntries)
+              .add(outputDirectory)
+              .build(),
+          ImmutableSet.<Path>builder()
+              .addAll(declaredClasspathEntries)
+              .add(outputDirectory)
+              .build());
+      if (javac.execute(context.createSubContext(stdout, stderr)) != 0) {
+        return false;
+      }
+    }
+
+    Optional<IncrementalCompilationInfo> info = createInfo(
+        filesystem,
+        sourceHashes,
+        configuration,
+        previous.getAbiKey());
+    if (!info.isPresent()) {
+      return false;
+    }
+    for (String source : sourcesToRecompile) {
+      IncrementalCompilationInfo.SourceInfo before = previous.getSources().get(source);
+      IncrementalCompilationInfo.SourceInfo after = info.get().getSources().get(source);
+      if (before == null || after == null || !before.getAbi().equals(after.getAbi())) {
+        LOG.debug("The ABI of %s changed", source);
+        return false;
+      }
+    }
+
+    context.getStdOut().print(stdout.getContentsAsString(Charsets.UTF_8));
+    context.getStdErr().print(stderr.getContentsAsString(Charsets.UTF_8));
+    abiKey = new Sha1HashCode(previous.getAbiKey());
+    recordInfo(info.get());
+    return true;
+  }
+
+  /**
+   * @return the sources that changed since {@code previous} was recorded and the sources that refer
+   *     to them, or absent if a source was deleted.
+   */
+  private static Optional<ImmutableSortedSet<String>> getSourcesToRecompile(
+      IncrementalCompilationInfo previous,
+      ImmutableSortedMap<String, String> sourceHashes) {
+    Map<String, IncrementalCompilationInfo.SourceInfo> previousSources = previous.getSources();
+    if (!sourceHashes.keySet().containsAll(previousSources.keySet())) {
+      // The classes of the deleted sources may still be referred to, so javac has to check them.
+      return Optional.absent();
+    }
+
+    ImmutableSortedSet.Builder<String> changed = ImmutableSortedSet.naturalOrder();
+    for (Map.Entry<String, String> entry : sourceHashes.entrySet()) {
+      IncrementalCompilationInfo.SourceInfo sourceInfo = previousSources.get(entry.getKey());
+      if (sourceInfo == null || !sourceInfo.getHash().equals(entry.getValue())) {
+        changed.add(entry.getKey());
+      }
+    }
+    ImmutableSortedSet<String> changedSources = changed.build();
+
+    ImmutableSortedSet.Builder<String> toRecompile = ImmutableSortedSet.naturalOrder();
+    toRecompile.addAll(changedSources);
+    for (Map.Entry<String, IncrementalCompilationInfo.SourceInfo> entry :
+        previousSources.entrySet()) {
+      for (String dependency : entry.getValue().getDependencies()) {
+        if (changedSources.contains(dependency)) {
+          toRecompile.add(entry.getKey());
+          break;
+        }
+      }
+    }
+    return Optional.of(toRecompile.build());
+  }
+
+  private void extractClasses(ProjectFilesystem filesystem, ImmutableSet<String> staleClasses)
+      throws IOException {
+    try (ZipFile jar = new ZipFile(filesystem.getFileForRelativePath(pathToPreviousOutputJar))) {
+      for (Enumeration<? extends ZipEntry> entries = jar.entries(); entries.hasMoreElements();) {
+        ZipEntry entry = entries.nextElement();
+        String name = entry.getName();
+        if (entry.isDirectory() || !name.endsWith(".class")) {
+          // Resources are copied again by CopyResourcesStep.
+          continue;
+        }
+        if (staleClasses.contains(name.substring(0, name.length() - ".class".length()))) {
+          continue;
+        }
+        Path destination = outputDirectory.resolve(name);
+        filesystem.mkdirs(destination.getParent());
+        try (InputStream input = jar.getInputStream(entry)) {
+          filesystem.copyToPath(input, destination);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the info for the classes in the output directory, or absent if they cannot all be
+   *     attributed to a source.
+   */
+  private Optional<IncrementalCompilationInfo> createInfo(
+      ProjectFilesystem filesystem,
+      ImmutableSortedMap<String, String> sourceHashes,
+      String configuration,
+      String abiKey) {
+    final List<ClassFileInfo> classFiles = Lists.newArrayList();
+    try {
+      Files.walkFileTree(
+          filesystem.resolve(outputDirectory),
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                throws IOException {
+              if (file.getFileName().toString().endsWith(".class")) {
+                try (InputStream input = Files.newInputStream(file)) {
+                  classFiles.add(ClassFileInfo.read(input));
+                }
+              }
+              return FileVisitResult.CONTINUE;
+            }
+          });
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to read the classes of %s", invokingRule);
+      return Optional.absent();
+    }
+
+    ListMultimap<String, String> sourcesByFileName = ArrayListMultimap.create();
+    for (String source : sourceHashes.keySet()) {
+      sourcesByFileName.put(source.substring(source.lastIndexOf('/') + 1), source);
+    }
+
+    Map<String, String> sourceOfClass = Maps.newHashMap();
+    for (ClassFileInfo classFile : classFiles) {
+      Optional<String> source = findSource(classFile, sourcesByFileName);
+      if (!source.isPresent()) {
+        LOG.debug("Unable to find the source of %s in %s",
+            classFile.getClassName(),
+            invokingRule);
+        return Optional.absent();
+      }
+      sourceOfClass.put(classFile.getClassName(), source.get());
+    }
+
+    SortedSetMultimap<String, String> classes = TreeMultimap.create();
+    SortedSetMultimap<String, String> abis = TreeMultimap.create();
+    SortedSetMultimap<String, String> dependencies = TreeMultimap.create();
+    for (ClassFileInfo classFile : classFiles) {
+      String source = sourceOfClass.get(classFile.getClassName());
+      classes.put(source, classFile.getClassName());
+      if (classFile.isPartOfAbi()) {
+        abis.put(source, classFile.getClassName() + " " + classFile.getAbiHash());
+      }
+      for (String referencedClass : classFile.getReferencedClasses()) {
+        String dependency = sourceOfClass.get(referencedClass);
+        if (dependency != null && !dependency.equals(source)) {
+          dependencies.put(source, dependency);
+        }
+      }
+    }
+
+    ImmutableSortedMap.Builder<String, IncrementalCompilationInfo.SourceInfo> sources =
+        ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, String> entry : sourceHashes.entrySet()) {
+      String source = entry.getKey();
+      Hasher abi = Hashing.sha1().newHasher();
+      for (String classAbi : abis.get(source)) {
+        abi.putUnencodedChars(classAbi).putChar('\n');
+      }
+      sources.put(source, new IncrementalCompilationInfo.SourceInfo(
+          entry.getValue(),
+          abi.hash().toString(),
+          ImmutableList.copyOf(classes.get(source)),
+          ImmutableList.copyOf(dependencies.get(source))));
+    }
+    return Optional.of(new IncrementalCompilationInfo(configuration, abiKey, sources.build()));
+  }
+
+  private static Optional<String> findSource(
+      ClassFileInfo classFile,
+      ListMultimap<String, String> sourcesByFileName) {
+    Optional<String> sourcePath = classFile.getSourcePath();
+    if (!sourcePath.isPresent()) {
+      return Optional.absent();
+    }
+    String fileName = sourcePath.get().substring(sourcePath.get().lastIndexOf('/') + 1);
+    Optional<String> match = Optional.absent();
+    for (String source : sourcesByFileName.get(fileName)) {
+      if (source.equals(sourcePath.get()) || source.endsWith("/" + sourcePath.get())) {
+        if (match.isPresent()) {
+          // Ambiguous.
+          return Optional.absent();
+        }
+        match = Optional.of(source);
+      }
+    }
+    return match;
+  }
+
+  private ImmutableSortedMap<String, String> hashSources(ProjectFilesystem filesystem)
+      throws IOException {
+    ImmutableSortedMap.Builder<String, String> hashes = ImmutableSortedMap.naturalOrder();
+    for (SourcePath sourcePath : javaSourceFilePaths) {
+      Path path = sourcePath.resolve();
+      hashes.put(path.toString(), filesystem.computeSha1(path));
+    }
+    return hashes.build();
+  }
+
+  private String getConfiguration() {
+    ImmutableList.Builder<String> options = ImmutableList.builder();
+    javacOptions.appendOptionsToList(options, Functions.<Path>identity());
+
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (String option : options.build()) {
+      hasher.putUnencodedChars(option).putChar('\0');
+    }
+    hasher.putUnencodedChars(buildDependencies.name()).putChar('\0');
+    for (Path entry : ImmutableSortedSet.copyOf(transitiveClasspathEntries)) {
+      hasher.putUnencodedChars(entry.toString()).putChar('\0');
+    }
+    hasher.putChar('\0');
+    for (Path entry : ImmutableSortedSet.copyOf(declaredClasspathEntries)) {
+      hasher.putUnencodedChars(entry.toString()).putChar('\0');
+    }
+    hasher.putUnencodedChars(abiKeyForDeps.getHash());
+    return hasher.hash().toString();
+  }
+
+  private Optional<IncrementalCompilationInfo> readPreviousInfo(ProjectFilesystem filesystem) {
+    Optional<String> json =
+        new DefaultOnDiskBuildInfo(invokingRule, filesystem).getValue(METADATA_KEY);
+    if (!json.isPresent()) {
+      return Optional.absent();
+    }
+    try {
+      return Optional.of(objectMapper.readValue(json.get(), IncrementalCompilationInfo.class));
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to read the incremental compilation info of %s", invokingRule);
+      return Optional.absent();
+    }
+  }
+
+  private void recordInfo(IncrementalCompilationInfo info) {
+    try {
+      buildableContext.addMetadata(METADATA_KEY, objectMapper.writeValueAsString(info));
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to record the incremental compilation info of %s", invokingRule);
+    }
+  }
+
+  private JavacStep createJavacStep(
+      Set<SourcePath> sources,
+      Set<Path> transitiveClasspathEntries,
+      Set<Path> declaredClasspathEntries) {
+    return new JavacInMemoryStep(
+        outputDirectory,
+        sources,
+        transitiveClasspathEntries,
+        declaredClasspathEntries,
+        javacOptions,
+        Optional.of(pathToOutputAbiFile),
+        Optional.of(invokingRule),
+        buildDependencies,
+        suggestBuildRules,
+        Optional.of(pathToSrcsList));
+  }
+
+  @Override
+  public String getShortName() {
+    return "javac";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return createJavacStep(
+        javaSourceFilePaths,
+        transitiveClasspathEntries,
+        declaredClasspathEntries).getDescription(context);
+  }
+
+  /**
+   * @return the ABI key of the compiled classes. Like {@link JavacStep#getAbiKey()}, this must only
+   *     be called after the step has executed.
+   */
+  @Nullable
+  public Sha1HashCode getAbiKey() {
+    Preconditions.checkState(isExecuted.get(), "Must execute step before requesting AbiKey.");
+    return abiKey;
+  }
+}
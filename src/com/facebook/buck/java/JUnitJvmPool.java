@@ -0,0 +1,396 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ListMultimap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warm JVMs running {@code com.facebook.buck.junit.JUnitRunnerServer}, shared by every
+ * {@link JUnitStep} for the lifetime of the process. A JVM is only reused for tests that would have
+ * been started with the same command line, environment and working directory, and is retired after
+ * a given number of runs, when a run leaves most of its heap in use, or when it fails to respond.
+ * <p>
+ * Requests and responses go over a loopback socket that each JVM connects to when it starts, so
+ * that whatever the JVM itself writes to stdout, such as {@code -verbose:gc} output, cannot corrupt
+ * them. The JVMs exit when Buck does, because their socket is closed.
+ * <p>
+ * This class is thread-safe.
+ */
+class JUnitJvmPool {
+
+  private static final Logger LOG = Logger.get(JUnitJvmPool.class);
+
+  private static final JUnitJvmPool INSTANCE = new JUnitJvmPool();
+
+  /** A JVM with more than this fraction of its maximum heap in use after a run is retired. */
+  private static final double MAX_HEAP_USAGE = 0.75;
+
+  /** How long a new JVM has to connect back to the pool. */
+  private static final long CONNECT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+  /**
+   * How often a thread waiting on a JVM checks whether it has been interrupted, or whether the JVM
+   * has exited.
+   */
+  private static final int POLL_INTERVAL_MILLIS = 1000;
+
+  /** Responses are at most this long, so a corrupt length fails fast instead of exhausting heap. */
+  @VisibleForTesting
+  static final int MAX_RESPONSE_BYTES = 256 * 1024 * 1024;
+
+  private final ListMultimap<JvmKey, Jvm> idleJvms = ArrayListMultimap.create();
+
+  @VisibleForTesting
+  JUnitJvmPool() {
+  }
+
+  static JUnitJvmPool getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Sends {@code request} to an idle JVM started by {@code command}, or to a new one if there is no
+   * idle one, and waits for its response.
+   *
+   * @param maxRuns the number of requests a JVM may serve before it is retired.
+   * @throws IOException if the JVM could not be started, or exited without responding, or sent a
+   *     malformed response. The JVM is not reused in that case.
+   * @throws InterruptedException if the thread was interrupted while waiting for the JVM, which is
+   *     then stopped.
+   */
+  Response run(
+      ImmutableList<String> command,
+      ImmutableMap<String, String> environment,
+      File workingDirectory,
+      ImmutableList<String> request,
+      int maxRuns) throws IOException, InterruptedException {
+    Preconditions.checkArgument(maxRuns > 0);
+    JvmKey key = new JvmKey(command, environment, workingDirectory);
+    Jvm jvm = acquire(key);
+
+    Response response;
+    boolean responded = false;
+    try {
+      response = jvm.run(request);
+      responded = true;
+    } finally {
+      // Whatever went wrong, the JVM may be part way through a request, so it cannot be reused.
+      if (!responded) {
+        jvm.destroy();
+      }
+    }
+
+    if (jvm.runs >= maxRuns || response.usedHeap > response.maxHeap * MAX_HEAP_USAGE) {
+      LOG.debug(
+          "Retiring test JVM after %d runs with %d of %d bytes of heap in use.",
+          jvm.runs,
+          response.usedHeap,
+          response.maxHeap);
+      jvm.destroy();
+    } else {
+      synchronized (this) {
+        idleJvms.put(key, jvm);
+      }
+    }
+    return response;
+  }
+
+  private Jvm acquire(JvmKey key) throws IOException, InterruptedException {
+    synchronized (this) {
+      List<Jvm> jvms = idleJvms.get(key);
+      while (!jvms.isEmpty()) {
+        Jvm jvm = jvms.remove(jvms.size() - 1);
+        if (jvm.isAlive()) {
+          return jvm;
+        }
+      }
+    }
+
+    LOG.debug("Starting a test JVM: %s", key.command);
+    try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName(null))) {
+      ProcessBuilder processBuilder = new ProcessBuilder(ImmutableList.<String>builder()
+          .addAll(key.command)
+          .add(String.valueOf(serverSocket.getLocalPort()))
+          .build());
+      processBuilder.environment().clear();
+      processBuilder.environment().putAll(key.environment);
+      processBuilder.directory(key.workingDirectory);
+      processBuilder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+      processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+      Process process = processBuilder.start();
+
+      Socket socket = null;
+      try {
+        socket = accept(serverSocket, process);
+        return new Jvm(process, socket);
+      } finally {
+        if (socket == null) {
+          process.destroy();
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits for {@code process} to connect to {@code serverSocket}, giving up if it exits first or
+   * takes longer than {@link #CONNECT_TIMEOUT_MILLIS}.
+   */
+  private static Socket accept(ServerSocket serverSocket, Process process)
+      throws IOException, InterruptedException {
+    serverSocket.setSoTimeout(POLL_INTERVAL_MILLIS);
+    long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+    while (true) {
+      try {
+        Socket socket = serverSocket.accept();
+        socket.setSoTimeout(POLL_INTERVAL_MILLIS);
+        return socket;
+      } catch (SocketTimeoutException e) {
+        checkWaiting(process);
+        if (System.currentTimeMillis() > deadline) {
+          throw new IOException("Test JVM did not connect to the pool in time.");
+        }
+      }
+    }
+  }
+
+  /**
+   * Called between polls of a socket shared with {@code process}.
+   */
+  private static void checkWaiting(Process process) throws IOException, InterruptedException {
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    if (!isAlive(process)) {
+      throw new EOFException("Test JVM exited with " + process.exitValue() + ".");
+    }
+  }
+
+  private static boolean isAlive(Process process) {
+    try {
+      process.exitValue();
+      return false;
+    } catch (IllegalThreadStateException e) {
+      return true;
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getIdleJvmCount() {
+    return idleJvms.size();
+  }
+
+  /**
+   * Stops every idle JVM.
+   */
+  synchronized void shutdown() {
+    for (Jvm jvm : idleJvms.values()) {
+      jvm.destroy();
+    }
+    idleJvms.clear();
+  }
+
+  static class Response {
+    final int exitCode;
+    final long usedHeap;
+    final long maxHeap;
+    final String stdout;
+    final String stderr;
+
+    private Response(int exitCode, long usedHeap, long maxHeap, String stdout, String stderr) {
+      this.exitCode = exitCode;
+      this.usedHeap = usedHeap;
+      this.maxHeap = maxHeap;
+      this.stdout = stdout;
+      this.stderr = stderr;
+    }
+  }
+
+  /**
+   * One JVM, and the socket it connected to the pool with. The protocol spoken over it is described
+   * by {@code JUnitRunnerServer}.
+   */
+  private static class Jvm {
+    private final Process process;
+    private final Socket socket;
+    private final DataOutputStream requests;
+    private final DataInputStream responses;
+    private int runs;
+
+    private Jvm(Process process, Socket socket) throws IOException {
+      this.process = process;
+      this.socket = socket;
+      this.requests = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      this.responses = new DataInputStream(
+          new BufferedInputStream(new PollingInputStream(socket.getInputStream())));
+    }
+
+    private Response run(ImmutableList<String> request) throws IOException, InterruptedException {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      runs++;
+      requests.writeInt(request.size());
+      for (String value : request) {
+        writeBytes(value.getBytes(Charsets.UTF_8));
+      }
+      requests.flush();
+
+      try {
+        int exitCode = responses.readInt();
+        long usedHeap = responses.readLong();
+        long maxHeap = responses.readLong();
+        String stdout = new String(readBytes(), Charsets.UTF_8);
+        String stderr = new String(readBytes(), Charsets.UTF_8);
+        return new Response(exitCode, usedHeap, maxHeap, stdout, stderr);
+      } catch (WaitInterruptedException e) {
+        throw new InterruptedException();
+      }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+      requests.writeInt(bytes.length);
+      requests.write(bytes);
+    }
+
+    private byte[] readBytes() throws IOException {
+      int length = responses.readInt();
+      if (length < 0 || length > MAX_RESPONSE_BYTES) {
+        throw new IOException("Malformed response from test JVM: length " + length + ".");
+      }
+      byte[] bytes = new byte[length];
+      responses.readFully(bytes);
+      return bytes;
+    }
+
+    private boolean isAlive() {
+      return JUnitJvmPool.isAlive(process) && !socket.isClosed();
+    }
+
+    private void destroy() {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        LOG.debug(e, "Unable to close the socket of a test JVM.");
+      }
+      process.destroy();
+    }
+
+    /**
+     * Reads from the socket, which has a short timeout, until there is data, checking in between
+     * whether the reading thread was interrupted or the JVM has exited. Sitting below the buffer,
+     * a timeout never loses part of a value.
+     */
+    private class PollingInputStream extends FilterInputStream {
+      private PollingInputStream(InputStream in) {
+        super(in);
+      }
+
+      @Override
+      public int read() throws IOException {
+        while (true) {
+          try {
+            return super.read();
+          } catch (SocketTimeoutException e) {
+            checkWaiting();
+          }
+        }
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        while (true) {
+          try {
+            return super.read(b, off, len);
+          } catch (SocketTimeoutException e) {
+            checkWaiting();
+          }
+        }
+      }
+
+      private void checkWaiting() throws IOException {
+        try {
+          JUnitJvmPool.checkWaiting(process);
+        } catch (InterruptedException e) {
+          throw new WaitInterruptedException();
+        }
+      }
+    }
+  }
+
+  /**
+   * Carries an interrupt out of {@link Jvm.PollingInputStream}, whose methods may only throw
+   * {@link IOException}s.
+   */
+  private static class WaitInterruptedException extends IOException {
+    private static final long serialVersionUID = 1L;
+  }
+
+  private static class JvmKey {
+    private final ImmutableList<String> command;
+    private final ImmutableMap<String, String> environment;
+    private final File workingDirectory;
+
+    private JvmKey(
+        ImmutableList<String> command,
+        ImmutableMap<String, String> environment,
+        File workingDirectory) {
+      this.command = Preconditions.checkNotNull(command);
+      this.environment = Preconditions.checkNotNull(environment);
+      this.workingDirectory = Preconditions.checkNotNull(workingDirectory);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof JvmKey)) {
+        return false;
+      }
+      JvmKey that = (JvmKey) obj;
+      return command.equals(that.command) &&
+          environment.equals(that.environment) &&
+          workingDirectory.equals(that.workingDirectory);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(command, environment, workingDirectory);
+    }
+  }
+}
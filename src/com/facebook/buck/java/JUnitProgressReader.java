@@ -0,0 +1,178 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.log.CommandThreadFactory;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.TestSummaryEvent;
+import com.facebook.buck.test.TestResultSummary;
+import com.facebook.buck.test.result.type.ResultType;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Follows the file that {@code JUnitRunner} writes a line to as each test finishes, and posts a
+ * {@link TestSummaryEvent} for every line, so that tests are reported while the rest of the tests
+ * of the rule are still running.
+ */
+class JUnitProgressReader {
+
+  private static final Logger LOG = Logger.get(JUnitProgressReader.class);
+
+  private static final long POLL_INTERVAL_MILLIS = 200;
+
+  private final Path progressFile;
+  private final BuckEventBus eventBus;
+  private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+
+  @Nullable
+  private InputStream input;
+
+  @Nullable
+  private ScheduledExecutorService executor;
+
+  /**
+   * @param progressFile absolute path of the file that {@code JUnitRunner} writes to.
+   */
+  JUnitProgressReader(Path progressFile, BuckEventBus eventBus) {
+    this.progressFile = Preconditions.checkNotNull(progressFile);
+    this.eventBus = Preconditions.checkNotNull(eventBus);
+  }
+
+  /**
+   * Starts polling for new lines in the background. Lines left behind by an earlier run are
+   * deleted first.
+   */
+  void start() {
+    Preconditions.checkState(executor == null, "Already started.");
+    try {
+      Files.deleteIfExists(progressFile);
+    } catch (IOException e) {
+      LOG.debug(e, "Could not delete %s.", progressFile);
+    }
+    executor = Executors.newSingleThreadScheduledExecutor(
+        new CommandThreadFactory("junit-progress"));
+    executor.scheduleWithFixedDelay(
+        new Runnable() {
+          @Override
+          public void run() {
+            readNewLines();
+          }
+        },
+        POLL_INTERVAL_MILLIS,
+        POLL_INTERVAL_MILLIS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops polling and reports any lines written since the last poll. Call this once the tests
+   * have finished.
+   */
+  void stop() throws InterruptedException {
+    Preconditions.checkState(executor != null, "Not started.");
+    executor.shutdown();
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    readNewLines();
+    try {
+      if (input != null) {
+        input.close();
+      }
+    } catch (IOException e) {
+      LOG.debug(e, "Could not close %s.", progressFile);
+    }
+  }
+
+  @VisibleForTesting
+  synchronized void readNewLines() {
+    try {
+      if (input == null) {
+        if (!Files.exists(progressFile)) {
+          return;
+        }
+        input = Files.newInputStream(progressFile);
+      }
+
+      // Reads stop at the current end of the file, but pick up anything appended after it.
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = input.read(buffer)) > 0) {
+        for (int i = 0; i < read; i++) {
+          if (buffer[i] == '\n') {
+            String line = new String(partialLine.toByteArray(), Charsets.UTF_8);
+            partialLine.reset();
+            Optional<TestResultSummary> summary = parseLine(line);
+            if (summary.isPresent()) {
+              eventBus.post(TestSummaryEvent.finished(summary.get()));
+            }
+          } else {
+            partialLine.write(buffer[i]);
+          }
+        }
+      }
+    } catch (IOException e) {
+      // This only costs the early reports: the results themselves are read from the result files.
+      LOG.debug(e, "Could not read test progress from %s.", progressFile);
+    }
+  }
+
+  /**
+   * Parses a line written by {@code TestResult#writeProgressLine}: the result type, the run time in
+   * milliseconds, the test class name and the test method name, separated by tabs.
+   */
+  @VisibleForTesting
+  static Optional<TestResultSummary> parseLine(String line) {
+    List<String> fields = Splitter.on('\t').splitToList(line);
+    if (fields.size() != 4) {
+      return Optional.absent();
+    }
+
+    ResultType type;
+    long time;
+    try {
+      type = ResultType.valueOf(fields.get(0));
+      time = Long.parseLong(fields.get(1));
+    } catch (IllegalArgumentException e) {
+      return Optional.absent();
+    }
+
+    return Optional.of(new TestResultSummary(
+        fields.get(2),
+        fields.get(3),
+        type,
+        time,
+        /* message */ null,
+        /* stacktrace */ null,
+        /* stdOut */ null,
+        /* stdErr */ null));
+  }
+}
@@ -16,23 +16,29 @@
 
 package com.facebook.buck.java;
 
+import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.test.selectors.TestSelectorList;
 import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.Verbosity;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class JUnitStep extends ShellStep {
@@ -43,9 +49,26 @@ public class JUnitStep extends ShellStep {
   static final String JUNIT_TEST_RUNNER_CLASS_NAME =
       "com.facebook.buck.junit.JUnitRunner";
 
+  @VisibleForTesting
+  static final String JUNIT_TEST_RUNNER_SERVER_CLASS_NAME =
+      "com.facebook.buck.junit.JUnitRunnerServer";
+
+  /**
+   * Scratch space for pooled JVMs. Tests are told to use their own {@code tmpDirectory}, but
+   * {@link File#createTempFile} only reads {@code java.io.tmpdir} once per JVM.
+   */
+  @VisibleForTesting
+  static final Path POOLED_JVM_TMP_DIRECTORY = BuckConstant.BIN_PATH.resolve("junit-jvm-pool");
+
   @VisibleForTesting
   public static final String BUILD_ID_PROPERTY = "com.facebook.buck.buildId";
 
+  /**
+   * File in {@code tmpDirectory} that the test runner writes a line to as each test finishes.
+   */
+  @VisibleForTesting
+  static final String PROGRESS_FILE_NAME = "junit-progress.txt";
+
   private final ImmutableSet<Path> classpathEntries;
   private final Set<String> testClassNames;
   private final List<String> vmArgs;
@@ -57,6 +80,7 @@ public class JUnitStep extends ShellStep {
   private final BuildId buildId;
   private TestSelectorList testSelectorList;
   private final boolean isDryRun;
+  private final boolean forkJvm;
 
   /**
    *  JaCoco is enabled for the code-coverage analysis.
@@ -81,6 +105,8 @@ public class JUnitStep extends ShellStep {
    * @param testClassNames the fully qualified names of the Java tests to run
    * @param directoryForTestResults directory where test results should be written
    * @param tmpDirectory directory tests can use for local file scratch space.
+   * @param forkJvm whether the tests must run in a JVM of their own, even if a pool of test JVMs is
+   *     configured (see {@link ExecutionContext#getTestJvmPoolMaxRuns()}).
    */
   public JUnitStep(
       Set<Path> classpathEntries,
@@ -92,7 +118,8 @@ public class JUnitStep extends ShellStep {
       boolean isDebugEnabled,
       BuildId buildId,
       TestSelectorList testSelectorList,
-      boolean isDryRun) {
+      boolean isDryRun,
+      boolean forkJvm) {
     this(classpathEntries,
         testClassNames,
         vmArgs,
@@ -103,6 +130,7 @@ public class JUnitStep extends ShellStep {
         buildId,
         testSelectorList,
         isDryRun,
+        forkJvm,
         Paths.get(System.getProperty(
                 "buck.testrunner_classes",
                 new File("build/testrunner/classes").getAbsolutePath())));
@@ -120,6 +148,7 @@ public class JUnitStep extends ShellStep {
       BuildId buildId,
       TestSelectorList testSelectorList,
       boolean isDryRun,
+      boolean forkJvm,
       Path testRunnerClassesDirectory) {
     this.classpathEntries = ImmutableSet.copyOf(classpathEntries);
     this.testClassNames = ImmutableSet.copyOf(testClassNames);
@@ -131,6 +160,7 @@ public class JUnitStep extends ShellStep {
     this.buildId = buildId;
     this.testSelectorList = Preconditions.checkNotNull(testSelectorList);
     this.isDryRun = isDryRun;
+    this.forkJvm = forkJvm;
     this.testRunnerClassesDirectory = Preconditions.checkNotNull(testRunnerClassesDirectory);
   }
 
@@ -172,18 +202,108 @@ public class JUnitStep extends ShellStep {
       args.add("-verbose");
     }
 
-    // Build up the -classpath argument, starting with the classpath entries the client specified.
+    // Add the -classpath argument.
+    args.add("-classpath").add(getClasspath());
+
+    // Specify the Java class whose main() method should be run. This is the class that is
+    // responsible for running the tests.
+    args.add(JUNIT_TEST_RUNNER_CLASS_NAME);
+
+    args.addAll(getTestRunnerArgs(context));
+
+    return args.build();
+  }
+
+  /**
+   * Runs the tests in a JVM from {@link JUnitJvmPool} when a pool is configured and nothing about
+   * this run requires a JVM of its own, and otherwise runs {@link #getShellCommand}. Each test is
+   * reported with a {@link com.facebook.buck.rules.TestSummaryEvent} as soon as it finishes.
+   */
+  @Override
+  public int execute(ExecutionContext context) throws InterruptedException {
+    JUnitProgressReader progressReader = new JUnitProgressReader(
+        context.getProjectFilesystem().resolve(getPathToProgressFile()),
+        context.getBuckEventBus());
+    progressReader.start();
+    try {
+      if (canRunInPooledJvm(context)) {
+        return executeInPooledJvm(context);
+      } else {
+        return super.execute(context);
+      }
+    } finally {
+      progressReader.stop();
+    }
+  }
+
+  private int executeInPooledJvm(ExecutionContext context) throws InterruptedException {
+    // JVM arguments are fixed when the JVM starts, so only tests with the same ones share a JVM.
+    ImmutableList<String> command = ImmutableList.<String>builder()
+        .add("java")
+        .add(String.format("-Djava.io.tmpdir=%s", POOLED_JVM_TMP_DIRECTORY))
+        .addAll(vmArgs)
+        .add("-classpath")
+        .add(testRunnerClassesDirectory.toString())
+        .add(JUNIT_TEST_RUNNER_SERVER_CLASS_NAME)
+        .build();
+    ImmutableList<String> request = ImmutableList.<String>builder()
+        .add(buildId.toString())
+        .add(tmpDirectory.toString())
+        .add(getClasspath())
+        .addAll(getTestRunnerArgs(context))
+        .build();
+    Map<String, String> environment = Maps.newHashMap(context.getEnvironment());
+    environment.put("TMP", POOLED_JVM_TMP_DIRECTORY.toString());
+
+    JUnitJvmPool.Response response;
+    try {
+      context.getProjectFilesystem().mkdirs(POOLED_JVM_TMP_DIRECTORY);
+      response = JUnitJvmPool.getInstance().run(
+          command,
+          ImmutableMap.copyOf(environment),
+          context.getProjectDirectoryRoot().toAbsolutePath().toFile(),
+          request,
+          context.getTestJvmPoolMaxRuns());
+    } catch (IOException e) {
+      context.logError(e, "Error running tests in a pooled JVM.");
+      return 1;
+    }
+
+    Verbosity verbosity = context.getVerbosity();
+    if (!Strings.isNullOrEmpty(response.stdout) && shouldPrintStdout(verbosity)) {
+      context.postEvent(ConsoleEvent.info("%s", response.stdout));
+    }
+    if (!Strings.isNullOrEmpty(response.stderr) && shouldPrintStderr(verbosity)) {
+      context.postEvent(ConsoleEvent.severe("%s", response.stderr));
+    }
+    return response.exitCode;
+  }
+
+  /**
+   * Code coverage and debugging need JVM agents, and verbose class loading output goes to the
+   * JVM's stdout, so none of them can be used with a JVM that is shared.
+   */
+  @VisibleForTesting
+  boolean canRunInPooledJvm(ExecutionContext context) {
+    return !forkJvm &&
+        context.getTestJvmPoolMaxRuns() > 0 &&
+        !isCodeCoverageEnabled &&
+        !isDebugEnabled &&
+        !context.getVerbosity().shouldUseVerbosityFlagIfAvailable();
+  }
+
+  private String getClasspath() {
+    // Start with the classpath entries the client specified.
     List<Path> classpath = Lists.newArrayList(classpathEntries);
 
     // Finally, include an entry for the test runner.
     classpath.add(testRunnerClassesDirectory);
 
-    // Add the -classpath argument.
-    args.add("-classpath").add(Joiner.on(File.pathSeparator).join(classpath));
+    return Joiner.on(File.pathSeparator).join(classpath);
+  }
 
-    // Specify the Java class whose main() method should be run. This is the class that is
-    // responsible for running the tests.
-    args.add(JUNIT_TEST_RUNNER_CLASS_NAME);
+  private ImmutableList<String> getTestRunnerArgs(ExecutionContext context) {
+    ImmutableList.Builder<String> args = ImmutableList.builder();
 
     // The first argument to the test runner is where the test results should be written. It is not
     // reliable to write test results to stdout or stderr because there may be output from the unit
@@ -206,6 +326,9 @@ public class JUnitStep extends ShellStep {
     // Dry-run flag.
     args.add(isDryRun ? "non-empty-dry-run-flag" : "");
 
+    // Where to report each test as it finishes.
+    args.add(getPathToProgressFile().toString());
+
     // List all of the tests to be run.
     for (String testClassName : testClassNames) {
       args.add(testClassName);
@@ -214,6 +337,11 @@ public class JUnitStep extends ShellStep {
     return args.build();
   }
 
+  @VisibleForTesting
+  Path getPathToProgressFile() {
+    return tmpDirectory.resolve(PROGRESS_FILE_NAME);
+  }
+
   @Override
   public ImmutableMap<String, String> getEnvironmentVariables(ExecutionContext context) {
     return ImmutableMap.of("TMP", tmpDirectory.toString());
@@ -25,14 +25,22 @@ import com.facebook.buck.step.Step;
 import com.facebook.buck.util.DirectoryTraversal;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.facebook.buck.zip.CustomZipOutputStream;
+import com.facebook.buck.zip.RawZipFile;
 import com.facebook.buck.zip.ZipOutputStreams;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -41,18 +49,22 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
-import java.util.Enumeration;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.logging.Level;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import javax.annotation.Nullable;
 
@@ -61,6 +73,28 @@ import javax.annotation.Nullable;
  */
 public class JarDirectoryStep implements Step {
 
+  /**
+   * The most files from a directory that may be deflated, but not yet written to the jar, at once.
+   */
+  private static final int MAX_PENDING_ENTRIES = 1024;
+
+  /**
+   * Deflates the files of directories. It is shared by every jar that is built, and only started
+   * once a directory is added to one, as entries copied from jars are not recompressed.
+   */
+  private static final Supplier<ListeningExecutorService> DEFLATER = Suppliers.memoize(
+      new Supplier<ListeningExecutorService>() {
+        @Override
+        public ListeningExecutorService get() {
+          return MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(
+              Runtime.getRuntime().availableProcessors(),
+              new ThreadFactoryBuilder()
+                  .setNameFormat("jar-deflater-%d")
+                  .setDaemon(true)
+                  .build()));
+        }
+      });
+
   /** Where to write the new JAR file. */
   private final Path pathToOutputFile;
 
@@ -182,7 +216,8 @@ public class JarDirectoryStep implements Step {
               file,
               outputFile,
               alreadyAddedEntries,
-              context.getBuckEventBus());
+              context.getBuckEventBus(),
+              DEFLATER.get());
         } else {
           throw new IllegalStateException("Must be a file or directory: " + file);
         }
@@ -229,10 +264,9 @@ public class JarDirectoryStep implements Step {
       Manifest manifest,
       Set<String> alreadyAddedEntries,
       BuckEventBus eventBus) throws IOException {
-    try (ZipFile zip = new ZipFile(file)) {
+    try (RawZipFile zip = new RawZipFile(file)) {
       zipEntryLoop:
-      for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
-        ZipEntry entry = entries.nextElement();
+      for (ZipEntry entry : zip.getEntries()) {
         String entryName = entry.getName();
 
         if (entryName.equals(JarFile.MANIFEST_NAME)) {
@@ -262,25 +296,13 @@ public class JarDirectoryStep implements Step {
           }
         }
 
-        ZipEntry newEntry = new ZipEntry(entry);
-
-        // For deflated entries, the act of re-"putting" this entry means we're re-compressing
-        // the data that we've just uncompressed.  Due to various environmental issues (e.g. a
-        // newer version of zlib, changed compression settings), we may end up with a different
-        // compressed size.  This causes an issue in java's `java.util.zip.ZipOutputStream`
-        // implementation, as it only updates the compressed size field if one of `crc`,
-        // `compressedSize`, or `size` is -1.  When we copy the entry as-is, none of these are
-        // -1, and we may end up with an incorrect compressed size, in which case, we'll get an
-        // exception.  So, for deflated entries, reset the compressed size to -1 (as the
-        // ZipEntry(String) would).
-        // See https://github.com/spearce/buck/commit/8338c1c3d4a546f577eed0c9941d9f1c2ba0a1b7.
-        if (entry.getMethod() == ZipEntry.DEFLATED) {
-          newEntry.setCompressedSize(-1);
+        // Copy the entry's compressed bytes as they are. Inflating and re-deflating every entry of
+        // every input jar is where most of the time used to go when building large jars, and gains
+        // us nothing: the CRC and sizes recorded in the source jar remain valid.
+        jar.putNextRawEntry(new ZipEntry(entry));
+        try (InputStream inputStream = zip.getRawInputStream(entry)) {
+          ByteStreams.copy(inputStream, jar);
         }
-
-        jar.putNextEntry(newEntry);
-        InputStream inputStream = zip.getInputStream(entry);
-        ByteStreams.copy(inputStream, jar);
         jar.closeEntry();
       }
     }
@@ -290,7 +312,7 @@ public class JarDirectoryStep implements Step {
     return entry.isDirectory() ? Level.FINE : Level.INFO;
   }
 
-  private Manifest readManifest(ZipFile zip, ZipEntry manifestMfEntry) throws IOException {
+  private Manifest readManifest(RawZipFile zip, ZipEntry manifestMfEntry) throws IOException {
     try (
         ByteArrayOutputStream output = new ByteArrayOutputStream((int) manifestMfEntry.getSize());
         InputStream stream = zip.getInputStream(manifestMfEntry);
@@ -302,34 +324,44 @@ public class JarDirectoryStep implements Step {
   }
 
   /**
+   * Files are compressed on {@code executor} while the directory is traversed, and the results are
+   * written to {@code jar} in traversal order, so the generated jar is the same no matter how many
+   * threads do the work.
+   *
    * @param directory that must not contain symlinks with loops.
    * @param jar is the file being written.
    */
   private void addFilesInDirectoryToJar(File directory,
       final CustomZipOutputStream jar,
       final Set<String> alreadyAddedEntries,
-      final BuckEventBus eventBus) throws IOException {
+      final BuckEventBus eventBus,
+      final ListeningExecutorService executor) throws IOException {
+    final Deque<ListenableFuture<DeflatedEntry>> pending = new ArrayDeque<>();
+
     new DirectoryTraversal(directory) {
 
       @Override
-      public void visit(File file, String relativePath) {
+      public void visit(final File file, String relativePath) {
         JarEntry entry = new JarEntry(relativePath);
-        String entryName = entry.getName();
-        entry.setTime(file.lastModified());
+        final String entryName = entry.getName();
+        // We expect there to be many duplicate entries for things like directories. Creating
+        // those repeatedly would be lame, so don't do that.
+        if (!isDuplicateAllowed(entryName) && !alreadyAddedEntries.add(entryName)) {
+          if (!entryName.endsWith("/")) {
+            eventBus.post(ConsoleEvent.create(
+                determineSeverity(entry),
+                "Duplicate found when adding directory to jar: %s", relativePath));
+          }
+          return;
+        }
+        final long lastModified = file.lastModified();
         try {
-          // We expect there to be many duplicate entries for things like directories. Creating
-          // those repeatedly would be lame, so don't do that.
-          if (!isDuplicateAllowed(entryName) && !alreadyAddedEntries.add(entryName)) {
-            if (!entryName.endsWith("/")) {
-              eventBus.post(ConsoleEvent.create(
-                  determineSeverity(entry),
-                  "Duplicate found when adding directory to jar: %s", relativePath));
+          enqueue(new Callable<DeflatedEntry>() {
+            @Override
+            public DeflatedEntry call() throws IOException {
+              return DeflatedEntry.of(entryName, lastModified, Files.toByteArray(file));
             }
-              return;
-          }
-          jar.putNextEntry(entry);
-          Files.copy(file, jar);
-          jar.closeEntry();
+          });
         } catch (IOException e) {
           Throwables.propagate(e);
         }
@@ -341,16 +373,40 @@ public class JarDirectoryStep implements Step {
           // root of the tree. Skip.
           return;
         }
-        String entryName = relativePath + "/";
+        final String entryName = relativePath + "/";
         if (alreadyAddedEntries.contains(entryName)) {
           return;
         }
-        JarEntry entry = new JarEntry(entryName);
-        entry.setTime(directory.lastModified());
-        jar.putNextEntry(entry);
-        jar.closeEntry();
+        final long lastModified = directory.lastModified();
+        enqueue(new Callable<DeflatedEntry>() {
+          @Override
+          public DeflatedEntry call() throws IOException {
+            return DeflatedEntry.of(entryName, lastModified, new byte[0]);
+          }
+        });
+      }
+
+      private void enqueue(Callable<DeflatedEntry> task) throws IOException {
+        pending.add(executor.submit(task));
+        // Bound how much compressed data we hold on to while waiting for earlier entries.
+        while (pending.size() > MAX_PENDING_ENTRIES) {
+          writeNext(jar, pending);
+        }
       }
     }.traverse();
+
+    while (!pending.isEmpty()) {
+      writeNext(jar, pending);
+    }
+  }
+
+  private static void writeNext(
+      CustomZipOutputStream jar,
+      Deque<ListenableFuture<DeflatedEntry>> pending) throws IOException {
+    DeflatedEntry deflated = Futures.get(pending.remove(), IOException.class);
+    jar.putNextRawEntry(deflated.entry);
+    jar.write(deflated.data);
+    jar.closeEntry();
   }
 
   /**
@@ -382,4 +438,46 @@ public class JarDirectoryStep implements Step {
   private boolean isDuplicateAllowed(String name) {
     return !name.endsWith(".class") && !name.endsWith("/");
   }
+
+  /**
+   * A file that has been deflated ahead of being written to the jar, along with an entry that
+   * describes it well enough to be written by
+   * {@link CustomZipOutputStream#putNextRawEntry(ZipEntry)}.
+   */
+  private static class DeflatedEntry {
+    private final ZipEntry entry;
+    private final byte[] data;
+
+    private DeflatedEntry(ZipEntry entry, byte[] data) {
+      this.entry = entry;
+      this.data = data;
+    }
+
+    public static DeflatedEntry of(String name, long time, byte[] contents) {
+      CRC32 crc = new CRC32();
+      crc.update(contents);
+
+      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, /* nowrap */ true);
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(contents.length / 2 + 16);
+      try {
+        deflater.setInput(contents);
+        deflater.finish();
+        byte[] buffer = new byte[8 * 1024];
+        while (!deflater.finished()) {
+          int written = deflater.deflate(buffer);
+          compressed.write(buffer, 0, written);
+        }
+      } finally {
+        deflater.end();
+      }
+
+      JarEntry entry = new JarEntry(name);
+      entry.setTime(time);
+      entry.setMethod(ZipEntry.DEFLATED);
+      entry.setCrc(crc.getValue());
+      entry.setSize(contents.length);
+      entry.setCompressedSize(compressed.size());
+      return new DeflatedEntry(entry, compressed.toByteArray());
+    }
+  }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * An entry of a classpath jar, read through the {@link ClasspathJarCache}.
+ */
+class JarEntryJavaFileObject extends SimpleJavaFileObject {
+
+  private final ClasspathJarCache cache;
+  private final ClasspathJarIndex index;
+  private final String entryName;
+
+  JarEntryJavaFileObject(ClasspathJarCache cache, ClasspathJarIndex index, String entryName) {
+    super(createUri(index, entryName), ClasspathJarIndex.getKind(entryName));
+    this.cache = Preconditions.checkNotNull(cache);
+    this.index = index;
+    this.entryName = entryName;
+  }
+
+  /**
+   * Creates a URI of the form {@code jar:/path/to/lib.jar!/com/example/Foo.class}. Unlike the
+   * usual {@code jar:file:...} form, this is hierarchical, which {@link SimpleJavaFileObject}
+   * requires.
+   */
+  private static URI createUri(ClasspathJarIndex index, String entryName) {
+    try {
+      return new URI(
+          "jar",
+          /* host */ null,
+          index.getJarPath() + "!/" + entryName,
+          /* fragment */ null);
+    } catch (URISyntaxException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** @return the binary name of the class in this entry, such as {@code com.example.Foo$Bar}. */
+  String getBinaryName() {
+    return entryName
+        .substring(0, entryName.length() - getKind().extension.length())
+        .replace('/', '.');
+  }
+
+  /** Matches the format javac uses for entries of jars it reads itself. */
+  @Override
+  public String getName() {
+    return index.getJarPath() + "(" + entryName + ")";
+  }
+
+  @Override
+  public boolean isNameCompatible(String simpleName, Kind kind) {
+    if (kind != getKind()) {
+      return false;
+    }
+    String baseName = entryName.substring(entryName.lastIndexOf('/') + 1);
+    return baseName.equals(simpleName + kind.extension);
+  }
+
+  @Override
+  public NestingKind getNestingKind() {
+    return null;
+  }
+
+  @Override
+  public Modifier getAccessLevel() {
+    return null;
+  }
+
+  @Override
+  public InputStream openInputStream() throws IOException {
+    return new ByteArrayInputStream(cache.getEntryBytes(index, entryName));
+  }
+
+  @Override
+  public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+    return new String(cache.getEntryBytes(index, entryName), Charsets.UTF_8);
+  }
+
+  @Override
+  public long getLastModified() {
+    return index.getLastModified();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof JarEntryJavaFileObject)) {
+      return false;
+    }
+    JarEntryJavaFileObject that = (JarEntryJavaFileObject) obj;
+    return index == that.index && entryName.equals(that.entryName);
+  }
+
+  @Override
+  public int hashCode() {
+    return toUri().hashCode();
+  }
+}
@@ -24,6 +24,8 @@ import com.facebook.buck.util.ProcessExecutor;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
 
 import java.io.File;
 import java.io.IOException;
@@ -52,7 +54,19 @@ public class JavaBuckConfig {
         javac,
         javacVersion,
         sourceLevel.or(TARGETED_JAVA_VERSION),
-        targetLevel.or(TARGETED_JAVA_VERSION));
+        targetLevel.or(TARGETED_JAVA_VERSION),
+        delegate.getBooleanValue("java", "incremental", false),
+        delegate.getBooleanValue("java", "source_abi", false),
+        getReusableAnnotationProcessors());
+  }
+
+  private ImmutableSet<String> getReusableAnnotationProcessors() {
+    Optional<String> processors = delegate.getValue("java", "reusable_annotation_processors");
+    if (!processors.isPresent()) {
+      return ImmutableSet.of();
+    }
+    Splitter splitter = Splitter.on(',').omitEmptyStrings().trimResults();
+    return ImmutableSet.copyOf(splitter.split(processors.get()));
   }
 
   @VisibleForTesting
@@ -18,6 +18,7 @@ package com.facebook.buck.java;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 
 import java.nio.file.Path;
 
@@ -36,16 +37,67 @@ public class JavaCompilerEnvironment {
   private final Optional<JavacVersion> javacVersion;
   private final String sourceLevel;
   private final String targetLevel;
+  private final boolean incrementalCompilationEnabled;
+  private final boolean sourceAbiEnabled;
+  private final ImmutableSet<String> reusableAnnotationProcessors;
 
   public JavaCompilerEnvironment(
       Optional<Path> javacPath,
       Optional<JavacVersion> javacVersion,
       String sourceLevel,
       String targetLevel) {
+    this(javacPath,
+        javacVersion,
+        sourceLevel,
+        targetLevel,
+        /* incrementalCompilationEnabled */ false);
+  }
+
+  public JavaCompilerEnvironment(
+      Optional<Path> javacPath,
+      Optional<JavacVersion> javacVersion,
+      String sourceLevel,
+      String targetLevel,
+      boolean incrementalCompilationEnabled) {
+    this(javacPath,
+        javacVersion,
+        sourceLevel,
+        targetLevel,
+        incrementalCompilationEnabled,
+        /* sourceAbiEnabled */ false);
+  }
+
+  public JavaCompilerEnvironment(
+      Optional<Path> javacPath,
+      Optional<JavacVersion> javacVersion,
+      String sourceLevel,
+      String targetLevel,
+      boolean incrementalCompilationEnabled,
+      boolean sourceAbiEnabled) {
+    this(javacPath,
+        javacVersion,
+        sourceLevel,
+        targetLevel,
+        incrementalCompilationEnabled,
+        sourceAbiEnabled,
+        /* reusableAnnotationProcessors */ ImmutableSet.<String>of());
+  }
+
+  public JavaCompilerEnvironment(
+      Optional<Path> javacPath,
+      Optional<JavacVersion> javacVersion,
+      String sourceLevel,
+      String targetLevel,
+      boolean incrementalCompilationEnabled,
+      boolean sourceAbiEnabled,
+      ImmutableSet<String> reusableAnnotationProcessors) {
     this.javacPath = Preconditions.checkNotNull(javacPath);
     this.javacVersion = Preconditions.checkNotNull(javacVersion);
     this.sourceLevel = Preconditions.checkNotNull(sourceLevel);
     this.targetLevel = Preconditions.checkNotNull(targetLevel);
+    this.incrementalCompilationEnabled = incrementalCompilationEnabled;
+    this.sourceAbiEnabled = sourceAbiEnabled;
+    this.reusableAnnotationProcessors = Preconditions.checkNotNull(reusableAnnotationProcessors);
   }
 
   public Optional<Path> getJavacPath() {
@@ -63,4 +115,29 @@ public class JavaCompilerEnvironment {
   public String getTargetLevel() {
     return targetLevel;
   }
+
+  /**
+   * @return whether a java_library() whose sources changed may recompile only the changed sources
+   *     and the sources that depend on them. See {@link IncrementalJavacStep}.
+   */
+  public boolean isIncrementalCompilationEnabled() {
+    return incrementalCompilationEnabled;
+  }
+
+  /**
+   * @return whether a java_library() is compiled against the {@link AbiStubJar}s of its deps, so
+   *     that it does not have to wait for them to be compiled.
+   */
+  public boolean isSourceAbiEnabled() {
+    return sourceAbiEnabled;
+  }
+
+  /**
+   * @return the class names of the annotation processors that keep no state in static fields, so
+   *     that compilations that use only these processors may share a class loader for them. See
+   *     {@link ProcessorClassLoaderCache}.
+   */
+  public ImmutableSet<String> getReusableAnnotationProcessors() {
+    return reusableAnnotationProcessors;
+  }
 }
@@ -57,6 +57,12 @@ public interface JavaLibrary extends BuildRule, HasClasspathEntries,
    */
   public static final Flavor SRC_JAR = new Flavor("src");
 
+  /**
+   * The flavor of the {@link AbiStubJar} that a {@link DefaultJavaLibrary} generates when
+   * {@code [java] source_abi} is enabled, so that its dependents can be compiled before it is.
+   */
+  public static final Flavor ABI_STUB_FLAVOR = new Flavor("abi");
+
   // TODO(natthu): This can probably be avoided by using a JavaPackageable interface similar to
   // AndroidPackageable.
   public ImmutableSortedSet<BuildRule> getDepsForTransitiveClasspathEntries();
@@ -131,7 +131,10 @@ public class JavaLibraryDescription implements Description<JavaLibraryDescriptio
         javacEnv.getJavacPath(),
         javacEnv.getJavacVersion(),
         sourceLevel,
-        targetLevel);
+        targetLevel,
+        javacEnv.isIncrementalCompilationEnabled(),
+        javacEnv.isSourceAbiEnabled(),
+        javacEnv.getReusableAnnotationProcessors());
 
     javacOptions.setJavaCompilerEnvironment(javacEnvToUse);
 
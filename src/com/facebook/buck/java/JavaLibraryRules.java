@@ -16,6 +16,8 @@
 
 package com.facebook.buck.java;
 
+import com.facebook.buck.java.classes.ClassIndex;
+import com.facebook.buck.java.classes.ClassIndexCache;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargets;
 import com.facebook.buck.rules.AbiRule;
@@ -27,8 +29,6 @@ import com.facebook.buck.step.fs.MkdirStep;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSortedMap;
-import com.google.common.hash.HashCode;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -72,10 +72,12 @@ public class JavaLibraryRules {
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
-    ImmutableSortedMap<String, HashCode> classHashes = AccumulateClassNamesStep.parseClassHashes(
-        lines);
+    ClassIndex classIndex = AccumulateClassNamesStep.parseClassIndex(lines);
+    // Steps that read the library's jar later in the build, such as those that dex it, can now
+    // look up its classes rather than reading the jar again.
+    ClassIndexCache.getInstance().put(classIndex);
 
-    return new JavaLibrary.Data(abiKeyHash.get(), classHashes);
+    return new JavaLibrary.Data(abiKeyHash.get(), classIndex.getClassNamesToHashes());
   }
 
   private static Path getPathToClassHashes(BuildTarget buildTarget) {
@@ -27,6 +27,7 @@ import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
@@ -36,7 +37,6 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 
 import java.io.IOException;
@@ -52,6 +52,9 @@ import java.util.Set;
  * fully-qualified Java symbol like "com.example.foo.Bar". It does this by looking at expected
  * locations based on the package name of the symbol and the source roots listed in the project
  * config. This functionality is used to automatically generate dependency information.
+ * <p>
+ * What it learns along the way is kept in a {@link JavaSymbolIndex}, so that when the index
+ * outlives a single build, as it does in the daemon, only files that have changed are read again.
  */
 public class JavaSymbolFinder {
 
@@ -60,8 +63,15 @@ public class JavaSymbolFinder {
       AndroidLibraryDescription.TYPE.getName(),
       JavaTestDescription.TYPE.getName());
 
+  /**
+   * The last rule returned by {@link ProjectBuildFileParser#getAllRulesAndMetaRules} lists the
+   * build file and the files it includes under this key.
+   */
+  private static final String INCLUDES_META_RULE = "__includes";
+
   private final ProjectFilesystem projectFilesystem;
   private final SrcRootsFinder srcRootsFinder;
+  private final JavaSymbolIndex javaSymbolIndex;
   private final ProjectBuildFileParserFactory projectBuildFileParserFactory;
   private final BuckConfig config;
   private final BuckEventBus buckEventBus;
@@ -71,6 +81,7 @@ public class JavaSymbolFinder {
   public JavaSymbolFinder(
       ProjectFilesystem projectFilesystem,
       SrcRootsFinder srcRootsFinder,
+      JavaSymbolIndex javaSymbolIndex,
       ProjectBuildFileParserFactory projectBuildFileParserFactory,
       BuckConfig config,
       BuckEventBus buckEventBus,
@@ -78,6 +89,7 @@ public class JavaSymbolFinder {
       ImmutableMap<String, String> environment) {
     this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
     this.srcRootsFinder = Preconditions.checkNotNull(srcRootsFinder);
+    this.javaSymbolIndex = Preconditions.checkNotNull(javaSymbolIndex);
     this.projectBuildFileParserFactory = Preconditions.checkNotNull(projectBuildFileParserFactory);
     this.config = Preconditions.checkNotNull(config);
     this.buckEventBus = Preconditions.checkNotNull(buckEventBus);
@@ -101,7 +113,7 @@ public class JavaSymbolFinder {
     // First find all the source roots in the current project.
     Collection<Path> srcRoots;
     try {
-      srcRoots = srcRootsFinder.getAllSrcRootPaths(config.getSrcRoots());
+      srcRoots = getSrcRoots();
     } catch (IOException e) {
       buckEventBus.post(ThrowableConsoleEvent.create(e, "Error while searching for source roots."));
       return ImmutableSetMultimap.of();
@@ -130,15 +142,32 @@ public class JavaSymbolFinder {
     return symbolsToTargets.build();
   }
 
+  /**
+   * Walking the whole project for source roots is slow on a large tree, so the result is kept in
+   * the index until a file is created or deleted.
+   */
+  private ImmutableSet<Path> getSrcRoots() throws IOException {
+    Path projectRoot = projectFilesystem.getRootPath().toAbsolutePath();
+    ImmutableSet<String> srcRootPatterns = config.getSrcRoots();
+    Optional<ImmutableSet<Path>> srcRoots =
+        javaSymbolIndex.getSrcRoots(projectRoot, srcRootPatterns);
+    if (srcRoots.isPresent()) {
+      return srcRoots.get();
+    }
+    ImmutableSet<Path> srcRootPaths = srcRootsFinder.getAllSrcRootPaths(srcRootPatterns);
+    javaSymbolIndex.putSrcRoots(projectRoot, srcRootPatterns, srcRootPaths);
+    return srcRootPaths;
+  }
+
   /**
    * For all the possible BUCK files above each of the given source files, parse them to JSON to
    * find the targets that actually include these source files, and return a map of them. We do this
    * over a collection of source files, rather than a single file at a time, because instantiating
-   * the BUCK file parser is expensive. (It spawns a Python subprocess.)
+   * the BUCK file parser is expensive. (It spawns a Python subprocess.) BUCK files that are already
+   * in the index are not parsed again, and the subprocess is only started if one is missing.
    */
   private ImmutableMultimap<Path, BuildTarget> getTargetsForSourceFiles(
       Collection<Path> sourceFilePaths) throws InterruptedException {
-    Map<Path, List<Map<String, Object>>> parsedBuildFiles = Maps.newHashMap();
     ImmutableSetMultimap.Builder<Path, BuildTarget> sourceFileTargetsMultimap =
         ImmutableSetMultimap.builder();
     try (ProjectBuildFileParser parser = projectBuildFileParserFactory.createParser(
@@ -148,30 +177,16 @@ public class JavaSymbolFinder {
         environment)) {
       for (Path sourceFile : sourceFilePaths) {
         for (Path buckFile : possibleBuckFilesForSourceFile(sourceFile)) {
-          List<Map<String, Object>> rules;
-          // Avoid parsing the same BUCK file twice.
-          if (parsedBuildFiles.containsKey(buckFile)) {
-            rules = parsedBuildFiles.get(buckFile);
-          } else {
-            rules = parser.getAllRules(buckFile);
-            parsedBuildFiles.put(buckFile, rules);
-          }
-
-          for (Map<String, Object> ruleMap : rules) {
-            String type = (String) ruleMap.get("type");
-            if (javaRuleTypes.contains(type)) {
-              @SuppressWarnings("unchecked")
-              List<String> srcs = (List<String>) ruleMap.get("srcs");
-              if (isSourceFilePathInSrcsList(sourceFile, srcs, buckFile.getParent())) {
-                Path buckFileDir = buckFile.getParent();
-                String baseName = "//" + (buckFileDir != null ? buckFileDir : "");
-                String shortName = (String) ruleMap.get("name");
-                sourceFileTargetsMultimap.put(
-                    sourceFile,
-                    BuildTarget.builder(baseName, shortName).build());
-              }
-            }
+          Path absoluteBuckFile = projectFilesystem.resolve(buckFile);
+          Optional<ImmutableSetMultimap<Path, BuildTarget>> sourcesToTargets =
+              javaSymbolIndex.getBuildFileTargets(absoluteBuckFile);
+          if (!sourcesToTargets.isPresent()) {
+            sourcesToTargets = Optional.of(
+                indexBuckFile(buckFile, parser.getAllRulesAndMetaRules(buckFile)));
           }
+          sourceFileTargetsMultimap.putAll(
+              sourceFile,
+              sourcesToTargets.get().get(sourceFile.normalize()));
         }
       }
     } catch (BuildFileParseException e) {
@@ -181,23 +196,50 @@ public class JavaSymbolFinder {
   }
 
   /**
-   * The "srcs" list of a rule is given relative to the path of the BUCK file. Resolve and normalize
-   * these paths to see if a given source file (given relative to the project root) is among them.
+   * Map every source file listed by a Java rule in a BUCK file to the targets that list it, and add
+   * the map to the index. The "srcs" list of a rule is given relative to the path of the BUCK file,
+   * so these paths are resolved and normalized to be relative to the project root.
    */
-  private boolean isSourceFilePathInSrcsList(
-      Path candidateFilePath,
-      Collection<String> srcs,
-      Path srcsDir) {
-    Path normalizedCandidatePath = candidateFilePath.normalize();
-    for (String src : srcs) {
-      Path pathForSrc = Paths.get(src).normalize();
-      Path projectRelativePathForSrc = (srcsDir != null ? srcsDir.resolve(pathForSrc) : pathForSrc);
-      Path normalizedPathForSrc = projectRelativePathForSrc.normalize();
-      if (normalizedCandidatePath.equals(normalizedPathForSrc)) {
-        return true;
+  private ImmutableSetMultimap<Path, BuildTarget> indexBuckFile(
+      Path buckFile,
+      List<Map<String, Object>> rulesAndMetaRules) {
+    Path buckFileDir = buckFile.getParent();
+    String baseName = "//" + (buckFileDir != null ? buckFileDir : "");
+    ImmutableSetMultimap.Builder<Path, BuildTarget> sourcesToTargets =
+        ImmutableSetMultimap.builder();
+    ImmutableSet.Builder<Path> includes = ImmutableSet.builder();
+
+    for (Map<String, Object> ruleMap : rulesAndMetaRules) {
+      if (ruleMap.containsKey(INCLUDES_META_RULE)) {
+        @SuppressWarnings("unchecked")
+        List<String> fileNames = (List<String>) ruleMap.get(INCLUDES_META_RULE);
+        for (String fileName : fileNames) {
+          includes.add(projectFilesystem.resolve(Paths.get(fileName)));
+        }
+        continue;
+      }
+
+      String type = (String) ruleMap.get("type");
+      if (javaRuleTypes.contains(type)) {
+        @SuppressWarnings("unchecked")
+        List<String> srcs = (List<String>) ruleMap.get("srcs");
+        String shortName = (String) ruleMap.get("name");
+        BuildTarget target = BuildTarget.builder(baseName, shortName).build();
+        for (String src : srcs) {
+          Path pathForSrc = Paths.get(src).normalize();
+          Path projectRelativePathForSrc =
+              (buckFileDir != null ? buckFileDir.resolve(pathForSrc) : pathForSrc);
+          sourcesToTargets.put(projectRelativePathForSrc.normalize(), target);
+        }
       }
     }
-    return false;
+
+    ImmutableSetMultimap<Path, BuildTarget> result = sourcesToTargets.build();
+    javaSymbolIndex.putBuildFileTargets(
+        projectFilesystem.resolve(buckFile),
+        result,
+        includes.build());
+    return result;
   }
 
   /**
@@ -230,7 +272,8 @@ public class JavaSymbolFinder {
   /**
    * Find all Java source files that define a given fully-qualified symbol (like "com.example.a.A").
    * To do this, open up all the Java files that could define it (see {@link #getCandidatePaths})
-   * and parse them with our Eclipse-based {@link JavaFileParser}.
+   * and parse them with our Eclipse-based {@link JavaFileParser}, unless their exported symbols are
+   * already in the index.
    */
   private ImmutableSortedSet<Path> getDefiningPaths(String symbol, Collection<Path> srcRoots) {
     ImmutableSortedSet.Builder<Path> definingPaths = ImmutableSortedSet.naturalOrder();
@@ -238,10 +281,17 @@ public class JavaSymbolFinder {
 
     for (Path candidatePath : getCandidatePaths(symbol, srcRoots)) {
       try {
-        String content = projectFilesystem.readFileIfItExists(
-            projectFilesystem.getPathForRelativeExistingPath(candidatePath)).get();
-        Set<String> symbols = parser.getExportedSymbolsFromString(content);
-        if (symbols.contains(symbol)) {
+        Path absolutePath = projectFilesystem.resolve(candidatePath);
+        Optional<ImmutableSet<String>> symbols =
+            javaSymbolIndex.getExportedSymbols(absolutePath);
+        if (!symbols.isPresent()) {
+          String content = projectFilesystem.readFileIfItExists(
+              projectFilesystem.getPathForRelativeExistingPath(candidatePath)).get();
+          symbols = Optional.of(
+              ImmutableSet.copyOf(parser.getExportedSymbolsFromString(content)));
+          javaSymbolIndex.putExportedSymbols(absolutePath, symbols.get());
+        }
+        if (symbols.get().contains(symbol)) {
           definingPaths.add(candidatePath);
         }
       } catch (IOException e) {
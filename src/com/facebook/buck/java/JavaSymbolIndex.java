@@ -0,0 +1,220 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.eventbus.Subscribe;
+
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * What {@link JavaSymbolFinder} has learned about a project, kept for the lifetime of the process
+ * so that, in the daemon, suggesting deps for a failed build does not rewalk the project for
+ * source roots, reparse every candidate Java file, and start buck.py to reparse every candidate
+ * build file each time. It holds:
+ * <ul>
+ *   <li>the source roots found in each project;
+ *   <li>the symbols exported by each Java file that has been parsed;
+ *   <li>for each build file that has been parsed, the targets of its Java rules, keyed by the
+ *       source files they list.
+ * </ul>
+ * Entries are filled in as they are needed and dropped as the file system reports changes (see
+ * {@link FileChangeListener}). All paths are absolute.
+ * <p>
+ * This class is thread-safe.
+ */
+public class JavaSymbolIndex {
+
+  private static final Logger LOG = Logger.get(JavaSymbolIndex.class);
+
+  private static final JavaSymbolIndex INSTANCE = new JavaSymbolIndex();
+
+  private final ConcurrentMap<Path, SrcRoots> srcRoots = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Path, ImmutableSet<String>> exportedSymbols =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<Path, BuildFileTargets> buildFileTargets = new ConcurrentHashMap<>();
+
+  @VisibleForTesting
+  JavaSymbolIndex() {
+  }
+
+  public static JavaSymbolIndex getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @return the source roots found for {@code srcRootPatterns} in the project at
+   *     {@code projectRoot}, if they have been recorded since the project last changed shape.
+   */
+  Optional<ImmutableSet<Path>> getSrcRoots(
+      Path projectRoot,
+      ImmutableSet<String> srcRootPatterns) {
+    SrcRoots roots = srcRoots.get(projectRoot);
+    if (roots == null || !roots.patterns.equals(srcRootPatterns)) {
+      return Optional.absent();
+    }
+    return Optional.of(roots.paths);
+  }
+
+  void putSrcRoots(
+      Path projectRoot,
+      ImmutableSet<String> srcRootPatterns,
+      ImmutableSet<Path> srcRootPaths) {
+    Preconditions.checkArgument(projectRoot.isAbsolute(), "%s must be absolute", projectRoot);
+    srcRoots.put(projectRoot, new SrcRoots(srcRootPatterns, srcRootPaths));
+  }
+
+  /**
+   * @return the symbols exported by the Java file at {@code sourceFile}, if it has been parsed
+   *     since it last changed.
+   */
+  Optional<ImmutableSet<String>> getExportedSymbols(Path sourceFile) {
+    return Optional.fromNullable(exportedSymbols.get(sourceFile));
+  }
+
+  void putExportedSymbols(Path sourceFile, ImmutableSet<String> symbols) {
+    Preconditions.checkArgument(sourceFile.isAbsolute(), "%s must be absolute", sourceFile);
+    exportedSymbols.put(sourceFile, symbols);
+  }
+
+  /**
+   * @return a map from the project-relative paths of the source files listed by the Java rules in
+   *     {@code buildFile} to the targets of those rules, if {@code buildFile} has been parsed since
+   *     it, or any file that it includes, last changed.
+   */
+  Optional<ImmutableSetMultimap<Path, BuildTarget>> getBuildFileTargets(Path buildFile) {
+    BuildFileTargets targets = buildFileTargets.get(buildFile);
+    return targets == null
+        ? Optional.<ImmutableSetMultimap<Path, BuildTarget>>absent()
+        : Optional.of(targets.sourcesToTargets);
+  }
+
+  /**
+   * @param includes the absolute paths of the files that {@code buildFile} includes.
+   */
+  void putBuildFileTargets(
+      Path buildFile,
+      ImmutableSetMultimap<Path, BuildTarget> sourcesToTargets,
+      ImmutableSet<Path> includes) {
+    Preconditions.checkArgument(buildFile.isAbsolute(), "%s must be absolute", buildFile);
+    buildFileTargets.put(buildFile, new BuildFileTargets(sourcesToTargets, includes));
+  }
+
+  /**
+   * Drops everything that depends on the file at {@code path}.
+   *
+   * @param projectRoot the root of the project that {@code path} is in.
+   * @param createdOrDeleted whether {@code path} was created or deleted, rather than modified.
+   *     This can change the source roots of the project, and the sources matched by globs in the
+   *     build files above it.
+   */
+  public void invalidate(Path projectRoot, Path path, boolean createdOrDeleted) {
+    Preconditions.checkArgument(path.isAbsolute(), "%s must be absolute", path);
+    exportedSymbols.remove(path);
+    buildFileTargets.remove(path);
+
+    // Build files that include the changed file. There are few enough build files in the index,
+    // and few enough changes to non-Java files, that a scan is fine.
+    if (!path.toString().endsWith(".java")) {
+      Iterator<Map.Entry<Path, BuildFileTargets>> iterator =
+          buildFileTargets.entrySet().iterator();
+      while (iterator.hasNext()) {
+        if (iterator.next().getValue().includes.contains(path)) {
+          iterator.remove();
+        }
+      }
+    }
+
+    if (createdOrDeleted) {
+      srcRoots.remove(projectRoot);
+      for (Path dir = path.getParent(); dir != null; dir = dir.getParent()) {
+        buildFileTargets.remove(dir.resolve(BuckConstant.BUILD_RULES_FILE_NAME));
+      }
+    }
+  }
+
+  public void invalidateAll() {
+    LOG.debug("Invalidating the whole index.");
+    srcRoots.clear();
+    exportedSymbols.clear();
+    buildFileTargets.clear();
+  }
+
+  /**
+   * Keeps an index up to date with the file system of a project. Register it with the event bus
+   * that receives the project's {@link WatchEvent}s.
+   */
+  public static class FileChangeListener {
+    private final JavaSymbolIndex index;
+    private final ProjectFilesystem projectFilesystem;
+
+    public FileChangeListener(JavaSymbolIndex index, ProjectFilesystem projectFilesystem) {
+      this.index = Preconditions.checkNotNull(index);
+      this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
+    }
+
+    @Subscribe
+    public void onFileSystemChange(WatchEvent<?> event) {
+      if (projectFilesystem.isPathChangeEvent(event)) {
+        Path path = ((Path) event.context()).normalize();
+        index.invalidate(
+            projectFilesystem.getRootPath().toAbsolutePath(),
+            projectFilesystem.resolve(path),
+            event.kind() != StandardWatchEventKinds.ENTRY_MODIFY);
+      } else {
+        // Most likely an overflow of change events, so anything may have changed.
+        index.invalidateAll();
+      }
+    }
+  }
+
+  private static class SrcRoots {
+    private final ImmutableSet<String> patterns;
+    private final ImmutableSet<Path> paths;
+
+    private SrcRoots(ImmutableSet<String> patterns, ImmutableSet<Path> paths) {
+      this.patterns = patterns;
+      this.paths = paths;
+    }
+  }
+
+  private static class BuildFileTargets {
+    private final ImmutableSetMultimap<Path, BuildTarget> sourcesToTargets;
+    private final ImmutableSet<Path> includes;
+
+    private BuildFileTargets(
+        ImmutableSetMultimap<Path, BuildTarget> sourcesToTargets,
+        ImmutableSet<Path> includes) {
+      this.sourcesToTargets = sourcesToTargets;
+      this.includes = includes;
+    }
+  }
+}
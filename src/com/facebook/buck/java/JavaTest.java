@@ -25,6 +25,7 @@ import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.TestRule;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.ParallelStep;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.TargetDevice;
 import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
@@ -62,6 +63,8 @@ public class JavaTest extends DefaultJavaLibrary implements TestRule {
 
   private final ImmutableList<String> vmArgs;
 
+  private final boolean forkJvm;
+
   private CompiledClassFileFinder compiledClassFileFinder;
 
   private final ImmutableSet<Label> labels;
@@ -82,6 +85,7 @@ public class JavaTest extends DefaultJavaLibrary implements TestRule {
       ImmutableSet<Path> addtionalClasspathEntries,
       JavacOptions javacOptions,
       List<String> vmArgs,
+      boolean forkJvm,
       ImmutableSet<BuildRule> sourceUnderTest,
       Optional<Path> resourcesRoot) {
     super(
@@ -96,6 +100,7 @@ public class JavaTest extends DefaultJavaLibrary implements TestRule {
         javacOptions,
         resourcesRoot);
     this.vmArgs = ImmutableList.copyOf(vmArgs);
+    this.forkJvm = forkJvm;
     this.sourceUnderTest = Preconditions.checkNotNull(sourceUnderTest);
     this.labels = ImmutableSet.copyOf(labels);
     this.contacts = ImmutableSet.copyOf(contacts);
@@ -172,22 +177,77 @@ public class JavaTest extends DefaultJavaLibrary implements TestRule {
         .addAll(getBootClasspathEntries(executionContext))
         .build();
 
-    Step junit = new JUnitStep(
-        classpathEntries,
+    List<String> amendedVmArgs = amendVmArgs(vmArgs, executionContext.getTargetDeviceOptional());
+    ImmutableList<ImmutableSortedSet<String>> shards = getTestClassShards(
+        executionContext,
         testClassNames,
-        amendVmArgs(vmArgs, executionContext.getTargetDeviceOptional()),
-        pathToTestOutput,
-        tmpDirectory,
-        executionContext.isCodeCoverageEnabled(),
-        executionContext.isDebugEnabled(),
-        executionContext.getBuckEventBus().getBuildId(),
-        testSelectorList,
-        isDryRun);
-    steps.add(junit);
+        pathToTestOutput);
+    if (shards.size() == 1) {
+      steps.add(new JUnitStep(
+          classpathEntries,
+          testClassNames,
+          amendedVmArgs,
+          pathToTestOutput,
+          tmpDirectory,
+          executionContext.isCodeCoverageEnabled(),
+          executionContext.isDebugEnabled(),
+          executionContext.getBuckEventBus().getBuildId(),
+          testSelectorList,
+          isDryRun,
+          forkJvm));
+    } else {
+      // Each shard runs in a JVM of its own. Every JVM writes one result file per test class into
+      // the same output directory, so interpretTestResults() merges the shards for free.
+      List<Step> junitSteps = Lists.newArrayListWithCapacity(shards.size());
+      for (int i = 0; i < shards.size(); i++) {
+        Path shardTmpDirectory = tmpDirectory.resolve("shard-" + i);
+        steps.add(new MakeCleanDirectoryStep(shardTmpDirectory));
+        junitSteps.add(new JUnitStep(
+            classpathEntries,
+            shards.get(i),
+            amendedVmArgs,
+            pathToTestOutput,
+            shardTmpDirectory,
+            executionContext.isCodeCoverageEnabled(),
+            executionContext.isDebugEnabled(),
+            executionContext.getBuckEventBus().getBuildId(),
+            testSelectorList,
+            isDryRun,
+            forkJvm));
+      }
+      steps.add(new ParallelStep(junitSteps));
+    }
 
     return steps.build();
   }
 
+  /**
+   * Splits the test classes into {@link ExecutionContext#getTestShardsPerRule()} shards, balanced
+   * by the running times recorded in {@code pathToTestOutput} by the previous run. This must be
+   * called before the output directory is cleaned.
+   */
+  private ImmutableList<ImmutableSortedSet<String>> getTestClassShards(
+      ExecutionContext executionContext,
+      Set<String> testClassNames,
+      Path pathToTestOutput) {
+    // Coverage data is written to a single file, and the debugger listens on a single port, so
+    // neither can be shared by several JVMs.
+    int maxShards = executionContext.getTestShardsPerRule();
+    if (maxShards <= 1 ||
+        executionContext.isCodeCoverageEnabled() ||
+        executionContext.isDebugEnabled()) {
+      return ImmutableList.of(ImmutableSortedSet.copyOf(testClassNames));
+    }
+
+    return JavaTestShards.partition(
+        testClassNames,
+        JavaTestShards.readHistoricalDurations(
+            executionContext.getProjectFilesystem(),
+            pathToTestOutput,
+            testClassNames),
+        maxShards);
+  }
+
   @VisibleForTesting
   List<String> amendVmArgs(List<String> existingVmArgs, Optional<TargetDevice> targetDevice) {
     ImmutableList.Builder<String> vmArgs = ImmutableList.builder();
@@ -76,6 +76,7 @@ public class JavaTestDescription implements Description<JavaTestDescription.Arg>
         /* additionalClasspathEntries */ ImmutableSet.<Path>of(),
         javacOptions.build(),
         args.vmArgs.get(),
+        args.forkJvm.or(false),
         validateAndGetSourcesUnderTest(
             args.sourceUnderTest.get(),
             params.getBuildTarget(),
@@ -117,5 +118,6 @@ public class JavaTestDescription implements Description<JavaTestDescription.Arg>
     public Optional<ImmutableSortedSet<Label>> labels;
     public Optional<ImmutableSortedSet<BuildTarget>> sourceUnderTest;
     public Optional<ImmutableList<String>> vmArgs;
+    public Optional<Boolean> forkJvm;
   }
 }
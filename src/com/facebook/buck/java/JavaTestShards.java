@@ -0,0 +1,142 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.test.XmlTestResultParser;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Splits the test classes of a single test rule into shards of roughly equal running time, using
+ * the durations recorded in the XML results of the previous run.
+ */
+class JavaTestShards {
+
+  private JavaTestShards() {
+    // Utility class.
+  }
+
+  /**
+   * @return the total running time, in milliseconds, of each of {@code testClassNames} that has a
+   *     readable result file in {@code pathToTestOutput}.
+   */
+  static ImmutableMap<String, Long> readHistoricalDurations(
+      ProjectFilesystem filesystem,
+      Path pathToTestOutput,
+      Iterable<String> testClassNames) {
+    ImmutableMap.Builder<String, Long> durations = ImmutableMap.builder();
+    for (String testClassName : testClassNames) {
+      File testResultFile = filesystem.getFileForRelativePath(
+          pathToTestOutput.resolve(testClassName + ".xml"));
+      if (!testResultFile.isFile()) {
+        continue;
+      }
+      try {
+        durations.put(testClassName, XmlTestResultParser.parse(testResultFile).getTotalTime());
+      } catch (IOException | RuntimeException e) {
+        // The durations are only a hint, so a stale or malformed result file is not an error.
+      }
+    }
+    return durations.build();
+  }
+
+  /**
+   * Assigns each test class to one of at most {@code maxShards} shards, longest class first, always
+   * to the shard with the least total running time. Classes without a recorded duration are assumed
+   * to take as long as the average class that has one.
+   */
+  static ImmutableList<ImmutableSortedSet<String>> partition(
+      Set<String> testClassNames,
+      final Map<String, Long> durations,
+      int maxShards) {
+    int numShards = Math.min(maxShards, testClassNames.size());
+    if (numShards <= 1) {
+      return ImmutableList.of(ImmutableSortedSet.copyOf(testClassNames));
+    }
+
+    long defaultDuration = 1;
+    if (!durations.isEmpty()) {
+      long total = 0;
+      for (long duration : durations.values()) {
+        total += duration;
+      }
+      defaultDuration = Math.max(1, total / durations.size());
+    }
+
+    final Map<String, Long> estimates = Maps.newHashMap();
+    for (String testClassName : testClassNames) {
+      Long duration = durations.get(testClassName);
+      estimates.put(testClassName, duration == null ? defaultDuration : duration);
+    }
+    List<String> longestFirst = Lists.newArrayList(testClassNames);
+    Collections.sort(longestFirst, new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+        int byDuration = Long.compare(estimates.get(b), estimates.get(a));
+        return byDuration != 0 ? byDuration : a.compareTo(b);
+      }
+    });
+
+    List<Shard> allShards = Lists.newArrayListWithCapacity(numShards);
+    for (int i = 0; i < numShards; i++) {
+      allShards.add(new Shard(i));
+    }
+    PriorityQueue<Shard> shards = new PriorityQueue<>(allShards);
+    for (String testClassName : longestFirst) {
+      Shard shard = shards.remove();
+      shard.testClassNames.add(testClassName);
+      shard.duration += estimates.get(testClassName);
+      shards.add(shard);
+    }
+
+    ImmutableList.Builder<ImmutableSortedSet<String>> partition = ImmutableList.builder();
+    for (Shard shard : allShards) {
+      partition.add(ImmutableSortedSet.copyOf(shard.testClassNames));
+    }
+    return partition.build();
+  }
+
+  private static class Shard implements Comparable<Shard> {
+    private final int index;
+    private final List<String> testClassNames = Lists.newArrayList();
+    private long duration = 0;
+
+    private Shard(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public int compareTo(Shard that) {
+      int byDuration = Long.compare(this.duration, that.duration);
+      return byDuration != 0 ? byDuration : Integer.compare(this.index, that.index);
+    }
+  }
+}
@@ -43,9 +43,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Enumeration;
@@ -83,6 +80,11 @@ public class JavacInMemoryStep extends JavacStep {
   @Nullable
   private static final Class<? extends Processor> abiWriterClass = loadAbiWriterClass();
 
+  @Nullable
+  private ImmutableSet<Path> usedClasspathEntries;
+  @Nullable
+  private ImmutableSet<String> listedPackages;
+
   public JavacInMemoryStep(
       Path outputDirectory,
       Set<? extends SourcePath> javaSourceFilePaths,
@@ -131,11 +133,20 @@ public class JavacInMemoryStep extends JavacStep {
     JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
     Preconditions.checkNotNull(compiler,
         "If using JRE instead of JDK, ToolProvider.getSystemJavaCompiler() may be null.");
-    StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+    StandardJavaFileManager standardFileManager =
+        compiler.getStandardFileManager(null, null, null);
+    JavaFileManager fileManager = standardFileManager;
+    CachingJavaFileManager cachingFileManager;
     Iterable<? extends JavaFileObject> compilationUnits = ImmutableSet.of();
     try {
+      cachingFileManager = new CachingJavaFileManager(
+          standardFileManager,
+          ClasspathJarCache.getInstance(),
+          FluentIterable.from(buildClasspathEntries)
+              .transform(context.getProjectFilesystem().getAbsolutifier()));
+      fileManager = cachingFileManager;
       compilationUnits = createCompilationUnits(
-          fileManager, context.getProjectFilesystem().getAbsolutifier());
+          standardFileManager, context.getProjectFilesystem().getAbsolutifier());
     } catch (IOException e) {
       close(fileManager, compilationUnits, null);
       e.printStackTrace(context.getStdErr());
@@ -167,7 +178,8 @@ public class JavacInMemoryStep extends JavacStep {
         compilerOutputWriter,
         fileManager,
         diagnostics,
-        options,
+        // The classpath is served by the CachingJavaFileManager.
+        CachingJavaFileManager.removeClasspathOption(options),
         classNamesForAnnotationProcessing,
         compilationUnits);
 
@@ -189,6 +201,15 @@ public class JavacInMemoryStep extends JavacStep {
     }
 
     if (isSuccess) {
+      Path projectRoot = context.getProjectFilesystem().getRootPath();
+      ImmutableSet.Builder<Path> usedClasspathEntries = ImmutableSet.builder();
+      for (Path entry : cachingFileManager.getUsedClasspathEntries()) {
+        usedClasspathEntries.add(
+            entry.startsWith(projectRoot) ? projectRoot.relativize(entry) : entry);
+      }
+      this.usedClasspathEntries = usedClasspathEntries.build();
+      this.listedPackages = cachingFileManager.getListedPackages();
+
       if (abiKeyFile != null) {
         try {
           String firstLine = Files.readFirstLine(abiKeyFile, Charsets.UTF_8);
@@ -225,6 +246,22 @@ public class JavacInMemoryStep extends JavacStep {
     }
   }
 
+  /**
+   * @return the classpath entries that the last successful compilation read classes from, relative
+   *     to the project root where possible. Absent if the step has not succeeded.
+   */
+  public Optional<ImmutableSet<Path>> getUsedClasspathEntries() {
+    return Optional.fromNullable(usedClasspathEntries);
+  }
+
+  /**
+   * @return the packages that the last successful compilation looked up on the classpath. Absent
+   *     if the step has not succeeded.
+   */
+  public Optional<ImmutableSet<String>> getListedPackages() {
+    return Optional.fromNullable(listedPackages);
+  }
+
   private void close(
       JavaFileManager fileManager,
       Iterable<? extends JavaFileObject> compilationUnits,
@@ -273,29 +310,38 @@ public class JavacInMemoryStep extends JavacStep {
     Iterable<String> rawPaths = Splitter.on(File.pathSeparator)
         .omitEmptyStrings()
         .split(processorClassPath);
-    URL[] urls = FluentIterable.from(rawPaths)
+    ImmutableList<Path> processorPath = FluentIterable.from(rawPaths)
         .transform(
-            new Function<String, URL>() {
+            new Function<String, Path>() {
               @Override
-              public URL apply(String pathRelativeToProjectRoot) {
-                try {
-                  return Paths.get(pathRelativeToProjectRoot).toUri().toURL();
-                } catch (MalformedURLException e) {
-                  // The paths we're being given should have all been resolved from the file system
-                  // already. We'd need to be unfortunate to get here. Bubble up a runtime
-                  // exception.
-                  throw new RuntimeException(e);
-                }
+              public Path apply(String pathRelativeToProjectRoot) {
+                return Paths.get(pathRelativeToProjectRoot).toAbsolutePath();
               }
             })
-        .toArray(URL.class);
-    // Note the lack of a parent classloader.
-    processorBundle.classLoader = new URLClassLoader(urls, /* parent */ null);
-
-    Iterable<String> names = Splitter.on(",")
+        .toList();
+    ImmutableList<String> names = ImmutableList.copyOf(Splitter.on(",")
         .trimResults()
         .omitEmptyStrings()
-        .split(processorNames);
+        .split(processorNames));
+    try {
+      // If every processor is known to keep no state in its classes, the class loader is shared
+      // with other compilations that use the same processors, so that the processors do not have
+      // to be reloaded and re-JITted for each of them. Any other processor may remember things in
+      // static fields, so it gets a class loader of its own.
+      if (canShareProcessorClassLoader(names)) {
+        processorBundle.classLoaderLease = ProcessorClassLoaderCache.getInstance().acquire(
+            processorPath);
+      } else {
+        processorBundle.classLoaderLease = ProcessorClassLoaderCache.createUnshared(processorPath);
+      }
+    } catch (IOException e) {
+      throw new HumanReadableException(
+          e,
+          "%s: javac unable to read annotation processor path: %s",
+          target != null ? target.getFullyQualifiedName() : "unknown target",
+          processorClassPath);
+    }
+
     for (String name : names) {
       try {
         // We know that AbiWriter has no dependencies other than the JRE. We can safely load it from
@@ -307,7 +353,7 @@ public class JavacInMemoryStep extends JavacStep {
         }
         LOG.debug("Loading %s from own classloader", name);
 
-        Class<? extends Processor> aClass = processorBundle.classLoader
+        Class<? extends Processor> aClass = processorBundle.classLoaderLease.getClassLoader()
             .loadClass(name)
             .asSubclass(Processor.class);
         processorBundle.processors.add(aClass.newInstance());
@@ -324,6 +370,19 @@ public class JavacInMemoryStep extends JavacStep {
     return processorBundle;
   }
 
+  private boolean canShareProcessorClassLoader(ImmutableList<String> processorNames) {
+    ImmutableSet<String> reusableProcessors =
+        javacOptions.getJavaCompilerEnvironment().getReusableAnnotationProcessors();
+    for (String name : processorNames) {
+      // The abi writer is not loaded from the processor class loader at all.
+      boolean isAbiWriter = abiWriterClass != null && abiWriterClass.getName().equals(name);
+      if (!isAbiWriter && !reusableProcessors.contains(name)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   private Iterable<? extends JavaFileObject> createCompilationUnits(
       StandardJavaFileManager fileManager,
       Function<Path, Path> absolutifier) throws IOException {
@@ -390,23 +449,17 @@ public class JavacInMemoryStep extends JavacStep {
 
   private static class ProcessorBundle {
     @Nullable
-    public URLClassLoader classLoader;
+    public ProcessorClassLoaderCache.Lease classLoaderLease;
     public List<Processor> processors = Lists.newArrayList();
 
     public void close() {
-      if (classLoader == null) {
+      if (classLoaderLease == null) {
         return;
       }
 
-      try {
-        classLoader.close();
-      } catch (IOException e) {
-        // Nothing sane to do. Log and carry on.
-        LOG.warn("Unable to close annotation processor classloader.");
-      } finally {
-        // Null out the classloader to allow it to be garbage collected.
-        classLoader = null;
-      }
+      // Releasing the lease lets the cache close the classloader once it is evicted.
+      classLoaderLease.close();
+      classLoaderLease = null;
     }
   }
 }
@@ -236,18 +236,18 @@ public class PrebuiltJar extends AbstractBuildRule
 
     @Override
     public int execute(ExecutionContext context) {
-      // TODO(simons): Because binaryJar could be a generated file, it may not be bit-for-bit
-      // identical when generated across machines. Therefore, we should calculate its ABI based on
-      // the contents of its .class files rather than just hashing its contents.
-      String fileSha1;
+      // Because binaryJar could be a generated file, it may not be bit-for-bit identical when
+      // generated across machines, so its ABI is calculated from the contents of its .class files
+      // rather than by hashing the file itself.
+      HashCode abiHash;
       try {
-        fileSha1 = context.getProjectFilesystem().computeSha1(binaryJar.resolve());
+        abiHash = ClasspathAbiHasher.hash(binaryJar.resolve(), context.getProjectFilesystem());
       } catch (IOException e) {
         context.logError(e, "Failed to calculate ABI for %s.", binaryJar);
         return 1;
       }
 
-      Sha1HashCode abiKey = new Sha1HashCode(fileSha1);
+      Sha1HashCode abiKey = new Sha1HashCode(abiHash.toString());
       buildableContext.addMetadata(AbiRule.ABI_KEY_ON_DISK_METADATA, abiKey.getHash());
 
       return 0;
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Class loaders for annotation processors, shared by every {@link JavacInMemoryStep} for the
+ * lifetime of the process. Creating a fresh class loader for each compilation means that the
+ * processor jars are reloaded and their code re-JITted for every library that uses them, which is
+ * a significant part of the cost of compiling with processors such as Dagger or AutoValue.
+ * <p>
+ * Each compilation creates its own instances of the processors, but the classes, and so their
+ * static fields, are shared by every compilation that uses the class loader, in this build and in
+ * later builds run by the same daemon. A processor that keeps state in static fields would see the
+ * state of earlier compilations, so sharing is opt-in: only compilations whose processors are all
+ * listed in {@code reusable_annotation_processors} in the {@code [java]} section of
+ * {@code .buckconfig} use this cache. Every other compilation gets a class loader of its own from
+ * {@link #createUnshared(ImmutableList)}.
+ * <p>
+ * A class loader is keyed by its processor path and the {@link ClasspathJarIndex.Fingerprint} of
+ * each jar on it, so rebuilding a processor jar gives the next compilation a new class loader.
+ * Processor paths that contain directories are never cached, since their contents cannot be
+ * fingerprinted cheaply.
+ * <p>
+ * At most {@code maxClassLoaders} class loaders are kept. A class loader that is evicted or
+ * replaced is closed once the last compilation using it releases its {@link Lease}.
+ * <p>
+ * This class is thread-safe.
+ */
+class ProcessorClassLoaderCache {
+
+  private static final Logger LOG = Logger.get(ProcessorClassLoaderCache.class);
+
+  private static final ProcessorClassLoaderCache INSTANCE = new ProcessorClassLoaderCache(
+      /* maxClassLoaders */ 32);
+
+  private final int maxClassLoaders;
+
+  /** Keyed by processor path, in least-recently-used order. */
+  private final LinkedHashMap<ImmutableList<Path>, Entry> entries;
+
+  @VisibleForTesting
+  ProcessorClassLoaderCache(int maxClassLoaders) {
+    Preconditions.checkArgument(maxClassLoaders > 0);
+    this.maxClassLoaders = maxClassLoaders;
+    this.entries = new LinkedHashMap<>(
+        /* initialCapacity */ 16,
+        /* loadFactor */ 0.75f,
+        /* accessOrder */ true);
+  }
+
+  static ProcessorClassLoaderCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param processorPath absolute paths to the jars and directories that the processors are
+   *     loaded from.
+   * @return a lease on a class loader for {@code processorPath} that has no parent class loader.
+   *     The caller must close the lease once it has finished with the class loader.
+   */
+  Lease acquire(ImmutableList<Path> processorPath) throws IOException {
+    ImmutableList<ClasspathJarIndex.Fingerprint> fingerprints = fingerprint(processorPath);
+    if (fingerprints == null) {
+      return createUnshared(processorPath);
+    }
+
+    Entry evicted = null;
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(processorPath);
+      if (entry != null && !fingerprints.equals(entry.fingerprints)) {
+        LOG.debug("Processor path changed, replacing class loader for %s", processorPath);
+        entries.remove(processorPath);
+        entry.evict();
+        entry = null;
+      }
+      if (entry == null) {
+        entry = new Entry(createClassLoader(processorPath), fingerprints);
+        entries.put(processorPath, entry);
+        if (entries.size() > maxClassLoaders) {
+          Iterator<Map.Entry<ImmutableList<Path>, Entry>> eldest = entries.entrySet().iterator();
+          evicted = eldest.next().getValue();
+          eldest.remove();
+        }
+      }
+      entry.retain();
+    }
+    if (evicted != null) {
+      evicted.evict();
+    }
+    return new Lease(entry);
+  }
+
+  /**
+   * @param processorPath absolute paths to the jars and directories that the processors are
+   *     loaded from.
+   * @return a lease on a new class loader for {@code processorPath} that has no parent class loader
+   *     and is not shared with any other compilation. It is closed when the lease is closed.
+   */
+  static Lease createUnshared(ImmutableList<Path> processorPath) throws IOException {
+    return new Lease(new Entry(createClassLoader(processorPath), null));
+  }
+
+  /**
+   * Closes every cached class loader that is not in use, and the rest as they are released.
+   */
+  void invalidateAll() {
+    Map<ImmutableList<Path>, Entry> removed;
+    synchronized (this) {
+      removed = Maps.newHashMap(entries);
+      entries.clear();
+    }
+    for (Entry entry : removed.values()) {
+      entry.evict();
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return the fingerprints of the jars on {@code processorPath}, or {@code null} if it contains
+   *     anything other than a jar.
+   */
+  @Nullable
+  private static ImmutableList<ClasspathJarIndex.Fingerprint> fingerprint(
+      ImmutableList<Path> processorPath) throws IOException {
+    ImmutableList.Builder<ClasspathJarIndex.Fingerprint> fingerprints = ImmutableList.builder();
+    for (Path path : processorPath) {
+      if (!Files.isRegularFile(path)) {
+        return null;
+      }
+      fingerprints.add(ClasspathJarIndex.Fingerprint.of(path));
+    }
+    return fingerprints.build();
+  }
+
+  private static URLClassLoader createClassLoader(ImmutableList<Path> processorPath)
+      throws IOException {
+    URL[] urls = new URL[processorPath.size()];
+    for (int i = 0; i < urls.length; i++) {
+      urls[i] = processorPath.get(i).toUri().toURL();
+    }
+    // Note the lack of a parent classloader.
+    return new URLClassLoader(urls, /* parent */ null);
+  }
+
+  /**
+   * A class loader and the number of compilations that are using it.
+   */
+  private static class Entry {
+    private final URLClassLoader classLoader;
+    /** {@code null} if this class loader is not cached. */
+    @Nullable
+    private final ImmutableList<ClasspathJarIndex.Fingerprint> fingerprints;
+    private int leases;
+    private boolean isEvicted;
+
+    private Entry(
+        URLClassLoader classLoader,
+        @Nullable ImmutableList<ClasspathJarIndex.Fingerprint> fingerprints) {
+      this.classLoader = classLoader;
+      this.fingerprints = fingerprints;
+      this.isEvicted = fingerprints == null;
+      this.leases = fingerprints == null ? 1 : 0;
+    }
+
+    private synchronized void retain() {
+      leases++;
+    }
+
+    private void release() {
+      boolean shouldClose;
+      synchronized (this) {
+        leases--;
+        shouldClose = isEvicted && leases == 0;
+      }
+      if (shouldClose) {
+        close();
+      }
+    }
+
+    private void evict() {
+      boolean shouldClose;
+      synchronized (this) {
+        isEvicted = true;
+        shouldClose = leases == 0;
+      }
+      if (shouldClose) {
+        close();
+      }
+    }
+
+    private void close() {
+      try {
+        classLoader.close();
+      } catch (IOException e) {
+        // Nothing sane to do. Log and carry on.
+        LOG.warn(e, "Unable to close annotation processor classloader.");
+      }
+    }
+  }
+
+  /**
+   * A compilation's use of a class loader. Closing it more than once has no further effect.
+   */
+  static class Lease implements Closeable {
+    @Nullable
+    private Entry entry;
+
+    private Lease(Entry entry) {
+      this.entry = entry;
+    }
+
+    public ClassLoader getClassLoader() {
+      Preconditions.checkState(entry != null, "Lease has been closed.");
+      return entry.classLoader;
+    }
+
+    @Override
+    public synchronized void close() {
+      if (entry != null) {
+        entry.release();
+        // Null out the entry to allow an evicted classloader to be garbage collected.
+        entry = null;
+      }
+    }
+  }
+}
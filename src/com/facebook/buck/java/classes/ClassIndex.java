@@ -0,0 +1,262 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java.classes;
+
+import com.facebook.buck.dalvik.DalvikStatsTool;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+
+/**
+ * What the Android build needs to know about each {@code .class} file in a jar or directory: the
+ * SHA-1 of its contents, its size and an estimate of the Dalvik linear alloc it will use. Building
+ * an index reads each class once; afterwards, consumers such as dex input hashing and linear alloc
+ * estimation are lookups.
+ * <p>
+ * An index can be written as lines of text, which is how {@code java_library()} rules persist
+ * their index alongside their other build outputs.
+ */
+public class ClassIndex {
+
+  /** Separates the fields of a line written by {@link #toLines()}. */
+  public static final String SEPARATOR = " ";
+
+  /** Prefix of the optional first line written by {@link #toLines()}. */
+  private static final String CONTENT_HASH_PREFIX = "#";
+
+  private static final Splitter SPLITTER = Splitter.on(SEPARATOR);
+
+  /** The size and linear alloc estimate of classes read from an index in the old format. */
+  private static final long UNKNOWN = -1;
+
+  private final Optional<HashCode> contentHash;
+  private final ImmutableSortedMap<String, ClassInfo> classes;
+
+  public ClassIndex(Optional<HashCode> contentHash, SortedMap<String, ClassInfo> classes) {
+    this.contentHash = Preconditions.checkNotNull(contentHash);
+    this.classes = ImmutableSortedMap.copyOfSorted(classes);
+  }
+
+  /**
+   * Reads every {@code .class} file in {@code jarOrClassesDirectory}, hashing and estimating the
+   * classes on {@code executor}.
+   *
+   * @param contentHash the SHA-1 of the jar, or absent if {@code jarOrClassesDirectory} is a
+   *     directory.
+   */
+  public static ClassIndex compute(
+      Path jarOrClassesDirectory,
+      Optional<HashCode> contentHash,
+      ProjectFilesystem filesystem,
+      final ListeningExecutorService executor) throws IOException {
+    final Map<String, ListenableFuture<ClassInfo>> futures = Maps.newTreeMap();
+    ClasspathTraversal traversal = new ClasspathTraversal(
+        Collections.singleton(jarOrClassesDirectory),
+        filesystem) {
+      @Override
+      public void visit(FileLike fileLike) throws IOException {
+        // When traversing a JAR file, it may have resources or directory entries that do not
+        // end in .class, which should be ignored.
+        if (!FileLikes.isClassFile(fileLike)) {
+          return;
+        }
+
+        // Reading has to happen on this thread, as the jar is closed once the traversal is done,
+        // but the rest of the work can be spread across cores.
+        final byte[] bytes;
+        try (InputStream input = fileLike.getInput()) {
+          bytes = ByteStreams.toByteArray(input);
+        }
+        futures.put(
+            FileLikes.getFileNameWithoutClassSuffix(fileLike),
+            executor.submit(new Callable<ClassInfo>() {
+              @Override
+              public ClassInfo call() {
+                return ClassInfo.of(bytes);
+              }
+            }));
+      }
+    };
+    new DefaultClasspathTraverser().traverse(traversal);
+
+    ImmutableSortedMap.Builder<String, ClassInfo> classes = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, ListenableFuture<ClassInfo>> entry : futures.entrySet()) {
+      classes.put(entry.getKey(), Futures.get(entry.getValue(), IOException.class));
+    }
+    return new ClassIndex(contentHash, classes.build());
+  }
+
+  /**
+   * @return the SHA-1 of the jar that this index describes, or absent if it describes a
+   *     directory.
+   */
+  public Optional<HashCode> getContentHash() {
+    return contentHash;
+  }
+
+  /**
+   * @return the classes in this index, keyed by their path without the {@code .class} suffix,
+   *     such as {@code com/example/Foo}.
+   */
+  public ImmutableSortedMap<String, ClassInfo> getClasses() {
+    return classes;
+  }
+
+  public ImmutableSortedMap<String, HashCode> getClassNamesToHashes() {
+    return ImmutableSortedMap.copyOfSorted(Maps.transformValues(
+        classes,
+        new Function<ClassInfo, HashCode>() {
+          @Override
+          public HashCode apply(ClassInfo info) {
+            return info.getHash();
+          }
+        }));
+  }
+
+  /**
+   * @return the sum of the sizes of the {@code .class} files in this index.
+   */
+  public long getTotalSize() {
+    long total = 0;
+    for (ClassInfo info : classes.values()) {
+      total += info.getSize();
+    }
+    return total;
+  }
+
+  /**
+   * @return one line per class, sorted by class name, each holding the class name, hash, size
+   *     and linear alloc estimate. If the content hash is known, it is written first.
+   */
+  public ImmutableList<String> toLines() {
+    ImmutableList.Builder<String> lines = ImmutableList.builder();
+    if (contentHash.isPresent()) {
+      lines.add(CONTENT_HASH_PREFIX + contentHash.get());
+    }
+    Joiner joiner = Joiner.on(SEPARATOR);
+    for (Map.Entry<String, ClassInfo> entry : classes.entrySet()) {
+      ClassInfo info = entry.getValue();
+      lines.add(joiner.join(
+          entry.getKey(),
+          info.getHash(),
+          info.getSize(),
+          info.getLinearAllocEstimate()));
+    }
+    return lines.build();
+  }
+
+  /**
+   * @param lines that were written by {@link #toLines()}, or in the older format of just a class
+   *     name and hash per line.
+   */
+  public static ClassIndex fromLines(List<String> lines) {
+    Optional<HashCode> contentHash = Optional.absent();
+    ImmutableSortedMap.Builder<String, ClassInfo> classes = ImmutableSortedMap.naturalOrder();
+    for (String line : lines) {
+      if (line.startsWith(CONTENT_HASH_PREFIX)) {
+        contentHash = Optional.of(HashCode.fromString(
+            line.substring(CONTENT_HASH_PREFIX.length())));
+        continue;
+      }
+      List<String> parts = SPLITTER.splitToList(line);
+      if (parts.size() == 2) {
+        // Written before the size and estimate were recorded. Such an index never has a content
+        // hash, so it is never shared with the consumers that need them.
+        classes.put(parts.get(0), new ClassInfo(
+            HashCode.fromString(parts.get(1)),
+            UNKNOWN,
+            (int) UNKNOWN));
+        continue;
+      }
+      Preconditions.checkState(parts.size() == 4, "Malformed class index line: %s", line);
+      classes.put(parts.get(0), new ClassInfo(
+          HashCode.fromString(parts.get(1)),
+          Long.parseLong(parts.get(2)),
+          Integer.parseInt(parts.get(3))));
+    }
+    return new ClassIndex(contentHash, classes.build());
+  }
+
+  /**
+   * The facts about a single {@code .class} file.
+   */
+  public static class ClassInfo {
+    private final HashCode hash;
+    private final long size;
+    private final int linearAllocEstimate;
+
+    public ClassInfo(HashCode hash, long size, int linearAllocEstimate) {
+      this.hash = Preconditions.checkNotNull(hash);
+      this.size = size;
+      this.linearAllocEstimate = linearAllocEstimate;
+    }
+
+    static ClassInfo of(byte[] bytes) {
+      int linearAllocEstimate;
+      try {
+        linearAllocEstimate =
+            DalvikStatsTool.getEstimate(new ByteArrayInputStream(bytes)).estimatedLinearAllocSize;
+      } catch (IOException | RuntimeException e) {
+        // Classes that our version of ASM cannot parse, such as those targeting a newer JVM, can
+        // never be dexed. Fall back to the cheap estimate rather than failing the build of a
+        // plain Java library.
+        linearAllocEstimate = bytes.length;
+      }
+      return new ClassInfo(Hashing.sha1().hashBytes(bytes), bytes.length, linearAllocEstimate);
+    }
+
+    /** @return the SHA-1 of the contents of the {@code .class} file. */
+    public HashCode getHash() {
+      return hash;
+    }
+
+    /** @return the size of the {@code .class} file in bytes. */
+    public long getSize() {
+      return size;
+    }
+
+    /**
+     * @return the estimate from {@link DalvikStatsTool} of the linear alloc that this class will
+     *     use once dexed.
+     */
+    public int getLinearAllocEstimate() {
+      return linearAllocEstimate;
+    }
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java.classes;
+
+import com.facebook.buck.timing.Clock;
+import com.facebook.buck.timing.DefaultClock;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ClassIndex}es shared by every step in the process, keyed by the SHA-1 of the jar they
+ * describe. A jar that is read by several steps of an {@code android_binary()} build, or that is
+ * copied to a new location, is only indexed once.
+ * <p>
+ * The SHA-1 of a jar is remembered for as long as the jar's size, modification time and file key
+ * stay the same, so looking up an index does not normally read the jar. A jar that was modified
+ * within the last couple of seconds is hashed without remembering the result: file systems record
+ * modification times with a granularity as coarse as a second or two, so the jar could be rewritten
+ * again without its fingerprint changing. Directories are never cached, since their contents
+ * cannot be fingerprinted cheaply.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ClassIndexCache {
+
+  /** Bounds the memory used by the cache, in terms of the number of classes indexed. */
+  private static final long MAX_CLASSES = 1000 * 1000;
+
+  private static final long MAX_CONTENT_HASHES = 10 * 1000;
+
+  /** The coarsest granularity with which file systems record modification times. */
+  @VisibleForTesting
+  static final long MODIFICATION_TIME_GRANULARITY_MILLIS = 2000;
+
+  private static final ClassIndexCache INSTANCE =
+      new ClassIndexCache(MAX_CLASSES, new DefaultClock());
+
+  private final Cache<HashCode, ClassIndex> indexes;
+  private final Cache<FileFingerprint, HashCode> contentHashes;
+  private final ListeningExecutorService executor;
+  private final Clock clock;
+
+  @VisibleForTesting
+  ClassIndexCache(long maxClasses, Clock clock) {
+    this.indexes = CacheBuilder.newBuilder()
+        .maximumWeight(maxClasses)
+        .weigher(new Weigher<HashCode, ClassIndex>() {
+          @Override
+          public int weigh(HashCode key, ClassIndex value) {
+            return value.getClasses().size();
+          }
+        })
+        .build();
+    this.contentHashes = CacheBuilder.newBuilder()
+        .maximumSize(MAX_CONTENT_HASHES)
+        .build();
+    this.executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(),
+        new ThreadFactoryBuilder()
+            .setNameFormat("class-index-%d")
+            .setDaemon(true)
+            .build()));
+    this.clock = clock;
+  }
+
+  public static ClassIndexCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @return the index of {@code jarOrClassesDirectory}, computing it if this is the first time
+   *     that the jar's contents have been seen.
+   */
+  public ClassIndex get(final Path jarOrClassesDirectory, final ProjectFilesystem filesystem)
+      throws IOException {
+    Path absolutePath = filesystem.resolve(jarOrClassesDirectory);
+    if (Files.isDirectory(absolutePath)) {
+      return ClassIndex.compute(
+          jarOrClassesDirectory,
+          Optional.<HashCode>absent(),
+          filesystem,
+          executor);
+    }
+
+    final HashCode contentHash = getContentHash(absolutePath);
+    try {
+      return indexes.get(contentHash, new Callable<ClassIndex>() {
+        @Override
+        public ClassIndex call() throws IOException {
+          return ClassIndex.compute(
+              jarOrClassesDirectory,
+              Optional.of(contentHash),
+              filesystem,
+              executor);
+        }
+      });
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Makes an index that was persisted by an earlier build available to lookups. Indexes of
+   * directories are ignored, as they cannot be looked up.
+   */
+  public void put(ClassIndex index) {
+    Optional<HashCode> contentHash = index.getContentHash();
+    if (contentHash.isPresent()) {
+      indexes.put(contentHash.get(), index);
+    }
+  }
+
+  /**
+   * @param jar an absolute path to a jar.
+   * @return the SHA-1 of the contents of {@code jar}.
+   */
+  public HashCode getContentHash(final Path jar) throws IOException {
+    Preconditions.checkArgument(jar.isAbsolute(), "%s must be absolute", jar);
+    long now = clock.currentTimeMillis();
+    BasicFileAttributes attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+    // A write later in the same clock tick as the last one would leave the fingerprint unchanged,
+    // so the hash of a recently modified jar cannot be trusted to stay valid.
+    if (now - attributes.lastModifiedTime().toMillis() < MODIFICATION_TIME_GRANULARITY_MILLIS) {
+      return com.google.common.io.Files.hash(jar.toFile(), Hashing.sha1());
+    }
+    // Threads that ask for the hash of the same jar at once wait for a single thread to hash it.
+    try {
+      return contentHashes.get(new FileFingerprint(jar, attributes), new Callable<HashCode>() {
+        @Override
+        public HashCode call() throws IOException {
+          return com.google.common.io.Files.hash(jar.toFile(), Hashing.sha1());
+        }
+      });
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  @VisibleForTesting
+  void invalidateAll() {
+    indexes.invalidateAll();
+    contentHashes.invalidateAll();
+  }
+
+  /**
+   * A file along with its attributes. A file that is rewritten after its last modification time's
+   * clock tick has passed gets a new modification time, and so a new fingerprint; the hash of its
+   * old contents is left for the cache to evict.
+   */
+  private static class FileFingerprint {
+    private final Path path;
+    private final long lastModifiedNanos;
+    private final long size;
+    private final Object fileKey;
+
+    public FileFingerprint(Path path, BasicFileAttributes attributes) {
+      this.path = path;
+      this.lastModifiedNanos = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+      this.size = attributes.size();
+      this.fileKey = attributes.fileKey();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof FileFingerprint)) {
+        return false;
+      }
+      FileFingerprint that = (FileFingerprint) obj;
+      return path.equals(that.path) &&
+          lastModifiedNanos == that.lastModifiedNanos &&
+          size == that.size &&
+          Objects.equal(fileKey, that.fileKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(path, lastModifiedNanos, size, fileKey);
+    }
+  }
+}
@@ -40,6 +40,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -73,19 +74,27 @@ public final class JUnitRunner {
   private final long defaultTestTimeoutMillis;
   private final TestSelectorList testSelectorList;
   private final boolean isDryRun;
+  private final /* @Nullable */ File progressFile;
   private final Set<TestDescription> seenDescriptions = new HashSet<>();
 
+  /**
+   * @param progressFile if not null, a line is written to this file as soon as each test finishes,
+   *     so that buck can report on the tests that have run before the whole class has (see
+   *     {@link TestResult#writeProgressLine}).
+   */
   public JUnitRunner(
       File outputDirectory,
       List<String> testClassNames,
       long defaultTestTimeoutMillis,
       TestSelectorList testSelectorList,
-      boolean isDryRun) {
+      boolean isDryRun,
+      /* @Nullable */ File progressFile) {
     this.outputDirectory = outputDirectory;
     this.testClassNames = testClassNames;
     this.defaultTestTimeoutMillis = defaultTestTimeoutMillis;
     this.testSelectorList = testSelectorList;
     this.isDryRun = isDryRun;
+    this.progressFile = progressFile;
   }
 
   public void run() throws Throwable {
@@ -119,6 +128,24 @@ public final class JUnitRunner {
       }
     };
 
+    PrintStream progress = null;
+    if (progressFile != null) {
+      progress = new PrintStream(
+          new FileOutputStream(progressFile),
+          /* autoFlush */ true,
+          "UTF-8");
+    }
+    try {
+      runTestClasses(filter, progress);
+    } finally {
+      if (progress != null) {
+        progress.close();
+      }
+    }
+  }
+
+  private void runTestClasses(Filter filter, /* @Nullable */ PrintStream progress)
+      throws Throwable {
     System.out.println("JUnitRunner running");
     for (String className : testClassNames) {
       System.out.println("JUnitRunner " + className);
@@ -140,7 +167,7 @@ public final class JUnitRunner {
         Request request = Request.runner(suite);
         request = request.filterWith(filter);
 
-        jUnitCore.addListener(TestResult.createSingleTestResultRunListener(results));
+        jUnitCore.addListener(TestResult.createSingleTestResultRunListener(results, progress));
         jUnitCore.run(request);
       }
 
@@ -386,6 +413,8 @@ public final class JUnitRunner {
    *   <li>(string) output directory
    *   <li>(long) default timeout in milliseconds (0 for no timeout)
    *   <li>(string) newline separated list of test selectors
+   *   <li>(string) non-empty for a dry run
+   *   <li>(string) file to write a line to as each test finishes (empty string for none)
    *   <li>(string...) fully-qualified names of test classes
    * </ul>
    */
@@ -400,7 +429,7 @@ public final class JUnitRunner {
     } else if (args.length == 2) {
       System.err.println("Must specify some test selectors (or empty string for no selectors).");
       System.exit(1);
-    } else if (args.length == 3) {
+    } else if (args.length < 6) {
       System.err.println("Must specify at least one test.");
       System.exit(1);
     }
@@ -412,6 +441,27 @@ public final class JUnitRunner {
       System.exit(1);
     }
 
+    // Run the tests.
+    try {
+      runTests(args);
+    } finally {
+      // Explicitly exit to force the test runner to complete even if tests have sloppily left
+      // behind non-daemon threads that would have otherwise forced the process to wait and
+      // eventually timeout.
+      //
+      // Separately, we're using a successful exit code regardless of test outcome since JUnitRunner
+      // is designed to execute all tests and produce a report of success or failure.  We've done
+      // that successfully if we've gotten here.
+      System.exit(0);
+    }
+  }
+
+  /**
+   * Runs the tests described by arguments that have already been checked by {@link #main}, without
+   * exiting. {@link JUnitRunnerServer} calls this in a JVM that runs many sets of tests.
+   */
+  public static void runTests(String... args) throws Throwable {
+    File outputDirectory = new File(args[0]);
     long defaultTestTimeoutMillis = Long.parseLong(args[1]);
 
     TestSelectorList testSelectorList = TestSelectorList.empty();
@@ -424,28 +474,19 @@ public final class JUnitRunner {
 
     boolean isDryRun = !args[3].isEmpty();
 
-    // Each subsequent argument should be a class name to run.
-    List<String> testClassNames = Arrays.asList(args).subList(4, args.length);
+    File progressFile = args[4].isEmpty() ? null : new File(args[4]);
 
-    // Run the tests.
-    try {
-      new JUnitRunner(
-          outputDirectory,
-          testClassNames,
-          defaultTestTimeoutMillis,
-          testSelectorList,
-          isDryRun)
-          .run();
-    } finally {
-      // Explicitly exit to force the test runner to complete even if tests have sloppily left
-      // behind non-daemon threads that would have otherwise forced the process to wait and
-      // eventually timeout.
-      //
-      // Separately, we're using a successful exit code regardless of test outcome since JUnitRunner
-      // is designed to execute all tests and produce a report of success or failure.  We've done
-      // that successfully if we've gotten here.
-      System.exit(0);
-    }
+    // Each subsequent argument should be a class name to run.
+    List<String> testClassNames = Arrays.asList(args).subList(5, args.length);
+
+    new JUnitRunner(
+        outputDirectory,
+        testClassNames,
+        defaultTestTimeoutMillis,
+        testSelectorList,
+        isDryRun,
+        progressFile)
+        .run();
   }
 
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.junit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs {@link JUnitRunner} over and over in one JVM, so that a pool of warm JVMs can run many
+ * {@code java_test()} rules without paying for JVM startup each time. The only argument is a port
+ * on the loopback interface to connect to. Requests are read from that connection, and responses
+ * written to it, until it is closed. Nothing is read from stdin or written to stdout, so JVM
+ * output such as {@code -verbose:gc} cannot corrupt a response.
+ * <p>
+ * A request is an int count followed by that many strings, each written as an int length and that
+ * many bytes of UTF-8:
+ * <ul>
+ *   <li>the build id, for the {@code com.facebook.buck.buildId} system property
+ *   <li>the directory tests can use for scratch space, for the {@code java.io.tmpdir} property
+ *   <li>the classpath of the tests, including the test runner, separated by
+ *       {@link File#pathSeparator}
+ *   <li>the arguments to {@link JUnitRunner#main}
+ * </ul>
+ * A response is an int exit code, a long of the heap in use after the run, a long of the maximum
+ * heap, and then everything written to stdout and to stderr during the run, each as an int length
+ * and that many bytes.
+ * <p>
+ * Each request is run with {@link JUnitRunner} and JUnit loaded, with the tests, in a new class
+ * loader whose parent is the extension class loader, so that nothing but the JDK is shared between
+ * requests. System properties are restored after each run.
+ * <p>
+ * IMPORTANT! This class limits itself to types that are available in both the JDK and Android Java
+ * API. The objective is to limit the set of files added to the ClassLoader that runs the test, as
+ * not to interfere with the results of the test.
+ */
+public final class JUnitRunnerServer {
+
+  private static final String BUILD_ID_PROPERTY = "com.facebook.buck.buildId";
+
+  /**
+   * A run that leaves more than this fraction of the maximum heap in use, even after a collection,
+   * is reported as such so that the JVM can be retired.
+   */
+  private static final double HEAP_USAGE_BEFORE_COLLECTION = 0.75;
+
+  /** Upper bounds on the shape of a request, so that a corrupt one fails instead of running. */
+  private static final int MAX_REQUEST_STRINGS = 64 * 1024;
+  private static final int MAX_REQUEST_STRING_BYTES = 64 * 1024 * 1024;
+
+  private JUnitRunnerServer() {}
+
+  public static void main(String... args) throws IOException {
+    if (args.length != 1) {
+      throw new IllegalArgumentException("Usage: JUnitRunnerServer <port>");
+    }
+    Socket socket = new Socket(InetAddress.getByName(null), Integer.parseInt(args[0]));
+    DataInputStream requests =
+        new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    DataOutputStream responses = new DataOutputStream(
+        new BufferedOutputStream(socket.getOutputStream()));
+
+    // Anything written outside of a run, for example by threads that tests left behind, must not
+    // end up in the middle of a response.
+    PrintStream nullStream = new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {}
+
+      @Override
+      public void write(byte[] b, int off, int len) {}
+    });
+    System.setOut(nullStream);
+    System.setErr(nullStream);
+
+    while (true) {
+      List<String> request = readRequest(requests);
+      if (request == null) {
+        break;
+      }
+
+      ByteArrayOutputStream stdOut = new ByteArrayOutputStream();
+      ByteArrayOutputStream stdErr = new ByteArrayOutputStream();
+      PrintStream stdErrStream = new PrintStream(stdErr, true);
+      System.setOut(new PrintStream(stdOut, true));
+      System.setErr(stdErrStream);
+      int exitCode;
+      try {
+        run(request);
+        exitCode = 0;
+      } catch (Throwable t) {
+        t.printStackTrace(stdErrStream);
+        exitCode = 1;
+      } finally {
+        System.setOut(nullStream);
+        System.setErr(nullStream);
+      }
+
+      Runtime runtime = Runtime.getRuntime();
+      long usedHeap = runtime.totalMemory() - runtime.freeMemory();
+      if (usedHeap > runtime.maxMemory() * HEAP_USAGE_BEFORE_COLLECTION) {
+        System.gc();
+        usedHeap = runtime.totalMemory() - runtime.freeMemory();
+      }
+
+      responses.writeInt(exitCode);
+      responses.writeLong(usedHeap);
+      responses.writeLong(runtime.maxMemory());
+      writeBytes(responses, stdOut.toByteArray());
+      writeBytes(responses, stdErr.toByteArray());
+      responses.flush();
+    }
+
+    // Tests may have left non-daemon threads behind.
+    System.exit(0);
+  }
+
+  private static void run(List<String> request) throws Throwable {
+    String buildId = request.get(0);
+    String tmpDirectory = request.get(1);
+    String[] classpath = request.get(2).split(File.pathSeparator);
+    String[] runnerArgs = request.subList(3, request.size()).toArray(new String[0]);
+
+    URL[] urls = new URL[classpath.length];
+    for (int i = 0; i < classpath.length; i++) {
+      urls[i] = new File(classpath[i]).toURI().toURL();
+    }
+
+    Properties originalProperties = (Properties) System.getProperties().clone();
+    Thread currentThread = Thread.currentThread();
+    ClassLoader originalContextClassLoader = currentThread.getContextClassLoader();
+    URLClassLoader classLoader =
+        new URLClassLoader(urls, ClassLoader.getSystemClassLoader().getParent());
+    try {
+      System.setProperty(BUILD_ID_PROPERTY, buildId);
+      System.setProperty("java.io.tmpdir", tmpDirectory);
+      currentThread.setContextClassLoader(classLoader);
+
+      Class<?> runnerClass = Class.forName(JUnitRunner.class.getName(), true, classLoader);
+      runnerClass.getMethod("runTests", String[].class).invoke(null, (Object) runnerArgs);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    } finally {
+      currentThread.setContextClassLoader(originalContextClassLoader);
+      System.setProperties(originalProperties);
+      classLoader.close();
+    }
+  }
+
+  /* @Nullable */
+  private static List<String> readRequest(DataInputStream requests) throws IOException {
+    int count;
+    try {
+      count = requests.readInt();
+    } catch (EOFException e) {
+      return null;
+    }
+    if (count < 0 || count > MAX_REQUEST_STRINGS) {
+      throw new IOException("Malformed request: " + count + " strings.");
+    }
+    List<String> request = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int length = requests.readInt();
+      if (length < 0 || length > MAX_REQUEST_STRING_BYTES) {
+        throw new IOException("Malformed request: string of " + length + " bytes.");
+      }
+      byte[] bytes = new byte[length];
+      requests.readFully(bytes);
+      request.add(new String(bytes, "UTF-8"));
+    }
+    return request;
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+}
@@ -63,11 +63,29 @@ final class TestResult {
     return type == ResultType.SUCCESS;
   }
 
+  /**
+   * Writes a line made of the result type, the run time in milliseconds, the test class name and
+   * the test method name, separated by tabs. Messages and output are left for the result file.
+   */
+  void writeProgressLine(PrintStream progress) {
+    progress.println(type + "\t" + runTime + "\t" +
+        toProgressField(testClassName) + "\t" +
+        toProgressField(testMethodName));
+  }
+
+  private static String toProgressField(/* @Nullable */ String value) {
+    return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+  }
+
   /**
    * Creates RunListener that will prepare individual result for each test
    * and store it to results list afterwards.
+   *
+   * @param progress if not null, each result is also written to it as soon as it is known.
    */
-  static RunListener createSingleTestResultRunListener(final List<TestResult> results) {
+  static RunListener createSingleTestResultRunListener(
+      final List<TestResult> results,
+      final /* @Nullable */ PrintStream progress) {
     return new RunListener() {
 
       private PrintStream originalOut, originalErr, stdOutStream, stdErrStream;
@@ -149,7 +167,7 @@ final class TestResult {
         String stdOut = rawStdOutBytes.size() == 0 ? null : rawStdOutBytes.toString(ENCODING);
         String stdErr = rawStdErrBytes.size() == 0 ? null : rawStdErrBytes.toString(ENCODING);
 
-        results.add(new TestResult(className,
+        addResult(new TestResult(className,
             methodName,
             result.getRunTime(),
             type,
@@ -202,7 +220,7 @@ final class TestResult {
       private void recordUnpairedFailure(Failure failure) {
         long runtime = System.currentTimeMillis() - startTime;
         Description description = failure.getDescription();
-        results.add(new TestResult(
+        addResult(new TestResult(
             description.getClassName(),
             description.getMethodName(),
             runtime,
@@ -211,6 +229,13 @@ final class TestResult {
             null,
             null));
       }
+
+      private void addResult(TestResult testResult) {
+        results.add(testResult);
+        if (progress != null) {
+          testResult.writeProgressLine(progress);
+        }
+      }
     };
   }
 }
@@ -57,6 +57,7 @@ import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
@@ -647,6 +648,15 @@ public class Parser {
     return true;
   }
 
+  /**
+   * @return a map from the absolute paths of the files included by the build files parsed so far
+   *     to the absolute paths of the build files that include them. Each build file is also
+   *     mapped to itself.
+   */
+  public synchronized ImmutableListMultimap<Path, Path> getBuildFilesByIncludedFile() {
+    return ImmutableListMultimap.copyOf(buildFileDependents);
+  }
+
   /**
    * @param filter the test to apply to all targets that have been read from build files, or null.
    * @return the build targets that pass the test, or null if the filter was null.
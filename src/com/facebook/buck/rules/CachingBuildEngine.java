@@ -30,6 +30,7 @@ import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.FutureCallback;
@@ -121,13 +122,42 @@ public class CachingBuildEngine implements BuildEngine {
     try {
       // Invoke every dep's build() method and create an uber-ListenableFuture that represents the
       // successful completion of all deps.
+      ImmutableSortedSet<BuildRule> buildTimeDeps = getBuildTimeDeps(rule);
       List<ListenableFuture<BuildRuleSuccess>> builtDeps =
-          Lists.newArrayListWithCapacity(rule.getDeps().size());
-      for (BuildRule dep : rule.getDeps()) {
+          Lists.newArrayListWithCapacity(buildTimeDeps.size());
+      for (BuildRule dep : buildTimeDeps) {
         builtDeps.add(build(context, dep));
       }
       ListenableFuture<List<BuildRuleSuccess>> allBuiltDeps = Futures.allAsList(builtDeps);
 
+      // If the steps of this rule do not need all of its deps, the rule is only reported as built
+      // once the steps have run and the rest of its deps are built, too.
+      final SettableFuture<BuildRuleSuccess> stepsFuture;
+      if (buildTimeDeps.equals(rule.getDeps())) {
+        stepsFuture = newFuture;
+      } else {
+        stepsFuture = SettableFuture.create();
+        List<ListenableFuture<BuildRuleSuccess>> allFutures = Lists.newArrayList();
+        allFutures.add(stepsFuture);
+        for (BuildRule dep : rule.getDeps()) {
+          if (!buildTimeDeps.contains(dep)) {
+            allFutures.add(build(context, dep));
+          }
+        }
+        Futures.addCallback(Futures.allAsList(allFutures),
+            new FutureCallback<List<BuildRuleSuccess>>() {
+              @Override
+              public void onSuccess(List<BuildRuleSuccess> results) {
+                newFuture.set(results.get(0));
+              }
+
+              @Override
+              public void onFailure(Throwable failure) {
+                newFuture.setException(failure);
+              }
+            });
+      }
+
       // Schedule this rule to build itself once all of the deps are built.
       context.getStepRunner().addCallback(allBuiltDeps,
           new FutureCallback<List<BuildRuleSuccess>>() {
@@ -222,7 +252,7 @@ public class CachingBuildEngine implements BuildEngine {
 
               // Only now that the rule should be in a completely valid state, resolve the future.
               BuildRuleSuccess buildRuleSuccess = new BuildRuleSuccess(rule, result.getSuccess());
-              newFuture.set(buildRuleSuccess);
+              stepsFuture.set(buildRuleSuccess);
 
               // Finally, upload to the artifact cache.
               if (result.getSuccess().shouldUploadResultingArtifact()) {
@@ -257,7 +287,7 @@ public class CachingBuildEngine implements BuildEngine {
               // It seems possible (albeit unlikely) that something could go wrong in
               // recordBuildRuleSuccess() after buildRuleResult has been resolved such that Buck
               // would attempt to resolve the future again, which would fail.
-              newFuture.setException(result.getFailure());
+              stepsFuture.setException(result.getFailure());
             }
 
             private void logBuildRuleFinished(BuildResult result) {
@@ -342,6 +372,19 @@ public class CachingBuildEngine implements BuildEngine {
           return new BuildResult(BuildRuleSuccess.Type.MATCHING_DEPS_ABI_AND_RULE_KEY_NO_DEPS,
               CacheResult.LOCAL_KEY_UNCHANGED_HIT);
         }
+
+        // Even if the ABI of the deps has changed, the parts of the deps that the rule used when
+        // it was last built may not have.
+        if (abiRule instanceof DependencyFileAbiRule) {
+          Optional<Sha1HashCode> cachedAbiKeyForDependencyFile = onDiskBuildInfo.getHash(
+              DependencyFileAbiRule.ABI_KEY_FOR_DEPENDENCY_FILE_ON_DISK_METADATA);
+          if (cachedAbiKeyForDependencyFile.isPresent() &&
+              cachedAbiKeyForDependencyFile.equals(
+                  ((DependencyFileAbiRule) abiRule).getAbiKeyForDependencyFile(onDiskBuildInfo))) {
+            return new BuildResult(BuildRuleSuccess.Type.MATCHING_DEPS_ABI_AND_RULE_KEY_NO_DEPS,
+                CacheResult.LOCAL_KEY_UNCHANGED_HIT);
+          }
+        }
       }
     }
 
@@ -499,10 +542,6 @@ public class CachingBuildEngine implements BuildEngine {
     if (initializable != null) {
       doInitializeFromDisk(initializable, onDiskBuildInfo);
     }
-
-    // Only now that the rule should be in a completely valid state, resolve the future.
-    BuildRuleSuccess buildRuleSuccess = new BuildRuleSuccess(rule, result.getSuccess());
-    results.get(rule.getBuildTarget()).set(buildRuleSuccess);
   }
 
   /**
@@ -537,6 +576,13 @@ public class CachingBuildEngine implements BuildEngine {
     return result.get();
   }
 
+  private static ImmutableSortedSet<BuildRule> getBuildTimeDeps(BuildRule rule) {
+    if (rule instanceof HasBuildTimeDeps) {
+      return ((HasBuildTimeDeps) rule).getBuildTimeDeps();
+    }
+    return rule.getDeps();
+  }
+
   private AbiRule checkIfRuleOrBuildableIsAbiRule(BuildRule rule) {
     if (rule instanceof AbiRule) {
       return (AbiRule) rule;
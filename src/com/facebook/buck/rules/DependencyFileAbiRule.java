@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.google.common.base.Optional;
+
+/**
+ * {@link AbiRule} that records, when it is built, which parts of its deps it actually used. This
+ * record is its dependency file. As long as the ABI of the parts that it used has not changed, the
+ * rule does not need to be rebuilt, even if the ABI of the rest of its deps has.
+ */
+public interface DependencyFileAbiRule extends AbiRule {
+
+  /**
+   * Key for {@link OnDiskBuildInfo} to identify the ABI key of the deps that a rule used, as
+   * computed when the rule was built.
+   */
+  public static final String ABI_KEY_FOR_DEPENDENCY_FILE_ON_DISK_METADATA =
+      "ABI_KEY_FOR_DEPENDENCY_FILE";
+
+  /**
+   * Computes the ABI key of the parts of the deps listed in the dependency file that the rule
+   * recorded in {@code onDiskBuildInfo}, using the current state of the deps.
+   * @return the ABI key, or absent if there is no dependency file or it no longer applies, such as
+   *     when it refers to a dep that the rule no longer has.
+   */
+  public Optional<Sha1HashCode> getAbiKeyForDependencyFile(OnDiskBuildInfo onDiskBuildInfo);
+}
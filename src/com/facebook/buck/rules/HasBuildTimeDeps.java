@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.google.common.collect.ImmutableSortedSet;
+
+/**
+ * {@link BuildRule} whose steps can run before all of its deps are built. The {@link BuildEngine}
+ * runs the steps as soon as the build-time deps are built, but only reports the rule as built once
+ * its deps are built, too, so that rules depending on it can still rely on all of them being built.
+ */
+public interface HasBuildTimeDeps {
+
+  /**
+   * Returns the rules that must be built before the steps of this rule can run. These may include
+   * rules that are not among its deps, such as rules that stand in for some of them.
+   */
+  public ImmutableSortedSet<BuildRule> getBuildTimeDeps();
+}
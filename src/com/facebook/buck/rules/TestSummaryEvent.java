@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.BuckEvent;
+import com.facebook.buck.test.TestResultSummary;
+import com.google.common.base.Preconditions;
+
+/**
+ * Posted as soon as a single test finishes, while the other tests of its rule may still be
+ * running. The full results of the rule follow in an {@link IndividualTestEvent.Finished}.
+ */
+public class TestSummaryEvent extends AbstractBuckEvent {
+
+  private final TestResultSummary testResultSummary;
+
+  private TestSummaryEvent(TestResultSummary testResultSummary) {
+    this.testResultSummary = Preconditions.checkNotNull(testResultSummary);
+  }
+
+  public static TestSummaryEvent finished(TestResultSummary testResultSummary) {
+    return new TestSummaryEvent(testResultSummary);
+  }
+
+  public TestResultSummary getTestResultSummary() {
+    return testResultSummary;
+  }
+
+  @Override
+  public String getEventName() {
+    return "TestSummary";
+  }
+
+  @Override
+  protected String getValueString() {
+    return String.format("%s %s#%s",
+        testResultSummary.getType(),
+        testResultSummary.getTestCaseName(),
+        testResultSummary.getTestName());
+  }
+
+  @Override
+  public boolean isRelatedTo(BuckEvent event) {
+    return false;
+  }
+}
@@ -54,22 +54,41 @@ public final class DefaultStepRunner implements StepRunner, Closeable {
   private final ExecutionContext context;
   private final ListeningExecutorService listeningExecutorService;
 
+  /**
+   * Runs steps on a pool of {@code numThreads} threads, which is also handed to the steps as
+   * {@link ExecutionContext#getStepExecutor()} so that any work they fan out shares the same bound.
+   */
   public DefaultStepRunner(ExecutionContext context,
                            int numThreads) {
     this(context,
         listeningDecorator(
             newMultiThreadExecutor(
                 new CommandThreadFactory("DefaultStepRunner"),
-                numThreads)));
+                numThreads)),
+        /* shareExecutorWithSteps */ true);
   }
 
   @VisibleForTesting
   public DefaultStepRunner(
       ExecutionContext executionContext,
       ListeningExecutorService listeningExecutorService) {
-    this.context = Preconditions.checkNotNull(executionContext);
-    this.listeningExecutorService = Preconditions.checkNotNull(listeningExecutorService);
+    this(executionContext, listeningExecutorService, /* shareExecutorWithSteps */ false);
+  }
 
+  private DefaultStepRunner(
+      ExecutionContext executionContext,
+      ListeningExecutorService listeningExecutorService,
+      boolean shareExecutorWithSteps) {
+    Preconditions.checkNotNull(executionContext);
+    this.listeningExecutorService = Preconditions.checkNotNull(listeningExecutorService);
+    if (shareExecutorWithSteps) {
+      this.context = ExecutionContext.builder()
+          .setExecutionContext(executionContext)
+          .setStepExecutor(Optional.of(listeningExecutorService))
+          .build();
+    } else {
+      this.context = executionContext;
+    }
   }
 
   @Override
@@ -94,13 +113,16 @@ public final class DefaultStepRunner implements StepRunner, Closeable {
     context.getBuckEventBus().logDebugAndPost(
         LOG, StepEvent.started(step, step.getDescription(context)));
     int exitCode = 1;
+    StepResourceUsage.Meter resourceMeter = StepResourceUsage.startMeasuring();
     try {
       exitCode = step.execute(context);
     } catch (RuntimeException e) {
       throw StepFailedException.createForFailingStepWithException(step, e, buildTarget);
     } finally {
+      StepResourceUsage resourceUsage = resourceMeter.stop();
       context.getBuckEventBus().logDebugAndPost(
-          LOG, StepEvent.finished(step, step.getDescription(context), exitCode));
+          LOG,
+          StepEvent.finished(step, step.getDescription(context), exitCode, resourceUsage));
     }
     if (exitCode != 0) {
       throw StepFailedException.createForFailingStepWithExitCode(step,
@@ -173,6 +195,11 @@ public final class DefaultStepRunner implements StepRunner, Closeable {
     Futures.addCallback(dependencies, callback, listeningExecutorService);
   }
 
+  @Override
+  public ListeningExecutorService getListeningExecutorService() {
+    return listeningExecutorService;
+  }
+
   @Override
   public void close() throws IOException {
     close(SHUTDOWN_TIMEOUT_MINUTES, TimeUnit.MINUTES);
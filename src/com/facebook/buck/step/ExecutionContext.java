@@ -32,6 +32,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.PrintStream;
 import java.nio.file.Path;
@@ -46,6 +47,8 @@ public class ExecutionContext {
   private final Optional<AndroidPlatformTarget> androidPlatformTarget;
   private final Optional<TargetDevice> targetDevice;
   private final long defaultTestTimeoutMillis;
+  private final int testJvmPoolMaxRuns;
+  private final int testShardsPerRule;
   private final boolean isCodeCoverageEnabled;
   private final boolean isDebugEnabled;
   private final ProcessExecutor processExecutor;
@@ -54,6 +57,7 @@ public class ExecutionContext {
   private final ImmutableMap<String, String> environment;
   private final JavaPackageFinder javaPackageFinder;
   private final ObjectMapper objectMapper;
+  private final Optional<ListeningExecutorService> stepExecutor;
 
   private ExecutionContext(
       ProjectFilesystem projectFilesystem,
@@ -61,19 +65,24 @@ public class ExecutionContext {
       Optional<AndroidPlatformTarget> androidPlatformTarget,
       Optional<TargetDevice> targetDevice,
       long defaultTestTimeoutMillis,
+      int testJvmPoolMaxRuns,
+      int testShardsPerRule,
       boolean isCodeCoverageEnabled,
       boolean isDebugEnabled,
       BuckEventBus eventBus,
       Platform platform,
       ImmutableMap<String, String> environment,
       JavaPackageFinder javaPackageFinder,
-      ObjectMapper objectMapper) {
+      ObjectMapper objectMapper,
+      Optional<ListeningExecutorService> stepExecutor) {
     this.verbosity = Preconditions.checkNotNull(console).getVerbosity();
     this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
     this.console = Preconditions.checkNotNull(console);
     this.androidPlatformTarget = Preconditions.checkNotNull(androidPlatformTarget);
     this.targetDevice = Preconditions.checkNotNull(targetDevice);
     this.defaultTestTimeoutMillis = defaultTestTimeoutMillis;
+    this.testJvmPoolMaxRuns = testJvmPoolMaxRuns;
+    this.testShardsPerRule = testShardsPerRule;
     this.isCodeCoverageEnabled = isCodeCoverageEnabled;
     this.isDebugEnabled = isDebugEnabled;
     this.processExecutor = new ProcessExecutor(console);
@@ -82,6 +91,7 @@ public class ExecutionContext {
     this.environment = Preconditions.checkNotNull(environment);
     this.javaPackageFinder = Preconditions.checkNotNull(javaPackageFinder);
     this.objectMapper = Preconditions.checkNotNull(objectMapper);
+    this.stepExecutor = Preconditions.checkNotNull(stepExecutor);
   }
 
   /**
@@ -95,13 +105,16 @@ public class ExecutionContext {
         getAndroidPlatformTargetOptional(),
         getTargetDeviceOptional(),
         getDefaultTestTimeoutMillis(),
+        getTestJvmPoolMaxRuns(),
+        getTestShardsPerRule(),
         isCodeCoverageEnabled(),
         isDebugEnabled,
         eventBus,
         platform,
         this.environment,
         this.javaPackageFinder,
-        this.objectMapper);
+        this.objectMapper,
+        this.stepExecutor);
   }
 
   public void logError(Throwable error, String msg, Object... formatArgs) {
@@ -156,6 +169,15 @@ public class ExecutionContext {
     return objectMapper;
   }
 
+  /**
+   * @return the bounded executor of the {@link StepRunner} that runs steps in this context, if
+   *     any. A step that fans out work of its own should submit it here rather than start threads,
+   *     so that it stays within the number of threads that the build was given.
+   */
+  public Optional<ListeningExecutorService> getStepExecutor() {
+    return stepExecutor;
+  }
+
   /**
    * Returns the {@link AndroidPlatformTarget}, if present. If not, throws a
    * {@link NoAndroidSdkException}. Use this when your logic requires the user to specify the
@@ -191,6 +213,22 @@ public class ExecutionContext {
     return defaultTestTimeoutMillis;
   }
 
+  /**
+   * @return how many times a JVM may be reused to run tests before it is replaced, or 0 if every
+   *     test rule should run in a JVM of its own.
+   */
+  public int getTestJvmPoolMaxRuns() {
+    return testJvmPoolMaxRuns;
+  }
+
+  /**
+   * @return the maximum number of JVMs that the test classes of a single test rule may be split
+   *     across. 1 runs all of a rule's test classes in one JVM.
+   */
+  public int getTestShardsPerRule() {
+    return testShardsPerRule;
+  }
+
   public boolean isCodeCoverageEnabled() {
     return isCodeCoverageEnabled;
   }
@@ -222,6 +260,8 @@ public class ExecutionContext {
     private Optional<AndroidPlatformTarget> androidPlatformTarget = Optional.absent();
     private Optional<TargetDevice> targetDevice = Optional.absent();
     private long defaultTestTimeoutMillis = 0L;
+    private int testJvmPoolMaxRuns = 0;
+    private int testShardsPerRule = 1;
     private boolean isCodeCoverageEnabled = false;
     private boolean isDebugEnabled = false;
     @Nullable private BuckEventBus eventBus = null;
@@ -229,6 +269,7 @@ public class ExecutionContext {
     @Nullable private ImmutableMap<String, String> environment = null;
     @Nullable private JavaPackageFinder javaPackageFinder = null;
     @Nullable private ObjectMapper objectMapper = null;
+    private Optional<ListeningExecutorService> stepExecutor = Optional.absent();
 
     private Builder() {}
 
@@ -239,13 +280,16 @@ public class ExecutionContext {
           androidPlatformTarget,
           targetDevice,
           defaultTestTimeoutMillis,
+          testJvmPoolMaxRuns,
+          testShardsPerRule,
           isCodeCoverageEnabled,
           isDebugEnabled,
           eventBus,
           platform,
           environment,
           javaPackageFinder,
-          objectMapper);
+          objectMapper,
+          stepExecutor);
     }
 
     public Builder setExecutionContext(ExecutionContext executionContext) {
@@ -254,6 +298,8 @@ public class ExecutionContext {
       setAndroidPlatformTarget(executionContext.getAndroidPlatformTargetOptional());
       setTargetDevice(executionContext.getTargetDeviceOptional());
       setDefaultTestTimeoutMillis(executionContext.getDefaultTestTimeoutMillis());
+      setTestJvmPoolMaxRuns(executionContext.getTestJvmPoolMaxRuns());
+      setTestShardsPerRule(executionContext.getTestShardsPerRule());
       setCodeCoverageEnabled(executionContext.isCodeCoverageEnabled());
       setDebugEnabled(executionContext.isDebugEnabled());
       setEventBus(executionContext.getBuckEventBus());
@@ -261,6 +307,7 @@ public class ExecutionContext {
       setEnvironment(executionContext.getEnvironment());
       setJavaPackageFinder(executionContext.getJavaPackageFinder());
       setObjectMapper(executionContext.getObjectMapper());
+      setStepExecutor(executionContext.getStepExecutor());
       return this;
     }
 
@@ -292,6 +339,22 @@ public class ExecutionContext {
       return this;
     }
 
+    /** Specify 0 to run each test rule in a JVM of its own. */
+    public Builder setTestJvmPoolMaxRuns(int testJvmPoolMaxRuns) {
+      Preconditions.checkArgument(testJvmPoolMaxRuns >= 0,
+          "Maximum runs per test JVM cannot be negative.");
+      this.testJvmPoolMaxRuns = testJvmPoolMaxRuns;
+      return this;
+    }
+
+    /** Specify 1 to run all of a test rule's classes in a single JVM. */
+    public Builder setTestShardsPerRule(int testShardsPerRule) {
+      Preconditions.checkArgument(testShardsPerRule >= 1,
+          "Each test rule must run in at least one shard.");
+      this.testShardsPerRule = testShardsPerRule;
+      return this;
+    }
+
     public Builder setCodeCoverageEnabled(boolean isCodeCoverageEnabled) {
       this.isCodeCoverageEnabled = isCodeCoverageEnabled;
       return this;
@@ -327,5 +390,10 @@ public class ExecutionContext {
       return this;
     }
 
+    public Builder setStepExecutor(Optional<ListeningExecutorService> stepExecutor) {
+      this.stepExecutor = Preconditions.checkNotNull(stepExecutor);
+      return this;
+    }
+
   }
 }
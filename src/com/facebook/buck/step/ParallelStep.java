@@ -0,0 +1,152 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.step;
+
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes a number of steps at the same time and waits for all of them to finish. The exit code
+ * is that of the first step, in the order given, to fail.
+ * <p>
+ * No threads are started here: the steps are run by the calling thread together with helpers
+ * submitted to {@link ExecutionContext#getStepExecutor()}, so that the steps only run at the same
+ * time as far as the step runner has threads to spare. Without a step executor they run one after
+ * the other.
+ */
+public class ParallelStep implements Step {
+
+  private final ImmutableList<Step> steps;
+
+  public ParallelStep(List<? extends Step> steps) {
+    Preconditions.checkArgument(!steps.isEmpty(), "Must have at least one step");
+    this.steps = ImmutableList.copyOf(steps);
+  }
+
+  public ImmutableList<Step> getSteps() {
+    return steps;
+  }
+
+  @Override
+  public int execute(final ExecutionContext context) throws InterruptedException {
+    if (steps.size() == 1) {
+      return steps.get(0).execute(context);
+    }
+
+    final List<SettableFuture<Integer>> exitCodes = Lists.newArrayListWithCapacity(steps.size());
+    for (int i = 0; i < steps.size(); i++) {
+      exitCodes.add(SettableFuture.<Integer>create());
+    }
+    final AtomicInteger nextStep = new AtomicInteger();
+    Runnable runRemainingSteps = new Runnable() {
+      @Override
+      public void run() {
+        runRemainingSteps(context, nextStep, exitCodes);
+      }
+    };
+
+    // A helper that only gets a thread once every step has been claimed has nothing left to do,
+    // so the calling thread never waits on a helper that the executor has not started.
+    List<Future<?>> helpers = Lists.newArrayList();
+    Optional<ListeningExecutorService> executor = context.getStepExecutor();
+    if (executor.isPresent()) {
+      try {
+        for (int i = 1; i < steps.size(); i++) {
+          helpers.add(executor.get().submit(runRemainingSteps));
+        }
+      } catch (RejectedExecutionException e) {
+        // The step runner is shutting down; the calling thread will run the steps itself.
+      }
+    }
+
+    try {
+      runRemainingSteps.run();
+
+      int exitCode = 0;
+      for (Future<Integer> stepExitCode : exitCodes) {
+        try {
+          int code = stepExitCode.get();
+          if (exitCode == 0) {
+            exitCode = code;
+          }
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          Throwables.propagateIfInstanceOf(cause, InterruptedException.class);
+          throw Throwables.propagate(cause);
+        }
+      }
+      return exitCode;
+    } finally {
+      // Every step has finished by now unless one of them threw or we were interrupted, in which
+      // case the others should not be left running.
+      for (Future<?> helper : helpers) {
+        helper.cancel(/* mayInterruptIfRunning */ true);
+      }
+    }
+  }
+
+  /**
+   * Claims and runs steps that no other thread has claimed yet, until there are none left or this
+   * thread is interrupted.
+   */
+  private void runRemainingSteps(
+      ExecutionContext context,
+      AtomicInteger nextStep,
+      List<SettableFuture<Integer>> exitCodes) {
+    for (int i = nextStep.getAndIncrement(); i < steps.size(); i = nextStep.getAndIncrement()) {
+      try {
+        exitCodes.get(i).set(steps.get(i).execute(context));
+      } catch (InterruptedException e) {
+        exitCodes.get(i).setException(e);
+        Thread.currentThread().interrupt();
+        return;
+      } catch (RuntimeException | Error e) {
+        exitCodes.get(i).setException(e);
+      }
+    }
+  }
+
+  @Override
+  public String getShortName() {
+    return "parallel";
+  }
+
+  @Override
+  public String getDescription(final ExecutionContext context) {
+    return Joiner.on(" & ").join(Iterables.transform(steps,
+        new Function<Step, String>() {
+          @Override
+          public String apply(Step step) {
+            return step.getDescription(context);
+          }
+        }));
+  }
+}
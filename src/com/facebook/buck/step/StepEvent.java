@@ -19,9 +19,14 @@ package com.facebook.buck.step;
 import com.facebook.buck.event.AbstractBuckEvent;
 import com.facebook.buck.event.BuckEvent;
 import com.facebook.buck.event.LeafEvent;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Objects;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 
+import javax.annotation.Nullable;
+
 /**
  * Base class for events about steps.
  */
@@ -35,6 +40,7 @@ public abstract class StepEvent extends AbstractBuckEvent implements LeafEvent {
     this.description = Preconditions.checkNotNull(description);
   }
 
+  @JsonIgnore
   public Step getStep() {
     return step;
   }
@@ -75,7 +81,15 @@ public abstract class StepEvent extends AbstractBuckEvent implements LeafEvent {
   }
 
   public static Finished finished(Step step, String description, int exitCode) {
-    return new Finished(step, description, exitCode);
+    return new Finished(step, description, exitCode, Optional.<StepResourceUsage>absent());
+  }
+
+  public static Finished finished(
+      Step step,
+      String description,
+      int exitCode,
+      StepResourceUsage resourceUsage) {
+    return new Finished(step, description, exitCode, Optional.of(resourceUsage));
   }
 
   public static class Started extends StepEvent {
@@ -91,16 +105,33 @@ public abstract class StepEvent extends AbstractBuckEvent implements LeafEvent {
 
   public static class Finished extends StepEvent {
     private final int exitCode;
-
-    protected Finished(Step step, String description, int exitCode) {
+    @JsonProperty("resourceUsage")
+    @Nullable
+    private final StepResourceUsage resourceUsage;
+
+    protected Finished(
+        Step step,
+        String description,
+        int exitCode,
+        Optional<StepResourceUsage> resourceUsage) {
       super(step, description);
       this.exitCode = exitCode;
+      this.resourceUsage = resourceUsage.orNull();
     }
 
     public int getExitCode() {
       return exitCode;
     }
 
+    /**
+     * @return the resources used while executing the step, if they were measured. They are not
+     *     considered by {@link #equals(Object)}.
+     */
+    @JsonIgnore
+    public Optional<StepResourceUsage> getResourceUsage() {
+      return Optional.fromNullable(resourceUsage);
+    }
+
     @Override
     public String getEventName() {
       return "StepFinished";
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.step;
+
+import com.facebook.buck.util.ProcessResourceCollector;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Optional;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import javax.annotation.Nullable;
+
+/**
+ * Resources used while executing a {@link Step}.
+ * <p>
+ * The in-process numbers cover only the thread that ran {@link Step#execute(ExecutionContext)};
+ * work that a step hands off to other threads is not included. The child process numbers cover the
+ * processes that the step ran through {@link com.facebook.buck.util.ProcessExecutor}.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.NONE,
+    getterVisibility = JsonAutoDetect.Visibility.NONE,
+    isGetterVisibility = JsonAutoDetect.Visibility.NONE)
+public class StepResourceUsage {
+
+  @JsonProperty
+  private final long wallTimeNanos;
+  @JsonProperty
+  @Nullable
+  private final Long cpuTimeNanos;
+  @JsonProperty
+  @Nullable
+  private final Long allocatedBytes;
+  @JsonProperty
+  private final int childProcessCount;
+  @JsonProperty
+  @Nullable
+  private final Long childCpuTimeNanos;
+  @JsonProperty
+  @Nullable
+  private final Long childPeakRssBytes;
+
+  public StepResourceUsage(
+      long wallTimeNanos,
+      Optional<Long> cpuTimeNanos,
+      Optional<Long> allocatedBytes,
+      int childProcessCount,
+      Optional<Long> childCpuTimeNanos,
+      Optional<Long> childPeakRssBytes) {
+    this.wallTimeNanos = wallTimeNanos;
+    this.cpuTimeNanos = cpuTimeNanos.orNull();
+    this.allocatedBytes = allocatedBytes.orNull();
+    this.childProcessCount = childProcessCount;
+    this.childCpuTimeNanos = childCpuTimeNanos.orNull();
+    this.childPeakRssBytes = childPeakRssBytes.orNull();
+  }
+
+  /**
+   * Starts measuring the resources used by the calling thread and the child processes it runs.
+   */
+  public static Meter startMeasuring() {
+    return new Meter();
+  }
+
+  public long getWallTimeNanos() {
+    return wallTimeNanos;
+  }
+
+  /** @return CPU time of the thread that executed the step, if the JVM supports measuring it. */
+  public Optional<Long> getCpuTimeNanos() {
+    return Optional.fromNullable(cpuTimeNanos);
+  }
+
+  /** @return bytes allocated by the thread that executed the step, if the JVM can measure it. */
+  public Optional<Long> getAllocatedBytes() {
+    return Optional.fromNullable(allocatedBytes);
+  }
+
+  public int getChildProcessCount() {
+    return childProcessCount;
+  }
+
+  /** @return CPU time of the child processes, if the platform supports measuring it. */
+  public Optional<Long> getChildCpuTimeNanos() {
+    return Optional.fromNullable(childCpuTimeNanos);
+  }
+
+  /** @return the largest peak resident set size of any of the child processes. */
+  public Optional<Long> getChildPeakRssBytes() {
+    return Optional.fromNullable(childPeakRssBytes);
+  }
+
+  /** @return CPU time of the step's thread plus that of its child processes. */
+  public long getTotalCpuTimeNanos() {
+    return getCpuTimeNanos().or(0L) + getChildCpuTimeNanos().or(0L);
+  }
+
+  /**
+   * Measures the resources used between {@link StepResourceUsage#startMeasuring()} and
+   * {@link #stop()}, which must be called on the same thread.
+   */
+  public static class Meter {
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final long threadId = Thread.currentThread().getId();
+    private final long startNanos;
+    private final long startCpuTimeNanos;
+    private final long startAllocatedBytes;
+    private final ProcessResourceCollector childProcesses;
+
+    private Meter() {
+      this.startNanos = System.nanoTime();
+      this.startCpuTimeNanos = getCurrentThreadCpuTime();
+      this.startAllocatedBytes = getCurrentThreadAllocatedBytes();
+      this.childProcesses = ProcessResourceCollector.start();
+    }
+
+    public StepResourceUsage stop() {
+      childProcesses.stop();
+      long cpuTimeNanos = getCurrentThreadCpuTime();
+      long allocatedBytes = getCurrentThreadAllocatedBytes();
+      return new StepResourceUsage(
+          System.nanoTime() - startNanos,
+          difference(startCpuTimeNanos, cpuTimeNanos),
+          difference(startAllocatedBytes, allocatedBytes),
+          childProcesses.getProcessCount(),
+          childProcesses.getCpuTimeNanos(),
+          childProcesses.getPeakRssBytes());
+    }
+
+    /** @return the CPU time of the current thread or -1 if it is unavailable. */
+    private long getCurrentThreadCpuTime() {
+      if (!threadBean.isCurrentThreadCpuTimeSupported() || !threadBean.isThreadCpuTimeEnabled()) {
+        return -1;
+      }
+      return threadBean.getCurrentThreadCpuTime();
+    }
+
+    /** @return the bytes allocated by the current thread or -1 if that is unavailable. */
+    private long getCurrentThreadAllocatedBytes() {
+      // Only HotSpot-derived JVMs expose allocation counters, through their own subinterface.
+      if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+        return -1;
+      }
+      com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+      if (!sunThreadBean.isThreadAllocatedMemorySupported() ||
+          !sunThreadBean.isThreadAllocatedMemoryEnabled()) {
+        return -1;
+      }
+      return sunThreadBean.getThreadAllocatedBytes(threadId);
+    }
+
+    private static Optional<Long> difference(long start, long end) {
+      if (start < 0 || end < 0) {
+        return Optional.absent();
+      }
+      return Optional.of(end - start);
+    }
+  }
+}
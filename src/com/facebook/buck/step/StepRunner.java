@@ -19,6 +19,7 @@ package com.facebook.buck.step;
 import com.facebook.buck.model.BuildTarget;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -54,4 +55,9 @@ public interface StepRunner {
   public <T> void addCallback(
       ListenableFuture<List<T>> dependencies,
       FutureCallback<List<T>> callback);
+
+  /**
+   * @return the executor that steps are run on, for work that should share its thread limit.
+   */
+  public ListeningExecutorService getListeningExecutorService();
 }
@@ -17,97 +17,138 @@
 package com.facebook.buck.test;
 
 import com.facebook.buck.test.result.type.ResultType;
-import com.facebook.buck.util.XmlDomParser;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.InputStream;
 import java.util.List;
 
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the test results that {@code JUnitRunner} writes. The file is read as a stream of XML
+ * events rather than as a DOM, so a test case with many tests is never held in memory as a tree.
+ */
 public class XmlTestResultParser {
 
+  private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
   /** Utility Class:  Do not instantiate. */
   private XmlTestResultParser() {}
 
   public static TestCaseSummary parse(File xmlFile) throws IOException {
-    String xmlFileContents = Files.toString(xmlFile, Charsets.UTF_8);
-
-    try {
-      return doParse(xmlFileContents);
+    try (InputStream input = new BufferedInputStream(new FileInputStream(xmlFile))) {
+      return doParse(input);
     } catch (NumberFormatException e) {
       // This is an attempt to track down an inexplicable error that we have observed in the wild.
-      String message = createDetailedExceptionMessage(xmlFile, xmlFileContents);
+      String message = createDetailedExceptionMessage(xmlFile);
       throw new RuntimeException(message, e);
     }
   }
 
-  private static TestCaseSummary doParse(String xml) throws IOException {
-    Document doc = XmlDomParser.parse(new InputSource(new StringReader(xml)),
-        /* namespaceAware */ true);
-    Element root = doc.getDocumentElement();
-    Preconditions.checkState("testcase".equals(root.getTagName()));
-    String testCaseName = root.getAttribute("name");
-
-    NodeList testElements = doc.getElementsByTagName("test");
-    List<TestResultSummary> testResults = Lists.newArrayListWithCapacity(testElements.getLength());
-    for (int i = 0; i < testElements.getLength(); i++) {
-      Element node = (Element) testElements.item(i);
-      String testName = node.getAttribute("name");
-      long time = Long.parseLong(node.getAttribute("time"));
-      String typeString = node.getAttribute("type");
-      ResultType type = ResultType.valueOf(typeString);
-
-      String message;
-      String stacktrace;
-      if (type == ResultType.SUCCESS) {
-        message = null;
-        stacktrace = null;
-      } else {
-        message = node.getAttribute("message");
-        stacktrace = node.getAttribute("stacktrace");
-      }
+  private static TestCaseSummary doParse(InputStream input) throws IOException {
+    XMLStreamReader reader;
+    try {
+      reader = INPUT_FACTORY.createXMLStreamReader(input);
+    } catch (XMLStreamException e) {
+      throw new IOException(e);
+    }
 
-      NodeList stdoutElements = node.getElementsByTagName("stdout");
-      String stdOut;
-      if (stdoutElements.getLength() == 1) {
-        stdOut = stdoutElements.item(0).getTextContent();
-      } else {
-        stdOut = null;
+    try {
+      reader.nextTag();
+      Preconditions.checkState("testcase".equals(reader.getLocalName()));
+      String testCaseName = reader.getAttributeValue(null, "name");
+
+      List<TestResultSummary> testResults = Lists.newArrayList();
+      while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+        Preconditions.checkState("test".equals(reader.getLocalName()));
+        testResults.add(parseTest(reader, testCaseName));
       }
 
-      NodeList stderrElements = node.getElementsByTagName("stderr");
-      String stdErr;
-      if (stderrElements.getLength() == 1) {
-        stdErr = stderrElements.item(0).getTextContent();
-      } else {
-        stdErr = null;
+      return new TestCaseSummary(testCaseName, testResults);
+    } catch (XMLStreamException e) {
+      throw new IOException(e);
+    } finally {
+      try {
+        reader.close();
+      } catch (XMLStreamException e) {
+        throw new IOException(e);
       }
+    }
+  }
 
-      TestResultSummary testResult = new TestResultSummary(
-          testCaseName,
-          testName,
-          type,
-          time,
-          message,
-          stacktrace,
-          stdOut,
-          stdErr);
-      testResults.add(testResult);
+  /**
+   * Reads a {@code <test>} element, leaving the reader at its end tag.
+   */
+  private static TestResultSummary parseTest(XMLStreamReader reader, String testCaseName)
+      throws XMLStreamException {
+    String testName = reader.getAttributeValue(null, "name");
+    long time = Long.parseLong(reader.getAttributeValue(null, "time"));
+    String typeString = reader.getAttributeValue(null, "type");
+    ResultType type = ResultType.valueOf(typeString);
+
+    String message;
+    String stacktrace;
+    if (type == ResultType.SUCCESS) {
+      message = null;
+      stacktrace = null;
+    } else {
+      message = getAttributeValue(reader, "message");
+      stacktrace = getAttributeValue(reader, "stacktrace");
+    }
+
+    String stdOut = null;
+    String stdErr = null;
+    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      String elementName = reader.getLocalName();
+      String text = reader.getElementText();
+      if ("stdout".equals(elementName)) {
+        stdOut = text;
+      } else if ("stderr".equals(elementName)) {
+        stdErr = text;
+      }
     }
 
-    return new TestCaseSummary(testCaseName, testResults);
+    return new TestResultSummary(
+        testCaseName,
+        testName,
+        type,
+        time,
+        message,
+        stacktrace,
+        stdOut,
+        stdErr);
   }
 
-  private static String createDetailedExceptionMessage(File xmlFile, String xmlFileContents) {
+  /**
+   * @return the value of the attribute, or an empty string if it is not set, which is what the DOM
+   *     API returned when results were read with it.
+   */
+  private static String getAttributeValue(XMLStreamReader reader, String name) {
+    @Nullable String value = reader.getAttributeValue(null, name);
+    return value == null ? "" : value;
+  }
+
+  private static XMLInputFactory createInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    return factory;
+  }
+
+  private static String createDetailedExceptionMessage(File xmlFile) throws IOException {
+    String xmlFileContents = Files.toString(xmlFile, Charsets.UTF_8);
     String message = "Error parsing test result data in " + xmlFile.getAbsolutePath() + ".\n" +
         "File contents:\n" + xmlFileContents;
     return message;
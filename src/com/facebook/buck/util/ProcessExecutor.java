@@ -30,6 +30,10 @@ import javax.annotation.Nullable;
 
 /**
  * Executes a {@link Process} and blocks until it is finished.
+ * <p>
+ * Where supported, the resources used by the process are measured with a
+ * {@link ProcessResourceMonitor} and reported to the {@link ProcessResourceCollector} of the
+ * calling thread.
  */
 public class ProcessExecutor {
 
@@ -111,6 +115,8 @@ public class ProcessExecutor {
         ansi,
         /* flagOutputWrittenToStream */ !shouldPrintStdErr);
 
+    Optional<ProcessResourceMonitor> resourceMonitor = ProcessResourceMonitor.start(process);
+
     // Consume the streams so they do not deadlock.
     Thread stdOutConsumer = Threads.namedThread("ProcessExecutor (stdOut)", stdOut);
     stdOutConsumer.start();
@@ -140,6 +146,9 @@ public class ProcessExecutor {
       // situation.
       return new Result(1, /* stdout */ null, /* stderr */ null);
     } finally {
+      if (resourceMonitor.isPresent()) {
+        ProcessResourceCollector.record(resourceMonitor.get().stop());
+      }
       process.destroy();
       process.waitFor();
     }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import com.google.common.base.Optional;
+
+import javax.annotation.Nullable;
+
+/**
+ * Adds up the {@link ProcessResourceUsage} of the child processes that {@link ProcessExecutor} runs
+ * on one thread between {@link #start()} and {@link #stop()}. This lets callers attribute
+ * subprocess usage to the unit of work running on that thread, such as a step, without threading
+ * the numbers through every API in between.
+ * <p>
+ * Collectors nest: when a collector is stopped, its totals are also added to the collector that was
+ * active on the thread when it was started.
+ */
+public class ProcessResourceCollector {
+
+  private static final ThreadLocal<ProcessResourceCollector> CURRENT = new ThreadLocal<>();
+
+  @Nullable
+  private final ProcessResourceCollector parent;
+  private int processCount;
+  private long wallTimeNanos;
+  private long cpuTimeNanos;
+  private boolean hasCpuTime;
+  private long peakRssBytes;
+  private boolean hasPeakRss;
+
+  private ProcessResourceCollector(@Nullable ProcessResourceCollector parent) {
+    this.parent = parent;
+  }
+
+  /**
+   * Starts collecting the usage of child processes run on the calling thread.
+   */
+  public static ProcessResourceCollector start() {
+    ProcessResourceCollector collector = new ProcessResourceCollector(CURRENT.get());
+    CURRENT.set(collector);
+    return collector;
+  }
+
+  /**
+   * Stops collecting on the calling thread, which must be the one that called {@link #start()}.
+   */
+  public void stop() {
+    CURRENT.set(parent);
+    if (parent != null) {
+      parent.processCount += processCount;
+      parent.wallTimeNanos += wallTimeNanos;
+      parent.addCpuTime(hasCpuTime, cpuTimeNanos);
+      parent.addPeakRss(hasPeakRss, peakRssBytes);
+    }
+  }
+
+  /**
+   * Records the usage of a child process with the collector of the calling thread, if any.
+   */
+  static void record(ProcessResourceUsage usage) {
+    ProcessResourceCollector collector = CURRENT.get();
+    if (collector == null) {
+      return;
+    }
+    collector.processCount++;
+    collector.wallTimeNanos += usage.getWallTimeNanos();
+    collector.addCpuTime(usage.getCpuTimeNanos().isPresent(), usage.getCpuTimeNanos().or(0L));
+    collector.addPeakRss(usage.getPeakRssBytes().isPresent(), usage.getPeakRssBytes().or(0L));
+  }
+
+  private void addCpuTime(boolean isPresent, long nanos) {
+    if (isPresent) {
+      hasCpuTime = true;
+      cpuTimeNanos += nanos;
+    }
+  }
+
+  private void addPeakRss(boolean isPresent, long bytes) {
+    if (isPresent) {
+      hasPeakRss = true;
+      peakRssBytes = Math.max(peakRssBytes, bytes);
+    }
+  }
+
+  public int getProcessCount() {
+    return processCount;
+  }
+
+  /** @return the summed wall time of the processes; overlapping processes are counted twice. */
+  public long getWallTimeNanos() {
+    return wallTimeNanos;
+  }
+
+  public Optional<Long> getCpuTimeNanos() {
+    return hasCpuTime ? Optional.of(cpuTimeNanos) : Optional.<Long>absent();
+  }
+
+  /** @return the largest peak resident set size of any of the processes. */
+  public Optional<Long> getPeakRssBytes() {
+    return hasPeakRss ? Optional.of(peakRssBytes) : Optional.<Long>absent();
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import com.facebook.buck.util.environment.Platform;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the resources used by a child process by polling {@code /proc/<pid>} while it runs.
+ * <p>
+ * The CPU time includes the time of the process' own children that it has waited for, so a shell
+ * that runs a compiler reports the compiler's CPU time too. The kernel discards these counters as
+ * soon as the process is reaped, so the usage reported by {@link #stop()} is the last sample taken,
+ * which may miss up to one polling interval at the end of the process. Only supported on Linux;
+ * elsewhere {@link #start(Process)} returns {@link Optional#absent()}.
+ */
+public class ProcessResourceMonitor {
+
+  private static final long POLLING_INTERVAL_MILLIS = 50;
+
+  /**
+   * Length of a clock tick in {@code /proc/<pid>/stat}. This is {@code sysconf(_SC_CLK_TCK)}, which
+   * is 100 on every Linux platform Buck runs on and cannot be queried without native code.
+   */
+  private static final long NANOS_PER_CLOCK_TICK = TimeUnit.SECONDS.toNanos(1) / 100;
+
+  private static final Splitter FIELD_SPLITTER =
+      Splitter.on(CharMatcher.WHITESPACE).omitEmptyStrings();
+
+  private static final ScheduledExecutorService POLLER = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder()
+          .setNameFormat(ProcessResourceMonitor.class.getSimpleName() + "-%d")
+          .setDaemon(true)
+          .build());
+
+  private final Path statFile;
+  private final Path statusFile;
+  private final long startNanos;
+  private final ScheduledFuture<?> poll;
+
+  private long cpuTimeNanos = -1;
+  private long peakRssBytes = -1;
+
+  private ProcessResourceMonitor(Path procDir) {
+    this.statFile = procDir.resolve("stat");
+    this.statusFile = procDir.resolve("status");
+    this.startNanos = System.nanoTime();
+    sample();
+    this.poll = POLLER.scheduleWithFixedDelay(
+        new Runnable() {
+          @Override
+          public void run() {
+            sample();
+          }
+        },
+        POLLING_INTERVAL_MILLIS,
+        POLLING_INTERVAL_MILLIS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Starts polling the resource usage of {@code process}, if that is supported on this platform.
+   */
+  public static Optional<ProcessResourceMonitor> start(Process process) {
+    if (Platform.detect() != Platform.LINUX) {
+      return Optional.absent();
+    }
+    Optional<Integer> pid = getPid(process);
+    if (!pid.isPresent()) {
+      return Optional.absent();
+    }
+    return Optional.of(new ProcessResourceMonitor(Paths.get("/proc", pid.get().toString())));
+  }
+
+  /**
+   * Stops polling.
+   *
+   * @return the usage observed by the last successful sample.
+   */
+  public synchronized ProcessResourceUsage stop() {
+    poll.cancel(/* mayInterruptIfRunning */ false);
+    return new ProcessResourceUsage(
+        System.nanoTime() - startNanos,
+        cpuTimeNanos >= 0 ? Optional.of(cpuTimeNanos) : Optional.<Long>absent(),
+        peakRssBytes >= 0 ? Optional.of(peakRssBytes) : Optional.<Long>absent());
+  }
+
+  private synchronized void sample() {
+    try {
+      String stat = new String(Files.readAllBytes(statFile), Charsets.US_ASCII);
+      String status = new String(Files.readAllBytes(statusFile), Charsets.US_ASCII);
+      cpuTimeNanos = Math.max(cpuTimeNanos, parseCpuTimeNanos(stat));
+      peakRssBytes = Math.max(peakRssBytes, parsePeakRssBytes(status));
+    } catch (IOException | RuntimeException e) {
+      // The process has exited and been reaped, or /proc has an unexpected format. Either way,
+      // keep the values from the last sample.
+    }
+  }
+
+  /**
+   * @return the sum of utime, stime, cutime and cstime from the contents of
+   *     {@code /proc/<pid>/stat}.
+   */
+  @VisibleForTesting
+  static long parseCpuTimeNanos(String stat) {
+    // The second field is the command name in parentheses, which may itself contain spaces and
+    // parentheses, so start splitting after the last closing parenthesis.
+    int endOfCommand = stat.lastIndexOf(')');
+    Preconditions.checkArgument(endOfCommand >= 0, "Malformed stat: %s", stat);
+    List<String> fields = FIELD_SPLITTER.splitToList(
+        stat.substring(endOfCommand + 1).trim());
+    // fields.get(0) is field 3 (state), so utime (field 14) through cstime (field 17) are at
+    // indices 11 through 14.
+    long ticks = 0;
+    for (int i = 11; i <= 14; i++) {
+      ticks += Long.parseLong(fields.get(i));
+    }
+    return ticks * NANOS_PER_CLOCK_TICK;
+  }
+
+  /**
+   * @return the value of {@code VmHWM} from the contents of {@code /proc/<pid>/status}, or -1 if it
+   *     is missing, as it is for zombie processes.
+   */
+  @VisibleForTesting
+  static long parsePeakRssBytes(String status) {
+    for (String line : Splitter.on('\n').split(status)) {
+      if (line.startsWith("VmHWM:")) {
+        // The line looks like "VmHWM:     1234 kB".
+        String kilobytes = Iterables.get(
+            FIELD_SPLITTER.split(line.substring("VmHWM:".length())),
+            0);
+        return Long.parseLong(kilobytes) * 1024;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * The JDK does not expose the id of a child process, but the {@link Process} implementation on
+   * unix platforms stores it in a private {@code pid} field.
+   */
+  private static Optional<Integer> getPid(Process process) {
+    try {
+      Field pidField = process.getClass().getDeclaredField("pid");
+      pidField.setAccessible(true);
+      return Optional.of(pidField.getInt(process));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return Optional.absent();
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+/**
+ * Resources used by a child process, as measured by {@link ProcessResourceMonitor}.
+ */
+public class ProcessResourceUsage {
+
+  private final long wallTimeNanos;
+  private final Optional<Long> cpuTimeNanos;
+  private final Optional<Long> peakRssBytes;
+
+  public ProcessResourceUsage(
+      long wallTimeNanos,
+      Optional<Long> cpuTimeNanos,
+      Optional<Long> peakRssBytes) {
+    this.wallTimeNanos = wallTimeNanos;
+    this.cpuTimeNanos = Preconditions.checkNotNull(cpuTimeNanos);
+    this.peakRssBytes = Preconditions.checkNotNull(peakRssBytes);
+  }
+
+  public long getWallTimeNanos() {
+    return wallTimeNanos;
+  }
+
+  /** @return user plus system CPU time of the process and the children it waited for. */
+  public Optional<Long> getCpuTimeNanos() {
+    return cpuTimeNanos;
+  }
+
+  /** @return the peak resident set size of the process. */
+  public Optional<Long> getPeakRssBytes() {
+    return peakRssBytes;
+  }
+}
@@ -64,12 +64,21 @@ class AppendingZipOutputStream extends CustomZipOutputStream {
 
   @Override
   protected void actuallyPutNextEntry(ZipEntry entry) throws IOException {
+    putNextEntry(entry, /* raw */ false);
+  }
+
+  @Override
+  protected void actuallyPutNextRawEntry(ZipEntry entry) throws IOException {
+    putNextEntry(entry, /* raw */ true);
+  }
+
+  private void putNextEntry(ZipEntry entry, boolean raw) throws IOException {
     if (throwExceptionsOnDuplicate && !seenNames.add(entry.getName())) {
       // Same exception as ZipOutputStream.
       throw new ZipException("duplicate entry: " + entry.getName());
     }
 
-    currentEntry = new EntryAccounting(clock, entry, currentOffset);
+    currentEntry = new EntryAccounting(clock, entry, currentOffset, raw);
     entries.add(currentEntry);
 
     currentOffset += currentEntry.writeLocalFileHeader(delegate);
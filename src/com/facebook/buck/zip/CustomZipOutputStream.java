@@ -48,6 +48,23 @@ public abstract class CustomZipOutputStream extends OutputStream {
     entryOpen = true;
   }
 
+  /**
+   * Begins writing a new entry whose data has already been compressed, such as an entry being
+   * copied from another zip file by {@link RawZipFile#getRawInputStream(ZipEntry)}. Bytes written
+   * until the entry is closed are stored verbatim, so the {@code entry} must have its method, CRC,
+   * size and compressed size set, and exactly {@link ZipEntry#getCompressedSize()} bytes must be
+   * written.
+   */
+  public final void putNextRawEntry(ZipEntry entry) throws IOException {
+    Preconditions.checkState(state != State.CLOSED, "Stream has been closed.");
+    Preconditions.checkNotNull(entry);
+
+    state = State.OPEN;
+    closeEntry();
+    actuallyPutNextRawEntry(entry);
+    entryOpen = true;
+  }
+
   /**
    * Called by {@link #putNextEntry(ZipEntry)} and used by subclasses to put the next entry into the
    * zip file. It is guaranteed that the {@code entry} won't be null and the stream will be open. It
@@ -57,6 +74,13 @@ public abstract class CustomZipOutputStream extends OutputStream {
    */
   protected abstract void actuallyPutNextEntry(ZipEntry entry) throws IOException;
 
+  /**
+   * As {@link #actuallyPutNextEntry(ZipEntry)}, but called by {@link #putNextRawEntry(ZipEntry)}.
+   *
+   * @param entry The {@link ZipEntry} to write, whose data is already compressed.
+   */
+  protected abstract void actuallyPutNextRawEntry(ZipEntry entry) throws IOException;
+
   public final void closeEntry() throws IOException {
     Preconditions.checkState(state != State.CLOSED, "Stream has been closed");
     if (!entryOpen) {
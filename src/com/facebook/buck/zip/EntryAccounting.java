@@ -29,6 +29,9 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import javax.annotation.Nullable;
 
 /**
  * A wrapper containing the {@link ZipEntry} and additional book keeping information required to
@@ -42,6 +45,9 @@ class EntryAccounting {
 
   private final ZipEntry entry;
   private final Method method;
+  /** Whether the bytes written for this entry are already in their final, compressed form. */
+  private final boolean raw;
+  private long rawBytesWritten = 0;
   private Hasher crc = Hashing.crc32().newHasher();
   private long offset;
   private long externalAttributes = 0;
@@ -65,21 +71,49 @@ class EntryAccounting {
    *  Defaults to indicate that names are stored as UTF8.
    */
   private int flags = UTF8_NAMES_FLAG;
-  private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+  /** Only allocated for entries we deflate ourselves, since each one holds native memory. */
+  @Nullable
+  private final Deflater deflater;
   private final byte[] buffer = new byte[ARBITRARY_SIZE];
 
   public EntryAccounting(Clock clock, ZipEntry entry, long currentOffset) {
+    this(clock, entry, currentOffset, /* raw */ false);
+  }
+
+  /**
+   * @param raw if true, the bytes written for this entry are copied verbatim to the output, and the
+   *     {@code entry} must already describe them: its method, CRC, size and compressed size must be
+   *     set. This allows entries to be copied between zip files without inflating and re-deflating
+   *     them.
+   */
+  public EntryAccounting(Clock clock, ZipEntry entry, long currentOffset, boolean raw) {
     this.entry = Preconditions.checkNotNull(entry);
     this.method = Method.detect(entry.getMethod());
+    this.raw = raw;
     Preconditions.checkNotNull(clock);
     this.offset = currentOffset;
 
+    if (raw) {
+      Preconditions.checkArgument(entry.getCrc() != -1, "Raw entries need a CRC: %s", entry);
+      Preconditions.checkArgument(entry.getSize() != -1, "Raw entries need a size: %s", entry);
+      Preconditions.checkArgument(
+          entry.getCompressedSize() != -1,
+          "Raw entries need a compressed size: %s",
+          entry);
+    }
+
     if (entry.getTime() == -1) {
       entry.setTime(clock.currentTimeMillis());
     }
 
+    deflater = isDeflated() && !raw ?
+        new Deflater(Deflater.DEFAULT_COMPRESSION, true) :
+        null;
+
     if (entry instanceof CustomZipEntry) {
-      deflater.setLevel(((CustomZipEntry) entry).getCompressionLevel());
+      if (deflater != null) {
+        deflater.setLevel(((CustomZipEntry) entry).getCompressionLevel());
+      }
       externalAttributes = ((CustomZipEntry) entry).getExternalAttributes();
     }
   }
@@ -163,7 +197,8 @@ class EntryAccounting {
   }
 
   public long writeLocalFileHeader(OutputStream out) throws IOException {
-    if (method == Method.DEFLATE) {
+    // Raw entries know their sizes and CRC up front, so they never need a data descriptor.
+    if (method == Method.DEFLATE && !raw) {
       flags |= DATA_DESCRIPTOR_FLAG;
 
       // See http://www.pkware.com/documents/casestudies/APPNOTE.TXT (section 4.4.4)
@@ -201,7 +236,11 @@ class EntryAccounting {
       ByteIo.writeInt(stream, getTime());
 
       // In deflate mode, we don't know the size or CRC of the data.
-      if (isDeflated()) {
+      if (raw) {
+        ByteIo.writeInt(stream, entry.getCrc());
+        ByteIo.writeInt(stream, entry.getCompressedSize());
+        ByteIo.writeInt(stream, entry.getSize());
+      } else if (isDeflated()) {
         ByteIo.writeInt(stream, 0);
         ByteIo.writeInt(stream, 0);
         ByteIo.writeInt(stream, 0);
@@ -246,6 +285,12 @@ class EntryAccounting {
   }
 
   public long write(OutputStream out, byte[] b, int off, int len) throws IOException {
+    if (raw) {
+      out.write(b, off, len);
+      rawBytesWritten += len;
+      return 0; // As with deflated entries, the size is accounted for when the entry is closed.
+    }
+
     updateCrc(b, off, len);
 
     if (!isDeflated()) {
@@ -267,6 +312,17 @@ class EntryAccounting {
   }
 
   public long close(OutputStream out) throws IOException {
+    if (raw) {
+      if (rawBytesWritten != entry.getCompressedSize()) {
+        throw new ZipException(String.format(
+            "Expected %d bytes of data for %s but %d were written",
+            entry.getCompressedSize(),
+            entry.getName(),
+            rawBytesWritten));
+      }
+      return rawBytesWritten;
+    }
+
     if (!isDeflated()) {
       // Nothing left to do.
       return 0;
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Calendar;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only view of a zip file that, unlike {@link java.util.zip.ZipFile}, provides access to
+ * the compressed bytes of each entry. Together with
+ * {@link CustomZipOutputStream#putNextRawEntry(ZipEntry)}, this allows entries to be copied from
+ * one zip file to another without being inflated and deflated again.
+ * <p>
+ * Only the subset of the format that we generate and consume is supported: encrypted entries,
+ * archives that span several disks and compression methods other than "stored" and "deflated" are
+ * rejected with a {@link ZipException}. Zip64 archives, which have more than 65535 entries or
+ * entries beyond 4GB, are supported.
+ * <p>
+ * Streams are read with positional reads, so the entries of one instance may be read from several
+ * threads at once, but {@link #close()} must not be called while they are being read.
+ */
+public class RawZipFile implements Closeable {
+
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+  private static final int LOCAL_FILE_HEADER_SIZE = 30;
+  private static final int ENCRYPTED_FLAG = 1;
+
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int ZIP64_LOCATOR_SIZE = 20;
+  private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+  private static final long ZIP64_MAGIC = 0xffffffffL;
+
+  private final File file;
+  private final FileChannel channel;
+  private final ImmutableList<ZipEntry> entries;
+
+  public RawZipFile(File file) throws IOException {
+    this.file = Preconditions.checkNotNull(file);
+    this.channel = new RandomAccessFile(file, "r").getChannel();
+    try {
+      this.entries = readCentralDirectory();
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the entries of the zip file, in the order that they appear in its central directory.
+   */
+  public ImmutableList<ZipEntry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * @return a stream of exactly {@link ZipEntry#getCompressedSize()} bytes, containing the data of
+   *     {@code entry} exactly as it is stored in this zip file.
+   */
+  public InputStream getRawInputStream(ZipEntry entry) throws IOException {
+    Preconditions.checkArgument(
+        entry instanceof Entry && ((Entry) entry).owner == this,
+        "%s does not belong to %s",
+        entry,
+        file);
+    long localHeaderOffset = ((Entry) entry).localHeaderOffset;
+
+    ByteBuffer header = read(localHeaderOffset, LOCAL_FILE_HEADER_SIZE);
+    if (header.getInt(0) != ZipEntry.LOCSIG) {
+      throw new ZipException(
+          String.format("Bad local file header for %s in %s", entry.getName(), file));
+    }
+    int nameLength = header.getShort(26) & 0xffff;
+    int extraLength = header.getShort(28) & 0xffff;
+    long dataOffset = localHeaderOffset + LOCAL_FILE_HEADER_SIZE + nameLength + extraLength;
+
+    return new ChannelInputStream(dataOffset, entry.getCompressedSize());
+  }
+
+  /**
+   * @return a stream of the uncompressed data of {@code entry}.
+   */
+  public InputStream getInputStream(ZipEntry entry) throws IOException {
+    InputStream raw = getRawInputStream(entry);
+    if (entry.getMethod() == ZipEntry.STORED) {
+      return raw;
+    }
+
+    // As java.util.zip.ZipFile does, provide a trailing dummy byte, which the inflater may need
+    // when reading data without a zlib header.
+    final Inflater inflater = new Inflater(/* nowrap */ true);
+    return new InflaterInputStream(
+        new SequenceInputStream(raw, new ByteArrayInputStream(new byte[1])),
+        inflater) {
+      @Override
+      public void close() throws IOException {
+        super.close();
+        inflater.end();
+      }
+    };
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private ImmutableList<ZipEntry> readCentralDirectory() throws IOException {
+    long fileSize = channel.size();
+    if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+      throw new ZipException("Not a zip file: " + file);
+    }
+
+    // The end of central directory record is followed by a comment of unknown length, so search
+    // backwards for its signature.
+    int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+    ByteBuffer tail = read(fileSize - tailSize, tailSize);
+    int end = -1;
+    for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) == ZipEntry.ENDSIG) {
+        end = i;
+        break;
+      }
+    }
+    if (end == -1) {
+      throw new ZipException("Unable to find the central directory of " + file);
+    }
+
+    long entryCount = tail.getShort(end + 10) & 0xffff;
+    long centralDirectorySize = tail.getInt(end + 12) & 0xffffffffL;
+    long centralDirectoryOffset = tail.getInt(end + 16) & 0xffffffffL;
+
+    // Values too large for this record are replaced by all ones, and are found in a zip64 end of
+    // central directory record instead. A locator just before this record says where that is.
+    long locatorOffset = fileSize - tailSize + end - ZIP64_LOCATOR_SIZE;
+    if (entryCount == 0xffff ||
+        centralDirectorySize == ZIP64_MAGIC ||
+        centralDirectoryOffset == ZIP64_MAGIC) {
+      ByteBuffer locator = locatorOffset >= 0 ? read(locatorOffset, ZIP64_LOCATOR_SIZE) : null;
+      if (locator != null && locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+        long zip64EndOffset = locator.getLong(8);
+        if (zip64EndOffset < 0 ||
+            zip64EndOffset + ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE > locatorOffset) {
+          throw new ZipException("Bad zip64 end of central directory locator in " + file);
+        }
+        ByteBuffer zip64End = read(zip64EndOffset, ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE);
+        if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+          throw new ZipException("Bad zip64 end of central directory record in " + file);
+        }
+        entryCount = zip64End.getLong(32);
+        centralDirectorySize = zip64End.getLong(40);
+        centralDirectoryOffset = zip64End.getLong(48);
+      } else if (centralDirectorySize == ZIP64_MAGIC || centralDirectoryOffset == ZIP64_MAGIC) {
+        throw new ZipException("Missing zip64 end of central directory record in " + file);
+      }
+      // Otherwise there are exactly 65535 entries, which the record can hold.
+    }
+    if (centralDirectoryOffset < 0 ||
+        centralDirectorySize < 0 ||
+        centralDirectoryOffset + centralDirectorySize > fileSize) {
+      throw new ZipException("Central directory extends beyond the end of " + file);
+    }
+    if (centralDirectorySize > Integer.MAX_VALUE) {
+      throw new ZipException("Central directory is too large in " + file);
+    }
+
+    ByteBuffer directory = read(centralDirectoryOffset, (int) centralDirectorySize);
+    ImmutableList.Builder<ZipEntry> builder = ImmutableList.builder();
+    int position = 0;
+    for (long i = 0; i < entryCount; i++) {
+      if (position + CENTRAL_DIRECTORY_HEADER_SIZE > directory.limit() ||
+          directory.getInt(position) != ZipEntry.CENSIG) {
+        throw new ZipException("Malformed central directory in " + file);
+      }
+
+      int flags = directory.getShort(position + 8) & 0xffff;
+      int method = directory.getShort(position + 10) & 0xffff;
+      long dosTime = directory.getInt(position + 12) & 0xffffffffL;
+      long crc = directory.getInt(position + 16) & 0xffffffffL;
+      long compressedSize = directory.getInt(position + 20) & 0xffffffffL;
+      long size = directory.getInt(position + 24) & 0xffffffffL;
+      int nameLength = directory.getShort(position + 28) & 0xffff;
+      int extraLength = directory.getShort(position + 30) & 0xffff;
+      int commentLength = directory.getShort(position + 32) & 0xffff;
+      long localHeaderOffset = directory.getInt(position + 42) & 0xffffffffL;
+
+      byte[] nameBytes = new byte[nameLength];
+      directory.position(position + CENTRAL_DIRECTORY_HEADER_SIZE);
+      directory.get(nameBytes);
+      String name = new String(nameBytes, Charsets.UTF_8);
+
+      if ((flags & ENCRYPTED_FLAG) != 0) {
+        throw new ZipException(String.format("Encrypted entry %s in %s", name, file));
+      }
+      if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+        throw new ZipException(
+            String.format("Unsupported compression method %d for %s in %s", method, name, file));
+      }
+
+      if (size == ZIP64_MAGIC ||
+          compressedSize == ZIP64_MAGIC ||
+          localHeaderOffset == ZIP64_MAGIC) {
+        // The zip64 extra field holds, in this order, whichever of these values did not fit.
+        int fieldOffset = findZip64ExtraField(
+            directory,
+            position + CENTRAL_DIRECTORY_HEADER_SIZE + nameLength,
+            extraLength,
+            name);
+        if (size == ZIP64_MAGIC) {
+          size = directory.getLong(fieldOffset);
+          fieldOffset += 8;
+        }
+        if (compressedSize == ZIP64_MAGIC) {
+          compressedSize = directory.getLong(fieldOffset);
+          fieldOffset += 8;
+        }
+        if (localHeaderOffset == ZIP64_MAGIC) {
+          localHeaderOffset = directory.getLong(fieldOffset);
+        }
+      }
+
+      Entry entry = new Entry(this, name, localHeaderOffset);
+      entry.setMethod(method);
+      entry.setTime(dosToJavaTime(dosTime));
+      entry.setCrc(crc);
+      entry.setSize(size);
+      entry.setCompressedSize(compressedSize);
+      builder.add(entry);
+
+      position += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return the offset of the data of the zip64 extra field among the extra fields of an entry.
+   */
+  private int findZip64ExtraField(ByteBuffer directory, int offset, int length, String name)
+      throws ZipException {
+    int end = offset + length;
+    while (offset + 4 <= end) {
+      int id = directory.getShort(offset) & 0xffff;
+      int size = directory.getShort(offset + 2) & 0xffff;
+      if (id == ZIP64_EXTRA_FIELD_ID && offset + 4 + size <= end) {
+        return offset + 4;
+      }
+      offset += 4 + size;
+    }
+    throw new ZipException(String.format("Missing zip64 extra field for %s in %s", name, file));
+  }
+
+  private ByteBuffer read(long offset, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, offset + buffer.position());
+      if (read == -1) {
+        throw new EOFException("Unexpected end of " + file);
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * The inverse of {@link EntryAccounting#getTime()}.
+   */
+  private static long dosToJavaTime(long dosTime) {
+    Calendar instance = Calendar.getInstance();
+    instance.clear();
+    instance.set(
+        (int) ((dosTime >> 25) & 0x7f) + 1980,
+        (int) ((dosTime >> 21) & 0x0f) - 1,
+        (int) ((dosTime >> 16) & 0x1f),
+        (int) ((dosTime >> 11) & 0x1f),
+        (int) ((dosTime >> 5) & 0x3f),
+        (int) ((dosTime << 1) & 0x3e));
+    return instance.getTimeInMillis();
+  }
+
+  /**
+   * A {@link ZipEntry} that remembers where its data lives within the zip file it was read from.
+   */
+  private static class Entry extends ZipEntry {
+    private final RawZipFile owner;
+    private final long localHeaderOffset;
+
+    public Entry(RawZipFile owner, String name, long localHeaderOffset) {
+      super(name);
+      this.owner = owner;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+  }
+
+  /**
+   * Reads a range of the underlying file using positional reads, so that streams for different
+   * entries don't interfere with one another.
+   */
+  private class ChannelInputStream extends InputStream {
+    private long position;
+    private long remaining;
+
+    public ChannelInputStream(long position, long length) {
+      this.position = position;
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (remaining == 0) {
+        return -1;
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+      int read = channel.read(buffer, position);
+      if (read == -1) {
+        throw new EOFException("Unexpected end of " + file);
+      }
+      position += read;
+      remaining -= read;
+      return read;
+    }
+
+    @Override
+    public int available() {
+      return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.android.dex.ClassData;
+import com.android.dex.ClassDef;
+import com.android.dex.Code;
+import com.android.dex.Dex;
+import com.android.dex.FieldId;
+import com.android.dex.MethodId;
+import com.android.dex.ProtoId;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+public class CachedDxStepTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private ExecutionContext context;
+
+  @Before
+  public void setUp() {
+    context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(new ProjectFilesystem(tmp.getRoot().toPath()))
+        .build();
+  }
+
+  @Test
+  public void testOnlyClassesThatChangedAreDexed() throws IOException, InterruptedException {
+    writeJar("lib.jar", ImmutableMap.of(
+        "com/example/A.class", createClass("com/example/A", "a"),
+        "com/example/B.class", createClass("com/example/B", "b"),
+        "com/example/res.txt", "hello".getBytes(Charsets.UTF_8)));
+    CachedDxStep step = newStep();
+    assertEquals(0, step.execute(context));
+    assertEquals(2, step.getClassesTranslated());
+    assertEquals(0, step.getClassesFromCache());
+
+    writeJar("lib.jar", ImmutableMap.of(
+        "com/example/A.class", createClass("com/example/A", "a"),
+        "com/example/B.class", createClass("com/example/B", "changed"),
+        "com/example/res.txt", "hello".getBytes(Charsets.UTF_8)));
+    step = newStep();
+    assertEquals(0, step.execute(context));
+    assertEquals(1, step.getClassesTranslated());
+    assertEquals(1, step.getClassesFromCache());
+
+    Path output = tmp.getRoot().toPath().resolve("lib.dex.jar");
+    try (JarFile jar = new JarFile(output.toFile())) {
+      assertNotNull("dx should record that it wrote the jar.",
+          jar.getManifest().getMainAttributes().getValue("Created-By"));
+      assertArrayEquals(
+          "hello".getBytes(Charsets.UTF_8),
+          read(jar, jar.getEntry("com/example/res.txt")));
+
+      Dex dex = new Dex(read(jar, jar.getEntry("classes.dex")));
+      ImmutableList.Builder<String> classNames = ImmutableList.builder();
+      for (ClassDef classDef : dex.classDefs()) {
+        classNames.add(dex.typeNames().get(classDef.getTypeIndex()));
+      }
+      assertEquals(
+          ImmutableList.of("Lcom/example/A;", "Lcom/example/B;"),
+          classNames.build());
+      assertTrue("The merged dex should contain the new version of B.",
+          dex.strings().contains("changed"));
+    }
+  }
+
+  @Test
+  public void testOutputIsEquivalentToThatOfDx() throws IOException, InterruptedException {
+    // C shares a string with A, so the merge has to combine their constant pools.
+    writeJar("lib.jar", ImmutableMap.of(
+        "com/example/A.class", createClass("com/example/A", "a"),
+        "com/example/B.class", createClass("com/example/B", "b"),
+        "com/example/C.class", createClass("com/example/C", "a"),
+        "com/example/res.txt", "hello".getBytes(Charsets.UTF_8)));
+    assertEquals(0, newStep().execute(context));
+
+    Path root = tmp.getRoot().toPath();
+    assertEquals(0, new com.android.dx.command.dexer.Main().run(
+        new String[] {
+            "--no-optimize",
+            "--force-jumbo",
+            "--output",
+            root.resolve("dx.dex.jar").toString(),
+            root.resolve("lib.jar").toString(),
+        },
+        context.getStdOut(),
+        context.getStdErr()));
+
+    try (JarFile cached = new JarFile(root.resolve("lib.dex.jar").toFile());
+         JarFile dx = new JarFile(root.resolve("dx.dex.jar").toFile())) {
+      assertEquals(dx.getManifest(), cached.getManifest());
+      assertArrayEquals(
+          read(dx, dx.getEntry("com/example/res.txt")),
+          read(cached, cached.getEntry("com/example/res.txt")));
+      // DexMerger lays the sections out differently than dx does, so the bytes are not the same.
+      assertEquals(
+          describe(new Dex(read(dx, dx.getEntry("classes.dex")))),
+          describe(new Dex(read(cached, cached.getEntry("classes.dex")))));
+    }
+  }
+
+  @Test
+  public void testClassesThatCannotBeTranslatedFailTheStep()
+      throws IOException, InterruptedException {
+    writeJar("lib.jar", ImmutableMap.of(
+        "com/example/A.class", "not a class".getBytes(Charsets.UTF_8)));
+    assertEquals(1, newStep().execute(context));
+  }
+
+  private CachedDxStep newStep() {
+    return new CachedDxStep(Paths.get("lib.dex.jar"), Paths.get("lib.jar"), Paths.get("cache"));
+  }
+
+  private void writeJar(String name, Map<String, byte[]> entries) throws IOException {
+    try (OutputStream out = Files.newOutputStream(tmp.getRoot().toPath().resolve(name));
+         JarOutputStream jar = new JarOutputStream(out)) {
+      for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+        jar.putNextEntry(new ZipEntry(entry.getKey()));
+        jar.write(entry.getValue());
+        jar.closeEntry();
+      }
+    }
+  }
+
+  private static byte[] read(JarFile jar, ZipEntry entry) throws IOException {
+    try (InputStream in = jar.getInputStream(entry)) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+  /**
+   * @return the ids, classes and code of {@code dex}, independent of where they are in the file.
+   */
+  private static ImmutableList<String> describe(Dex dex) {
+    ImmutableList.Builder<String> description = ImmutableList.builder();
+    description.addAll(dex.strings());
+    description.addAll(dex.typeNames());
+    for (ProtoId protoId : dex.protoIds()) {
+      description.add(protoId.toString());
+    }
+    for (FieldId fieldId : dex.fieldIds()) {
+      description.add(fieldId.toString());
+    }
+    for (MethodId methodId : dex.methodIds()) {
+      description.add(methodId.toString());
+    }
+    for (ClassDef classDef : dex.classDefs()) {
+      description.add(classDef + " " + classDef.getAccessFlags());
+      ClassData classData = dex.readClassData(classDef);
+      for (ClassData.Field field : classData.allFields()) {
+        description.add(dex.fieldIds().get(field.getFieldIndex()) + " " + field.getAccessFlags());
+      }
+      for (ClassData.Method method : classData.allMethods()) {
+        description.add(
+            dex.methodIds().get(method.getMethodIndex()) + " " + method.getAccessFlags());
+        Code code = dex.readCode(method);
+        description.add(code.getRegistersSize() + " " + Arrays.toString(code.getInstructions()));
+      }
+    }
+    return description.build();
+  }
+
+  /**
+   * @return a class with a {@code toString()} that returns {@code value}.
+   */
+  static byte[] createClass(String internalName, String value) {
+    ClassWriter writer = new ClassWriter(0);
+    writer.visit(
+        Opcodes.V1_6,
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER,
+        internalName,
+        null,
+        "java/lang/Object",
+        null);
+    MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+    constructor.visitCode();
+    constructor.visitVarInsn(Opcodes.ALOAD, 0);
+    constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+    constructor.visitInsn(Opcodes.RETURN);
+    constructor.visitMaxs(1, 1);
+    constructor.visitEnd();
+    MethodVisitor toString = writer.visitMethod(
+        Opcodes.ACC_PUBLIC,
+        "toString",
+        "()Ljava/lang/String;",
+        null,
+        null);
+    toString.visitCode();
+    toString.visitLdcInsn(value);
+    toString.visitInsn(Opcodes.ARETURN);
+    toString.visitMaxs(1, 1);
+    toString.visitEnd();
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+}
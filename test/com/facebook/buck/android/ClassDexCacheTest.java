@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.android.dex.Dex;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+public class ClassDexCacheTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testLeastRecentlyUsedEntriesAreDeleted() throws IOException {
+    Path cacheDir = tmp.getRoot().toPath();
+    ClassDexCache cache = new ClassDexCache(cacheDir, Long.MAX_VALUE);
+    HashCode a = putClass(cache, "com/example/A");
+    HashCode b = putClass(cache, "com/example/B");
+    HashCode c = putClass(cache, "com/example/C");
+
+    long now = System.currentTimeMillis();
+    setLastAccessTime(cache.getPathToEntry(a), now - TimeUnit.MINUTES.toMillis(30));
+    setLastAccessTime(cache.getPathToEntry(b), now - TimeUnit.MINUTES.toMillis(10));
+    setLastAccessTime(cache.getPathToEntry(c), now - TimeUnit.MINUTES.toMillis(20));
+    // Reading A makes it the most recently used.
+    assertTrue(cache.get(a).isPresent());
+
+    long maxSizeBytes =
+        Files.size(cache.getPathToEntry(a)) + Files.size(cache.getPathToEntry(b));
+    new ClassDexCache(cacheDir, maxSizeBytes).deleteOldEntries();
+
+    assertTrue(cache.get(a).isPresent());
+    assertTrue(cache.get(b).isPresent());
+    assertFalse("C was used least recently.", cache.get(c).isPresent());
+  }
+
+  @Test
+  public void testWritesKeepTheCacheWithinItsMaximumSize() throws IOException {
+    Path cacheDir = tmp.getRoot().toPath();
+    HashCode a = putClass(new ClassDexCache(cacheDir, Long.MAX_VALUE), "com/example/A");
+    long entrySizeBytes = Files.size(new ClassDexCache(cacheDir, 1).getPathToEntry(a));
+
+    ClassDexCache cache = new ClassDexCache(cacheDir, 2 * entrySizeBytes);
+    putClass(cache, "com/example/B");
+    putClass(cache, "com/example/C");
+    putClass(cache, "com/example/D");
+
+    int entries = 0;
+    for (String key : new String[] {"A", "B", "C", "D"}) {
+      if (cache.get(getKey("com/example/" + key)).isPresent()) {
+        entries++;
+      }
+    }
+    assertEquals(2, entries);
+  }
+
+  private static HashCode putClass(ClassDexCache cache, String internalName) throws IOException {
+    HashCode key = getKey(internalName);
+    Dex dex = ClassDexCache.translate(
+        internalName + ".class",
+        CachedDxStepTest.createClass(internalName, "value"),
+        new PrintStream(ByteStreams.nullOutputStream()));
+    cache.put(key, dex);
+    return key;
+  }
+
+  private static HashCode getKey(String internalName) {
+    return ClassDexCache.getKey(CachedDxStepTest.createClass(internalName, "value"));
+  }
+
+  private static void setLastAccessTime(Path path, long millis) throws IOException {
+    Files.setAttribute(path, "lastAccessTime", FileTime.fromMillis(millis));
+  }
+}
@@ -36,9 +36,7 @@ import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.MoreAsserts;
-import com.facebook.buck.util.AndroidPlatformTarget;
 import com.facebook.buck.util.ProjectFilesystem;
-import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
@@ -85,9 +83,6 @@ public class DexProducedFromJavaLibraryThatContainsClassFilesTest extends EasyMo
     verifyAll();
     resetAll();
 
-    AndroidPlatformTarget androidPlatformTarget = createMock(AndroidPlatformTarget.class);
-    expect(androidPlatformTarget.getDxExecutable()).andReturn(Paths.get("/usr/bin/dx"));
-
     ProjectFilesystem projectFilesystem = createMock(ProjectFilesystem.class);
     expect(projectFilesystem.resolve(Paths.get("buck-out/gen/foo")))
         .andStubReturn(Paths.get("/home/user/buck-out/gen/foo"));
@@ -95,17 +90,19 @@ public class DexProducedFromJavaLibraryThatContainsClassFilesTest extends EasyMo
         .andStubReturn(Paths.get("/home/user/buck-out/gen/foo/bar#dex.dex.jar"));
     expect(projectFilesystem.resolve(Paths.get("buck-out/gen/foo/bar.jar")))
         .andStubReturn(Paths.get("/home/user/buck-out/gen/foo/bar.jar"));
+    expect(projectFilesystem.resolve(Paths.get("buck-out/bin/__dex_class_cache__")))
+        .andStubReturn(Paths.get("/home/user/buck-out/bin/__dex_class_cache__"));
     replayAll();
 
     ExecutionContext executionContext = TestExecutionContext
         .newBuilder()
-        .setAndroidPlatformTarget(Optional.of(androidPlatformTarget))
         .setProjectFilesystem(projectFilesystem)
         .build();
 
-    String expectedDxCommand = "/usr/bin/dx" +
+    String expectedDxCommand = "dx" +
         " --dex --no-optimize --force-jumbo --output /home/user/buck-out/gen/foo/bar#dex.dex.jar " +
-        "/home/user/buck-out/gen/foo/bar.jar";
+        "/home/user/buck-out/gen/foo/bar.jar (classes cached in /home/user/buck-out/bin/" +
+        "__dex_class_cache__)";
     MoreAsserts.assertSteps("Generate bar.dex.jar.",
         ImmutableList.of(
           "rm -f /home/user/buck-out/gen/foo/bar#dex.dex.jar",
@@ -183,6 +183,29 @@ public class DxStepTest extends EasyMockSupport {
     verifyAll();
   }
 
+  @Test
+  public void testDxCommandWithThreads() {
+    // Context with --verbose 2.
+    ExecutionContext context = createExecutionContext(2);
+    Function<Path, Path> pathAbsolutifier = context.getProjectFilesystem().getAbsolutifier();
+
+    DxStep dx = new DxStep(SAMPLE_OUTPUT_PATH,
+        SAMPLE_FILES_TO_DEX,
+        EnumSet.of(Option.NO_OPTIMIZE),
+        /* numThreads */ 4);
+
+    String expected = String.format("%s --no-optimize --num-threads=4 --output %s %s",
+        EXPECTED_DX_PREFIX,
+        SAMPLE_OUTPUT_PATH,
+        Joiner.on(' ').join(Iterables.transform(SAMPLE_FILES_TO_DEX, pathAbsolutifier)));
+    MoreAsserts.assertShellCommands(
+        "--num-threads should be passed when dx may use more than one thread.",
+        ImmutableList.of(expected),
+        ImmutableList.<Step>of(dx),
+        context);
+    verifyAll();
+  }
+
   @Test
   public void testUseCustomDxOption() {
     // Context with --verbose 2.
@@ -192,6 +215,7 @@ public class DxStepTest extends EasyMockSupport {
     DxStep dx = new DxStep(SAMPLE_OUTPUT_PATH,
         SAMPLE_FILES_TO_DEX,
         EnumSet.of(Option.USE_CUSTOM_DX_IF_AVAILABLE),
+        /* numThreads */ 1,
         new Supplier<String>() {
           @Override
           public String get() {
@@ -220,6 +244,7 @@ public class DxStepTest extends EasyMockSupport {
     DxStep dx = new DxStep(SAMPLE_OUTPUT_PATH,
         SAMPLE_FILES_TO_DEX,
         EnumSet.of(Option.USE_CUSTOM_DX_IF_AVAILABLE),
+        /* numThreads */ 1,
         new Supplier<String>() {
           @Override
           public String get() {
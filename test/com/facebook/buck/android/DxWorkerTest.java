@@ -0,0 +1,279 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.event.ChromeTraceEvent;
+import com.facebook.buck.event.TraceEvent;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+public class DxWorkerTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testConcurrentJobsAreBoundedByTheHeap() {
+    long perJob = DxWorker.HEAP_BYTES_PER_JOB;
+    assertEquals(4, DxWorker.getMaxConcurrentJobs(16 * perJob, 4));
+    assertEquals(2, DxWorker.getMaxConcurrentJobs(2 * perJob + 1, 8));
+    assertEquals(1, DxWorker.getMaxConcurrentJobs(perJob / 2, 8));
+  }
+
+  @Test
+  public void testNoMoreThanTheMaximumNumberOfJobsRunAtOnce() throws Exception {
+    final DxWorker worker = new DxWorker(/* maxConcurrentJobs */ 2);
+    final BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    CapturingTraceListener listener = new CapturingTraceListener();
+    eventBus.register(listener);
+
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final CountDownLatch twoStarted = new CountDownLatch(2);
+    final Callable<Integer> job = new Callable<Integer>() {
+      @Override
+      public Integer call() throws InterruptedException {
+        int nowRunning = running.incrementAndGet();
+        synchronized (maxRunning) {
+          maxRunning.set(Math.max(maxRunning.get(), nowRunning));
+        }
+        twoStarted.countDown();
+        // Hold on to the permit until the other permit has been taken too.
+        twoStarted.await(10, TimeUnit.SECONDS);
+        running.decrementAndGet();
+        return 0;
+      }
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Integer>> results = Lists.newArrayList();
+      for (int i = 0; i < 4; i++) {
+        final String output = "classes" + i + ".dex";
+        results.add(executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws IOException, InterruptedException {
+            return worker.run(eventBus, output, job);
+          }
+        }));
+      }
+      for (Future<Integer> result : results) {
+        assertEquals(0, result.get(10, TimeUnit.SECONDS).intValue());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(2, maxRunning.get());
+    assertEquals(8, listener.events.size());
+  }
+
+  @Test
+  public void testFailedJobsAreTracedWithTheirExitCode() throws IOException, InterruptedException {
+    DxWorker worker = new DxWorker(/* maxConcurrentJobs */ 1);
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    CapturingTraceListener listener = new CapturingTraceListener();
+    eventBus.register(listener);
+
+    try {
+      worker.run(eventBus, "classes.dex", new Callable<Integer>() {
+        @Override
+        public Integer call() throws IOException {
+          throw new IOException("Disk full");
+        }
+      });
+      fail("The IOException should be rethrown.");
+    } catch (IOException e) {
+      assertEquals("Disk full", e.getMessage());
+    }
+
+    assertEquals(2, listener.events.size());
+    TraceEvent end = listener.events.get(1);
+    assertEquals(ChromeTraceEvent.Phase.END, end.getPhase());
+    assertEquals("1", end.getProperties().get("exit_code"));
+
+    // The permit must have been returned.
+    int exitCode = worker.run(eventBus, "classes.dex", new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return 3;
+      }
+    });
+    assertEquals(3, exitCode);
+  }
+
+  @Test
+  public void testClassesTranslatedInParallelGiveTheSameDexAsSerialTranslation()
+      throws IOException, InterruptedException {
+    Path input = createJarOfClasses(300);
+
+    byte[] serial = dex(input, "serial.dex.jar", ImmutableList.<String>of());
+    byte[] parallel = dex(input, "parallel.dex.jar", ImmutableList.of("--num-threads=4"));
+
+    assertArrayEquals(serial, parallel);
+  }
+
+  @Test
+  public void testMultiDexOutputIsSplitTheSameWayWhenTranslatedInParallel()
+      throws IOException, InterruptedException {
+    Path input = createJarOfClasses(300);
+    ImmutableList<String> multiDex = ImmutableList.of(
+        "--multi-dex",
+        "--set-max-idx-number=500");
+
+    Path serialJar = tmp.getRoot().toPath().resolve("serial.jar");
+    dex(input, serialJar.getFileName().toString(), multiDex);
+    Path parallelJar = tmp.getRoot().toPath().resolve("parallel.jar");
+    dex(
+        input,
+        parallelJar.getFileName().toString(),
+        ImmutableList.<String>builder().addAll(multiDex).add("--num-threads=4").build());
+
+    try (ZipFile serial = new ZipFile(serialJar.toFile());
+         ZipFile parallel = new ZipFile(parallelJar.toFile())) {
+      assertTrue("The classes should not fit in one dex file.",
+          serial.getEntry("classes2.dex") != null);
+      for (String name : ImmutableList.of("classes.dex", "classes2.dex", "classes3.dex")) {
+        ZipEntry entry = serial.getEntry(name);
+        if (entry == null) {
+          assertEquals(null, parallel.getEntry(name));
+          continue;
+        }
+        assertArrayEquals(name, read(serial, entry), read(parallel, parallel.getEntry(name)));
+      }
+    }
+  }
+
+  /**
+   * @return the {@code classes.dex} written by dx, or {@code null} if it wrote more than one dex.
+   */
+  private byte[] dex(Path input, String output, ImmutableList<String> options)
+      throws IOException, InterruptedException {
+    Path outputJar = tmp.getRoot().toPath().resolve(output);
+    ImmutableList<String> args = ImmutableList.<String>builder()
+        .add("--no-optimize", "--force-jumbo")
+        .addAll(options)
+        .add("--output", outputJar.toString(), input.toString())
+        .build();
+    int exitCode = new DxWorker(/* maxConcurrentJobs */ 1).dex(
+        BuckEventBusFactory.newInstance(),
+        output,
+        args,
+        System.out,
+        System.err);
+    assertEquals(0, exitCode);
+
+    try (ZipFile zip = new ZipFile(outputJar.toFile())) {
+      return zip.getEntry("classes2.dex") == null ?
+          read(zip, zip.getEntry("classes.dex")) :
+          null;
+    }
+  }
+
+  private static byte[] read(ZipFile zip, ZipEntry entry) throws IOException {
+    try (InputStream in = zip.getInputStream(entry)) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+  /**
+   * Writes classes that refer to each other, so that translating them interns references to
+   * types, fields and methods that are shared between classes.
+   */
+  private Path createJarOfClasses(int count) throws IOException {
+    Path jar = tmp.getRoot().toPath().resolve("classes.jar");
+    try (OutputStream out = Files.newOutputStream(jar);
+         JarOutputStream jarOut = new JarOutputStream(out)) {
+      for (int i = 0; i < count; i++) {
+        String name = "com/example/C" + i;
+        String other = "com/example/C" + (i * 7 % count);
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null,
+            "java/lang/Object", null);
+        writer.visitField(Opcodes.ACC_PUBLIC, "next", "L" + other + ";", null, null).visitEnd();
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        method.visitCode();
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        method.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(1, 1);
+        method.visitEnd();
+        method = writer.visitMethod(
+            Opcodes.ACC_PUBLIC, "describe" + i, "()Ljava/lang/String;", null, null);
+        method.visitCode();
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        method.visitFieldInsn(Opcodes.GETFIELD, name, "next", "L" + other + ";");
+        method.visitMethodInsn(
+            Opcodes.INVOKEVIRTUAL, other, "describe" + (i * 7 % count), "()Ljava/lang/String;");
+        method.visitLdcInsn("C" + i);
+        method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "concat",
+            "(Ljava/lang/String;)Ljava/lang/String;");
+        method.visitInsn(Opcodes.ARETURN);
+        method.visitMaxs(2, 1);
+        method.visitEnd();
+        writer.visitEnd();
+
+        jarOut.putNextEntry(new ZipEntry(name + ".class"));
+        jarOut.write(writer.toByteArray());
+        jarOut.closeEntry();
+      }
+    }
+    return jar;
+  }
+
+  public static class CapturingTraceListener {
+    private final List<TraceEvent> events = Lists.newArrayList();
+
+    @Subscribe
+    public synchronized void traceEvent(TraceEvent event) {
+      events.add(event);
+    }
+  }
+}
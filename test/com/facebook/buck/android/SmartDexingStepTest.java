@@ -105,13 +105,20 @@ public class SmartDexingStepTest extends EasyMockSupport {
     assertTrue("Matching input hash should be considered cached", rule.checkIsCached());
   }
 
+  @Test
+  public void testThreadsAreSharedBetweenTheDxStepsThatRun() {
+    assertEquals(8, SmartDexingStep.getThreadsPerDxStep(8, 1));
+    assertEquals(2, SmartDexingStep.getThreadsPerDxStep(8, 3));
+    assertEquals(1, SmartDexingStep.getThreadsPerDxStep(8, 20));
+  }
+
   @Test
   public void testCreateDxStepForDxPseudoRuleWithXzOutput() {
     ImmutableList<Path> filesToDex = ImmutableList.of(
         Paths.get("foo.dex.jar"), Paths.get("bar.dex.jar"));
     Path outputPath = Paths.get("classes.dex.jar.xz");
     EnumSet<DxStep.Option> dxOptions = EnumSet.noneOf(DxStep.Option.class);
-    Step dxStep = SmartDexingStep.createDxStepForDxPseudoRule(filesToDex, outputPath, dxOptions);
+    Step dxStep = SmartDexingStep.createDxStepForDxPseudoRule(filesToDex, outputPath, dxOptions, 1);
 
     assertTrue("Result should be a CompositeStep.", dxStep instanceof CompositeStep);
     List<Step> steps = ImmutableList.copyOf((CompositeStep) dxStep);
@@ -135,7 +142,7 @@ public class SmartDexingStepTest extends EasyMockSupport {
         Paths.get("foo.dex.jar"), Paths.get("bar.dex.jar"));
     Path outputPath = Paths.get("classes.dex");
     EnumSet<DxStep.Option> dxOptions = EnumSet.noneOf(DxStep.Option.class);
-    Step dxStep = SmartDexingStep.createDxStepForDxPseudoRule(filesToDex, outputPath, dxOptions);
+    Step dxStep = SmartDexingStep.createDxStepForDxPseudoRule(filesToDex, outputPath, dxOptions, 1);
 
     String xmx = DxStep.XMX_OVERRIDE.isEmpty() ? "" : DxStep.XMX_OVERRIDE + " ";
     assertEquals(
@@ -150,7 +157,7 @@ public class SmartDexingStepTest extends EasyMockSupport {
         Paths.get("foo.dex.jar"), Paths.get("bar.dex.jar"));
     Path outputPath = Paths.get("classes.dex.jar");
     EnumSet<DxStep.Option> dxOptions = EnumSet.noneOf(DxStep.Option.class);
-    Step dxStep = SmartDexingStep.createDxStepForDxPseudoRule(filesToDex, outputPath, dxOptions);
+    Step dxStep = SmartDexingStep.createDxStepForDxPseudoRule(filesToDex, outputPath, dxOptions, 1);
 
     String xmx = DxStep.XMX_OVERRIDE.isEmpty() ? "" : DxStep.XMX_OVERRIDE + " ";
     assertEquals(
@@ -165,7 +172,7 @@ public class SmartDexingStepTest extends EasyMockSupport {
         Paths.get("foo.dex.jar"), Paths.get("bar.dex.jar"));
     Path outputPath = Paths.get("classes.flex");
     EnumSet<DxStep.Option> dxOptions = EnumSet.noneOf(DxStep.Option.class);
-    SmartDexingStep.createDxStepForDxPseudoRule(filesToDex, outputPath, dxOptions);
+    SmartDexingStep.createDxStepForDxPseudoRule(filesToDex, outputPath, dxOptions, 1);
   }
 
   private ExecutionContext createMockedExecutionContext() {
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.event.BuckEventBusFactory.CapturingConsoleEventListener;
+import com.facebook.buck.graph.MutableDirectedGraph;
+import com.facebook.buck.rules.ActionGraph;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.FakeBuildRule;
+import com.facebook.buck.rules.FakeBuildRuleParamsBuilder;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Multimap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+public class AffectedRulesFinderTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private BuildRule base;
+  private BuildRule util;
+  private BuildRule utilTest;
+  private BuildRule other;
+  private BuildRule otherTest;
+  private ActionGraph graph;
+  private Multimap<Path, Path> includes;
+  private BuckEventBus eventBus;
+  private CapturingConsoleEventListener eventListener;
+
+  @Before
+  public void setUp() throws IOException {
+    tmp.newFolder("base");
+    tmp.newFile("base/Base.java");
+    tmp.newFolder("util");
+    tmp.newFile("util/Util.java");
+    tmp.newFile("util/README");
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+
+    // //base:base <- //util:util <- //util:test
+    // //other:other <- //other:test
+    base = createRule("//base:base", ImmutableList.of(Paths.get("base/Base.java")));
+    util = createRule(
+        "//util:util",
+        ImmutableList.of(Paths.get("util/Util.java"), Paths.get("util/Gone.java")),
+        base);
+    utilTest = createRule("//util:test", ImmutableList.<Path>of(), util);
+    other = createRule("//other:other", ImmutableList.of(Paths.get("other/Other.java")));
+    otherTest = createRule("//other:test", ImmutableList.<Path>of(), other);
+
+    MutableDirectedGraph<BuildRule> mutableGraph = new MutableDirectedGraph<>();
+    for (BuildRule rule : ImmutableList.of(base, util, utilTest, other, otherTest)) {
+      mutableGraph.addNode(rule);
+      for (BuildRule dep : rule.getDeps()) {
+        mutableGraph.addEdge(rule, dep);
+      }
+    }
+    graph = new ActionGraph(mutableGraph);
+
+    includes = ArrayListMultimap.create();
+    eventBus = BuckEventBusFactory.newInstance();
+    eventListener = new CapturingConsoleEventListener();
+    eventBus.register(eventListener);
+  }
+
+  @Test
+  public void testRulesThatTransitivelyDependOnAChangedInputAreAffected() {
+    assertEquals(
+        ImmutableSet.of(base, util, utilTest),
+        findAffectedRules(Paths.get("base/Base.java")));
+  }
+
+  @Test
+  public void testChangingABuildFileAffectsItsRules() {
+    assertEquals(
+        ImmutableSet.of(other, otherTest),
+        findAffectedRules(Paths.get("other/BUCK")));
+  }
+
+  @Test
+  public void testDeletedFileAffectsTheRulesOfItsPackage() {
+    assertEquals(
+        ImmutableSet.of(util, utilTest),
+        findAffectedRules(Paths.get("util/Deleted.java")));
+  }
+
+  @Test
+  public void testExistingFileThatNoRuleOwnsAffectsNothing() {
+    assertEquals(
+        ImmutableSet.<BuildRule>of(),
+        findAffectedRules(Paths.get("util/README")));
+  }
+
+  @Test
+  public void testChangingAnIncludedFileAffectsTheRulesOfTheBuildFilesIncludingIt()
+      throws IOException {
+    tmp.newFile("DEFS");
+    Path root = tmp.getRoot().toPath();
+    includes.put(root.resolve("DEFS"), root.resolve("other/BUCK"));
+
+    assertEquals(
+        ImmutableSet.of(other, otherTest),
+        findAffectedRules(Paths.get("DEFS")));
+  }
+
+  @Test
+  public void testChangingTheBuckConfigAffectsEveryRule() throws IOException {
+    tmp.newFile(".buckconfig");
+
+    assertEquals(
+        ImmutableSet.of(base, util, utilTest, other, otherTest),
+        findAffectedRules(Paths.get(".buckconfig"), Paths.get("util/README")));
+    List<String> messages = eventListener.getLogMessages();
+    assertEquals(1, messages.size());
+    assertTrue(messages.get(0), messages.get(0).contains(".buckconfig"));
+  }
+
+  @Test
+  public void testNoChangedFilesAffectNothing() {
+    assertEquals(ImmutableSet.<BuildRule>of(), findAffectedRules());
+  }
+
+  private ImmutableSet<BuildRule> findAffectedRules(Path... changedPaths) {
+    return AffectedRulesFinder.findAffectedRules(
+        graph,
+        filesystem,
+        includes,
+        ImmutableSet.copyOf(changedPaths),
+        eventBus);
+  }
+
+  private static BuildRule createRule(
+      String target,
+      final ImmutableList<Path> inputs,
+      BuildRule... deps) {
+    return new FakeBuildRule(
+        new FakeBuildRuleParamsBuilder(target)
+            .setDeps(ImmutableSortedSet.copyOf(deps))
+            .build()) {
+      @Override
+      public Iterable<Path> getInputs() {
+        return inputs;
+      }
+    };
+  }
+}
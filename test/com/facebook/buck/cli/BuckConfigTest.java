@@ -455,6 +455,28 @@ public class BuckConfigTest {
     assertEquals(54321L, config.getDefaultTestTimeoutMillis());
   }
 
+  @Test
+  public void testGetTestJvmPoolMaxRuns() throws IOException {
+    assertEquals(0, new FakeBuckConfig().getTestJvmPoolMaxRuns());
+
+    Reader reader = new StringReader(Joiner.on('\n').join(
+        "[test]",
+        "jvm_pool_max_runs = 50"));
+    BuckConfig config = createWithDefaultFilesystem(reader, null);
+    assertEquals(50, config.getTestJvmPoolMaxRuns());
+  }
+
+  @Test
+  public void testGetTestShardsPerRule() throws IOException {
+    assertEquals(1, new FakeBuckConfig().getTestShardsPerRule());
+
+    Reader reader = new StringReader(Joiner.on('\n').join(
+        "[test]",
+        "shards_per_rule = 4"));
+    BuckConfig config = createWithDefaultFilesystem(reader, null);
+    assertEquals(4, config.getTestShardsPerRule());
+  }
+
   @Test
   public void testGetMaxTraces() throws IOException {
     assertEquals(25, new FakeBuckConfig().getMaxTraces());
@@ -108,6 +108,7 @@ public class MainTest {
         "  project     generates project configuration files for an IDE",
         "  quickstart  generates a default project directory",
         "  run         runs a target as a command",
+        "  stats       reports where time went in recent builds",
         "  targets     prints the list of buildable targets",
         "  test        builds and runs the tests for the specified target",
         "  uninstall   uninstalls an APK",
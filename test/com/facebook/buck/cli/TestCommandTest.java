@@ -32,18 +32,23 @@ import static org.junit.Assert.assertTrue;
 import com.facebook.buck.graph.MutableDirectedGraph;
 import com.facebook.buck.java.DefaultJavaPackageFinder;
 import com.facebook.buck.java.FakeJavaLibrary;
+import com.facebook.buck.java.FakeJavaPackageFinder;
 import com.facebook.buck.java.JavaLibrary;
 import com.facebook.buck.java.JavaTestDescription;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.model.BuildTargetPattern;
 import com.facebook.buck.rules.ActionGraph;
+import com.facebook.buck.rules.BuildContext;
+import com.facebook.buck.rules.BuildEngine;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleSuccess;
 import com.facebook.buck.rules.BuildRuleType;
 import com.facebook.buck.rules.CachingBuildEngine;
+import com.facebook.buck.rules.FakeBuildContext;
 import com.facebook.buck.rules.FakeTestRule;
 import com.facebook.buck.rules.Label;
+import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.TestRule;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.test.TestCaseSummary;
@@ -51,6 +56,7 @@ import com.facebook.buck.test.TestResultSummary;
 import com.facebook.buck.test.TestResults;
 import com.facebook.buck.test.result.type.ResultType;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.util.Console;
 import com.facebook.buck.util.MorePaths;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
@@ -60,6 +66,13 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Runnables;
+import com.google.common.util.concurrent.SettableFuture;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -77,6 +90,8 @@ import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -643,6 +658,181 @@ public class TestCommandTest {
     assertTrue(options.isMatchedByLabelOptions(ImmutableSet.of(new Label("e2e"))));
   }
 
+  @Test
+  public void testPipelinedBuildAndTestIsOptIn() throws CmdLineException {
+    assertFalse(getOptions("--all").isPipelined());
+    assertTrue(getOptions("--all", "--pipeline").isPipelined());
+  }
+
+  @Test
+  public void testPipelineIsRejectedWithoutAll()
+      throws CmdLineException, IOException, InterruptedException {
+    Console console = createMock(Console.class);
+    console.printErrorText("--pipeline can only be used with --all.");
+    replay(console);
+    TestCommand command = new TestCommand(
+        CommandRunnerParamsForTesting.builder().setConsole(console).build());
+
+    assertEquals(
+        1,
+        command.runCommandWithOptionsInternal(getOptions("--pipeline", "//example:test")));
+    verify(console);
+  }
+
+  @Test
+  public void testPipelinedTestRunsBeforeAnUnrelatedRuleIsBuilt() {
+    final FakeTestRule fastTest = createTestRule("//fast:test");
+    final FakeTestRule slowTest = createTestRule("//slow:test");
+
+    // //fast:test is built, but //slow:test is waiting on something that is still building.
+    final SettableFuture<BuildRuleSuccess> slowBuild = SettableFuture.create();
+    final List<TestRule> testsRun = Lists.newArrayList();
+    List<ListenableFuture<TestResults>> results = TestCommand.runTestsAsTheyAreBuilt(
+        ImmutableList.of(slowTest, fastTest),
+        createBuildEngine(ImmutableMap.<BuildRule, ListenableFuture<BuildRuleSuccess>>of(
+            slowTest, slowBuild)),
+        createBuildContext(slowTest, fastTest),
+        MoreExecutors.sameThreadExecutor(),
+        new AsyncFunction<TestRule, TestResults>() {
+          @Override
+          public ListenableFuture<TestResults> apply(TestRule test) {
+            testsRun.add(test);
+            return Futures.immediateFuture(
+                new TestResults(ImmutableList.<TestCaseSummary>of()));
+          }
+        });
+
+    assertEquals(ImmutableList.of(fastTest), testsRun);
+    assertFalse(results.get(0).isDone());
+    assertTrue(results.get(1).isDone());
+
+    slowBuild.set(new BuildRuleSuccess(slowTest, BuildRuleSuccess.Type.BUILT_LOCALLY));
+    assertEquals(ImmutableList.of(fastTest, slowTest), testsRun);
+    assertTrue(results.get(0).isDone());
+  }
+
+  @Test
+  public void testPipelinedTestRunsOnTheGivenExecutorAndCancellingItLeavesTheBuildAlone()
+      throws InterruptedException {
+    FakeTestRule test = createTestRule("//example:test");
+    SettableFuture<BuildRuleSuccess> build = SettableFuture.create();
+    final SettableFuture<TestResults> testRun = SettableFuture.create();
+    final SettableFuture<Thread> testThread = SettableFuture.create();
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+    try {
+      List<ListenableFuture<TestResults>> results = TestCommand.runTestsAsTheyAreBuilt(
+          ImmutableList.of(test),
+          createBuildEngine(ImmutableMap.<BuildRule, ListenableFuture<BuildRuleSuccess>>of(
+              test, build)),
+          createBuildContext(test),
+          executor,
+          new AsyncFunction<TestRule, TestResults>() {
+            @Override
+            public ListenableFuture<TestResults> apply(TestRule test) {
+              testThread.set(Thread.currentThread());
+              return testRun;
+            }
+          });
+
+      // The test must not run on the thread that finishes building its rule.
+      build.set(new BuildRuleSuccess(test, BuildRuleSuccess.Type.BUILT_LOCALLY));
+      assertFalse(Thread.currentThread().equals(Futures.getUnchecked(testThread)));
+      // Wait for the callback that started the test run to finish before cancelling it.
+      Futures.getUnchecked(executor.submit(Runnables.doNothing()));
+
+      results.get(0).cancel(/* mayInterruptIfRunning */ true);
+      assertTrue(testRun.isCancelled());
+      assertFalse("Other rules may be waiting on the build of the test.", build.isCancelled());
+    } finally {
+      executor.shutdownNow();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  private static FakeTestRule createTestRule(String target) {
+    return new FakeTestRule(
+        JavaTestDescription.TYPE,
+        ImmutableSet.<Label>of(),
+        BuildTargetFactory.newInstance(target),
+        ImmutableSortedSet.<BuildRule>of(),
+        ImmutableSet.<BuildTargetPattern>of());
+  }
+
+  private static BuildContext createBuildContext(BuildRule... rules) {
+    MutableDirectedGraph<BuildRule> graph = new MutableDirectedGraph<>();
+    for (BuildRule rule : rules) {
+      graph.addNode(rule);
+    }
+    return FakeBuildContext.newBuilder(new FakeProjectFilesystem())
+        .setActionGraph(new ActionGraph(graph))
+        .setJavaPackageFinder(new FakeJavaPackageFinder())
+        .build();
+  }
+
+  /**
+   * @return a build engine whose builds of {@code builds}' rules are the given futures, and which
+   *     has already built every other rule.
+   */
+  private static BuildEngine createBuildEngine(
+      final ImmutableMap<BuildRule, ListenableFuture<BuildRuleSuccess>> builds) {
+    return new BuildEngine() {
+      @Override
+      public ListenableFuture<BuildRuleSuccess> build(BuildContext context, BuildRule rule) {
+        if (builds.containsKey(rule)) {
+          return builds.get(rule);
+        }
+        return Futures.immediateFuture(
+            new BuildRuleSuccess(rule, BuildRuleSuccess.Type.BUILT_LOCALLY));
+      }
+
+      @Override
+      public BuildRuleSuccess getBuildRuleResult(BuildTarget buildTarget) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public boolean isRuleBuilt(BuildTarget buildTarget) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public RuleKey getRuleKey(BuildTarget buildTarget) {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Test
+  public void testChangedFilesAreRelativeToTheProjectRoot() throws CmdLineException, IOException {
+    Path projectRoot = Paths.get("").toAbsolutePath();
+    assertEquals(
+        Optional.<ImmutableSortedSet<Path>>absent(),
+        getOptions("--all").getChangedFiles(projectRoot));
+    assertEquals(
+        Optional.of(ImmutableSortedSet.of(Paths.get("src/Foo.java"), Paths.get("src/BUCK"))),
+        getOptions(
+            "--changed-files",
+            projectRoot.resolve("src/Foo.java").toString(),
+            "src/./BUCK",
+            "/elsewhere/Bar.java")
+            .getChangedFiles(projectRoot));
+  }
+
+  @Test
+  public void testChangedFilesOutsideTheProjectAffectNoTests()
+      throws CmdLineException, IOException {
+    Path projectRoot = Paths.get("").toAbsolutePath();
+    assertEquals(
+        Optional.of(ImmutableSortedSet.<Path>of()),
+        getOptions("--changed-files", "/elsewhere/Bar.java").getChangedFiles(projectRoot));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testChangedFilesMustBeGiven() throws CmdLineException {
+    getOptions("--all", "--changed-files", "--pipeline");
+  }
+
   @Test
   public void testIncludingATestOnTheCommandLineMeansYouWouldLikeItRun() throws CmdLineException {
     String excludedLabel = "exclude_me";
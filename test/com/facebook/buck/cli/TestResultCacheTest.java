@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.BuildEngine;
+import com.facebook.buck.rules.DirArtifactCache;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.TestRule;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.test.TestCaseSummary;
+import com.facebook.buck.test.TestResultSummary;
+import com.facebook.buck.test.TestResults;
+import com.facebook.buck.test.result.type.ResultType;
+import com.facebook.buck.test.selectors.TestSelectorList;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+
+public class TestResultCacheTest {
+
+  private static final BuildTarget TARGET = BuildTargetFactory.newInstance("//example:test");
+  private static final RuleKey RULE_KEY = new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private DirArtifactCache artifactCache;
+  private BuildEngine buildEngine;
+
+  @Before
+  public void setUp() throws IOException {
+    artifactCache = new DirArtifactCache(
+        tmp.newFolder("cache"),
+        /* doStore */ true,
+        Optional.<Long>absent());
+    buildEngine = createNiceMock(BuildEngine.class);
+    expect(buildEngine.getRuleKey(TARGET)).andStubReturn(RULE_KEY);
+    replay(buildEngine);
+  }
+
+  @Test
+  public void testStoredResultsAreFetchedIntoAnotherOutputDirectory() throws Exception {
+    ProjectFilesystem storingFilesystem = new ProjectFilesystem(tmp.newFolder("storing"));
+    Path storingOutput = Paths.get("buck-out/gen/example/__test_output__/one-time-a");
+    storingFilesystem.mkdirs(storingOutput);
+    storingFilesystem.writeContentsToPath("<testcase/>", storingOutput.resolve("FooTest.xml"));
+    storingFilesystem.writeContentsToPath(RULE_KEY.toString(), storingOutput.resolve(".rulekey"));
+
+    TestResultCache storingCache =
+        new TestResultCache(storingFilesystem, buildEngine, artifactCache);
+    RuleKey cacheKey = storingCache.getCacheKey(
+        createTestRule(storingOutput),
+        TestExecutionContext.newInstance(),
+        TestSelectorList.empty());
+    storingCache.store(createTestRule(storingOutput), cacheKey);
+
+    ProjectFilesystem fetchingFilesystem = new ProjectFilesystem(tmp.newFolder("fetching"));
+    Path fetchingOutput = Paths.get("buck-out/gen/example/__test_output__/one-time-b");
+    fetchingFilesystem.mkdirs(fetchingOutput);
+    fetchingFilesystem.writeContentsToPath("stale", fetchingOutput.resolve("StaleTest.xml"));
+
+    TestResultCache fetchingCache =
+        new TestResultCache(fetchingFilesystem, buildEngine, artifactCache);
+    assertTrue(fetchingCache.fetch(createTestRule(fetchingOutput), cacheKey));
+
+    assertEquals(
+        "<testcase/>",
+        read(fetchingFilesystem.resolve(fetchingOutput.resolve("FooTest.xml"))));
+    assertEquals(
+        RULE_KEY.toString(),
+        read(fetchingFilesystem.resolve(fetchingOutput.resolve(".rulekey"))));
+    assertFalse(fetchingFilesystem.exists(fetchingOutput.resolve("StaleTest.xml")));
+  }
+
+  @Test
+  public void testFetchMissesWhenNothingWasStored() throws Exception {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot());
+    TestResultCache cache = new TestResultCache(filesystem, buildEngine, artifactCache);
+    Path output = Paths.get("out");
+
+    assertFalse(cache.fetch(
+        createTestRule(output),
+        cache.getCacheKey(
+            createTestRule(output),
+            TestExecutionContext.newInstance(),
+            TestSelectorList.empty())));
+  }
+
+  @Test
+  public void testCacheKeyDependsOnTestSelectors() {
+    TestResultCache cache = new TestResultCache(
+        new ProjectFilesystem(tmp.getRoot()),
+        buildEngine,
+        artifactCache);
+    TestRule testRule = createTestRule(Paths.get("out"));
+    ExecutionContext context = TestExecutionContext.newInstance();
+
+    assertEquals(
+        cache.getCacheKey(testRule, context, TestSelectorList.empty()),
+        cache.getCacheKey(testRule, context, TestSelectorList.empty()));
+    assertNotEquals(
+        cache.getCacheKey(testRule, context, TestSelectorList.empty()),
+        cache.getCacheKey(
+            testRule,
+            context,
+            TestSelectorList.builder().addRawSelectors("FooTest").build()));
+    assertNotEquals(
+        RULE_KEY,
+        cache.getCacheKey(testRule, context, TestSelectorList.empty()));
+  }
+
+  @Test
+  public void testOnlyPassingResultsAreStored() throws Exception {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.newFolder("project"));
+    Path output = Paths.get("out");
+    filesystem.mkdirs(output);
+    filesystem.writeContentsToPath("<testcase/>", output.resolve("FooTest.xml"));
+    TestResultCache cache = new TestResultCache(filesystem, buildEngine, artifactCache);
+    TestRule testRule = createTestRule(output);
+
+    RuleKey failingKey = new RuleKey("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+    cache.storingPassingResults(testRule, failingKey, returning(ResultType.FAILURE)).call();
+    assertFalse(cache.fetch(testRule, failingKey));
+
+    RuleKey passingKey = new RuleKey("cccccccccccccccccccccccccccccccccccccccc");
+    cache.storingPassingResults(testRule, passingKey, returning(ResultType.SUCCESS)).call();
+    assertTrue(cache.fetch(testRule, passingKey));
+  }
+
+  private static TestRule createTestRule(Path outputDirectory) {
+    TestRule testRule = createNiceMock(TestRule.class);
+    expect(testRule.getBuildTarget()).andStubReturn(TARGET);
+    expect(testRule.getPathToTestOutputDirectory()).andStubReturn(outputDirectory);
+    replay(testRule);
+    return testRule;
+  }
+
+  private static Callable<TestResults> returning(final ResultType type) {
+    return new Callable<TestResults>() {
+      @Override
+      public TestResults call() {
+        TestResultSummary result = new TestResultSummary(
+            "FooTest",
+            "testFoo",
+            type,
+            /* time */ 10,
+            /* message */ null,
+            /* stacktrace */ null,
+            /* stdOut */ null,
+            /* stdErr */ null);
+        return new TestResults(
+            TARGET,
+            ImmutableList.of(new TestCaseSummary("FooTest", ImmutableList.of(result))),
+            ImmutableSet.<String>of());
+      }
+    };
+  }
+
+  private static String read(Path path) throws IOException {
+    return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+  }
+}
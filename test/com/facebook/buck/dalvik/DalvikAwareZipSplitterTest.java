@@ -0,0 +1,258 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.dalvik;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class DalvikAwareZipSplitterTest {
+
+  private static final ImmutableList<String> CLASSES = ImmutableList.of(
+      "com/example/A",
+      "com/example/B",
+      "com/example/C",
+      "com/example/Primary",
+      "com/example/D");
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private File outPrimary;
+  private File reportDir;
+  private long classSize;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
+    outPrimary = new File(tmpDir.getRoot(), "primary.zip");
+    reportDir = tmpDir.newFolder("report");
+
+    // Store the classes rather than deflating them, so that it is possible to tell whether the
+    // splitter copied them or compressed them again.
+    try (ZipOutputStream out =
+             new ZipOutputStream(new FileOutputStream(new File(tmpDir.getRoot(), "in.jar")))) {
+      out.setMethod(ZipOutputStream.STORED);
+      for (String className : CLASSES) {
+        byte[] bytes = createClass(className);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ZipEntry entry = new ZipEntry(className + ".class");
+        entry.setSize(bytes.length);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
+        out.write(bytes);
+      }
+    }
+    classSize = DalvikStatsTool.getEstimate(new ByteArrayInputStream(createClass("com/example/A")))
+        .estimatedLinearAllocSize;
+  }
+
+  @Test
+  public void testEverythingFitsInThePrimaryZip() throws IOException {
+    List<File> secondaryZips = split(
+        100 * classSize,
+        Collections.<String>emptySet(),
+        ZipSplitter.DexSplitStrategy.MAXIMIZE_PRIMARY_DEX_SIZE);
+
+    assertEquals(ImmutableList.<File>of(), secondaryZips);
+    assertEquals(
+        ImmutableList.of(
+            "com/example/Primary.class",
+            "com/example/A.class",
+            "com/example/B.class",
+            "com/example/C.class",
+            "com/example/D.class"),
+        getEntryNames(outPrimary));
+  }
+
+  @Test
+  public void testEntriesAreSplitInOrderAndCopiedAsTheyWereStored() throws IOException {
+    List<File> secondaryZips = split(
+        2 * classSize,
+        ImmutableSet.of("com/example/C.class"),
+        ZipSplitter.DexSplitStrategy.MINIMIZE_PRIMARY_DEX_SIZE);
+
+    assertEquals(
+        ImmutableList.of("com/example/Primary.class", "com/example/C.class"),
+        getEntryNames(outPrimary));
+    assertEquals(
+        ImmutableList.of(
+            new File(tmpDir.getRoot(), "secondary-1.zip"),
+            new File(tmpDir.getRoot(), "secondary-2.zip")),
+        secondaryZips);
+    assertEquals(
+        ImmutableList.of(
+            "secondary/dex01/Canary.class",
+            "com/example/A.class",
+            "com/example/B.class"),
+        getEntryNames(secondaryZips.get(0)));
+    assertEquals(
+        ImmutableList.of("secondary/dex02/Canary.class", "com/example/D.class"),
+        getEntryNames(secondaryZips.get(1)));
+
+    try (ZipFile zip = new ZipFile(secondaryZips.get(1))) {
+      ZipEntry entry = zip.getEntry("com/example/D.class");
+      assertEquals(ZipEntry.STORED, entry.getMethod());
+      try (InputStream in = zip.getInputStream(entry)) {
+        assertArrayEquals(createClass("com/example/D"), ByteStreams.toByteArray(in));
+      }
+    }
+
+    String report = Files.toString(new File(reportDir, "primary.zip.txt"), Charsets.UTF_8);
+    assertTrue(report, report.endsWith(" com/example/C.class\n"));
+  }
+
+  @Test
+  public void testZip64InputsAreSplit() throws IOException {
+    convertToZip64(new File(tmpDir.getRoot(), "in.jar"));
+
+    List<File> secondaryZips = split(
+        2 * classSize,
+        Collections.<String>emptySet(),
+        ZipSplitter.DexSplitStrategy.MINIMIZE_PRIMARY_DEX_SIZE);
+
+    assertEquals(ImmutableList.of("com/example/Primary.class"), getEntryNames(outPrimary));
+    assertEquals(2, secondaryZips.size());
+    assertEquals(
+        ImmutableList.of(
+            "secondary/dex02/Canary.class",
+            "com/example/C.class",
+            "com/example/D.class"),
+        getEntryNames(secondaryZips.get(1)));
+  }
+
+  private List<File> split(
+      long linearAllocLimit,
+      Set<String> wantedInPrimaryZip,
+      ZipSplitter.DexSplitStrategy dexSplitStrategy) throws IOException {
+    Predicate<String> requiredInPrimaryZip =
+        Predicates.equalTo("com/example/Primary.class");
+    return DalvikAwareZipSplitter.splitZip(
+        filesystem,
+        ImmutableSet.<Path>of(Paths.get("in.jar")),
+        outPrimary,
+        tmpDir.getRoot(),
+        "secondary-%d.zip",
+        linearAllocLimit,
+        requiredInPrimaryZip,
+        wantedInPrimaryZip,
+        dexSplitStrategy,
+        ZipSplitter.CanaryStrategy.INCLUDE_CANARIES,
+        reportDir)
+        .execute();
+  }
+
+  private static ImmutableList<String> getEntryNames(File zipFile) throws IOException {
+    ImmutableList.Builder<String> names = ImmutableList.builder();
+    try (ZipFile zip = new ZipFile(zipFile)) {
+      for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+        names.add(e.nextElement().getName());
+      }
+    }
+    return names.build();
+  }
+
+  /**
+   * Replaces the end of central directory record of {@code zip}, which must have no comment, with
+   * the zip64 records that tools write for zips with too many entries, or too large, to describe
+   * without them.
+   */
+  private static void convertToZip64(File zip) throws IOException {
+    byte[] bytes = Files.toByteArray(zip);
+    ByteBuffer in = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    int end = bytes.length - 22;
+    assertEquals(0x06054b50, in.getInt(end));
+    long entryCount = in.getShort(end + 10) & 0xffff;
+    long centralDirectorySize = in.getInt(end + 12) & 0xffffffffL;
+    long centralDirectoryOffset = in.getInt(end + 16) & 0xffffffffL;
+
+    ByteBuffer out = ByteBuffer.allocate(end + 56 + 20 + 22).order(ByteOrder.LITTLE_ENDIAN);
+    out.put(bytes, 0, end);
+    // Zip64 end of central directory record.
+    out.putInt(0x06064b50).putLong(44).putShort((short) 45).putShort((short) 45)
+        .putInt(0).putInt(0)
+        .putLong(entryCount).putLong(entryCount)
+        .putLong(centralDirectorySize).putLong(centralDirectoryOffset);
+    // Zip64 end of central directory locator.
+    out.putInt(0x07064b50).putInt(0).putLong(end).putInt(1);
+    // End of central directory record, with every value left to the zip64 record.
+    out.putInt(0x06054b50).putShort((short) 0).putShort((short) 0)
+        .putShort((short) 0xffff).putShort((short) 0xffff)
+        .putInt(0xffffffff).putInt(0xffffffff).putShort((short) 0);
+    Files.write(out.array(), zip);
+  }
+
+  /**
+   * @return an empty class, so that every class has the same linear alloc estimate.
+   */
+  private static byte[] createClass(String internalName) {
+    ClassWriter writer = new ClassWriter(0);
+    writer.visit(
+        Opcodes.V1_6,
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER,
+        internalName,
+        null,
+        "java/lang/Object",
+        null);
+    MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+    constructor.visitCode();
+    constructor.visitVarInsn(Opcodes.ALOAD, 0);
+    constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+    constructor.visitInsn(Opcodes.RETURN);
+    constructor.visitMaxs(1, 1);
+    constructor.visitEnd();
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+}
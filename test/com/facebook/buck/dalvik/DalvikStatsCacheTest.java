@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.dalvik;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.java.classes.AbstractFileLike;
+import com.facebook.buck.java.classes.FileLike;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executors;
+
+public class DalvikStatsCacheTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testStatsAreSharedByIdenticalClassesInDifferentJars() throws IOException {
+    DalvikStatsCache cache = new DalvikStatsCache(1000);
+    byte[] foo = createClass("com/example/Foo", 1);
+
+    DalvikStatsTool.Stats inFirstJar =
+        cache.getStats(new InMemoryFileLike(newJar("a.jar", "a"), "com/example/Foo.class", foo));
+    DalvikStatsTool.Stats inSecondJar =
+        cache.getStats(new InMemoryFileLike(newJar("b.jar", "b"), "com/example/Foo.class", foo));
+
+    assertSame(inFirstJar, inSecondJar);
+    assertEquals(2 + 1, inFirstJar.methodReferences.size());
+  }
+
+  @Test
+  public void testChangedClassIsEstimatedAgain() throws IOException {
+    DalvikStatsCache cache = new DalvikStatsCache(1000);
+    File classesDir = tmp.newFolder("classes");
+
+    String path = "com/example/Foo.class";
+
+    DalvikStatsTool.Stats before = cache.getStats(
+        new InMemoryFileLike(classesDir, path, createClass("com/example/Foo", 1)));
+    DalvikStatsTool.Stats after = cache.getStats(
+        new InMemoryFileLike(classesDir, path, createClass("com/example/Foo", 3)));
+
+    assertNotSame(before, after);
+    assertEquals(2 + 3, after.methodReferences.size());
+  }
+
+  @Test
+  public void testComputeStatsFillsTheCache() throws IOException {
+    DalvikStatsCache cache = new DalvikStatsCache(1000);
+    File jar = newJar("a.jar", "a");
+    ImmutableList<FileLike> entries = ImmutableList.<FileLike>of(
+        new InMemoryFileLike(jar, "com/example/Foo.class", createClass("com/example/Foo", 1)),
+        new InMemoryFileLike(jar, "com/example/Bar.class", createClass("com/example/Bar", 2)),
+        new InMemoryFileLike(jar, "META-INF/MANIFEST.MF", new byte[0]));
+
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2));
+    try {
+      cache.computeStats(entries, executor);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // The hashes of the classes in the jar are remembered, so the classes are not read again.
+    FileLike unreadable = new InMemoryFileLike(jar, "com/example/Bar.class", null);
+    assertEquals(2 + 2, cache.getStats(unreadable).methodReferences.size());
+    assertSame(DalvikStatsTool.Stats.ZERO, cache.getStats(entries.get(2)));
+  }
+
+  private File newJar(String name, String contents) throws IOException {
+    // Only the hash of the jar matters to the cache, so it need not be a real jar.
+    File jar = tmp.newFile(name);
+    Files.write(contents, jar, Charsets.UTF_8);
+    return jar;
+  }
+
+  /**
+   * @return a class with a constructor and {@code methods} methods that each call itself, so that
+   *     it refers to {@code 2 + methods} methods, counting its constructor and that of Object.
+   */
+  private static byte[] createClass(String internalName, int methods) {
+    ClassWriter writer = new ClassWriter(0);
+    writer.visit(
+        Opcodes.V1_6,
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER,
+        internalName,
+        null,
+        "java/lang/Object",
+        null);
+    MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+    constructor.visitCode();
+    constructor.visitVarInsn(Opcodes.ALOAD, 0);
+    constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+    constructor.visitInsn(Opcodes.RETURN);
+    constructor.visitMaxs(1, 1);
+    constructor.visitEnd();
+    for (int i = 0; i < methods; i++) {
+      MethodVisitor method =
+          writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "m" + i, "()V", null, null);
+      method.visitCode();
+      method.visitMethodInsn(Opcodes.INVOKESTATIC, internalName, "m" + i, "()V");
+      method.visitInsn(Opcodes.RETURN);
+      method.visitMaxs(0, 0);
+      method.visitEnd();
+    }
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+
+  private static class InMemoryFileLike extends AbstractFileLike {
+    private final File container;
+    private final String relativePath;
+    private final byte[] contents;
+
+    public InMemoryFileLike(File container, String relativePath, byte[] contents) {
+      this.container = container;
+      this.relativePath = relativePath;
+      this.contents = contents;
+    }
+
+    @Override
+    public File getContainer() {
+      return container;
+    }
+
+    @Override
+    public String getRelativePath() {
+      return relativePath;
+    }
+
+    @Override
+    public long getSize() {
+      return contents.length;
+    }
+
+    @Override
+    public InputStream getInput() throws IOException {
+      if (contents == null) {
+        throw new IOException(relativePath + " should not be read.");
+      }
+      return new ByteArrayInputStream(contents);
+    }
+  }
+}
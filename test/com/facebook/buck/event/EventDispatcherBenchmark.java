@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.google.common.eventbus.Subscribe;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many events per second {@link RingBufferEventDispatcher} delivers, compared to the
+ * {@link ExecutorEventDispatcher} that wraps guava's {@code AsyncEventBus}, which is what
+ * {@link BuckEventBus} used to use.
+ * <p>
+ * This is not run as part of the tests. Run it with:
+ * <pre>
+ *   buck run //test/com/facebook/buck/event:event-dispatcher-benchmark -- [producers] [events]
+ * </pre>
+ */
+public class EventDispatcherBenchmark {
+
+  private static final int DEFAULT_PRODUCERS = 1;
+  private static final int DEFAULT_EVENTS = 2 * 1000 * 1000;
+  private static final int LISTENERS = 10;
+  private static final int ITERATIONS = 3;
+  private static final long SHUTDOWN_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  private EventDispatcherBenchmark() {}
+
+  public static void main(String... args) throws InterruptedException {
+    int producers = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PRODUCERS;
+    int events = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_EVENTS;
+
+    System.out.printf(
+        "Posting %d events from %d threads to %d listeners with 3 subscribers each.%n",
+        events,
+        producers,
+        LISTENERS);
+    for (int i = 0; i < ITERATIONS; i++) {
+      double executorRate = measure(
+          new ExecutorEventDispatcher(MoreExecutors.newSingleThreadExecutor("executor-bench")),
+          producers,
+          events / producers);
+      double ringBufferRate = measure(
+          new RingBufferEventDispatcher(new MoreExecutors.NamedThreadFactory("ring-buffer-bench")),
+          producers,
+          events / producers);
+      System.out.printf(
+          "Iteration %d: AsyncEventBus %.0f events/s, ring buffer %.0f events/s%n",
+          i + 1,
+          executorRate,
+          ringBufferRate);
+    }
+  }
+
+  /**
+   * @return the number of events per second posted and delivered, including the time taken to
+   *     drain the dispatcher once the producers are done.
+   */
+  private static double measure(
+      final EventDispatcher dispatcher,
+      int producers,
+      final int eventsPerProducer) throws InterruptedException {
+    for (int i = 0; i < LISTENERS; i++) {
+      dispatcher.register(new Listener());
+    }
+
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[producers];
+    for (int p = 0; p < producers; p++) {
+      threads[p] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+          for (int i = 0; i < eventsPerProducer; i++) {
+            dispatcher.post(new SpecificEvent());
+          }
+        }
+      });
+      threads[p].start();
+    }
+
+    long startNanos = System.nanoTime();
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (!dispatcher.shutdown(SHUTDOWN_TIMEOUT_MILLIS)) {
+      throw new IllegalStateException("Events were not delivered in time.");
+    }
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    return producers * (double) eventsPerProducer / seconds;
+  }
+
+  private static class GeneralEvent {}
+
+  private static class SpecificEvent extends GeneralEvent {}
+
+  /**
+   * Subscribes to the posted event, to its supertype and to everything, so that dispatch has to
+   * consider the type hierarchy, as it does for {@link BuckEvent}s.
+   */
+  private static class Listener {
+    private long delivered;
+
+    @Subscribe
+    public void onGeneral(GeneralEvent event) {
+      delivered++;
+    }
+
+    @Subscribe
+    public void onSpecific(SpecificEvent event) {
+      delivered++;
+    }
+
+    @Subscribe
+    public void onAnything(Object event) {
+      delivered++;
+    }
+  }
+}
@@ -35,6 +35,9 @@ import com.facebook.buck.rules.FakeBuildRule;
 import com.facebook.buck.rules.IndividualTestEvent;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.TestRunEvent;
+import com.facebook.buck.step.FakeStep;
+import com.facebook.buck.step.StepEvent;
+import com.facebook.buck.step.StepResourceUsage;
 import com.facebook.buck.test.TestCaseSummary;
 import com.facebook.buck.test.TestResultSummary;
 import com.facebook.buck.test.TestResults;
@@ -141,6 +144,28 @@ public class EventSerializationTest {
         "\"ruleKeySafe\":\"aaaa\",\"type\":\"BuildRuleFinished\"}", message);
   }
 
+  @Test
+  public void testStepEventFinished() throws IOException {
+    StepEvent.Finished event = StepEvent.finished(
+        new FakeStep("fake", "fake step", 0),
+        "fake step",
+        0,
+        new StepResourceUsage(
+            /* wallTimeNanos */ 1000,
+            /* cpuTimeNanos */ Optional.of(600L),
+            /* allocatedBytes */ Optional.<Long>absent(),
+            /* childProcessCount */ 1,
+            /* childCpuTimeNanos */ Optional.of(300L),
+            /* childPeakRssBytes */ Optional.of(4096L)));
+    event.configure(timestamp, nanoTime, threadId, buildId);
+    String message = new ObjectMapper().writeValueAsString(event);
+    assertJsonEquals("{\"timestamp\":%d,\"nanoTime\":%d,\"threadId\":%d,\"buildId\":\"%s\"," +
+        "\"resourceUsage\":{\"wallTimeNanos\":1000,\"cpuTimeNanos\":600," +
+        "\"childProcessCount\":1,\"childCpuTimeNanos\":300,\"childPeakRssBytes\":4096}," +
+        "\"exitCode\":0,\"description\":\"fake step\",\"category\":\"fake\"," +
+        "\"type\":\"StepFinished\"}", message);
+  }
+
   @Test
   public void testTestRunEventStarted() throws IOException {
     TestRunEvent.Started event = TestRunEvent.started(
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class RingBufferEventDispatcherTest {
+
+  private static final long TIMEOUT_MILLIS = 10000;
+
+  @Test
+  public void eventsFromEachProducerAreDeliveredInOrder() throws Exception {
+    final RingBufferEventDispatcher dispatcher = newDispatcher(/* capacity */ 8);
+    final int producers = 4;
+    final int eventsPerProducer = 5000;
+    RecordingListener listener = new RecordingListener();
+    dispatcher.register(listener);
+
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = Lists.newArrayList();
+    for (int p = 0; p < producers; p++) {
+      final int producer = p;
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          for (int i = 0; i < eventsPerProducer; i++) {
+            dispatcher.post(new NumberedEvent(producer, i));
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(dispatcher.shutdown(TIMEOUT_MILLIS));
+
+    assertEquals(producers * eventsPerProducer, listener.events.size());
+    int[] lastSeen = new int[producers];
+    for (int p = 0; p < producers; p++) {
+      lastSeen[p] = -1;
+    }
+    for (NumberedEvent event : listener.events) {
+      assertEquals(lastSeen[event.producer] + 1, event.number);
+      lastSeen[event.producer] = event.number;
+    }
+  }
+
+  @Test
+  public void subscribersForSupertypesReceiveEvents() throws Exception {
+    RingBufferEventDispatcher dispatcher = newDispatcher();
+    RecordingListener numbered = new RecordingListener();
+    CatchAllListener catchAll = new CatchAllListener();
+    dispatcher.register(numbered);
+    dispatcher.register(catchAll);
+
+    dispatcher.post("not a numbered event");
+    dispatcher.post(new NumberedEvent(0, 0));
+    assertTrue(dispatcher.shutdown(TIMEOUT_MILLIS));
+
+    assertEquals(1, numbered.events.size());
+    assertEquals(2, catchAll.events.size());
+  }
+
+  @Test
+  public void eventsPostedBySubscribersAreDeliveredAfterTheCurrentEvent() throws Exception {
+    final RingBufferEventDispatcher dispatcher = newDispatcher(/* capacity */ 2);
+    final List<Object> delivered = Lists.newArrayList();
+    dispatcher.register(new Object() {
+      @Subscribe
+      public void onNumbered(NumberedEvent event) {
+        delivered.add(event.number);
+        // Posting more events than the buffer can hold must not deadlock the consumer.
+        for (int i = 0; i < 4; i++) {
+          dispatcher.post("reentrant-" + event.number + "-" + i);
+        }
+      }
+
+      @Subscribe
+      public void onString(String event) {
+        delivered.add(event);
+      }
+    });
+
+    dispatcher.post(new NumberedEvent(0, 0));
+    dispatcher.post(new NumberedEvent(0, 1));
+    assertTrue(dispatcher.shutdown(TIMEOUT_MILLIS));
+
+    assertEquals(
+        ImmutableList.<Object>of(
+            0, "reentrant-0-0", "reentrant-0-1", "reentrant-0-2", "reentrant-0-3",
+            1, "reentrant-1-0", "reentrant-1-1", "reentrant-1-2", "reentrant-1-3"),
+        delivered);
+  }
+
+  @Test
+  public void unregisteredListenersDoNotReceiveLaterEvents() throws Exception {
+    RingBufferEventDispatcher dispatcher = newDispatcher();
+    RecordingListener listener = new RecordingListener();
+    dispatcher.register(listener);
+    dispatcher.post(new NumberedEvent(0, 0));
+    dispatcher.unregister(listener);
+    dispatcher.post(new NumberedEvent(0, 1));
+    assertTrue(dispatcher.shutdown(TIMEOUT_MILLIS));
+
+    assertEquals(1, listener.events.size());
+    assertEquals(0, listener.events.get(0).number);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unregisteringUnknownListenerFails() throws Exception {
+    RingBufferEventDispatcher dispatcher = newDispatcher();
+    try {
+      dispatcher.unregister(new RecordingListener());
+    } finally {
+      dispatcher.shutdown(TIMEOUT_MILLIS);
+    }
+  }
+
+  @Test
+  public void exceptionsFromSubscribersDoNotStopDelivery() throws Exception {
+    RingBufferEventDispatcher dispatcher = newDispatcher();
+    dispatcher.register(new Object() {
+      @Subscribe
+      public void fail(NumberedEvent event) {
+        throw new IllegalStateException("Expected failure.");
+      }
+    });
+    RecordingListener listener = new RecordingListener();
+    dispatcher.register(listener);
+
+    dispatcher.post(new NumberedEvent(0, 0));
+    dispatcher.post(new NumberedEvent(0, 1));
+    assertTrue(dispatcher.shutdown(TIMEOUT_MILLIS));
+
+    assertEquals(2, listener.events.size());
+  }
+
+  @Test
+  public void postDoesNotWaitForSubscribersWhileTheBufferHasRoom() throws Exception {
+    int capacity = 8;
+    RingBufferEventDispatcher dispatcher = newDispatcher(capacity);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch delivering = new CountDownLatch(1);
+    RecordingListener listener = new RecordingListener() {
+      @Override
+      @Subscribe
+      public void record(NumberedEvent event) {
+        delivering.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        super.record(event);
+      }
+    };
+    dispatcher.register(listener);
+
+    // The consumer is stuck in the first event, yet the rest of the buffer can still be filled
+    // from this thread, which would deadlock if posting waited for delivery.
+    dispatcher.post(new NumberedEvent(0, 0));
+    assertTrue(delivering.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    for (int i = 1; i < capacity; i++) {
+      dispatcher.post(new NumberedEvent(0, i));
+    }
+    release.countDown();
+
+    assertTrue(dispatcher.shutdown(TIMEOUT_MILLIS));
+    assertEquals(capacity, listener.events.size());
+  }
+
+  @Test
+  public void shutdownGivesUpOnSlowSubscribers() throws Exception {
+    RingBufferEventDispatcher dispatcher = newDispatcher();
+    final CountDownLatch neverReleased = new CountDownLatch(1);
+    dispatcher.register(new Object() {
+      @Subscribe
+      public void block(NumberedEvent event) throws InterruptedException {
+        neverReleased.await();
+      }
+    });
+    dispatcher.post(new NumberedEvent(0, 0));
+
+    assertFalse(dispatcher.shutdown(/* timeoutMillis */ 100));
+    // Events posted after shutdown are dropped rather than blocking the caller.
+    dispatcher.post(new NumberedEvent(0, 1));
+  }
+
+  private static RingBufferEventDispatcher newDispatcher() {
+    return newDispatcher(RingBufferEventDispatcher.DEFAULT_CAPACITY);
+  }
+
+  private static RingBufferEventDispatcher newDispatcher(int capacity) {
+    return new RingBufferEventDispatcher(
+        new MoreExecutors.NamedThreadFactory(RingBufferEventDispatcherTest.class.getSimpleName()),
+        capacity);
+  }
+
+  private static class NumberedEvent {
+    private final int producer;
+    private final int number;
+
+    private NumberedEvent(int producer, int number) {
+      this.producer = producer;
+      this.number = number;
+    }
+  }
+
+  private static class RecordingListener {
+    private final List<NumberedEvent> events = Lists.newArrayList();
+
+    @Subscribe
+    public void record(NumberedEvent event) {
+      events.add(event);
+    }
+  }
+
+  private static class CatchAllListener {
+    private final List<Object> events = Lists.newArrayList();
+
+    @Subscribe
+    public void record(Object event) {
+      events.add(event);
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.cli.CommandEvent;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.model.BuildTargetPattern;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.BuildRuleStatus;
+import com.facebook.buck.rules.BuildRuleSuccess;
+import com.facebook.buck.rules.BuildRuleType;
+import com.facebook.buck.rules.CacheResult;
+import com.facebook.buck.rules.FakeBuildRule;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.step.FakeStep;
+import com.facebook.buck.step.StepEvent;
+import com.facebook.buck.timing.IncrementingFakeClock;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+public class BuildStatsListenerTest {
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @Test
+  public void recordsRulesAndStepsOfABuild() {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot());
+    BuildStatsStore store = new BuildStatsStore(projectFilesystem, /* buildsToKeep */ 10);
+    BuildStatsListener listener = new BuildStatsListener(store);
+
+    FakeBuildRule dep = createRule("//fake:dep", "aaaa", ImmutableSortedSet.<BuildRule>of());
+    FakeBuildRule lib = createRule("//fake:lib", "bbbb", ImmutableSortedSet.<BuildRule>of(dep));
+    FakeStep step = new FakeStep("javac", "compile", 0);
+
+    // Every event reads the clock twice, once for its timestamp and once for its nano time, so each
+    // event is two milliseconds after the previous one.
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance(
+        new IncrementingFakeClock(TimeUnit.MILLISECONDS.toNanos(1)),
+        new BuildId("BuildStatsListenerTest"));
+    eventBus.register(listener);
+
+    eventBus.post(CommandEvent.started("build", ImmutableList.<String>of(), /* isDaemon */ false));
+    eventBus.post(BuildRuleEvent.started(dep));
+    eventBus.post(BuildRuleEvent.finished(
+        dep,
+        BuildRuleStatus.SUCCESS,
+        CacheResult.DIR_HIT,
+        Optional.of(BuildRuleSuccess.Type.FETCHED_FROM_CACHE)));
+    eventBus.post(BuildRuleEvent.started(lib));
+    eventBus.post(StepEvent.started(step, "compile"));
+    eventBus.post(StepEvent.finished(step, "compile", 0));
+    eventBus.post(BuildRuleEvent.finished(
+        lib,
+        BuildRuleStatus.SUCCESS,
+        CacheResult.MISS,
+        Optional.of(BuildRuleSuccess.Type.BUILT_LOCALLY)));
+    eventBus.post(CommandEvent.finished(
+        "build",
+        ImmutableList.<String>of(),
+        /* isDaemon */ false,
+        /* exitCode */ 0));
+    listener.outputTrace(new BuildId("BUILD_ID"));
+
+    ImmutableList<BuildStats> builds = store.readLatest(10);
+    assertEquals(1, builds.size());
+    BuildStats build = builds.get(0);
+    assertEquals("BUILD_ID", build.getBuildId());
+    assertEquals("build", build.getCommand());
+    assertEquals(14, build.getDurationMillis());
+
+    ImmutableMap<String, BuildStats.RuleStats> rules = indexRules(build);
+    assertEquals(ImmutableSet.of("//fake:dep", "//fake:lib"), rules.keySet());
+
+    BuildStats.RuleStats depStats = rules.get("//fake:dep");
+    assertEquals("aaaa", depStats.getRuleKey());
+    assertEquals(2, depStats.getDurationMillis());
+    assertEquals("DIR_HIT", depStats.getCacheResult());
+    assertEquals(ImmutableList.of(), depStats.getDeps());
+
+    BuildStats.RuleStats libStats = rules.get("//fake:lib");
+    assertEquals("bbbb", libStats.getRuleKey());
+    assertEquals(6, libStats.getDurationMillis());
+    assertEquals("MISS", libStats.getCacheResult());
+    assertEquals("SUCCESS", libStats.getStatus());
+    assertEquals(ImmutableList.of("//fake:dep"), libStats.getDeps());
+
+    BuildStats.StepStats stepStats = build.getSteps().get("javac");
+    assertEquals(1, stepStats.getCount());
+    assertEquals(2, stepStats.getDurationMillis());
+  }
+
+  @Test
+  public void commandsThatBuildNothingAreNotRecorded() {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot());
+    BuildStatsListener listener = new BuildStatsListener(
+        new BuildStatsStore(projectFilesystem, /* buildsToKeep */ 10));
+
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    eventBus.register(listener);
+    eventBus.post(CommandEvent.started("targets", ImmutableList.<String>of(), false));
+    listener.outputTrace(new BuildId("BUILD_ID"));
+
+    assertFalse(projectFilesystem.exists(BuildStatsStore.BUILD_STATS_DIR));
+  }
+
+  @Test
+  public void storeKeepsOnlyTheMostRecentBuilds() throws Exception {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot());
+    BuildStatsStore store = new BuildStatsStore(projectFilesystem, /* buildsToKeep */ 3);
+
+    for (int i = 0; i < 5; i++) {
+      store.write(new BuildStats(
+          "build" + i,
+          "build",
+          /* timestamp */ i,
+          /* durationMillis */ 0,
+          ImmutableList.<BuildStats.RuleStats>of(),
+          ImmutableMap.<String, BuildStats.StepStats>of()));
+      File file = projectFilesystem.getFileForRelativePath(
+          BuildStatsStore.BUILD_STATS_DIR.resolve("build.build" + i + ".stats.gz"));
+      // Make the order of the files independent of the file system's timestamp resolution.
+      file.setLastModified(TimeUnit.SECONDS.toMillis(1000 + i));
+    }
+    ImmutableList<BuildStats> builds = store.readLatest(10);
+    assertEquals(3, builds.size());
+    assertEquals("build4", builds.get(0).getBuildId());
+    assertEquals("build3", builds.get(1).getBuildId());
+    assertEquals("build2", builds.get(2).getBuildId());
+  }
+
+  private static FakeBuildRule createRule(
+      String name,
+      String ruleKey,
+      ImmutableSortedSet<BuildRule> deps) {
+    FakeBuildRule rule = new FakeBuildRule(
+        new BuildRuleType("fake_rule"),
+        BuildTargetFactory.newInstance(name),
+        deps,
+        ImmutableSet.<BuildTargetPattern>of());
+    rule.setRuleKey(new RuleKey(ruleKey));
+    return rule;
+  }
+
+  private static ImmutableMap<String, BuildStats.RuleStats> indexRules(BuildStats build) {
+    ImmutableMap.Builder<String, BuildStats.RuleStats> rules = ImmutableMap.builder();
+    for (BuildStats.RuleStats rule : build.getRules()) {
+      rules.put(rule.getName(), rule);
+    }
+    return rules.build();
+  }
+}
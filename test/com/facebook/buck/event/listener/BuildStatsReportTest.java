@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+public class BuildStatsReportTest {
+
+  @Test
+  public void criticalPathFollowsTheSlowestChainOfDeps() {
+    // //:app depends on //:fast (10ms) and //:slow (100ms), which depends on //:base (20ms).
+    BuildStats build = createBuild(
+        "b1",
+        rule("//:app", "k1", 5, "MISS", "//:fast", "//:slow"),
+        rule("//:fast", "k1", 10, "MISS"),
+        rule("//:slow", "k1", 100, "MISS", "//:base"),
+        rule("//:base", "k1", 20, "MISS"),
+        rule("//:unrelated", "k1", 50, "MISS"));
+
+    ImmutableList<BuildStats.RuleStats> path = BuildStatsReport.getCriticalPath(build);
+
+    assertEquals(ImmutableList.of("//:base", "//:slow", "//:app"), names(path));
+  }
+
+  @Test
+  public void summariesAggregateAcrossBuilds() {
+    BuildStatsReport report = new BuildStatsReport(ImmutableList.of(
+        createBuild(
+            "b2",
+            rule("//:a", "k2", 30, "MISS"),
+            rule("//:b", "k1", 10, "DIR_HIT")),
+        createBuild(
+            "b1",
+            rule("//:a", "k1", 50, "MISS"),
+            rule("//:b", "k1", 100, "MISS"))));
+
+    ImmutableList<BuildStatsReport.RuleSummary> slowest = report.getSlowestRules(10);
+    assertEquals("//:b", slowest.get(0).getName());
+    assertEquals(110, slowest.get(0).getTotalMillis());
+    assertEquals(55, slowest.get(0).getAverageMillis());
+    assertEquals(100, slowest.get(0).getMaxMillis());
+    assertEquals(1, report.getSlowestRules(1).size());
+
+    ImmutableList<BuildStatsReport.RuleSummary> missed = report.getMostMissedRules(10);
+    assertEquals("//:a", missed.get(0).getName());
+    assertEquals(2, missed.get(0).getCacheMisses());
+    assertEquals(1, missed.get(1).getCacheMisses());
+
+    ImmutableList<BuildStatsReport.RuleSummary> changed = report.getMostChangedRuleKeys(10);
+    assertEquals(1, changed.size());
+    assertEquals("//:a", changed.get(0).getName());
+    assertEquals(2, changed.get(0).getDistinctRuleKeys());
+  }
+
+  private static BuildStats createBuild(String buildId, BuildStats.RuleStats... rules) {
+    return new BuildStats(
+        buildId,
+        "build",
+        /* timestamp */ 0,
+        /* durationMillis */ 0,
+        ImmutableList.copyOf(rules),
+        ImmutableMap.<String, BuildStats.StepStats>of());
+  }
+
+  private static BuildStats.RuleStats rule(
+      String name,
+      String ruleKey,
+      long durationMillis,
+      String cacheResult,
+      String... deps) {
+    return new BuildStats.RuleStats(
+        name,
+        ruleKey,
+        durationMillis,
+        cacheResult,
+        "SUCCESS",
+        ImmutableList.copyOf(deps));
+  }
+
+  private static ImmutableList<String> names(Iterable<BuildStats.RuleStats> rules) {
+    ImmutableList.Builder<String> names = ImmutableList.builder();
+    for (BuildStats.RuleStats rule : rules) {
+      names.add(rule.getName());
+    }
+    return names.build();
+  }
+}
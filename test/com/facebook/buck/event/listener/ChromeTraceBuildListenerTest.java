@@ -20,6 +20,7 @@ import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.facebook.buck.cli.CommandEvent;
@@ -62,6 +63,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
 import com.google.common.eventbus.EventBus;
 
 import org.junit.Rule;
@@ -284,6 +286,50 @@ public class ChromeTraceBuildListenerTest {
     verify(context);
   }
 
+  @Test
+  public void testStreamingSortsEventsWithinWindow() throws IOException {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot());
+    BuildId buildId = new BuildId("STREAMING_BUILD_ID");
+
+    ChromeTraceBuildListener listener = new ChromeTraceBuildListener(
+        projectFilesystem,
+        /* tracesToKeep */ 42,
+        Optional.of(buildId),
+        /* sortWindowSize */ 2);
+
+    Clock fakeClock = new IncrementingFakeClock(TimeUnit.MILLISECONDS.toNanos(1));
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance(fakeClock, buildId);
+    EventBus rawEventBus = BuckEventBusFactory.getEventBusFor(eventBus);
+    eventBus.register(listener);
+
+    // Configure events ahead of posting them, so they reach the listener out of order.
+    List<TraceEvent> events = Lists.newArrayList();
+    for (int i = 0; i < 6; i++) {
+      TraceEvent event = new TraceEvent("event" + i, ChromeTraceEvent.Phase.IMMEDIATE);
+      eventBus.timestamp(event);
+      events.add(event);
+    }
+    // Swapping neighbours is undone by a window of two events.
+    for (int i : ImmutableList.of(1, 0, 3, 2, 5, 4)) {
+      rawEventBus.post(events.get(i));
+    }
+
+    File traceFile = new File(
+        tmpDir.getRoot(),
+        String.format("%s/build.%s.trace", BuckConstant.BUCK_TRACE_DIR, buildId));
+    assertTrue("Streaming should create the trace file up front.", traceFile.exists());
+
+    listener.outputTrace(buildId);
+
+    List<ChromeTraceEvent> resultMap = new ObjectMapper().readValue(
+        new File(tmpDir.getRoot(), BuckConstant.BUCK_TRACE_DIR + "/build.trace"),
+        new TypeReference<List<ChromeTraceEvent>>() {});
+    assertEquals(6, resultMap.size());
+    for (int i = 0; i < 6; i++) {
+      assertEquals("event" + i, resultMap.get(i).getName());
+    }
+  }
+
   @Test
   public void testOutputFailed() throws IOException {
     ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot());
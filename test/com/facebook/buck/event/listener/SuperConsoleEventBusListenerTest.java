@@ -34,10 +34,17 @@ import com.facebook.buck.rules.BuildRuleStatus;
 import com.facebook.buck.rules.BuildRuleSuccess;
 import com.facebook.buck.rules.CacheResult;
 import com.facebook.buck.rules.FakeBuildRule;
+import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.FakeProcessExecutor;
+import com.facebook.buck.rules.TestRunEvent;
+import com.facebook.buck.rules.TestSummaryEvent;
 import com.facebook.buck.shell.GenruleDescription;
 import com.facebook.buck.step.FakeStep;
 import com.facebook.buck.step.StepEvent;
+import com.facebook.buck.test.TestResultSummary;
+import com.facebook.buck.test.TestResults;
+import com.facebook.buck.test.result.type.ResultType;
+import com.facebook.buck.test.selectors.TestSelectorList;
 import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.timing.IncrementingFakeClock;
@@ -95,6 +102,8 @@ public class SuperConsoleEventBusListenerTest {
         cachedTarget,
         ImmutableSortedSet.<BuildRule>of(),
         ImmutableSet.<BuildTargetPattern>of());
+    fakeRule.setRuleKey(new RuleKey("aaaa"));
+    cachedRule.setRuleKey(new RuleKey("bbbb"));
 
     SuperConsoleEventBusListener listener =
         new SuperConsoleEventBusListener(
@@ -182,8 +191,14 @@ public class SuperConsoleEventBusListenerTest {
         1234L, TimeUnit.MILLISECONDS, /* threadId */ 0L));
 
     final String buildingLine = formatConsoleTimes("[-] BUILDING...FINISHED %s", 0.8);
+    final String criticalPathLine =
+        formatConsoleTimes(" |=> CRITICAL PATH...  %s (1 RULE)", 0.4);
+    final String criticalRuleLine = formatConsoleTimes("     //banana:stand...  %s", 0.4);
 
-    validateConsole(console, listener, 1300L, ImmutableList.of(parsingLine, buildingLine));
+    validateConsole(console, listener, 1300L, ImmutableList.of(parsingLine,
+        buildingLine,
+        criticalPathLine,
+        criticalRuleLine));
 
     rawEventBus.post(configureTestEventAtTime(
         ConsoleEvent.severe("I've made a huge mistake."),
@@ -191,6 +206,8 @@ public class SuperConsoleEventBusListenerTest {
 
     validateConsole(console, listener, 1600L, ImmutableList.of(parsingLine,
         buildingLine,
+        criticalPathLine,
+        criticalRuleLine,
         "Log:",
         "I've made a huge mistake."));
 
@@ -200,6 +217,8 @@ public class SuperConsoleEventBusListenerTest {
 
     validateConsole(console, listener, 3000L, ImmutableList.of(parsingLine,
         buildingLine,
+        criticalPathLine,
+        criticalRuleLine,
         formatConsoleTimes("[+] INSTALLING...%s", 0.5),
         "Log:",
         "I've made a huge mistake."));
@@ -210,6 +229,8 @@ public class SuperConsoleEventBusListenerTest {
 
     validateConsole(console, listener, 5000L, ImmutableList.of(parsingLine,
         buildingLine,
+        criticalPathLine,
+        criticalRuleLine,
         formatConsoleTimes("[-] INSTALLING...FINISHED %s", 1.5),
         "Log:",
         "I've made a huge mistake."));
@@ -223,6 +244,177 @@ public class SuperConsoleEventBusListenerTest {
         beforeStderrWrite + "ROFLCOPTER", console.getTextWrittenToStdErr());
   }
 
+  @Test
+  public void testCriticalPathAndEstimatedTimeToCompletion() {
+    Clock fakeClock = new IncrementingFakeClock(TimeUnit.SECONDS.toNanos(1));
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance(fakeClock);
+    EventBus rawEventBus = BuckEventBusFactory.getEventBusFor(eventBus);
+    TestConsole console = new TestConsole();
+
+    // //app:app depends on //lib:slow and //lib:fast, which are independent of each other.
+    FakeBuildRule slowRule = createRule("//lib:slow", ImmutableSortedSet.<BuildRule>of());
+    FakeBuildRule fastRule = createRule("//lib:fast", ImmutableSortedSet.<BuildRule>of());
+    FakeBuildRule appRule = createRule(
+        "//app:app",
+        ImmutableSortedSet.<BuildRule>of(slowRule, fastRule));
+    ImmutableSet<BuildTarget> buildTargets = ImmutableSet.of(appRule.getBuildTarget());
+
+    SuperConsoleEventBusListener listener =
+        new SuperConsoleEventBusListener(
+            console,
+            fakeClock,
+            new DefaultExecutionEnvironment(
+                new FakeProcessExecutor(),
+                ImmutableMap.copyOf(System.getenv()),
+                System.getProperties()),
+            /* isTreatingAssumptionsAsErrors */ false,
+            /* expectedRuleDurationsMillis */ ImmutableMap.of(
+                "//lib:slow", 2000L,
+                "//lib:fast", 1000L,
+                "//app:app", 4000L));
+    eventBus.register(listener);
+
+    rawEventBus.post(configureTestEventAtTime(
+        ParseEvent.started(buildTargets),
+        0L, TimeUnit.MILLISECONDS, /* threadId */ 0L));
+    rawEventBus.post(configureTestEventAtTime(
+        ParseEvent.finished(buildTargets, Optional.<ActionGraph>absent()),
+        0L, TimeUnit.MILLISECONDS, /* threadId */ 0L));
+    rawEventBus.post(configureTestEventAtTime(
+        BuildEvent.started(buildTargets),
+        0L, TimeUnit.MILLISECONDS, /* threadId */ 0L));
+    rawEventBus.post(configureTestEventAtTime(
+        BuildEvent.ruleCountCalculated(buildTargets, 3),
+        0L, TimeUnit.MILLISECONDS, /* threadId */ 0L));
+
+    rawEventBus.post(configureTestEventAtTime(
+        BuildRuleEvent.started(fastRule),
+        0L, TimeUnit.MILLISECONDS, /* threadId */ 1L));
+    rawEventBus.post(configureTestEventAtTime(
+        BuildRuleEvent.started(slowRule),
+        0L, TimeUnit.MILLISECONDS, /* threadId */ 2L));
+    postRuleFinished(rawEventBus, fastRule, 500L, /* threadId */ 1L);
+
+    // Two rules averaging 3s are left, and two threads are building rules.
+    assertEquals(
+        formatConsoleTimes("[+] BUILDING...%s (1/3 JOBS, ETA %s)", 0.6, 3.0),
+        listener.createRenderLinesAtTime(600L).get(1));
+
+    postRuleFinished(rawEventBus, slowRule, 3000L, /* threadId */ 2L);
+    rawEventBus.post(configureTestEventAtTime(
+        BuildRuleEvent.started(appRule),
+        3000L, TimeUnit.MILLISECONDS, /* threadId */ 1L));
+    postRuleFinished(rawEventBus, appRule, 3500L, /* threadId */ 1L);
+    rawEventBus.post(configureTestEventAtTime(
+        BuildEvent.finished(buildTargets, 0),
+        3600L, TimeUnit.MILLISECONDS, /* threadId */ 0L));
+
+    assertEquals(
+        ImmutableList.of(
+            formatConsoleTimes("[-] BUILDING...FINISHED %s (3/3 JOBS)", 3.6),
+            formatConsoleTimes(" |=> CRITICAL PATH...  %s (2 RULES)", 3.5),
+            formatConsoleTimes("     //lib:slow...  %s", 3.0),
+            formatConsoleTimes("     //app:app...  %s", 0.5)),
+        listener.createRenderLinesAtTime(4000L).subList(1, 5));
+  }
+
+  @Test
+  public void testTestsAreCountedAsTheyFinish() {
+    Clock fakeClock = new IncrementingFakeClock(TimeUnit.SECONDS.toNanos(1));
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance(fakeClock);
+    EventBus rawEventBus = BuckEventBusFactory.getEventBusFor(eventBus);
+    TestConsole console = new TestConsole();
+    ImmutableSet<BuildTarget> buildTargets = ImmutableSet.of(
+        BuildTargetFactory.newInstance("//test:test"));
+
+    SuperConsoleEventBusListener listener =
+        new SuperConsoleEventBusListener(
+            console,
+            fakeClock,
+            new DefaultExecutionEnvironment(
+                new FakeProcessExecutor(),
+                ImmutableMap.copyOf(System.getenv()),
+                System.getProperties()),
+            /* isTreatingAssumptionsAsErrors */ false);
+    eventBus.register(listener);
+
+    rawEventBus.post(configureTestEventAtTime(
+        ParseEvent.started(buildTargets),
+        0L, TimeUnit.MILLISECONDS, /* threadId */ 0L));
+    rawEventBus.post(configureTestEventAtTime(
+        ParseEvent.finished(buildTargets, Optional.<ActionGraph>absent()),
+        0L, TimeUnit.MILLISECONDS, /* threadId */ 0L));
+    rawEventBus.post(configureTestEventAtTime(
+        TestRunEvent.started(
+            /* isRunAllTests */ true,
+            TestSelectorList.empty(),
+            /* shouldExplainTestSelectorList */ false,
+            ImmutableSet.<String>of()),
+        100L, TimeUnit.MILLISECONDS, /* threadId */ 0L));
+
+    assertEquals(
+        formatConsoleTimes("[+] TESTING...%s", 0.4),
+        listener.createRenderLinesAtTime(500L).get(1));
+
+    postTestFinished(rawEventBus, "testOne", ResultType.SUCCESS, 600L);
+    postTestFinished(rawEventBus, "testTwo", ResultType.SUCCESS, 700L);
+    postTestFinished(rawEventBus, "testThree", ResultType.FAILURE, 800L);
+
+    assertEquals(
+        formatConsoleTimes("[+] TESTING...%s (2 PASS, 1 FAIL)", 0.9),
+        listener.createRenderLinesAtTime(1000L).get(1));
+
+    rawEventBus.post(configureTestEventAtTime(
+        TestRunEvent.finished(ImmutableSet.<String>of(), ImmutableList.<TestResults>of()),
+        1200L, TimeUnit.MILLISECONDS, /* threadId */ 0L));
+
+    assertEquals(
+        formatConsoleTimes("[-] TESTING...FINISHED %s (2 PASS, 1 FAIL)", 1.1),
+        listener.createRenderLinesAtTime(1500L).get(1));
+  }
+
+  private static void postTestFinished(
+      EventBus rawEventBus,
+      String testName,
+      ResultType type,
+      long timeMs) {
+    rawEventBus.post(configureTestEventAtTime(
+        TestSummaryEvent.finished(new TestResultSummary(
+            "com.example.FooTest",
+            testName,
+            type,
+            /* time */ 100L,
+            /* message */ null,
+            /* stacktrace */ null,
+            /* stdOut */ null,
+            /* stdErr */ null)),
+        timeMs, TimeUnit.MILLISECONDS, /* threadId */ 1L));
+  }
+
+  private static FakeBuildRule createRule(String name, ImmutableSortedSet<BuildRule> deps) {
+    FakeBuildRule rule = new FakeBuildRule(
+        GenruleDescription.TYPE,
+        BuildTargetFactory.newInstance(name),
+        deps,
+        ImmutableSet.<BuildTargetPattern>of());
+    rule.setRuleKey(new RuleKey(Integer.toHexString(name.hashCode())));
+    return rule;
+  }
+
+  private static void postRuleFinished(
+      EventBus rawEventBus,
+      BuildRule rule,
+      long timeMs,
+      long threadId) {
+    rawEventBus.post(configureTestEventAtTime(
+        BuildRuleEvent.finished(
+            rule,
+            BuildRuleStatus.SUCCESS,
+            CacheResult.MISS,
+            Optional.of(BuildRuleSuccess.Type.BUILT_LOCALLY)),
+        timeMs, TimeUnit.MILLISECONDS, threadId));
+  }
+
   private void validateConsole(TestConsole console,
       SuperConsoleEventBusListener listener,
       long timeMs,
@@ -214,6 +214,19 @@ public class TestResultFormatterTest {
     assertEquals(expected, toString(builder));
   }
 
+  @Test
+  public void shouldSummarizeTheTestsThatHaveFinishedSoFar() {
+    assertEquals("3 PASS", formatter.formatTestProgress(3, 0, 0));
+    assertEquals(
+        "3 PASS, 1 FAIL, 2 ASSUMPTION VIOLATIONS",
+        formatter.formatTestProgress(3, 1, 2));
+
+    TestResultFormatter strictFormatter = new TestResultFormatter(
+        new Ansi(Platform.LINUX, Optional.of("xterm")),
+        /* isAnAssumptionViolationAnError */ true);
+    assertEquals("3 PASS, 3 FAIL", strictFormatter.formatTestProgress(3, 1, 2));
+  }
+
   private String toString(ImmutableList.Builder<String> builder) {
     return Joiner.on('\n').join(builder.build());
   }
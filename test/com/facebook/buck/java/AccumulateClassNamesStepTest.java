@@ -24,6 +24,7 @@ import com.facebook.buck.util.ProjectFilesystem;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 
 import org.junit.Rule;
@@ -74,12 +75,17 @@ public class AccumulateClassNamesStepTest {
 
     String contents = Files.toString(new File(tmp.getRoot(), "output.txt"), Charsets.UTF_8);
     String separator = AccumulateClassNamesStep.CLASS_NAME_HASH_CODE_SEPARATOR;
+    // The empty "classes" can't be parsed, so their size is used as their linear alloc estimate.
+    String sizeAndEstimate = separator + "0" + separator + "0";
     assertEquals(
-        "Verify that the contents are sorted alphabetically and ignore non-.class files.",
+        "Verify that the hash of the jar comes first, followed by the classes sorted " +
+            "alphabetically, ignoring non-.class files.",
         Joiner.on('\n').join(
-            "com/example/Bar" + separator + SHA1_FOR_EMPTY_STRING,
-            "com/example/Foo" + separator + SHA1_FOR_EMPTY_STRING,
-            "com/example/subpackage/Baz" + separator + SHA1_FOR_EMPTY_STRING) + '\n',
+            "#" + Files.hash(jarFile, Hashing.sha1()),
+            "com/example/Bar" + separator + SHA1_FOR_EMPTY_STRING + sizeAndEstimate,
+            "com/example/Foo" + separator + SHA1_FOR_EMPTY_STRING + sizeAndEstimate,
+            "com/example/subpackage/Baz" + separator + SHA1_FOR_EMPTY_STRING + sizeAndEstimate) +
+            '\n',
         contents);
   }
 
@@ -109,12 +115,14 @@ public class AccumulateClassNamesStepTest {
 
     String contents = Files.toString(new File(tmp.getRoot(), "output.txt"), Charsets.UTF_8);
     String separator = AccumulateClassNamesStep.CLASS_NAME_HASH_CODE_SEPARATOR;
+    String sizeAndEstimate = separator + "0" + separator + "0";
     assertEquals(
         "Verify that the contents are sorted alphabetically and ignore non-.class files.",
         Joiner.on('\n').join(
-            "com/example/Bar" + separator + SHA1_FOR_EMPTY_STRING,
-            "com/example/Foo" + separator + SHA1_FOR_EMPTY_STRING,
-            "com/example/subpackage/Baz" + separator + SHA1_FOR_EMPTY_STRING) + '\n',
+            "com/example/Bar" + separator + SHA1_FOR_EMPTY_STRING + sizeAndEstimate,
+            "com/example/Foo" + separator + SHA1_FOR_EMPTY_STRING + sizeAndEstimate,
+            "com/example/subpackage/Baz" + separator + SHA1_FOR_EMPTY_STRING + sizeAndEstimate) +
+            '\n',
         contents);
   }
 }
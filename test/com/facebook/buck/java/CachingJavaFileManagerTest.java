@@ -0,0 +1,277 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+public class CachingJavaFileManagerTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private JavaCompiler compiler;
+  private ClasspathJarCache cache;
+
+  @Before
+  public void setUp() {
+    compiler = ToolProvider.getSystemJavaCompiler();
+    cache = new ClasspathJarCache(/* maxEntryBytes */ 1024 * 1024);
+  }
+
+  @Test
+  public void compilesAgainstJarsAndDirectoriesOnTheClasspath() throws IOException {
+    Path libJar = createJar("lib.jar", "com/example/lib/Lib.java",
+        "package com.example.lib; public class Lib { public static int one() { return 1; } }");
+    File libDirectory = compileToDirectory("dir", "com/example/dir/Dir.java",
+        "package com.example.dir; public class Dir { public static int two() { return 2; } }");
+
+    File source = write("src/com/example/app/App.java",
+        "package com.example.app;\n" +
+        "public class App {\n" +
+        "  int three() { return com.example.lib.Lib.one() + com.example.dir.Dir.two(); }\n" +
+        "}\n");
+    File output = tmp.newFolder("out");
+
+    StandardJavaFileManager standardFileManager =
+        compiler.getStandardFileManager(null, null, null);
+    try (CachingJavaFileManager fileManager = new CachingJavaFileManager(
+        standardFileManager,
+        cache,
+        ImmutableList.of(libJar, libDirectory.toPath()))) {
+      boolean success = compiler.getTask(
+          /* out */ null,
+          fileManager,
+          /* diagnosticListener */ null,
+          ImmutableList.of("-d", output.getPath()),
+          /* classes */ null,
+          standardFileManager.getJavaFileObjects(source)).call();
+
+      assertTrue(success);
+      assertTrue(new File(output, "com/example/app/App.class").exists());
+    }
+  }
+
+  @Test
+  public void listsJarEntriesInClasspathOrder() throws IOException {
+    Path first = createJar("first.jar", "com/example/Dupe.java",
+        "package com.example; public class Dupe { public static final int VERSION = 1; }");
+    Path second = createJar("second.jar", "com/example/Dupe.java",
+        "package com.example; public class Dupe { public static final int VERSION = 2; }");
+
+    try (CachingJavaFileManager fileManager = new CachingJavaFileManager(
+        compiler.getStandardFileManager(null, null, null),
+        cache,
+        ImmutableList.of(second, first))) {
+      List<JavaFileObject> files = ImmutableList.copyOf(fileManager.list(
+          StandardLocation.CLASS_PATH,
+          "com.example",
+          ImmutableSet.of(JavaFileObject.Kind.CLASS),
+          /* recurse */ false));
+
+      assertEquals(2, files.size());
+      assertTrue(files.get(0).getName().startsWith(second.toString()));
+      assertEquals(
+          "com.example.Dupe",
+          fileManager.inferBinaryName(StandardLocation.CLASS_PATH, files.get(0)));
+      assertTrue(files.get(0).isNameCompatible("Dupe", JavaFileObject.Kind.CLASS));
+      try (InputStream input = files.get(0).openInputStream()) {
+        assertEquals(0xCAFEBABE, ByteBuffer.wrap(ByteStreams.toByteArray(input)).getInt());
+      }
+    }
+  }
+
+  @Test
+  public void recordsWhichPartsOfTheClasspathWereUsed() throws IOException {
+    Path usedJar = createJar("used.jar", "com/example/used/Used.java",
+        "package com.example.used; public class Used { public static int one() { return 1; } }");
+    Path unusedJar = createJar("unused.jar", "com/example/unused/Unused.java",
+        "package com.example.unused; public class Unused {}");
+
+    File source = write("src/com/example/app/App.java",
+        "package com.example.app;\n" +
+        "public class App {\n" +
+        "  int one() { return com.example.used.Used.one(); }\n" +
+        "}\n");
+    File output = tmp.newFolder("out");
+
+    StandardJavaFileManager standardFileManager =
+        compiler.getStandardFileManager(null, null, null);
+    try (CachingJavaFileManager fileManager = new CachingJavaFileManager(
+        standardFileManager,
+        cache,
+        ImmutableList.of(usedJar, unusedJar))) {
+      assertTrue(compiler.getTask(
+          /* out */ null,
+          fileManager,
+          /* diagnosticListener */ null,
+          ImmutableList.of("-d", output.getPath()),
+          /* classes */ null,
+          standardFileManager.getJavaFileObjects(source)).call());
+
+      assertEquals(ImmutableSet.of(usedJar), fileManager.getUsedClasspathEntries());
+      assertTrue(fileManager.getListedPackages().contains("com.example.used"));
+      assertFalse(fileManager.getListedPackages().contains("com.example.unused"));
+    }
+  }
+
+  @Test
+  public void indexIsRebuiltWhenTheJarChanges() throws IOException {
+    Path jar = createJar("lib.jar", "com/example/A.java", "package com.example; class A {}");
+    ClasspathJarIndex index = cache.getIndex(jar);
+    ClasspathJarIndex sameIndex = cache.getIndex(jar);
+    assertSame(index, sameIndex);
+    sameIndex.release();
+
+    Path rewritten =
+        createJar("other.jar", "com/example/B.java", "package com.example; class B {}");
+    Files.copy(rewritten.toFile(), jar.toFile());
+    jar.toFile().setLastModified(jar.toFile().lastModified() + TimeUnit.SECONDS.toMillis(10));
+
+    ClasspathJarIndex newIndex = cache.getIndex(jar);
+    assertNotSame(index, newIndex);
+    assertEquals(
+        ImmutableList.of("com/example/B.class"),
+        newIndex.getEntries("com.example", /* recurse */ false));
+    assertEquals(
+        ImmutableList.of("com/example/B.class"),
+        newIndex.getEntries("com", /* recurse */ true));
+    index.release();
+    assertFalse("The replaced index should be closed once released.", index.retain());
+
+    cache.invalidate(jar);
+    ClasspathJarIndex indexAfterInvalidation = cache.getIndex(jar);
+    assertNotSame(newIndex, indexAfterInvalidation);
+    newIndex.release();
+    indexAfterInvalidation.release();
+  }
+
+  @Test
+  public void invalidatedIndexStaysOpenUntilReleasedAndItsEntriesAreEvicted() throws IOException {
+    Path jar = createJar("lib.jar", "com/example/A.java", "package com.example; class A {}");
+    ClasspathJarIndex index = cache.getIndex(jar);
+    cache.getEntryBytes(index, "com/example/A.class");
+    assertEquals(1, cache.getEntryCount());
+
+    cache.invalidate(jar);
+    assertEquals(0, cache.getEntryCount());
+    // A compilation that is still running can go on reading from the jar.
+    assertEquals(0xCAFEBABE, ByteBuffer.wrap(index.readEntry("com/example/A.class")).getInt());
+
+    index.release();
+    assertFalse(index.retain());
+    try {
+      index.readEntry("com/example/A.class");
+      fail("The jar should have been closed.");
+    } catch (IllegalStateException e) {
+      // Thrown by the closed ZipFile.
+    }
+  }
+
+  @Test
+  public void closingTheFileManagerReleasesTheJars() throws IOException {
+    Path jar = createJar("lib.jar", "com/example/A.java", "package com.example; class A {}");
+    CachingJavaFileManager fileManager = new CachingJavaFileManager(
+        compiler.getStandardFileManager(null, null, null),
+        cache,
+        ImmutableList.of(jar));
+    ClasspathJarIndex index = cache.getIndex(jar);
+    index.release();
+    cache.invalidate(jar);
+    assertTrue("The file manager should still hold the index.", index.retain());
+    index.release();
+
+    fileManager.close();
+    assertFalse(index.retain());
+  }
+
+  @Test
+  public void removesClasspathFromOptions() {
+    assertEquals(
+        ImmutableList.of("-g", "-d", "out"),
+        CachingJavaFileManager.removeClasspathOption(
+            ImmutableList.of("-g", "-classpath", "a.jar:b.jar", "-d", "out")));
+  }
+
+  private File write(String relativePath, String contents) throws IOException {
+    File file = new File(tmp.getRoot(), relativePath);
+    Files.createParentDirs(file);
+    Files.write(contents, file, Charsets.UTF_8);
+    return file;
+  }
+
+  private File compileToDirectory(String name, String sourcePath, String source)
+      throws IOException {
+    File sourceFile = write(name + "-src/" + sourcePath, source);
+    File output = tmp.newFolder(name);
+    StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+    assertTrue(compiler.getTask(
+        /* out */ null,
+        fileManager,
+        /* diagnosticListener */ null,
+        ImmutableList.of("-d", output.getPath()),
+        /* classes */ null,
+        fileManager.getJavaFileObjects(sourceFile)).call());
+    fileManager.close();
+    return output;
+  }
+
+  /** Compiles {@code source} and packages the resulting class file into a jar. */
+  private Path createJar(String jarName, String sourcePath, String source) throws IOException {
+    File classes = compileToDirectory(jarName + "-classes", sourcePath, source);
+    String classPath = sourcePath.replace(".java", ".class");
+    File jar = new File(tmp.getRoot(), jarName);
+    try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(jar))) {
+      output.putNextEntry(new ZipEntry(classPath));
+      output.write(Files.toByteArray(new File(classes, classPath)));
+      output.closeEntry();
+    }
+    return jar.toPath();
+  }
+}
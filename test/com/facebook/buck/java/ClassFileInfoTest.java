@@ -0,0 +1,222 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+public class ClassFileInfoTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void abiHashIgnoresMethodBodiesAndPrivateMembers() throws IOException {
+    ClassFileInfo before = compile("Foo",
+        "package com.example;",
+        "public class Foo {",
+        "  public int get() { return 1; }",
+        "}");
+    ClassFileInfo after = compile("Foo",
+        "package com.example;",
+        "public class Foo {",
+        "  private int cached;",
+        "  public int get() { return helper(); }",
+        "  private int helper() { return 2; }",
+        "}");
+    assertEquals(before.getAbiHash(), after.getAbiHash());
+  }
+
+  @Test
+  public void abiHashCoversSignaturesAndConstants() throws IOException {
+    ClassFileInfo original = compile("Foo",
+        "package com.example;",
+        "public class Foo {",
+        "  public static final int CONSTANT = 1;",
+        "  public int get() { return 1; }",
+        "}");
+    ClassFileInfo changedConstant = compile("Foo",
+        "package com.example;",
+        "public class Foo {",
+        "  public static final int CONSTANT = 2;",
+        "  public int get() { return 1; }",
+        "}");
+    ClassFileInfo changedSignature = compile("Foo",
+        "package com.example;",
+        "public class Foo {",
+        "  public static final int CONSTANT = 1;",
+        "  public long get() { return 1; }",
+        "}");
+    assertNotEquals(original.getAbiHash(), changedConstant.getAbiHash());
+    assertNotEquals(original.getAbiHash(), changedSignature.getAbiHash());
+  }
+
+  @Test
+  public void abiHashCoversAnnotationValues() throws IOException {
+    ClassFileInfo original = compileWithAnnotation(
+        "  @Tag(value = \"a\", names = {\"x\", \"y\"}) public void run(@Tag(\"p\") int i) {}");
+    assertEquals(
+        "The order of an annotation's elements is not part of the ABI.",
+        original.getAbiHash(),
+        compileWithAnnotation(
+            "  @Tag(names = {\"x\", \"y\"}, value = \"a\") public void run(@Tag(\"p\") int i) {}")
+            .getAbiHash());
+
+    assertNotEquals(
+        original.getAbiHash(),
+        compileWithAnnotation(
+            "  @Tag(value = \"b\", names = {\"x\", \"y\"}) public void run(@Tag(\"p\") int i) {}")
+            .getAbiHash());
+    assertNotEquals(
+        original.getAbiHash(),
+        compileWithAnnotation(
+            "  @Tag(value = \"a\", names = {\"y\", \"x\"}) public void run(@Tag(\"p\") int i) {}")
+            .getAbiHash());
+    assertNotEquals(
+        original.getAbiHash(),
+        compileWithAnnotation(
+            "  @Tag(value = \"a\", names = {\"x\", \"y\"}, kind = ElementType.FIELD)",
+            "  public void run(@Tag(\"p\") int i) {}")
+            .getAbiHash());
+    assertNotEquals(
+        "Parameter annotations are part of the ABI.",
+        original.getAbiHash(),
+        compileWithAnnotation(
+            "  @Tag(value = \"a\", names = {\"x\", \"y\"}) public void run(@Tag(\"q\") int i) {}")
+            .getAbiHash());
+  }
+
+  @Test
+  public void abiHashCoversNestedAnnotationsAndDefaults() throws IOException {
+    ClassFileInfo original = compile("Foo",
+        "package com.example;",
+        "public @interface Foo {",
+        "  Deprecated[] deprecated() default {@Deprecated};",
+        "  String name() default \"a\";",
+        "}");
+    ClassFileInfo changedDefault = compile("Foo",
+        "package com.example;",
+        "public @interface Foo {",
+        "  Deprecated[] deprecated() default {@Deprecated};",
+        "  String name() default \"b\";",
+        "}");
+    ClassFileInfo changedNested = compile("Foo",
+        "package com.example;",
+        "public @interface Foo {",
+        "  Deprecated[] deprecated() default {@Deprecated, @Deprecated};",
+        "  String name() default \"a\";",
+        "}");
+    assertNotEquals(original.getAbiHash(), changedDefault.getAbiHash());
+    assertNotEquals(original.getAbiHash(), changedNested.getAbiHash());
+  }
+
+  @Test
+  public void recordsSourceAndReferences() throws IOException {
+    compile("Bar",
+        "package com.example;",
+        "public class Bar {}");
+    ClassFileInfo foo = compile("Foo",
+        "package com.example;",
+        "public class Foo {",
+        "  public Object create() { return new Bar(); }",
+        "}");
+    assertEquals("com/example/Foo", foo.getClassName());
+    assertEquals(Optional.of("com/example/Foo.java"), foo.getSourcePath());
+    assertTrue(foo.getReferencedClasses().contains("com/example/Bar"));
+    assertFalse(foo.getReferencedClasses().contains("com/example/Foo"));
+    assertTrue(foo.isPartOfAbi());
+  }
+
+  @Test
+  public void anonymousClassesAreNotPartOfTheAbi() throws IOException {
+    compile("Foo",
+        "package com.example;",
+        "public class Foo {",
+        "  public Runnable create() { return new Runnable() { public void run() {} }; }",
+        "}");
+    assertFalse(read("Foo$1").isPartOfAbi());
+  }
+
+  /**
+   * @return {@code com.example.Foo}, with {@code members}, compiled next to the annotation
+   *     {@code Tag}.
+   */
+  private ClassFileInfo compileWithAnnotation(String... members) throws IOException {
+    compile("Tag",
+        "package com.example;",
+        "import java.lang.annotation.ElementType;",
+        "public @interface Tag {",
+        "  String value();",
+        "  String[] names() default {};",
+        "  ElementType kind() default ElementType.TYPE;",
+        "}");
+    return compile("Foo",
+        "package com.example;",
+        "import java.lang.annotation.ElementType;",
+        "public class Foo {",
+        Joiner.on('\n').join(members),
+        "}");
+  }
+
+  private ClassFileInfo compile(String className, String... lines) throws IOException {
+    File source = new File(tmp.getRoot(), "com/example/" + className + ".java");
+    Files.createParentDirs(source);
+    Files.write(Joiner.on('\n').join(lines), source, Charsets.UTF_8);
+
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    int exitCode = compiler.run(
+        /* in */ null,
+        /* out */ null,
+        /* err */ null,
+        ImmutableList.of(
+            "-g",
+            "-source", JavaCompilerEnvironment.TARGETED_JAVA_VERSION,
+            "-target", JavaCompilerEnvironment.TARGETED_JAVA_VERSION,
+            "-classpath", tmp.getRoot().getPath(),
+            "-d", tmp.getRoot().getPath(),
+            source.getPath()).toArray(new String[0]));
+    assertEquals(0, exitCode);
+    return read(className);
+  }
+
+  private ClassFileInfo read(String className) throws IOException {
+    try (InputStream input =
+             new FileInputStream(new File(tmp.getRoot(), "com/example/" + className + ".class"))) {
+      return ClassFileInfo.read(input);
+    }
+  }
+}
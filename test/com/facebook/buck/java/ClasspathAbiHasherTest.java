@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+public class ClasspathAbiHasherTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void hashIgnoresMethodBodiesResourcesAndTimestamps() throws IOException {
+    byte[] original = compile(
+        "package com.example;",
+        "public class Foo {",
+        "  public int get() { return 1; }",
+        "}");
+    byte[] changedBody = compile(
+        "package com.example;",
+        "public class Foo {",
+        "  public int get() { return 2; }",
+        "}");
+
+    HashCode before = hashJar("before.jar", /* time */ 0L, ImmutableMap.of(
+        "com/example/Foo.class", original,
+        "META-INF/version.txt", "1.0".getBytes(Charsets.UTF_8)));
+    HashCode after = hashJar("after.jar", /* time */ 1000000L, ImmutableMap.of(
+        "META-INF/version.txt", "1.1".getBytes(Charsets.UTF_8),
+        "com/example/Foo.class", changedBody));
+    assertEquals(before, after);
+  }
+
+  @Test
+  public void hashChangesWithTheAbi() throws IOException {
+    byte[] original = compile(
+        "package com.example;",
+        "public class Foo {",
+        "  public int get() { return 1; }",
+        "}");
+    byte[] changedSignature = compile(
+        "package com.example;",
+        "public class Foo {",
+        "  public long get() { return 1; }",
+        "}");
+
+    assertNotEquals(
+        hashJar("before.jar", 0L, ImmutableMap.of("com/example/Foo.class", original)),
+        hashJar("after.jar", 0L, ImmutableMap.of("com/example/Foo.class", changedSignature)));
+  }
+
+  @Test
+  public void unreadableClassesAreHashedByContents() throws IOException {
+    assertNotEquals(
+        hashJar("before.jar", 0L, ImmutableMap.of(
+            "com/example/Foo.class", "not a class".getBytes(Charsets.UTF_8))),
+        hashJar("after.jar", 0L, ImmutableMap.of(
+            "com/example/Foo.class", "still not a class".getBytes(Charsets.UTF_8))));
+  }
+
+  private HashCode hashJar(String name, long time, Map<String, byte[]> entries)
+      throws IOException {
+    File jar = tmp.newFile(name);
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+      for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+        ZipEntry zipEntry = new ZipEntry(entry.getKey());
+        zipEntry.setTime(time);
+        out.putNextEntry(zipEntry);
+        out.write(entry.getValue());
+        out.closeEntry();
+      }
+    }
+    return ClasspathAbiHasher.hash(
+        Paths.get(name),
+        new ProjectFilesystem(tmp.getRoot().toPath()));
+  }
+
+  private byte[] compile(String... lines) throws IOException {
+    File sourceRoot = tmp.newFolder();
+    File source = new File(sourceRoot, "com/example/Foo.java");
+    Files.createParentDirs(source);
+    Files.write(Joiner.on('\n').join(lines), source, Charsets.UTF_8);
+
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    int exitCode = compiler.run(
+        /* in */ null,
+        /* out */ null,
+        /* err */ null,
+        ImmutableList.of(
+            "-g",
+            "-source", JavaCompilerEnvironment.TARGETED_JAVA_VERSION,
+            "-target", JavaCompilerEnvironment.TARGETED_JAVA_VERSION,
+            "-d", sourceRoot.getPath(),
+            source.getPath()).toArray(new String[0]));
+    assertEquals(0, exitCode);
+    return Files.toByteArray(new File(sourceRoot, "com/example/Foo.class"));
+  }
+}
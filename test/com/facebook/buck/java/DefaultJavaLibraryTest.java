@@ -24,6 +24,8 @@ import static org.easymock.EasyMock.replay;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.not;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -37,6 +39,7 @@ import com.facebook.buck.event.BuckEventBusFactory;
 import com.facebook.buck.java.abi.AbiWriterProtocol;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.model.BuildTargets;
 import com.facebook.buck.rules.AbiRule;
 import com.facebook.buck.rules.AbstractBuildRule;
 import com.facebook.buck.rules.ActionGraph;
@@ -50,6 +53,7 @@ import com.facebook.buck.rules.BuildRuleType;
 import com.facebook.buck.rules.FakeBuildRule;
 import com.facebook.buck.rules.FakeBuildRuleParamsBuilder;
 import com.facebook.buck.rules.FakeBuildableContext;
+import com.facebook.buck.rules.FakeOnDiskBuildInfo;
 import com.facebook.buck.rules.FakeRuleKeyBuilderFactory;
 import com.facebook.buck.rules.NoopArtifactCache;
 import com.facebook.buck.rules.PathSourcePath;
@@ -87,10 +91,12 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
+import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 
@@ -1141,11 +1147,143 @@ public class DefaultJavaLibraryTest {
         BuildDependencies.FIRST_ORDER_ONLY,
         Optional.<JavacStep.SuggestBuildRules>absent(),
         stepsBuilder,
-        libraryOneTarget);
+        libraryOneTarget,
+        new FakeBuildableContext());
 
     List<Step> steps = stepsBuilder.build();
-    assertEquals(steps.size(), 3);
+    assertEquals(steps.size(), 4);
     assertTrue(steps.get(2) instanceof JavacInMemoryStep);
+    assertEquals("recording dependency file", steps.get(3).getShortName());
+  }
+
+  @Test
+  public void testWhenIncrementalCompilationIsEnabledAnIncrementalJavacStepIsAdded() {
+    BuildRuleResolver ruleResolver = new BuildRuleResolver();
+
+    BuildTarget libraryOneTarget = BuildTargetFactory.newInstance("//:libone");
+    BuildRule rule = JavaLibraryBuilder
+        .createBuilder(libraryOneTarget)
+        .addSrc(Paths.get("java/src/com/libone/Bar.java"))
+        .build(ruleResolver);
+    DefaultJavaLibrary buildable = (DefaultJavaLibrary) rule;
+
+    ImmutableList.Builder<Step> stepsBuilder = ImmutableList.builder();
+    JavacOptions javacOptions = JavacOptions.builder(JavacOptions.DEFAULTS)
+        .setJavaCompilerEnvironment(
+            new JavaCompilerEnvironment(
+                Optional.<Path>absent(),
+                Optional.<JavacVersion>absent(),
+                TARGETED_JAVA_VERSION,
+                TARGETED_JAVA_VERSION,
+                /* incrementalCompilationEnabled */ true))
+        .build();
+    buildable.createCommandsForJavac(
+        buildable.getPathToOutputFile(),
+        ImmutableSet.copyOf(buildable.getTransitiveClasspathEntries().values()),
+        ImmutableSet.copyOf(buildable.getDeclaredClasspathEntries().values()),
+        javacOptions,
+        BuildDependencies.FIRST_ORDER_ONLY,
+        Optional.<JavacStep.SuggestBuildRules>absent(),
+        stepsBuilder,
+        libraryOneTarget,
+        new FakeBuildableContext());
+
+    List<Step> steps = stepsBuilder.build();
+    assertEquals(steps.size(), 3);
+    assertTrue(steps.get(2) instanceof IncrementalJavacStep);
+  }
+
+  @Test
+  public void testWhenSourceAbiIsEnabledDependentsOnlyWaitForAbiStubs() {
+    BuildRuleResolver ruleResolver = new BuildRuleResolver();
+    JavaCompilerEnvironment javacEnv = new JavaCompilerEnvironment(
+        Optional.<Path>absent(),
+        Optional.<JavacVersion>absent(),
+        TARGETED_JAVA_VERSION,
+        TARGETED_JAVA_VERSION,
+        /* incrementalCompilationEnabled */ false,
+        /* sourceAbiEnabled */ true);
+
+    BuildTarget libraryOneTarget = BuildTargetFactory.newInstance("//:libone");
+    DefaultJavaLibrary libraryOne = (DefaultJavaLibrary) JavaLibraryBuilder
+        .createBuilder(libraryOneTarget, javacEnv)
+        .addSrc(Paths.get("java/src/com/libone/Bar.java"))
+        .build(ruleResolver);
+
+    BuildTarget libraryTwoTarget = BuildTargetFactory.newInstance("//:libtwo");
+    DefaultJavaLibrary libraryTwo = (DefaultJavaLibrary) JavaLibraryBuilder
+        .createBuilder(libraryTwoTarget, javacEnv)
+        .addSrc(Paths.get("java/src/com/libtwo/Foo.java"))
+        .addDep(libraryOne)
+        .build(ruleResolver);
+
+    assertTrue(libraryOne.getAbiStubJar().isPresent());
+    AbiStubJar abiStubJar = libraryOne.getAbiStubJar().get();
+    assertEquals(
+        BuildTargets.createFlavoredBuildTarget(libraryOne, JavaLibrary.ABI_STUB_FLAVOR),
+        abiStubJar.getBuildTarget());
+
+    assertEquals(ImmutableSortedSet.<BuildRule>of(libraryOne), libraryTwo.getDeps());
+    assertEquals(ImmutableSortedSet.<BuildRule>of(abiStubJar), libraryTwo.getBuildTimeDeps());
+    ImmutableSet<Path> classpath = libraryTwo.getClasspathEntriesForAbiStubs();
+    assertTrue(classpath.contains(abiStubJar.getPathToOutputFile()));
+    assertFalse(classpath.contains(libraryOne.getPathToOutputFile()));
+  }
+
+  @Test
+  public void testAbiKeyForDependencyFileOnlyCoversTheUsedPartsOfTheDeps() {
+    FakeJavaLibraryWithAbi used = new FakeJavaLibraryWithAbi(
+        BuildTargetFactory.newInstance("//:used"), "com/example/used/Used");
+    FakeJavaLibraryWithAbi unused = new FakeJavaLibraryWithAbi(
+        BuildTargetFactory.newInstance("//:unused"), "com/example/unused/Unused");
+    Map<BuildTarget, BuildRule> buildRuleIndex = Maps.newHashMap();
+    buildRuleIndex.put(used.getBuildTarget(), used);
+    buildRuleIndex.put(unused.getBuildTarget(), unused);
+    BuildRuleResolver ruleResolver = new BuildRuleResolver(buildRuleIndex);
+
+    DefaultJavaLibrary library = (DefaultJavaLibrary) JavaLibraryBuilder
+        .createBuilder(BuildTargetFactory.newInstance("//:library"))
+        .addSrc(Paths.get("java/src/com/library/Library.java"))
+        .addDep(used)
+        .addDep(unused)
+        .build(ruleResolver);
+
+    FakeOnDiskBuildInfo onDiskBuildInfo = new FakeOnDiskBuildInfo()
+        .putMetadata(
+            DefaultJavaLibrary.USED_DEPS_ON_DISK_METADATA,
+            ImmutableList.of("//:used"))
+        .putMetadata(
+            DefaultJavaLibrary.LISTED_PACKAGES_ON_DISK_METADATA,
+            ImmutableList.of("com.example.used"));
+    Optional<Sha1HashCode> abiKey = library.getAbiKeyForDependencyFile(onDiskBuildInfo);
+    assertTrue(abiKey.isPresent());
+
+    unused.abiKey = new Sha1HashCode(Strings.repeat("b", 40));
+    assertEquals(
+        "The ABI of a library that was not used should not matter.",
+        abiKey,
+        library.getAbiKeyForDependencyFile(onDiskBuildInfo));
+
+    unused.classNames = ImmutableSet.of("com/example/unused/Unused", "com/example/used/Shadow");
+    assertNotEquals(
+        "A new class in a package that javac looked up should matter.",
+        abiKey,
+        library.getAbiKeyForDependencyFile(onDiskBuildInfo));
+    unused.classNames = ImmutableSet.of("com/example/unused/Unused");
+
+    used.abiKey = new Sha1HashCode(Strings.repeat("b", 40));
+    assertNotEquals(
+        "The ABI of a library that was used should matter.",
+        abiKey,
+        library.getAbiKeyForDependencyFile(onDiskBuildInfo));
+
+    onDiskBuildInfo.putMetadata(
+        DefaultJavaLibrary.USED_DEPS_ON_DISK_METADATA,
+        ImmutableList.of("//:used", "//:removed"));
+    assertEquals(
+        "A dependency file that refers to a dep that no longer exists should not apply.",
+        Optional.<Sha1HashCode>absent(),
+        library.getAbiKeyForDependencyFile(onDiskBuildInfo));
   }
 
   @Test
@@ -1177,8 +1315,8 @@ public class DefaultJavaLibraryTest {
         BuildDependencies.FIRST_ORDER_ONLY,
         Optional.<JavacStep.SuggestBuildRules>absent(),
         stepsBuilder,
-        libraryOneTarget
-    );
+        libraryOneTarget,
+        new FakeBuildableContext());
 
     List<Step> steps = stepsBuilder.build();
     assertEquals(steps.size(), 4);
@@ -1431,4 +1569,34 @@ public class DefaultJavaLibraryTest {
       return new Sha1HashCode(abiKeyHash);
     }
   }
+
+  private static class FakeJavaLibraryWithAbi extends FakeJavaLibrary {
+    private Sha1HashCode abiKey = new Sha1HashCode(Strings.repeat("a", 40));
+    private ImmutableSet<String> classNames;
+
+    public FakeJavaLibraryWithAbi(BuildTarget buildTarget, String className) {
+      super(buildTarget);
+      this.classNames = ImmutableSet.of(className);
+    }
+
+    @Override
+    public Sha1HashCode getAbiKey() {
+      return abiKey;
+    }
+
+    @Override
+    public ImmutableSortedMap<String, HashCode> getClassNamesToHashes() {
+      ImmutableSortedMap.Builder<String, HashCode> classNamesToHashes =
+          ImmutableSortedMap.naturalOrder();
+      for (String className : classNames) {
+        classNamesToHashes.put(className, HashCode.fromString(Strings.repeat("c", 40)));
+      }
+      return classNamesToHashes.build();
+    }
+
+    @Override
+    public ImmutableSetMultimap<JavaLibrary, Path> getOutputClasspathEntries() {
+      return ImmutableSetMultimap.of((JavaLibrary) this, getPathToOutputFile());
+    }
+  }
 }
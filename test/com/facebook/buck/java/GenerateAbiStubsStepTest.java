@@ -0,0 +1,273 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.rules.AbiRule;
+import com.facebook.buck.rules.FakeBuildableContext;
+import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.TestSourcePath;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+public class GenerateAbiStubsStepTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private static final String A = "com/example/A.java";
+  private static final String B = "com/example/B.java";
+
+  private ProjectFilesystem filesystem;
+  private ExecutionContext context;
+
+  @Before
+  public void setUp() {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+    context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(filesystem)
+        .build();
+  }
+
+  @Test
+  public void stubsHaveTheSameAbiAsCompiledClasses() throws IOException {
+    write(A,
+        "package com.example;",
+        "import java.util.List;",
+        "import java.util.Map;",
+        "@Deprecated",
+        "public abstract class A<T extends Comparable<? super T>> implements Iterable<T> {",
+        "  public static final int CONSTANT = 1 + 2;",
+        "  public static final String NAME = \"a\";",
+        "  protected final char letter = 'x';",
+        "  public Map<String, List<T>> byName;",
+        "  private int hidden;",
+        "  public A() { hidden = 1; }",
+        "  protected A(int hidden) { this.hidden = hidden; }",
+        "  public abstract <E extends Exception> T get(int i) throws E, java.io.IOException;",
+        "  public synchronized void set(T... values) { hidden = values.length; }",
+        "  private void helper() {}",
+        "  public class Inner { public Inner(T value) {} }",
+        "  public static class Nested<K> extends java.util.ArrayList<K> {}",
+        "  private static class Hidden {}",
+        "  public Runnable anonymous() { return new Runnable() { public void run() {} }; }",
+        "}");
+    write(B,
+        "package com.example;",
+        "import java.lang.annotation.*;",
+        "public enum B {",
+        "  ONE, TWO { public int value() { return 2; } };",
+        "  public int value() { return 1; }",
+        "  @Retention(RetentionPolicy.RUNTIME)",
+        "  public @interface Marker {",
+        "    String name() default \"marker\";",
+        "    B[] values() default {ONE};",
+        "    Class<?> type() default Object.class;",
+        "  }",
+        "  public interface Callback { @Marker(name = \"cb\") void call(@Deprecated String arg); }",
+        "}");
+
+    Map<String, ClassFileInfo> compiled = readClasses(compileWithJavac());
+    Map<String, ClassFileInfo> stubs = readClasses(generateStubs());
+
+    assertEquals(compiled.keySet(), stubs.keySet());
+    for (String className : compiled.keySet()) {
+      assertEquals(
+          "ABI of " + className,
+          compiled.get(className).getAbiHash(),
+          stubs.get(className).getAbiHash());
+    }
+  }
+
+  @Test
+  public void codeCanBeCompiledAgainstStubs() throws IOException {
+    write(A,
+        "package com.example;",
+        "import java.util.List;",
+        "public class A<T> {",
+        "  public static final int CONSTANT = 42;",
+        "  public List<T> items() { return null; }",
+        "  public class Inner {}",
+        "}");
+    Path stubs = generateStubs();
+
+    File dependent = new File(tmp.getRoot(), "dependent/com/other/C.java");
+    com.google.common.io.Files.createParentDirs(dependent);
+    com.google.common.io.Files.write(
+        Joiner.on('\n').join(
+            "package com.other;",
+            "import com.example.A;",
+            "public class C {",
+            "  public static final int VALUE = A.CONSTANT;",
+            "  public String first(A<String> a) { return a.items().get(0); }",
+            "  public Object inner(A<String> a) { return a.new Inner(); }",
+            "}"),
+        dependent,
+        com.google.common.base.Charsets.UTF_8);
+    File output = tmp.newFolder("dependent-classes");
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    int exitCode = compiler.run(
+        null,
+        null,
+        null,
+        "-classpath", stubs.toString(),
+        "-d", output.getPath(),
+        dependent.getPath());
+    assertEquals("Code should compile against the stubs.", 0, exitCode);
+  }
+
+  @Test
+  public void unresolvedTypesFailTheStep() throws IOException {
+    write(A,
+        "package com.example;",
+        "public class A {",
+        "  public com.missing.Type get() { return null; }",
+        "}");
+    GenerateAbiStubsStep step = new GenerateAbiStubsStep(
+        Paths.get("stubs"),
+        ImmutableSortedSet.<SourcePath>of(new TestSourcePath(A)),
+        ImmutableSet.<Path>of(),
+        JavacOptions.builder().build(),
+        new FakeBuildableContext());
+    assertNotEquals(0, step.execute(context));
+  }
+
+  @Test
+  public void abiKeyOnlyChangesWithTheAbi() throws IOException {
+    write(A,
+        "package com.example;",
+        "public class A {",
+        "  public int get() { return 1; }",
+        "}");
+    Object original = generateStubsAndGetAbiKey();
+
+    write(A,
+        "package com.example;",
+        "public class A {",
+        "  public int get() { return helper(); }",
+        "  private int helper() { return 2; }",
+        "}");
+    assertEquals(original, generateStubsAndGetAbiKey());
+
+    write(A,
+        "package com.example;",
+        "public class A {",
+        "  public long get() { return 1; }",
+        "}");
+    assertNotEquals(original, generateStubsAndGetAbiKey());
+  }
+
+  private Object generateStubsAndGetAbiKey() throws IOException {
+    FakeBuildableContext buildableContext = new FakeBuildableContext();
+    generateStubs(buildableContext);
+    return buildableContext.getRecordedMetadata().get(AbiRule.ABI_KEY_ON_DISK_METADATA);
+  }
+
+  private Path generateStubs() throws IOException {
+    return generateStubs(new FakeBuildableContext());
+  }
+
+  private Path generateStubs(FakeBuildableContext buildableContext) throws IOException {
+    Path outputDirectory = Paths.get("stubs");
+    filesystem.rmdir(outputDirectory);
+    filesystem.mkdirs(outputDirectory);
+    ImmutableSortedSet.Builder<SourcePath> srcs = ImmutableSortedSet.naturalOrder();
+    for (String src : ImmutableList.of(A, B)) {
+      if (filesystem.exists(Paths.get(src))) {
+        srcs.add(new TestSourcePath(src));
+      }
+    }
+    GenerateAbiStubsStep step = new GenerateAbiStubsStep(
+        outputDirectory,
+        srcs.build(),
+        ImmutableSet.<Path>of(),
+        JavacOptions.builder().build(),
+        buildableContext);
+    assertEquals(0, step.execute(context));
+    assertTrue(buildableContext.getRecordedMetadata().containsKey(
+        AbiRule.ABI_KEY_ON_DISK_METADATA));
+    return tmp.getRoot().toPath().resolve(outputDirectory);
+  }
+
+  private Path compileWithJavac() {
+    File output = new File(tmp.getRoot(), "classes");
+    assertTrue(output.mkdirs());
+    ImmutableList.Builder<String> args = ImmutableList.<String>builder()
+        .add("-source", JavaCompilerEnvironment.TARGETED_JAVA_VERSION)
+        .add("-target", JavaCompilerEnvironment.TARGETED_JAVA_VERSION)
+        .add("-d", output.getPath());
+    for (String src : ImmutableList.of(A, B)) {
+      args.add(new File(tmp.getRoot(), src).getPath());
+    }
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    assertEquals(0, compiler.run(null, null, null, args.build().toArray(new String[0])));
+    return output.toPath();
+  }
+
+  /**
+   * @return the classes in {@code directory} that are part of the ABI, keyed by name.
+   */
+  private static Map<String, ClassFileInfo> readClasses(Path directory) throws IOException {
+    Map<String, ClassFileInfo> classes = Maps.newTreeMap();
+    for (File file : com.google.common.io.Files.fileTreeTraverser()
+        .preOrderTraversal(directory.toFile())) {
+      if (!file.getName().endsWith(".class")) {
+        continue;
+      }
+      try (InputStream input = Files.newInputStream(file.toPath())) {
+        ClassFileInfo info = ClassFileInfo.read(input);
+        if (info.isPartOfAbi()) {
+          classes.put(info.getClassName(), info);
+        }
+      }
+    }
+    assertFalse(classes.isEmpty());
+    return ImmutableMap.copyOf(classes);
+  }
+
+  private void write(String path, String... lines) throws IOException {
+    filesystem.createParentDirs(Paths.get(path));
+    filesystem.writeLinesToPath(ImmutableList.copyOf(lines), Paths.get(path));
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.model.BuildTargets;
+import com.facebook.buck.rules.BuildDependencies;
+import com.facebook.buck.rules.FakeBuildableContext;
+import com.facebook.buck.rules.Sha1HashCode;
+import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.TestSourcePath;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+
+public class IncrementalJavacStepTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private static final String A = "com/example/A.java";
+  private static final String B = "com/example/B.java";
+  private static final String C = "com/example/C.java";
+
+  private static final BuildTarget TARGET = BuildTargetFactory.newInstance("//:lib");
+  private static final Path OUTPUT_DIRECTORY = Paths.get("classes");
+  private static final Path OUTPUT_JAR = Paths.get("lib.jar");
+  private static final Path SRCS_LIST = Paths.get("srcs_list");
+  private static final Sha1HashCode ABI_KEY_FOR_DEPS =
+      new Sha1HashCode("0000000000000000000000000000000000000000");
+
+  private ProjectFilesystem filesystem;
+  private ExecutionContext context;
+  private Sha1HashCode lastAbiKey;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+    context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(filesystem)
+        .build();
+    filesystem.mkdirs(Paths.get("abi"));
+
+    write(A,
+        "package com.example;",
+        "public class A {",
+        "  public static final int CONSTANT = 1;",
+        "  public static int get() { return 1; }",
+        "}");
+    write(B,
+        "package com.example;",
+        "public class B {",
+        "  public int get() { return A.CONSTANT + A.get(); }",
+        "}");
+    write(C,
+        "package com.example;",
+        "public class C {",
+        "  public int get() { return 3; }",
+        "}");
+  }
+
+  @Test
+  public void firstBuildCompilesEverything() throws IOException, InterruptedException {
+    assertEquals(ImmutableList.of(A, B, C), build(ABI_KEY_FOR_DEPS));
+  }
+
+  @Test
+  public void onlyChangedSourcesAndTheirDependentsAreRecompiled()
+      throws IOException, InterruptedException {
+    build(ABI_KEY_FOR_DEPS);
+    Sha1HashCode abiKey = lastAbiKey;
+
+    write(C,
+        "package com.example;",
+        "public class C {",
+        "  public int get() { return 4; }",
+        "}");
+    assertEquals(ImmutableList.of(C), build(ABI_KEY_FOR_DEPS));
+    assertEquals(abiKey, lastAbiKey);
+
+    write(A,
+        "package com.example;",
+        "public class A {",
+        "  public static final int CONSTANT = 1;",
+        "  public static int get() { return 2; }",
+        "}");
+    assertEquals(ImmutableList.of(A, B), build(ABI_KEY_FOR_DEPS));
+    assertEquals(abiKey, lastAbiKey);
+
+    // Nothing changed, so the classes are all taken from the previous jar.
+    assertEquals(ImmutableList.<String>of(), build(ABI_KEY_FOR_DEPS));
+    assertEquals(abiKey, lastAbiKey);
+    assertEquals(
+        ImmutableSortedSet.of("com/example/A.class", "com/example/B.class", "com/example/C.class"),
+        listOutputDirectory());
+  }
+
+  @Test
+  public void abiChangeRecompilesEverything() throws IOException, InterruptedException {
+    build(ABI_KEY_FOR_DEPS);
+
+    // B inlines the constant, so it must be recompiled even though only A changed.
+    write(A,
+        "package com.example;",
+        "public class A {",
+        "  public static final int CONSTANT = 2;",
+        "  public static int get() { return 1; }",
+        "}");
+    assertEquals(ImmutableList.of(A, B, C), build(ABI_KEY_FOR_DEPS));
+  }
+
+  @Test
+  public void deletedSourceRecompilesEverything() throws IOException, InterruptedException {
+    build(ABI_KEY_FOR_DEPS);
+
+    filesystem.deleteFileAtPath(Paths.get(C));
+    assertEquals(ImmutableList.of(A, B), build(ABI_KEY_FOR_DEPS));
+    assertEquals(
+        ImmutableSortedSet.of("com/example/A.class", "com/example/B.class"),
+        listOutputDirectory());
+  }
+
+  @Test
+  public void changedDepsRecompileEverything() throws IOException, InterruptedException {
+    build(ABI_KEY_FOR_DEPS);
+
+    write(C,
+        "package com.example;",
+        "public class C {",
+        "  public int get() { return 4; }",
+        "}");
+    assertEquals(
+        ImmutableList.of(A, B, C),
+        build(new Sha1HashCode("1111111111111111111111111111111111111111")));
+  }
+
+  /**
+   * Does what the build engine and DefaultJavaLibrary would do around the step.
+   *
+   * @return the sources that javac compiled.
+   */
+  private ImmutableList<String> build(Sha1HashCode abiKeyForDeps)
+      throws IOException, InterruptedException {
+    ImmutableSet.Builder<SourcePath> srcs = ImmutableSet.builder();
+    for (String name : ImmutableSortedSet.of(A, B, C)) {
+      if (filesystem.exists(Paths.get(name))) {
+        srcs.add(new TestSourcePath(name));
+      }
+    }
+    filesystem.rmdir(OUTPUT_DIRECTORY);
+    filesystem.mkdirs(OUTPUT_DIRECTORY);
+    filesystem.deleteFileAtPath(SRCS_LIST);
+    filesystem.writeContentsToPath("", SRCS_LIST);
+
+    FakeBuildableContext buildableContext = new FakeBuildableContext();
+    IncrementalJavacStep step = new IncrementalJavacStep(
+        OUTPUT_DIRECTORY,
+        srcs.build(),
+        /* transitiveClasspathEntries */ ImmutableSet.<Path>of(),
+        /* declaredClasspathEntries */ ImmutableSet.<Path>of(),
+        JavacOptions.builder().build(),
+        Paths.get("abi/abi"),
+        TARGET,
+        BuildDependencies.FIRST_ORDER_ONLY,
+        Optional.<JavacStep.SuggestBuildRules>absent(),
+        SRCS_LIST,
+        OUTPUT_JAR,
+        abiKeyForDeps,
+        buildableContext);
+    assertEquals(0, step.execute(context));
+    lastAbiKey = step.getAbiKey();
+    assertNotNull(lastAbiKey);
+
+    assertEquals(
+        0,
+        new JarDirectoryStep(
+            OUTPUT_JAR,
+            Collections.singleton(OUTPUT_DIRECTORY),
+            /* mainClass */ null,
+            /* manifestFile */ null).execute(context));
+    Path metadataDirectory = BuildTargets.getBinPath(TARGET, ".%s/metadata/");
+    filesystem.mkdirs(metadataDirectory);
+    for (Map.Entry<String, Object> entry :
+        buildableContext.getRecordedMetadata().entrySet()) {
+      filesystem.writeContentsToPath(
+          (String) entry.getValue(),
+          metadataDirectory.resolve(entry.getKey()));
+    }
+
+    return ImmutableList.copyOf(filesystem.readLines(SRCS_LIST));
+  }
+
+  private ImmutableSortedSet<String> listOutputDirectory() throws IOException {
+    ImmutableSortedSet.Builder<String> classes = ImmutableSortedSet.naturalOrder();
+    for (String name : filesystem.getFileForRelativePath(
+        OUTPUT_DIRECTORY.resolve("com/example")).list()) {
+      classes.add("com/example/" + name);
+    }
+    return classes.build();
+  }
+
+  private void write(String name, String... lines) throws IOException {
+    filesystem.mkdirs(Paths.get(name).getParent());
+    filesystem.writeLinesToPath(ImmutableList.copyOf(lines), Paths.get(name));
+  }
+}
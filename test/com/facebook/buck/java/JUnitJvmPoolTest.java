@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+import org.hamcrest.Matcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+public class JUnitJvmPoolTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private JUnitJvmPool pool;
+  private ImmutableList<String> command;
+  private String classpath;
+
+  @Before
+  public void setUp() throws ClassNotFoundException, URISyntaxException {
+    pool = new JUnitJvmPool();
+
+    // The test runner, and the libraries it uses, are always on the classpath of tests that Buck
+    // runs.
+    Class<?> serverClass = Class.forName(JUnitStep.JUNIT_TEST_RUNNER_SERVER_CLASS_NAME);
+    command = ImmutableList.of(
+        "java",
+        "-classpath",
+        locationOf(serverClass),
+        JUnitStep.JUNIT_TEST_RUNNER_SERVER_CLASS_NAME);
+    classpath = Joiner.on(File.pathSeparator).join(ImmutableSet.of(
+        locationOf(serverClass),
+        locationOf(Test.class),
+        locationOf(Matcher.class),
+        locationOf(SampleTest.class)));
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void testsAreRunInAJvmThatIsReusedUntilItHasServedMaxRuns()
+      throws IOException, InterruptedException {
+    File firstResults = tmp.newFolder("first");
+    File secondResults = tmp.newFolder("second");
+    File thirdResults = tmp.newFolder("third");
+
+    assertEquals(0, runSampleTest(firstResults).exitCode);
+    assertEquals(1, pool.getIdleJvmCount());
+    assertEquals(0, runSampleTest(secondResults).exitCode);
+    assertEquals("The JVM should be retired after two runs.", 0, pool.getIdleJvmCount());
+    assertEquals(0, runSampleTest(thirdResults).exitCode);
+    assertEquals(1, pool.getIdleJvmCount());
+
+    for (File results : ImmutableList.of(firstResults, secondResults, thirdResults)) {
+      String xml = Files.toString(
+          new File(results, SampleTest.class.getName() + ".xml"),
+          Charsets.UTF_8);
+      assertTrue(xml, xml.contains("name=\"sampleTestPasses\""));
+      assertTrue(xml, xml.contains("success=\"true\""));
+
+      String progress = Files.toString(new File(results, "progress.txt"), Charsets.UTF_8);
+      assertTrue(progress, progress.startsWith("SUCCESS\t"));
+      assertTrue(
+          progress,
+          progress.endsWith("\t" + SampleTest.class.getName() + "\tsampleTestPasses\n"));
+    }
+  }
+
+  @Test
+  public void outputThatTheJvmWritesToStdoutDoesNotCorruptResponses()
+      throws IOException, InterruptedException {
+    command = ImmutableList.<String>builder()
+        .add(command.get(0))
+        .add("-verbose:class")
+        .addAll(command.subList(1, command.size()))
+        .build();
+
+    assertEquals(0, runSampleTest(tmp.newFolder("first")).exitCode);
+    assertEquals(0, runSampleTest(tmp.newFolder("second")).exitCode);
+  }
+
+  @Test
+  public void aRunThatIsInterruptedStopsTheJvm() throws IOException {
+    Thread.currentThread().interrupt();
+    try {
+      runSampleTest(tmp.newFolder("results"));
+      fail("The run should have been interrupted.");
+    } catch (InterruptedException e) {
+      // Expected.
+    }
+    assertEquals(0, pool.getIdleJvmCount());
+  }
+
+  @Test
+  public void failingToLoadTheTestsIsReportedAsAFailedRun()
+      throws IOException, InterruptedException {
+    JUnitJvmPool.Response response = pool.run(
+        command,
+        ImmutableMap.copyOf(System.getenv()),
+        tmp.getRoot(),
+        ImmutableList.of(
+            "pretend-build-id",
+            tmp.getRoot().getAbsolutePath(),
+            classpath,
+            tmp.newFolder("results").getAbsolutePath(),
+            "0",
+            "",
+            "",
+            "",
+            "com.example.DoesNotExist"),
+        /* maxRuns */ 2);
+
+    assertEquals(1, response.exitCode);
+    assertTrue(response.stderr, response.stderr.contains("com.example.DoesNotExist"));
+  }
+
+  private JUnitJvmPool.Response runSampleTest(File results)
+      throws IOException, InterruptedException {
+    return pool.run(
+        command,
+        ImmutableMap.copyOf(System.getenv()),
+        tmp.getRoot(),
+        ImmutableList.of(
+            "pretend-build-id",
+            tmp.getRoot().getAbsolutePath(),
+            classpath,
+            results.getAbsolutePath(),
+            "0",
+            "",
+            "",
+            new File(results, "progress.txt").getAbsolutePath(),
+            SampleTest.class.getName()),
+        /* maxRuns */ 2);
+  }
+
+  private static String locationOf(Class<?> clazz) throws URISyntaxException {
+    return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+  }
+
+  /**
+   * Run by the pooled JVMs, in a class loader of their own.
+   */
+  public static class SampleTest {
+    @Test
+    public void sampleTestPasses() {
+      assertEquals(2, 1 + 1);
+    }
+  }
+}
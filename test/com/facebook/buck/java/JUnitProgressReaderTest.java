@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.rules.TestSummaryEvent;
+import com.facebook.buck.test.TestResultSummary;
+import com.facebook.buck.test.result.type.ResultType;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+public class JUnitProgressReaderTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testParseLine() {
+    TestResultSummary summary = JUnitProgressReader.parseLine(
+        "FAILURE\t42\tcom.example.FooTest\ttestBar").get();
+
+    assertEquals("com.example.FooTest", summary.getTestCaseName());
+    assertEquals("testBar", summary.getTestName());
+    assertEquals(ResultType.FAILURE, summary.getType());
+    assertEquals(42, summary.getTime());
+    assertNull(summary.getMessage());
+    assertNull(summary.getStacktrace());
+  }
+
+  @Test
+  public void testMalformedLinesAreIgnored() {
+    assertFalse(JUnitProgressReader.parseLine("").isPresent());
+    assertFalse(JUnitProgressReader.parseLine("SUCCESS\t1\tcom.example.FooTest").isPresent());
+    assertFalse(JUnitProgressReader.parseLine("EXPLODED\t1\tFooTest\ttestBar").isPresent());
+    assertFalse(JUnitProgressReader.parseLine("SUCCESS\tslow\tFooTest\ttestBar").isPresent());
+  }
+
+  @Test
+  public void testOnlyCompleteLinesArePosted() throws IOException, InterruptedException {
+    Path progressFile = tmp.getRoot().toPath().resolve(JUnitStep.PROGRESS_FILE_NAME);
+    Files.write(progressFile, "stale line from an earlier run\n".getBytes(Charsets.UTF_8));
+
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    CapturingTestSummaryListener listener = new CapturingTestSummaryListener();
+    eventBus.register(listener);
+
+    JUnitProgressReader reader = new JUnitProgressReader(progressFile, eventBus);
+    reader.start();
+    reader.readNewLines();
+    assertEquals(0, listener.summaries.size());
+
+    append(progressFile, "SUCCESS\t3\tcom.example.FooTest\ttestOne\nFAILURE\t5\tcom.exa");
+    reader.readNewLines();
+    assertEquals(1, listener.summaries.size());
+    assertEquals("testOne", listener.summaries.get(0).getTestName());
+
+    append(progressFile, "mple.FooTest\ttestTwo\n");
+    reader.stop();
+    assertEquals(2, listener.summaries.size());
+    TestResultSummary second = listener.summaries.get(1);
+    assertEquals("com.example.FooTest", second.getTestCaseName());
+    assertEquals("testTwo", second.getTestName());
+    assertEquals(ResultType.FAILURE, second.getType());
+  }
+
+  private static void append(Path file, String text) throws IOException {
+    Files.write(
+        file,
+        text.getBytes(Charsets.UTF_8),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.APPEND);
+  }
+
+  public static class CapturingTestSummaryListener {
+    private final List<TestResultSummary> summaries = Lists.newArrayList();
+
+    @Subscribe
+    public synchronized void testSummary(TestSummaryEvent event) {
+      summaries.add(event.getTestResultSummary());
+    }
+  }
+}
@@ -17,6 +17,8 @@
 package com.facebook.buck.java;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.step.ExecutionContext;
@@ -74,6 +76,7 @@ public class JUnitStepTest {
         pretendBuildId,
         TestSelectorList.empty(),
         /* isDryRun */ false,
+        /* forkJvm */ false,
         testRunnerClassesDirectory);
 
     ExecutionContext executionContext = EasyMock.createMock(ExecutionContext.class);
@@ -97,6 +100,7 @@ public class JUnitStepTest {
             "5000",
             "",
             "",
+            directoryForTemp.resolve(JUnitStep.PROGRESS_FILE_NAME).toString(),
             testClass1,
             testClass2),
         observedArgs);
@@ -138,6 +142,7 @@ public class JUnitStepTest {
         pretendBuildId,
         TestSelectorList.empty(),
         /* isDryRun */ false,
+        /* forkJvm */ false,
         testRunnerClassesDirectory);
 
 
@@ -165,6 +170,7 @@ public class JUnitStepTest {
             "0",
             "",
             "",
+            directoryForTemp.resolve(JUnitStep.PROGRESS_FILE_NAME).toString(),
             testClass1,
             testClass2),
         observedArgs);
@@ -173,4 +179,50 @@ public class JUnitStepTest {
     assertEquals("Debugging. Suspending JVM. Connect a JDWP debugger to port 5005 to proceed.",
         console.getTextWrittenToStdErr().trim());
   }
+
+  @Test
+  public void testsOnlyRunInAPooledJvmWhenAPoolIsConfiguredAndNothingNeedsAJvmOfItsOwn() {
+    TestConsole console = new TestConsole();
+    console.setVerbosity(Verbosity.STANDARD_INFORMATION);
+    ExecutionContext withoutPool = TestExecutionContext.newBuilder()
+        .setConsole(console)
+        .build();
+    ExecutionContext withPool = TestExecutionContext.newBuilder()
+        .setConsole(console)
+        .setTestJvmPoolMaxRuns(10)
+        .build();
+
+    assertFalse(createJUnitStep(/* isDebugEnabled */ false, /* forkJvm */ false)
+        .canRunInPooledJvm(withoutPool));
+    assertTrue(createJUnitStep(/* isDebugEnabled */ false, /* forkJvm */ false)
+        .canRunInPooledJvm(withPool));
+    assertFalse(createJUnitStep(/* isDebugEnabled */ true, /* forkJvm */ false)
+        .canRunInPooledJvm(withPool));
+    assertFalse(createJUnitStep(/* isDebugEnabled */ false, /* forkJvm */ true)
+        .canRunInPooledJvm(withPool));
+
+    console.setVerbosity(Verbosity.ALL);
+    ExecutionContext verbose = TestExecutionContext.newBuilder()
+        .setConsole(console)
+        .setTestJvmPoolMaxRuns(10)
+        .build();
+    assertFalse(createJUnitStep(/* isDebugEnabled */ false, /* forkJvm */ false)
+        .canRunInPooledJvm(verbose));
+  }
+
+  private JUnitStep createJUnitStep(boolean isDebugEnabled, boolean forkJvm) {
+    return new JUnitStep(
+        ImmutableSet.of(Paths.get("foo")),
+        ImmutableSet.of("com.example.ExampleTest"),
+        ImmutableList.<String>of(),
+        Paths.get("buck-out/gen/theresults/"),
+        Paths.get("buck-out/gen/thetmp/"),
+        /* isCodeCoverageEnabled */ false,
+        isDebugEnabled,
+        new BuildId("pretend-build-id"),
+        TestSelectorList.empty(),
+        /* isDryRun */ false,
+        forkJvm,
+        Paths.get("build/classes/junit"));
+  }
 }
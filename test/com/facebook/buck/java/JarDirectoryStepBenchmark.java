@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.util.MoreFiles;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Measures how long {@link JarDirectoryStep} takes to merge a large number of jars, as happens
+ * when building the jar for a {@code java_binary()}. For comparison, it also times a copy that
+ * inflates and deflates every entry, which is what the step used to do.
+ * <p>
+ * This is not run as part of the tests. Run it with:
+ * <pre>
+ *   buck run //test/com/facebook/buck/java:jar-directory-step-benchmark -- [jars] [entries]
+ * </pre>
+ */
+public class JarDirectoryStepBenchmark {
+
+  private static final int DEFAULT_JAR_COUNT = 500;
+  private static final int DEFAULT_ENTRIES_PER_JAR = 100;
+  private static final int DIRECTORY_FILE_COUNT = 2000;
+  private static final int ITERATIONS = 5;
+
+  private JarDirectoryStepBenchmark() {}
+
+  public static void main(String... args) throws IOException {
+    int jarCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_JAR_COUNT;
+    int entriesPerJar = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ENTRIES_PER_JAR;
+
+    Path root = Files.createTempDirectory("jar-directory-step-benchmark");
+    Random random = new Random(0);
+
+    ImmutableSet.Builder<Path> inputs = ImmutableSet.builder();
+    for (int jar = 0; jar < jarCount; jar++) {
+      Path path = root.resolve(String.format("lib%d.jar", jar));
+      try (JarOutputStream out = new JarOutputStream(new FileOutputStream(path.toFile()))) {
+        for (int entry = 0; entry < entriesPerJar; entry++) {
+          out.putNextEntry(new ZipEntry(
+              String.format("com/example/lib%d/Class%d.class", jar, entry)));
+          out.write(createClassLikeBytes(random));
+        }
+      }
+      inputs.add(path.getFileName());
+    }
+
+    Path classes = root.resolve("classes");
+    for (int i = 0; i < DIRECTORY_FILE_COUNT; i++) {
+      Path file = classes.resolve(String.format("com/example/app/p%d/Class%d.class", i % 20, i));
+      Files.createDirectories(file.getParent());
+      Files.write(file, createClassLikeBytes(random));
+    }
+    inputs.add(classes.getFileName());
+
+    System.out.printf(
+        "Merging %d jars of %d entries each and a directory of %d files.%n",
+        jarCount,
+        entriesPerJar,
+        DIRECTORY_FILE_COUNT);
+
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(new ProjectFilesystem(root))
+        .build();
+    for (int i = 0; i < ITERATIONS; i++) {
+      Path output = Paths.get("output.jar");
+      Files.deleteIfExists(root.resolve(output));
+
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      JarDirectoryStep step = new JarDirectoryStep(
+          output,
+          inputs.build(),
+          /* main class */ null,
+          /* manifest file */ null);
+      if (step.execute(context) != 0) {
+        throw new IllegalStateException("JarDirectoryStep failed.");
+      }
+      long stepMillis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+      stopwatch = Stopwatch.createStarted();
+      recompressingCopy(root, inputs.build());
+      long recompressingMillis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+      System.out.printf(
+          "Iteration %d: JarDirectoryStep %d ms, recompressing copy of the jars %d ms%n",
+          i + 1,
+          stepMillis,
+          recompressingMillis);
+    }
+
+    MoreFiles.deleteRecursively(root);
+  }
+
+  /**
+   * Produces bytes that compress about as well as class files do, so that deflating them is
+   * neither trivial nor pointless.
+   */
+  private static byte[] createClassLikeBytes(Random random) {
+    byte[] alphabet = "abcdefghijklmnopqrstuvwxyz;/()LIJZV".getBytes();
+    byte[] bytes = new byte[1024 + random.nextInt(4096)];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = random.nextInt(4) == 0 ?
+          (byte) random.nextInt(256) :
+          alphabet[random.nextInt(alphabet.length)];
+    }
+    return bytes;
+  }
+
+  private static void recompressingCopy(Path root, ImmutableSet<Path> inputs) throws IOException {
+    Path output = root.resolve("recompressed.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(output.toFile()))) {
+      for (Path input : inputs) {
+        Path path = root.resolve(input);
+        if (!Files.isRegularFile(path)) {
+          continue;
+        }
+        try (ZipFile zip = new ZipFile(path.toFile())) {
+          for (Enumeration<? extends ZipEntry> entries = zip.entries();
+               entries.hasMoreElements(); ) {
+            ZipEntry entry = entries.nextElement();
+            out.putNextEntry(new ZipEntry(entry.getName()));
+            try (InputStream in = zip.getInputStream(entry)) {
+              ByteStreams.copy(in, out);
+            }
+          }
+        }
+      }
+    }
+    Files.delete(output);
+  }
+}
@@ -16,8 +16,10 @@
 
 package com.facebook.buck.java;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.jar.Attributes.Name.IMPLEMENTATION_VERSION;
 import static java.util.jar.Attributes.Name.MANIFEST_VERSION;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
@@ -28,10 +30,13 @@ import com.facebook.buck.testutil.Zip;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.facebook.buck.zip.CustomZipOutputStream;
 import com.facebook.buck.zip.ZipOutputStreams;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -51,7 +56,9 @@ import java.util.jar.Attributes;
 import java.util.jar.JarInputStream;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 public class JarDirectoryStepTest {
@@ -245,6 +252,76 @@ public class JarDirectoryStepTest {
     assertZipDoesNotContain(zip, "dir/file2.txt");
   }
 
+  @Test
+  public void entriesFromJarsShouldBeCopiedWithoutBeingRecompressed() throws IOException {
+    File zipup = folder.newFolder();
+
+    byte[] contents = Strings.repeat("All work and no play makes Jack a dull boy.\n", 100)
+        .getBytes(UTF_8);
+    File input = new File(zipup, "input.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(input))) {
+      // We'd deflate using the default level, so use another to see if we recompressed anything.
+      out.setLevel(Deflater.BEST_SPEED);
+      out.putNextEntry(new ZipEntry("jack.txt"));
+      out.write(contents);
+    }
+
+    JarDirectoryStep step = new JarDirectoryStep(Paths.get("output.jar"),
+        ImmutableSet.of(Paths.get(input.getName())),
+        /* main class */ null,
+        /* manifest file */ null);
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(new ProjectFilesystem(zipup))
+        .build();
+
+    assertEquals(0, step.execute(context));
+
+    try (ZipFile original = new ZipFile(input);
+         ZipFile output = new ZipFile(new File(zipup, "output.jar"))) {
+      ZipEntry expected = original.getEntry("jack.txt");
+      ZipEntry actual = output.getEntry("jack.txt");
+      assertEquals(expected.getCompressedSize(), actual.getCompressedSize());
+      assertEquals(expected.getCrc(), actual.getCrc());
+      assertArrayEquals(contents, ByteStreams.toByteArray(output.getInputStream(actual)));
+    }
+  }
+
+  @Test
+  public void filesFromDirectoriesShouldAllBeAddedWithTheirContents() throws IOException {
+    File zipup = folder.newFolder();
+    File classes = new File(zipup, "classes");
+    Map<String, String> expected = Maps.newTreeMap();
+    for (int i = 0; i < 200; i++) {
+      String name = String.format("com/example/p%d/Example%d.class", i % 7, i);
+      String contents = Strings.repeat(name, i);
+      File file = new File(classes, name);
+      assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+      Files.write(file.toPath(), contents.getBytes(UTF_8));
+      expected.put(name, contents);
+    }
+
+    JarDirectoryStep step = new JarDirectoryStep(Paths.get("output.jar"),
+        ImmutableSet.of(Paths.get(classes.getName())),
+        /* main class */ null,
+        /* manifest file */ null);
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(new ProjectFilesystem(zipup))
+        .build();
+
+    assertEquals(0, step.execute(context));
+
+    Map<String, String> seen = Maps.newTreeMap();
+    try (ZipInputStream is =
+             new ZipInputStream(new FileInputStream(new File(zipup, "output.jar")))) {
+      for (ZipEntry entry = is.getNextEntry(); entry != null; entry = is.getNextEntry()) {
+        if (entry.getName().endsWith(".class")) {
+          seen.put(entry.getName(), new String(ByteStreams.toByteArray(is), UTF_8));
+        }
+      }
+    }
+    assertEquals(expected, seen);
+  }
+
   private Manifest createManifestWithExampleSection(Map<String, String> attributes) {
     Manifest manifest = new Manifest();
     Attributes attrs = new Attributes();
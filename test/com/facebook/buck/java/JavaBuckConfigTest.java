@@ -32,6 +32,7 @@ import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -130,6 +131,31 @@ public class JavaBuckConfigTest {
     assertEquals(TARGETED_JAVA_VERSION, compilerEnvironment.getTargetLevel());
   }
 
+  @Test
+  public void reusableAnnotationProcessorsAreReadFromConfig()
+      throws IOException, InterruptedException {
+    JavaBuckConfig config = createWithDefaultFilesystem(new StringReader(
+        "[java]\nreusable_annotation_processors = com.example.A, com.example.B"));
+
+    JavaCompilerEnvironment compilerEnvironment = config.getJavaCompilerEnvironment(
+        new ProcessExecutor(new TestConsole()));
+
+    assertEquals(
+        ImmutableSet.of("com.example.A", "com.example.B"),
+        compilerEnvironment.getReusableAnnotationProcessors());
+  }
+
+  @Test
+  public void noAnnotationProcessorsAreReusableByDefault()
+      throws IOException, InterruptedException {
+    JavaBuckConfig config = createWithDefaultFilesystem(new StringReader(""));
+
+    JavaCompilerEnvironment compilerEnvironment = config.getJavaCompilerEnvironment(
+        new ProcessExecutor(new TestConsole()));
+
+    assertEquals(ImmutableSet.of(), compilerEnvironment.getReusableAnnotationProcessors());
+  }
+
   private JavaBuckConfig createWithDefaultFilesystem(Reader reader)
       throws IOException {
     ProjectFilesystem filesystem = new ProjectFilesystem(temporaryFolder.getRoot());
@@ -31,13 +31,23 @@ public class JavaLibraryBuilder
     extends AbstractBuilder<JavaLibraryDescription.Arg> {
 
   protected JavaLibraryBuilder(BuildTarget target) {
-    super(new JavaLibraryDescription(JavaCompilerEnvironment.DEFAULT), target);
+    this(target, JavaCompilerEnvironment.DEFAULT);
+  }
+
+  protected JavaLibraryBuilder(BuildTarget target, JavaCompilerEnvironment javacEnv) {
+    super(new JavaLibraryDescription(javacEnv), target);
   }
 
   public static JavaLibraryBuilder createBuilder(BuildTarget target) {
     return new JavaLibraryBuilder(target);
   }
 
+  public static JavaLibraryBuilder createBuilder(
+      BuildTarget target,
+      JavaCompilerEnvironment javacEnv) {
+    return new JavaLibraryBuilder(target, javacEnv);
+  }
+
   public JavaLibraryBuilder addAllAnnotationProcessors(List<String> processorNames) {
     arg.annotationProcessors = Optional.of(ImmutableSet.copyOf(processorNames));
     return this;
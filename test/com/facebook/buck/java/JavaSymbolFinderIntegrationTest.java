@@ -75,6 +75,7 @@ public class JavaSymbolFinderIntegrationTest {
     JavaSymbolFinder finder = new JavaSymbolFinder(
         projectFilesystem,
         srcRootsFinder,
+        new JavaSymbolIndex(),
         projectBuildFileParserFactory,
         config,
         buckEventBus,
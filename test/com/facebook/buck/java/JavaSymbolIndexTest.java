@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.testutil.WatchEvents;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+
+public class JavaSymbolIndexTest {
+
+  private static final ImmutableSet<String> SRC_ROOT_PATTERNS = ImmutableSet.of("src");
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private ProjectFilesystem projectFilesystem;
+  private Path root;
+  private JavaSymbolIndex index;
+  private JavaSymbolIndex.FileChangeListener listener;
+
+  @Before
+  public void setUp() {
+    projectFilesystem = new ProjectFilesystem(tmp.getRoot());
+    root = projectFilesystem.getRootPath().toAbsolutePath();
+    index = new JavaSymbolIndex();
+    listener = new JavaSymbolIndex.FileChangeListener(index, projectFilesystem);
+
+    index.putSrcRoots(root, SRC_ROOT_PATTERNS, ImmutableSet.of(Paths.get("java/src")));
+    index.putExportedSymbols(
+        root.resolve("java/src/com/example/A.java"),
+        ImmutableSet.of("com.example.A"));
+    index.putExportedSymbols(
+        root.resolve("java/src/com/example/B.java"),
+        ImmutableSet.of("com.example.B"));
+    index.putBuildFileTargets(
+        root.resolve("java/src/com/example/BUCK"),
+        ImmutableSetMultimap.of(
+            Paths.get("java/src/com/example/A.java"),
+            BuildTarget.builder("//java/src/com/example", "example").build()),
+        ImmutableSet.of(root.resolve("java/src/com/example/BUCK"), root.resolve("DEFS")));
+  }
+
+  @Test
+  public void modifyingAJavaFileOnlyDropsItsSymbols() {
+    listener.onFileSystemChange(WatchEvents.createPathEvent(
+        Paths.get("java/src/com/example/A.java"),
+        StandardWatchEventKinds.ENTRY_MODIFY));
+
+    assertFalse(index.getExportedSymbols(root.resolve("java/src/com/example/A.java")).isPresent());
+    assertTrue(index.getExportedSymbols(root.resolve("java/src/com/example/B.java")).isPresent());
+    assertTrue(index.getBuildFileTargets(root.resolve("java/src/com/example/BUCK")).isPresent());
+    assertEquals(
+        Optional.of(ImmutableSet.of(Paths.get("java/src"))),
+        index.getSrcRoots(root, SRC_ROOT_PATTERNS));
+  }
+
+  @Test
+  public void creatingAFileDropsTheBuildFilesAboveItAndTheSrcRoots() {
+    listener.onFileSystemChange(WatchEvents.createPathEvent(
+        Paths.get("java/src/com/example/C.java"),
+        StandardWatchEventKinds.ENTRY_CREATE));
+
+    assertFalse(index.getBuildFileTargets(root.resolve("java/src/com/example/BUCK")).isPresent());
+    assertFalse(index.getSrcRoots(root, SRC_ROOT_PATTERNS).isPresent());
+    assertTrue(index.getExportedSymbols(root.resolve("java/src/com/example/A.java")).isPresent());
+  }
+
+  @Test
+  public void modifyingAnIncludedFileDropsTheBuildFilesThatIncludeIt() {
+    listener.onFileSystemChange(WatchEvents.createPathEvent(
+        Paths.get("DEFS"),
+        StandardWatchEventKinds.ENTRY_MODIFY));
+
+    assertFalse(index.getBuildFileTargets(root.resolve("java/src/com/example/BUCK")).isPresent());
+    assertTrue(index.getExportedSymbols(root.resolve("java/src/com/example/A.java")).isPresent());
+  }
+
+  @Test
+  public void srcRootsForOtherPatternsAreNotReturned() {
+    assertFalse(index.getSrcRoots(root, ImmutableSet.of("java")).isPresent());
+  }
+
+  @Test
+  public void overflowDropsEverything() {
+    listener.onFileSystemChange(WatchEvents.createOverflowEvent());
+
+    assertFalse(index.getExportedSymbols(root.resolve("java/src/com/example/A.java")).isPresent());
+    assertFalse(index.getBuildFileTargets(root.resolve("java/src/com/example/BUCK")).isPresent());
+    assertFalse(index.getSrcRoots(root, SRC_ROOT_PATTERNS).isPresent());
+  }
+}
@@ -97,6 +97,7 @@ public class JavaTestBuilder {
           /* additionalClasspathEntries */ ImmutableSet.<Path>of(),
           JavacOptions.DEFAULTS,
           vmArgs,
+          /* forkJvm */ false,
           sourcesUnderTest.build(),
           Optional.<Path>absent());
       resolver.addToIndex(test);
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class JavaTestShardsTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testLongestClassesAreSpreadAcrossShards() {
+    ImmutableList<ImmutableSortedSet<String>> shards = JavaTestShards.partition(
+        ImmutableSet.of("A", "B", "C", "D", "E"),
+        ImmutableMap.of("A", 100L, "B", 60L, "C", 50L, "D", 30L, "E", 10L),
+        2);
+
+    // Each class, longest first, goes to the lighter shard: 130ms and 120ms.
+    assertEquals(
+        ImmutableList.of(ImmutableSortedSet.of("A", "D"), ImmutableSortedSet.of("B", "C", "E")),
+        shards);
+  }
+
+  @Test
+  public void testClassesWithoutHistoryAreEstimatedAtTheAverage() {
+    ImmutableList<ImmutableSortedSet<String>> shards = JavaTestShards.partition(
+        ImmutableSet.of("A", "B", "New1", "New2"),
+        ImmutableMap.of("A", 90L, "B", 10L),
+        2);
+
+    // The new classes are assumed to take 50ms each, so they balance A and B at 100ms.
+    assertEquals(
+        ImmutableList.of(ImmutableSortedSet.of("A", "B"), ImmutableSortedSet.of("New1", "New2")),
+        shards);
+  }
+
+  @Test
+  public void testNeverMoreShardsThanClasses() {
+    ImmutableList<ImmutableSortedSet<String>> shards = JavaTestShards.partition(
+        ImmutableSet.of("A", "B"),
+        ImmutableMap.<String, Long>of(),
+        8);
+
+    assertEquals(ImmutableList.of(ImmutableSortedSet.of("A"), ImmutableSortedSet.of("B")), shards);
+  }
+
+  @Test
+  public void testReadHistoricalDurationsSumsTestTimes() throws IOException {
+    tmp.newFolder("out");
+    Files.write(
+        tmp.getRoot().toPath().resolve("out/com.example.FooTest.xml"),
+        ("<testcase name=\"com.example.FooTest\">" +
+            "<test name=\"testA\" success=\"true\" time=\"12\" type=\"SUCCESS\"/>" +
+            "<test name=\"testB\" success=\"true\" time=\"30\" type=\"SUCCESS\"/>" +
+            "</testcase>").getBytes("UTF-8"));
+    tmp.newFile("out/com.example.BrokenTest.xml");
+
+    Path output = Paths.get("out");
+    ImmutableMap<String, Long> durations = JavaTestShards.readHistoricalDurations(
+        new ProjectFilesystem(tmp.getRoot()),
+        output,
+        ImmutableSet.of("com.example.FooTest", "com.example.BrokenTest", "com.example.NewTest"));
+
+    assertEquals(ImmutableMap.of("com.example.FooTest", 42L), durations);
+  }
+}
@@ -17,6 +17,7 @@
 package com.facebook.buck.java;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.model.BuildTarget;
@@ -37,27 +38,41 @@ import com.facebook.buck.rules.TestSourcePath;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.hash.HashCode;
-import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 
 import org.easymock.EasyMock;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 
 public class PrebuiltJarTest {
 
   private static final Path PATH_TO_JUNIT_JAR = Paths.get("lib/junit-4.11.jar");
 
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
   private PrebuiltJar junitJarRule;
 
   @Before
@@ -73,7 +88,7 @@ public class PrebuiltJarTest {
   }
 
   @Test
-  public void testAbiKeyIsHashOfFileContents() throws IOException, InterruptedException {
+  public void testAbiKeyIsHashOfClassAbis() throws IOException, InterruptedException {
     BuildContext buildContext = EasyMock.createMock(BuildContext.class);
     FakeBuildableContext buildableContext = new FakeBuildableContext();
     List<Step> buildSteps = junitJarRule.getBuildSteps(buildContext, buildableContext);
@@ -85,11 +100,11 @@ public class PrebuiltJarTest {
     int exitCode = calculateAbiStep.execute(executionContext);
     assertEquals("Step should execute successfully.", 0, exitCode);
     buildableContext.assertContainsMetadataMapping(AbiRule.ABI_KEY_ON_DISK_METADATA,
-        "4e031bb61df09069aeb2bffb4019e7a5034a4ee0");
+        "49aef9027cf933cb58cff46036b03f323fe14b0a");
 
     // Hydrate the rule as AbstractCachingBuildRule would.
     OnDiskBuildInfo onDiskBuildInfo = new FakeOnDiskBuildInfo()
-        .putMetadata(AbiRule.ABI_KEY_ON_DISK_METADATA, "4e031bb61df09069aeb2bffb4019e7a5034a4ee0")
+        .putMetadata(AbiRule.ABI_KEY_ON_DISK_METADATA, "49aef9027cf933cb58cff46036b03f323fe14b0a")
         .setFileContentsForPath(Paths.get("buck-out/gen/lib/junit.classes.txt"),
             ImmutableList.of(
                 "com/example/Bar 1b1221d71c29aacb8e0b5b9eaffcd05e914ac55b",
@@ -104,8 +119,10 @@ public class PrebuiltJarTest {
         junitJarRule, buildResult, onDiskBuildInfo);
 
     // Make sure the ABI key is set as expected.
-    HashCode hashForJar = Files.asByteSource(PATH_TO_JUNIT_JAR.toFile()).hash(Hashing.sha1());
-    assertEquals("ABI key should be the sha1 of the file contents.",
+    HashCode hashForJar = ClasspathAbiHasher.hash(
+        PATH_TO_JUNIT_JAR,
+        executionContext.getProjectFilesystem());
+    assertEquals("ABI key should be the hash of the ABI of the classes in the jar.",
         hashForJar.toString(),
         junitJarRule.getAbiKey().toString());
 
@@ -125,6 +142,13 @@ public class PrebuiltJarTest {
         buildableContext.getRecordedMetadata());
   }
 
+  @Test
+  public void testAbiKeyChangesWithAnnotationValues() throws IOException, InterruptedException {
+    assertNotEquals(
+        calculateAbiKey("before.jar", "@Tag(\"a\")"),
+        calculateAbiKey("after.jar", "@Tag(\"b\")"));
+  }
+
   @Test
   public void testGetJavaSrcsIsEmpty() {
     assertTrue(junitJarRule.getJavaSrcs().isEmpty());
@@ -134,4 +158,53 @@ public class PrebuiltJarTest {
   public void testGetAnnotationProcessingDataIsEmpty() {
     assertTrue(junitJarRule.getAnnotationProcessingData().isEmpty());
   }
+
+  private Object calculateAbiKey(String jarName, String annotation)
+      throws IOException, InterruptedException {
+    File sourceRoot = tmp.newFolder();
+    File source = new File(sourceRoot, "com/example/Foo.java");
+    Files.createParentDirs(source);
+    Files.write(
+        Joiner.on('\n').join(
+            "package com.example;",
+            "public class Foo {",
+            "  public @interface Tag { String value(); }",
+            "  " + annotation + " public void run() {}",
+            "}"),
+        source,
+        Charsets.UTF_8);
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    int exitCode = compiler.run(
+        /* in */ null,
+        /* out */ null,
+        /* err */ null,
+        "-source", JavaCompilerEnvironment.TARGETED_JAVA_VERSION,
+        "-target", JavaCompilerEnvironment.TARGETED_JAVA_VERSION,
+        "-d", sourceRoot.getPath(),
+        source.getPath());
+    assertEquals(0, exitCode);
+
+    try (ZipOutputStream out =
+             new ZipOutputStream(new FileOutputStream(tmp.newFile(jarName)))) {
+      out.putNextEntry(new ZipEntry("com/example/Foo.class"));
+      out.write(Files.toByteArray(new File(sourceRoot, "com/example/Foo.class")));
+      out.closeEntry();
+    }
+
+    PrebuiltJar rule = new PrebuiltJar(
+        new FakeBuildRuleParamsBuilder(BuildTarget.builder("//lib", "foo").build()).build(),
+        new PathSourcePath(Paths.get(jarName)),
+        /* sourceJar */ Optional.<SourcePath>absent(),
+        /* gwtJar */ Optional.<SourcePath>absent(),
+        /* javadocUrl */ Optional.<String>absent());
+    FakeBuildableContext buildableContext = new FakeBuildableContext();
+    Step calculateAbiStep = rule.getBuildSteps(
+        EasyMock.createMock(BuildContext.class),
+        buildableContext).get(0);
+    ExecutionContext executionContext = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(new ProjectFilesystem(tmp.getRoot().toPath()))
+        .build();
+    assertEquals(0, calculateAbiStep.execute(executionContext));
+    return buildableContext.getRecordedMetadata().get(AbiRule.ABI_KEY_ON_DISK_METADATA);
+  }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ProcessorClassLoaderCacheTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void classLoaderIsSharedByCompilationsWithTheSameProcessorPath() throws IOException {
+    ProcessorClassLoaderCache cache = new ProcessorClassLoaderCache(/* maxClassLoaders */ 4);
+    ImmutableList<Path> processorPath = ImmutableList.of(createJar("processor.jar"));
+
+    try (ProcessorClassLoaderCache.Lease first = cache.acquire(processorPath);
+         ProcessorClassLoaderCache.Lease second = cache.acquire(processorPath)) {
+      assertSame(first.getClassLoader(), second.getClassLoader());
+      assertNull("Processors must not see Buck's classpath.", first.getClassLoader().getParent());
+    }
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void classLoaderIsReplacedWhenAJarChanges() throws IOException {
+    ProcessorClassLoaderCache cache = new ProcessorClassLoaderCache(/* maxClassLoaders */ 4);
+    Path jar = createJar("processor.jar");
+    ImmutableList<Path> processorPath = ImmutableList.of(jar);
+
+    ProcessorClassLoaderCache.Lease first = cache.acquire(processorPath);
+    ClassLoader original = first.getClassLoader();
+    first.close();
+    assertNotNull(original.getResource("resource.txt"));
+
+    jar.toFile().setLastModified(jar.toFile().lastModified() + TimeUnit.SECONDS.toMillis(10));
+    try (ProcessorClassLoaderCache.Lease second = cache.acquire(processorPath)) {
+      assertNotSame(original, second.getClassLoader());
+    }
+    assertNull("The replaced class loader should be closed.", original.getResource("resource.txt"));
+  }
+
+  @Test
+  public void evictedClassLoaderIsClosedOnceItIsReleased() throws IOException {
+    ProcessorClassLoaderCache cache = new ProcessorClassLoaderCache(/* maxClassLoaders */ 1);
+    ProcessorClassLoaderCache.Lease inUse = cache.acquire(ImmutableList.of(createJar("a.jar")));
+    ClassLoader evicted = inUse.getClassLoader();
+
+    cache.acquire(ImmutableList.of(createJar("b.jar"))).close();
+    assertEquals(1, cache.size());
+    assertNotNull(
+        "A class loader must stay open while a compilation is using it.",
+        evicted.getResource("resource.txt"));
+
+    inUse.close();
+    assertNull(evicted.getResource("resource.txt"));
+  }
+
+  @Test
+  public void processorPathsWithDirectoriesAreNotCached() throws IOException {
+    ProcessorClassLoaderCache cache = new ProcessorClassLoaderCache(/* maxClassLoaders */ 4);
+    ImmutableList<Path> processorPath = ImmutableList.of(
+        createJar("processor.jar"),
+        tmp.newFolder("classes").toPath());
+
+    try (ProcessorClassLoaderCache.Lease first = cache.acquire(processorPath);
+         ProcessorClassLoaderCache.Lease second = cache.acquire(processorPath)) {
+      assertNotSame(first.getClassLoader(), second.getClassLoader());
+    }
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void unsharedClassLoadersAreNotCachedAndAreClosedWithTheirLease() throws IOException {
+    ProcessorClassLoaderCache cache = new ProcessorClassLoaderCache(/* maxClassLoaders */ 4);
+    ImmutableList<Path> processorPath = ImmutableList.of(createJar("processor.jar"));
+
+    ClassLoader unshared;
+    try (ProcessorClassLoaderCache.Lease shared = cache.acquire(processorPath);
+         ProcessorClassLoaderCache.Lease lease =
+             ProcessorClassLoaderCache.createUnshared(processorPath)) {
+      unshared = lease.getClassLoader();
+      assertNotSame(shared.getClassLoader(), unshared);
+      assertNull("Processors must not see Buck's classpath.", unshared.getParent());
+    }
+    assertEquals(1, cache.size());
+    assertNull(unshared.getResource("resource.txt"));
+  }
+
+  private Path createJar(String name) throws IOException {
+    Path jar = tmp.getRoot().toPath().resolve(name);
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar.toFile()))) {
+      out.putNextEntry(new ZipEntry("resource.txt"));
+      out.write(name.getBytes(Charsets.UTF_8));
+      out.closeEntry();
+    }
+    return jar;
+  }
+}
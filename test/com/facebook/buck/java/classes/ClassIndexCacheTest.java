@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java.classes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.timing.SettableFakeClock;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+public class ClassIndexCacheTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private SettableFakeClock clock;
+  private ClassIndexCache cache;
+
+  @Before
+  public void setUp() {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+    clock = new SettableFakeClock(System.currentTimeMillis(), /* nanoTime */ 0);
+    cache = new ClassIndexCache(/* maxClasses */ 1000, clock);
+  }
+
+  @Test
+  public void jarsWithTheSameContentsAreOnlyIndexedOnce() throws IOException {
+    File first = createJar("first.jar", "com/example/Foo");
+    File second = tmp.newFile("second.jar");
+    Files.copy(first.toPath(), second.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+    ClassIndex firstIndex = cache.get(Paths.get("first.jar"), filesystem);
+    ClassIndex secondIndex = cache.get(Paths.get("second.jar"), filesystem);
+
+    assertSame(firstIndex, secondIndex);
+    assertEquals(ImmutableSet.of("com/example/Foo"), firstIndex.getClasses().keySet());
+  }
+
+  @Test
+  public void rewritingAJarCausesItToBeIndexedAgain() throws IOException {
+    File jar = createJar("example.jar", "com/example/Foo");
+    ClassIndex before = cache.get(Paths.get("example.jar"), filesystem);
+
+    createJar("example.jar", "com/example/Foo", "com/example/Bar");
+    // Make sure that the modification time changes even on file systems with coarse timestamps.
+    assertTrue(jar.setLastModified(jar.lastModified() + 2000));
+    ClassIndex after = cache.get(Paths.get("example.jar"), filesystem);
+
+    assertNotSame(before, after);
+    assertEquals(
+        ImmutableSet.of("com/example/Bar", "com/example/Foo"),
+        after.getClasses().keySet());
+  }
+
+  @Test
+  public void indexesReadFromDiskAreUsedForJarsWithTheSameContents() throws IOException {
+    File jar = createJar("example.jar", "com/example/Foo");
+    Path absolutePath = jar.toPath().toAbsolutePath();
+    ClassIndex persisted = new ClassIndex(
+        Optional.of(cache.getContentHash(absolutePath)),
+        ImmutableSortedMap.of(
+            "com/example/Foo",
+            new ClassIndex.ClassInfo(
+                HashCode.fromString("da39a3ee5e6b4b0d3255bfef95601890afd80709"), 1, 2)));
+
+    cache.put(persisted);
+
+    assertSame(persisted, cache.get(Paths.get("example.jar"), filesystem));
+  }
+
+  @Test
+  public void contentHashIsOnlyRememberedOnceTheModificationTimeIsInThePast() throws IOException {
+    long lastModified = 1400000000000L;
+    File jar = tmp.newFile("example.jar");
+    Path absolutePath = jar.toPath().toAbsolutePath();
+
+    // Rewrite the jar in place with contents of the same size, within a single clock tick.
+    clock.setCurrentTimeMillis(lastModified + 500);
+    writeWithModificationTime(jar, "first", lastModified);
+    assertEquals(sha1("first"), cache.getContentHash(absolutePath));
+    writeWithModificationTime(jar, "again", lastModified);
+    assertEquals(sha1("again"), cache.getContentHash(absolutePath));
+
+    // Once the tick has passed, the fingerprint is trusted and the jar is no longer read.
+    clock.setCurrentTimeMillis(
+        lastModified + ClassIndexCache.MODIFICATION_TIME_GRANULARITY_MILLIS);
+    assertEquals(sha1("again"), cache.getContentHash(absolutePath));
+    writeWithModificationTime(jar, "third", lastModified);
+    assertNotEquals(sha1("third"), cache.getContentHash(absolutePath));
+  }
+
+  private static void writeWithModificationTime(File file, String contents, long lastModified)
+      throws IOException {
+    Files.write(file.toPath(), contents.getBytes(Charsets.UTF_8));
+    assertTrue(file.setLastModified(lastModified));
+  }
+
+  private static HashCode sha1(String contents) {
+    return Hashing.sha1().hashString(contents, Charsets.UTF_8);
+  }
+
+  private File createJar(String name, String... classNames) throws IOException {
+    File jar = new File(tmp.getRoot(), name);
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      for (String className : classNames) {
+        out.putNextEntry(new ZipEntry(className + ".class"));
+        out.write(ClassIndexTest.createClass(className));
+      }
+    }
+    return jar;
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java.classes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import com.facebook.buck.dalvik.DalvikStatsTool;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+public class ClassIndexTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void computeRecordsTheHashSizeAndLinearAllocEstimateOfEachClass() throws IOException {
+    byte[] exampleClass = createClass("com/example/Example");
+    File jar = tmp.newFile("example.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      out.putNextEntry(new ZipEntry("com/example/Example.class"));
+      out.write(exampleClass);
+      out.putNextEntry(new ZipEntry("com/example/not_a_class.png"));
+      out.write(new byte[] {1, 2, 3});
+    }
+
+    HashCode contentHash = HashCode.fromString("0123456789abcdef0123456789abcdef01234567");
+    ClassIndex index = ClassIndex.compute(
+        Paths.get(jar.getName()),
+        Optional.of(contentHash),
+        new ProjectFilesystem(tmp.getRoot()),
+        MoreExecutors.sameThreadExecutor());
+
+    assertEquals(Optional.of(contentHash), index.getContentHash());
+    assertEquals(ImmutableList.of("com/example/Example"), index.getClasses().keySet().asList());
+    ClassIndex.ClassInfo info = index.getClasses().get("com/example/Example");
+    assertEquals(Hashing.sha1().hashBytes(exampleClass), info.getHash());
+    assertEquals(exampleClass.length, info.getSize());
+    int expectedEstimate = DalvikStatsTool.getEstimate(new ByteArrayInputStream(exampleClass))
+        .estimatedLinearAllocSize;
+    assertEquals(expectedEstimate, info.getLinearAllocEstimate());
+    assertNotEquals(
+        "The estimate should come from DalvikStatsTool, not the size of the class.",
+        exampleClass.length,
+        info.getLinearAllocEstimate());
+  }
+
+  @Test
+  public void classesThatCannotBeParsedAreEstimatedByTheirSize() throws IOException {
+    File classes = tmp.newFolder("classes");
+    File notReallyAClass = new File(classes, "Broken.class");
+    try (FileOutputStream out = new FileOutputStream(notReallyAClass)) {
+      out.write(new byte[] {1, 2, 3, 4, 5});
+    }
+
+    ClassIndex index = ClassIndex.compute(
+        Paths.get("classes"),
+        Optional.<HashCode>absent(),
+        new ProjectFilesystem(tmp.getRoot()),
+        MoreExecutors.sameThreadExecutor());
+
+    assertEquals(5, index.getClasses().get("Broken").getLinearAllocEstimate());
+  }
+
+  @Test
+  public void indexesCanBeWrittenAndReadAsLines() {
+    ClassIndex index = new ClassIndex(
+        Optional.of(HashCode.fromString("0123456789abcdef0123456789abcdef01234567")),
+        ImmutableSortedMap.of(
+            "com/example/Bar",
+            new ClassIndex.ClassInfo(
+                HashCode.fromString("da39a3ee5e6b4b0d3255bfef95601890afd80709"), 10, 20),
+            "com/example/Foo",
+            new ClassIndex.ClassInfo(
+                HashCode.fromString("a94a8fe5ccb19ba61c4c0873d391e987982fbbd3"), 30, 40)));
+
+    ImmutableList<String> lines = index.toLines();
+    assertEquals(
+        ImmutableList.of(
+            "#0123456789abcdef0123456789abcdef01234567",
+            "com/example/Bar da39a3ee5e6b4b0d3255bfef95601890afd80709 10 20",
+            "com/example/Foo a94a8fe5ccb19ba61c4c0873d391e987982fbbd3 30 40"),
+        lines);
+
+    ClassIndex read = ClassIndex.fromLines(lines);
+    assertEquals(index.getContentHash(), read.getContentHash());
+    assertEquals(index.toLines(), read.toLines());
+    assertEquals(40, read.getTotalSize());
+  }
+
+  static byte[] createClass(String internalName) {
+    ClassWriter writer = new ClassWriter(0);
+    writer.visit(
+        Opcodes.V1_6,
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER,
+        internalName,
+        null,
+        "java/lang/Object",
+        null);
+    MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+    constructor.visitCode();
+    constructor.visitVarInsn(Opcodes.ALOAD, 0);
+    constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+    constructor.visitInsn(Opcodes.RETURN);
+    constructor.visitMaxs(1, 1);
+    constructor.visitEnd();
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+}
@@ -25,6 +25,7 @@ import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -65,6 +66,7 @@ import com.google.common.collect.Lists;
 import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 
 import org.easymock.Capture;
 import org.easymock.EasyMockSupport;
@@ -332,6 +334,65 @@ public class CachingBuildEngineTest extends EasyMockSupport {
     assertEquals(CacheResult.SKIP, finishedEvent.getCacheResult());
   }
 
+  /**
+   * A rule that implements {@link HasBuildTimeDeps} runs its steps as soon as its build-time deps
+   * are built, but is not reported as built until the rest of its deps are built, too.
+   */
+  @Test
+  public void testStepsOnlyWaitForBuildTimeDeps()
+      throws ExecutionException, InterruptedException, IOException {
+    CachingBuildEngine cachingBuildEngine = new CachingBuildEngine();
+
+    BuildTarget target1 = BuildTargetFactory.newInstance("//java/com/example:rule1");
+    FakeBuildRule dep1 = new FakeBuildRule(AndroidResourceDescription.TYPE, target1);
+    cachingBuildEngine.setBuildRuleResult(
+        target1,
+        new BuildRuleSuccess(dep1, BuildRuleSuccess.Type.BUILT_LOCALLY));
+    dep1.setRuleKey(new RuleKey(Strings.repeat("a", 40)));
+
+    // The second dep is still building.
+    BuildTarget target2 = BuildTargetFactory.newInstance("//java/com/example:rule2");
+    FakeBuildRule dep2 = new FakeBuildRule(AndroidResourceDescription.TYPE, target2);
+    SettableFuture<BuildRuleSuccess> dep2Future = cachingBuildEngine.createFutureFor(target2);
+    dep2.setRuleKey(new RuleKey(Strings.repeat("b", 40)));
+
+    final List<String> strings = Lists.newArrayList();
+    Step buildStep = new AbstractExecutionStep("test_step") {
+      @Override
+      public int execute(ExecutionContext context) {
+        strings.add("Step was executed.");
+        return 0;
+      }
+    };
+    BuildRuleParams buildRuleParams = new FakeBuildRuleParamsBuilder(buildTarget)
+        .setDeps(ImmutableSortedSet.<BuildRule>of(dep1, dep2))
+        .setType(JavaLibraryDescription.TYPE)
+        .setFileHashCache(FakeFileHashCache.createFromStrings(ImmutableMap.<String, String>of()))
+        .build();
+    ImmutableSortedSet<BuildRule> buildTimeDeps = ImmutableSortedSet.<BuildRule>of(dep1);
+    BuildRule buildRuleToTest = new BuildTimeDepsBuildRule(
+        buildRuleParams,
+        buildTimeDeps,
+        ImmutableList.of(buildStep));
+
+    BuildContext buildContext = FakeBuildContext.newBuilder(new FakeProjectFilesystem())
+        .setActionGraph(new ActionGraph(new MutableDirectedGraph<BuildRule>()))
+        .setJavaPackageFinder(createMock(JavaPackageFinder.class))
+        .setArtifactCache(new NoopArtifactCache())
+        .setEventBus(BuckEventBusFactory.newInstance())
+        .build();
+
+    ListenableFuture<BuildRuleSuccess> result =
+        cachingBuildEngine.build(buildContext, buildRuleToTest);
+    MoreAsserts.assertListEquals(Lists.newArrayList("Step was executed."), strings);
+    assertFalse("The rule must not be reported as built before all of its deps are built.",
+        result.isDone());
+
+    dep2Future.set(new BuildRuleSuccess(dep2, BuildRuleSuccess.Type.BUILT_LOCALLY));
+    assertTrue(MoreFutures.isSuccess(result));
+    assertEquals(BuildRuleSuccess.Type.BUILT_LOCALLY, result.get().getType());
+  }
+
   /**
    * Rebuild a rule where one if its dependencies has been modified such that its RuleKey has
    * changed, but its ABI is the same.
@@ -405,6 +466,61 @@ public class CachingBuildEngineTest extends EasyMockSupport {
     verifyAll();
   }
 
+  /**
+   * Rebuild a rule where the ABI of its deps has changed, but not the ABI of the parts of its deps
+   * that it used when it was last built.
+   */
+  @Test
+  public void testDependencyFileCanAvoidRebuild()
+      throws InterruptedException, ExecutionException, IOException {
+    BuildRuleParams buildRuleParams = new FakeBuildRuleParamsBuilder(buildTarget).build();
+    DependencyFileTestAbstractCachingBuildRule buildRule =
+        new DependencyFileTestAbstractCachingBuildRule(buildRuleParams);
+
+    BuckEventBus buckEventBus = BuckEventBusFactory.newInstance();
+    BuildContext buildContext = createMock(BuildContext.class);
+
+    BuildInfoRecorder buildInfoRecorder = createMock(BuildInfoRecorder.class);
+    expect(buildContext.createBuildInfoRecorder(
+           eq(buildTarget),
+           /* ruleKey */ anyObject(RuleKey.class),
+           /* ruleKeyWithoutDeps */ anyObject(RuleKey.class)))
+        .andReturn(buildInfoRecorder);
+
+    OnDiskBuildInfo onDiskBuildInfo = new FakeOnDiskBuildInfo()
+        .setRuleKey(reverse(buildRule.getRuleKey()))
+        .setRuleKeyWithoutDeps(
+            new RuleKey(TestAbstractCachingBuildRule.RULE_KEY_WITHOUT_DEPS_HASH))
+        // The ABI of the deps has changed...
+        .putMetadata(
+            CachingBuildEngine.ABI_KEY_FOR_DEPS_ON_DISK_METADATA,
+            Strings.repeat("d", 40))
+        // ...but not the ABI of the parts of them that the rule used.
+        .putMetadata(
+            DependencyFileAbiRule.ABI_KEY_FOR_DEPENDENCY_FILE_ON_DISK_METADATA,
+            DependencyFileTestAbstractCachingBuildRule.ABI_KEY_FOR_DEPENDENCY_FILE_HASH)
+        .putMetadata(AbiRule.ABI_KEY_ON_DISK_METADATA,
+            "At some point, this method call should go away.");
+
+    buildInfoRecorder.writeMetadataToDisk(/* clearExistingMetadata */ false);
+
+    expect(buildContext.createOnDiskBuildInfoFor(buildTarget)).andReturn(onDiskBuildInfo);
+    expect(buildContext.getStepRunner()).andReturn(createSameThreadStepRunner());
+    expect(buildContext.getEventBus()).andReturn(buckEventBus).anyTimes();
+
+    replayAll();
+    CachingBuildEngine cachingBuildEngine = new CachingBuildEngine();
+
+    ListenableFuture<BuildRuleSuccess> result = cachingBuildEngine.build(buildContext, buildRule);
+    assertTrue(MoreFutures.isSuccess(result));
+    assertEquals(
+        BuildRuleSuccess.Type.MATCHING_DEPS_ABI_AND_RULE_KEY_NO_DEPS,
+        result.get().getType());
+    assertTrue(buildRule.isAbiLoadedFromDisk());
+
+    verifyAll();
+  }
+
   private StepRunner createSameThreadStepRunner() {
     return createSameThreadStepRunner(null);
   }
@@ -653,6 +769,53 @@ public class CachingBuildEngineTest extends EasyMockSupport {
     }
   }
 
+  /**
+   * {@link AbstractBuildRule} whose steps only need some of its deps to be built.
+   */
+  private static class BuildTimeDepsBuildRule extends AbstractBuildRule
+      implements HasBuildTimeDeps {
+
+    private final ImmutableSortedSet<BuildRule> buildTimeDeps;
+    private final List<Step> buildSteps;
+
+    private BuildTimeDepsBuildRule(
+        BuildRuleParams params,
+        ImmutableSortedSet<BuildRule> buildTimeDeps,
+        List<Step> buildSteps) {
+      super(params);
+      this.buildTimeDeps = buildTimeDeps;
+      this.buildSteps = buildSteps;
+    }
+
+    @Override
+    public ImmutableSortedSet<BuildRule> getBuildTimeDeps() {
+      return buildTimeDeps;
+    }
+
+    @Override
+    @Nullable
+    public Path getPathToOutputFile() {
+      return null;
+    }
+
+    @Override
+    public ImmutableList<Step> getBuildSteps(
+        BuildContext context,
+        BuildableContext buildableContext) {
+      return ImmutableList.copyOf(buildSteps);
+    }
+
+    @Override
+    public RuleKey.Builder appendDetailsToRuleKey(RuleKey.Builder builder) {
+      return builder;
+    }
+
+    @Override
+    public ImmutableCollection<Path> getInputsToCompareToOutput() {
+      return ImmutableList.of();
+    }
+  }
+
   /**
    * {@link AbstractBuildRule} that implements {@link AbiRule}.
    */
@@ -732,6 +895,22 @@ public class CachingBuildEngineTest extends EasyMockSupport {
     }
   }
 
+  private static class DependencyFileTestAbstractCachingBuildRule
+      extends TestAbstractCachingBuildRule implements DependencyFileAbiRule {
+
+    private static final String ABI_KEY_FOR_DEPENDENCY_FILE_HASH =
+        "bbbd6b5a21d3b9e0e7edcbda9cc5ef5bd34e4b28";
+
+    DependencyFileTestAbstractCachingBuildRule(BuildRuleParams buildRuleParams) {
+      super(buildRuleParams);
+    }
+
+    @Override
+    public Optional<Sha1HashCode> getAbiKeyForDependencyFile(OnDiskBuildInfo onDiskBuildInfo) {
+      return Optional.of(new Sha1HashCode(ABI_KEY_FOR_DEPENDENCY_FILE_HASH));
+    }
+  }
+
   private static class LocallyBuiltTestAbstractCachingBuildRule
       extends TestAbstractCachingBuildRule {
     LocallyBuiltTestAbstractCachingBuildRule(BuildRuleParams buildRuleParams) {
@@ -46,6 +46,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import org.easymock.EasyMock;
 import org.junit.Before;
@@ -195,6 +197,11 @@ public class ExportFileTest {
               ListenableFuture<List<T>> allBuiltDeps, FutureCallback<List<T>> futureCallback) {
             // Do nothing.
           }
+
+          @Override
+          public ListeningExecutorService getListeningExecutorService() {
+            return MoreExecutors.sameThreadExecutor();
+          }
         })
         .build();
   }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.step;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ParallelStepTest {
+
+  private ListeningExecutorService executor;
+
+  @Before
+  public void createExecutor() {
+    executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(1));
+  }
+
+  @After
+  public void shutDownExecutor() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testStepsRunAtTheSameTime() throws InterruptedException {
+    // Neither step can finish until both have started.
+    final CountDownLatch started = new CountDownLatch(2);
+    Step first = new AwaitingStep(started, 0);
+    Step second = new AwaitingStep(started, 0);
+
+    ParallelStep step = new ParallelStep(ImmutableList.of(first, second));
+
+    assertEquals(0, step.execute(newContextWithStepExecutor()));
+  }
+
+  @Test
+  public void testStepsDoNotRunOnMoreThreadsThanTheStepExecutorHasToSpare()
+      throws InterruptedException {
+    // The executor has a single thread, so at most two steps, one of them on the calling thread,
+    // can be running at any time.
+    ConcurrencyCountingStep counter = new ConcurrencyCountingStep();
+    ParallelStep step = new ParallelStep(
+        ImmutableList.of(counter, counter, counter, counter, counter));
+
+    assertEquals(0, step.execute(newContextWithStepExecutor()));
+    assertEquals(5, counter.runs.get());
+    assertTrue(counter.maxRunning.get() <= 2);
+  }
+
+  @Test
+  public void testStepsRunOneAfterTheOtherWithoutAStepExecutor() throws InterruptedException {
+    ConcurrencyCountingStep counter = new ConcurrencyCountingStep();
+    ParallelStep step = new ParallelStep(ImmutableList.of(counter, counter, counter));
+
+    assertEquals(0, step.execute(TestExecutionContext.newInstance()));
+    assertEquals(3, counter.runs.get());
+    assertEquals(1, counter.maxRunning.get());
+  }
+
+  @Test
+  public void testExitCodeIsThatOfTheFirstFailingStep() throws InterruptedException {
+    ParallelStep step = new ParallelStep(ImmutableList.of(
+        new FakeStep("pass", "pass", 0),
+        new FakeStep("fail", "fail", 3),
+        new FakeStep("also_fail", "also fail", 7)));
+
+    assertEquals(3, step.execute(newContextWithStepExecutor()));
+  }
+
+  @Test
+  public void testDescriptionJoinsTheStepsDescriptions() {
+    ParallelStep step = new ParallelStep(ImmutableList.of(
+        new FakeStep("a", "run a", 0),
+        new FakeStep("b", "run b", 0)));
+
+    assertEquals("run a & run b", step.getDescription(TestExecutionContext.newInstance()));
+  }
+
+  private ExecutionContext newContextWithStepExecutor() {
+    return TestExecutionContext.newBuilder()
+        .setStepExecutor(Optional.of(executor))
+        .build();
+  }
+
+  private static class AwaitingStep extends AbstractExecutionStep {
+    private final CountDownLatch started;
+    private final int exitCode;
+
+    private AwaitingStep(CountDownLatch started, int exitCode) {
+      super("await");
+      this.started = started;
+      this.exitCode = exitCode;
+    }
+
+    @Override
+    public int execute(ExecutionContext context) {
+      started.countDown();
+      try {
+        return started.await(10, TimeUnit.SECONDS) ? exitCode : 1;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return 1;
+      }
+    }
+  }
+  /** Records how many runs of this step overlapped at most. */
+  private static class ConcurrencyCountingStep extends AbstractExecutionStep {
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final AtomicInteger runs = new AtomicInteger();
+
+    private ConcurrencyCountingStep() {
+      super("count");
+    }
+
+    @Override
+    public int execute(ExecutionContext context) {
+      int nowRunning = running.incrementAndGet();
+      synchronized (maxRunning) {
+        maxRunning.set(Math.max(maxRunning.get(), nowRunning));
+      }
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return 1;
+      } finally {
+        running.decrementAndGet();
+      }
+      runs.incrementAndGet();
+      return 0;
+    }
+  }
+}
@@ -17,9 +17,12 @@
 package com.facebook.buck.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.facebook.buck.test.result.type.ResultType;
 import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 
@@ -29,6 +32,7 @@ import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 public class XmlTestResultParserTest {
 
@@ -59,4 +63,55 @@ public class XmlTestResultParserTest {
           e.getMessage());
     }
   }
+
+  @Test
+  public void testParseResults() throws IOException {
+    String xml =
+        "<?xml version='1.1' encoding='UTF-8' standalone='no'?>\n" +
+        "<testcase name='com.example.FooTest'>\n" +
+        "  <test name='testPasses' success='true' time='12' type='SUCCESS'>\n" +
+        "    <stdout>Hello &amp; welcome\nto the test</stdout>\n" +
+        "  </test>\n" +
+        "  <test message='expected:&lt;1&gt; but was:&lt;2&gt;' name='testFails'" +
+        " stacktrace='java.lang.AssertionError&#10;&#9;at com.example.FooTest.testFails'" +
+        " success='false' time='3' type='FAILURE'>\n" +
+        "    <stderr><![CDATA[Oops]]></stderr>\n" +
+        "  </test>\n" +
+        "  <test name='testAssumes' success='false' time='0' type='ASSUMPTION_VIOLATION'/>\n" +
+        "</testcase>\n";
+    File xmlFile = tmp.newFile("result.xml");
+    Files.write(xml, xmlFile, Charsets.UTF_8);
+
+    TestCaseSummary summary = XmlTestResultParser.parse(xmlFile);
+
+    assertEquals("com.example.FooTest", summary.getTestCaseName());
+    assertFalse(summary.isSuccess());
+    assertEquals(15, summary.getTotalTime());
+    List<TestResultSummary> results = summary.getTestResults();
+    assertEquals(3, results.size());
+
+    TestResultSummary passed = results.get(0);
+    assertEquals("testPasses", passed.getTestName());
+    assertEquals(ResultType.SUCCESS, passed.getType());
+    assertEquals(12, passed.getTime());
+    assertNull(passed.getMessage());
+    assertNull(passed.getStacktrace());
+    assertEquals("Hello & welcome\nto the test", passed.getStdOut());
+    assertNull(passed.getStdErr());
+
+    TestResultSummary failed = results.get(1);
+    assertEquals("testFails", failed.getTestName());
+    assertEquals("com.example.FooTest", failed.getTestCaseName());
+    assertEquals(ResultType.FAILURE, failed.getType());
+    assertEquals("expected:<1> but was:<2>", failed.getMessage());
+    assertEquals(
+        "java.lang.AssertionError\n\tat com.example.FooTest.testFails",
+        failed.getStacktrace());
+    assertNull(failed.getStdOut());
+    assertEquals("Oops", failed.getStdErr());
+
+    TestResultSummary assumed = results.get(2);
+    assertEquals(ResultType.ASSUMPTION_VIOLATION, assumed.getType());
+    assertEquals("", assumed.getMessage());
+  }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class ProcessResourceMonitorTest {
+
+  @Test
+  public void cpuTimeIncludesWaitedForChildren() {
+    // utime = 150, stime = 30, cutime = 15, cstime = 5 clock ticks.
+    String stat = "4242 (javac) S 1 4242 4242 0 -1 4194304 1000 0 0 0 150 30 15 5 20 0 1 0 " +
+        "1234 5678 90 18446744073709551615 1 1 0 0 0 0 0 0 0 0 0 0 17 0 0 0 0 0 0\n";
+
+    assertEquals(TimeUnit.SECONDS.toNanos(2), ProcessResourceMonitor.parseCpuTimeNanos(stat));
+  }
+
+  @Test
+  public void commandNamesWithSpacesAndParenthesesAreSkipped() {
+    String stat = "7 (my (weird) cmd) R 1 7 7 0 -1 0 0 0 0 0 3 4 5 6 20 0 1 0 1 2 3\n";
+
+    assertEquals(
+        18 * TimeUnit.MILLISECONDS.toNanos(10),
+        ProcessResourceMonitor.parseCpuTimeNanos(stat));
+  }
+
+  @Test
+  public void peakRssIsReadFromVmHwm() {
+    String status = "Name:\tjava\nState:\tS (sleeping)\nVmPeak:\t  900000 kB\n" +
+        "VmHWM:\t  123456 kB\nVmRSS:\t  100000 kB\n";
+
+    assertEquals(123456L * 1024, ProcessResourceMonitor.parsePeakRssBytes(status));
+  }
+
+  @Test
+  public void peakRssIsUnknownForZombies() {
+    String status = "Name:\tjava\nState:\tZ (zombie)\nThreads:\t1\n";
+
+    assertEquals(-1, ProcessResourceMonitor.parsePeakRssBytes(status));
+  }
+}
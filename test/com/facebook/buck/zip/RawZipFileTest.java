@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Resources;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class RawZipFileTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void shouldReadEntriesWrittenByTheJdk() throws IOException {
+    byte[] macbeth = Resources.toByteArray(getClass().getResource("macbeth.properties"));
+    File zip = tmp.newFile("input.zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+      out.setComment("Comments are written after the central directory.");
+      out.putNextEntry(new ZipEntry("dir/"));
+      out.putNextEntry(new ZipEntry("dir/macbeth.txt"));
+      out.write(macbeth);
+      out.putNextEntry(createStoredEntry("stored.txt", "cheese".getBytes(UTF_8)));
+      out.write("cheese".getBytes(UTF_8));
+    }
+
+    try (RawZipFile raw = new RawZipFile(zip); ZipFile reference = new ZipFile(zip)) {
+      ImmutableList<ZipEntry> entries = raw.getEntries();
+      assertEquals(3, entries.size());
+      for (ZipEntry entry : entries) {
+        ZipEntry expected = reference.getEntry(entry.getName());
+        assertEquals(expected.getMethod(), entry.getMethod());
+        assertEquals(expected.getCrc(), entry.getCrc());
+        assertEquals(expected.getSize(), entry.getSize());
+        assertEquals(expected.getCompressedSize(), entry.getCompressedSize());
+        assertEquals(expected.getTime(), entry.getTime());
+
+        try (InputStream actualStream = raw.getInputStream(entry);
+             InputStream expectedStream = reference.getInputStream(expected)) {
+          assertArrayEquals(
+              ByteStreams.toByteArray(expectedStream),
+              ByteStreams.toByteArray(actualStream));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void rawEntriesCanBeCopiedWithoutRecompressing() throws IOException {
+    byte[] macbeth = Resources.toByteArray(getClass().getResource("macbeth.properties"));
+    File input = tmp.newFile("input.zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(input))) {
+      // A compression level that the output stream would never pick on its own.
+      out.setLevel(Deflater.BEST_SPEED);
+      out.putNextEntry(new ZipEntry("macbeth.txt"));
+      out.write(macbeth);
+      out.putNextEntry(createStoredEntry("stored.txt", "cheese".getBytes(UTF_8)));
+      out.write("cheese".getBytes(UTF_8));
+    }
+
+    File output = tmp.newFile("output.zip");
+    try (RawZipFile raw = new RawZipFile(input);
+         CustomZipOutputStream out = ZipOutputStreams.newOutputStream(output)) {
+      for (ZipEntry entry : raw.getEntries()) {
+        out.putNextRawEntry(new ZipEntry(entry));
+        try (InputStream in = raw.getRawInputStream(entry)) {
+          ByteStreams.copy(in, out);
+        }
+        out.closeEntry();
+      }
+    }
+
+    try (ZipFile original = new ZipFile(input); ZipFile copy = new ZipFile(output)) {
+      for (String name : ImmutableList.of("macbeth.txt", "stored.txt")) {
+        ZipEntry expected = original.getEntry(name);
+        ZipEntry actual = copy.getEntry(name);
+        assertEquals(expected.getMethod(), actual.getMethod());
+        assertEquals(expected.getCrc(), actual.getCrc());
+        assertEquals(expected.getCompressedSize(), actual.getCompressedSize());
+        try (InputStream expectedStream = original.getInputStream(expected);
+             InputStream actualStream = copy.getInputStream(actual)) {
+          assertArrayEquals(
+              ByteStreams.toByteArray(expectedStream),
+              ByteStreams.toByteArray(actualStream));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldReadZip64FilesWithMoreEntriesThanTheEndRecordCanHold() throws IOException {
+    // Beyond 65535 entries the JDK writes a zip64 end of central directory record.
+    int entryCount = 0x10000 + 10;
+    File zip = tmp.newFile("many.zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+      for (int i = 0; i < entryCount; i++) {
+        out.putNextEntry(new ZipEntry("entry-" + i));
+        out.write(String.valueOf(i).getBytes(UTF_8));
+      }
+    }
+
+    try (RawZipFile raw = new RawZipFile(zip)) {
+      ImmutableList<ZipEntry> entries = raw.getEntries();
+      assertEquals(entryCount, entries.size());
+      ZipEntry last = entries.get(entryCount - 1);
+      assertEquals("entry-" + (entryCount - 1), last.getName());
+      try (InputStream in = raw.getInputStream(last)) {
+        assertArrayEquals(
+            String.valueOf(entryCount - 1).getBytes(UTF_8),
+            ByteStreams.toByteArray(in));
+      }
+    }
+  }
+
+  @Test(expected = ZipException.class)
+  public void shouldRejectFilesThatAreNotZips() throws IOException {
+    File notAZip = tmp.newFile("not-a-zip.txt");
+    try (FileOutputStream out = new FileOutputStream(notAZip)) {
+      out.write("This is certainly not a zip file.".getBytes(UTF_8));
+    }
+
+    new RawZipFile(notAZip).close();
+  }
+
+  private ZipEntry createStoredEntry(String name, byte[] contents) {
+    CRC32 crc = new CRC32();
+    crc.update(contents);
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(contents.length);
+    entry.setCrc(crc.getValue());
+    return entry;
+  }
+}
@@ -57,6 +57,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
@@ -451,6 +452,60 @@ public class ZipOutputStreamTest {
     assertArrayEquals(expected, seen);
   }
 
+  @Test
+  public void rawEntriesShouldBeWrittenVerbatimInEitherMode() throws IOException {
+    byte[] input = "I like cheese. I like cheese a lot.".getBytes(UTF_8);
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, /* nowrap */ true);
+    deflater.setInput(input);
+    deflater.finish();
+    byte[] buffer = new byte[1024];
+    int compressedSize = deflater.deflate(buffer);
+    assertTrue(deflater.finished());
+    deflater.end();
+    CRC32 crc = new CRC32();
+    crc.update(input);
+
+    for (ZipOutputStreams.HandleDuplicates mode : ZipOutputStreams.HandleDuplicates.values()) {
+      try (CustomZipOutputStream out = ZipOutputStreams.newOutputStream(output, mode)) {
+        out.putNextEntry(new ZipEntry("before.txt"));
+        out.write(input);
+
+        ZipEntry raw = new ZipEntry("raw.txt");
+        raw.setMethod(ZipEntry.DEFLATED);
+        raw.setCrc(crc.getValue());
+        raw.setSize(input.length);
+        raw.setCompressedSize(compressedSize);
+        out.putNextRawEntry(raw);
+        out.write(buffer, 0, compressedSize);
+
+        out.putNextEntry(new ZipEntry("after.txt"));
+        out.write(input);
+      }
+
+      try (ZipInputStream in = new ZipInputStream(new FileInputStream(output))) {
+        for (String name : ImmutableList.of("before.txt", "raw.txt", "after.txt")) {
+          ZipEntry entry = in.getNextEntry();
+          assertEquals(name, entry.getName());
+          assertArrayEquals(input, ByteStreams.toByteArray(in));
+        }
+        assertNull(in.getNextEntry());
+      }
+    }
+  }
+
+  @Test(expected = ZipException.class)
+  public void writingFewerBytesThanARawEntryDeclaresIsAnError() throws IOException {
+    try (CustomZipOutputStream out = ZipOutputStreams.newOutputStream(output)) {
+      ZipEntry raw = new ZipEntry("raw.txt");
+      raw.setMethod(ZipEntry.DEFLATED);
+      raw.setCrc(0);
+      raw.setSize(10);
+      raw.setCompressedSize(5);
+      out.putNextRawEntry(raw);
+      out.write(new byte[4]);
+    }
+  }
+
   @Test
   public void testThatExternalAttributesFieldIsFunctional()
       throws IOException {
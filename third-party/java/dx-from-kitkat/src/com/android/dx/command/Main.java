@@ -43,9 +43,8 @@ public class Main {
         "    Positions options: none, important, lines.\n" +
         "    --multi-dex: allows to generate several dex files if needed. " +
         "This option is \n" +
-        "    exclusive with --incremental, causes --num-threads to be ignored " +
-        "and only\n" +
-        "    supports folder or archive output.\n" +
+        "    exclusive with --incremental and only supports folder or " +
+        "archive output.\n" +
         "    --main-dex-list=<file>: <file> is a list of class file names, " +
         "classes defined by\n" +
         "    those class files are put in classes.dex.\n" +
@@ -39,6 +39,10 @@ import com.android.dx.dex.file.AnnotationUtils;
 import com.android.dx.dex.file.ClassDefItem;
 import com.android.dx.dex.file.DexFile;
 import com.android.dx.dex.file.EncodedMethod;
+import com.android.dx.dex.file.FieldIdItem;
+import com.android.dx.dex.file.Item;
+import com.android.dx.dex.file.MethodIdItem;
+import com.android.dx.dex.file.TypeIdItem;
 import com.android.dx.merge.CollisionPolicy;
 import com.android.dx.merge.DexMerger;
 import com.android.dx.rop.annotation.Annotation;
@@ -59,6 +63,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -67,8 +72,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
@@ -175,6 +183,20 @@ public class Main {
     /** thread pool object used for multi-threaded file processing */
     private ExecutorService threadPool;
 
+    /**
+     * Maximum number of classes per thread that may be translated ahead of
+     * the class that is next to be added to the output.
+     */
+    private static final int PENDING_CLASSES_PER_THREAD = 4;
+
+    /**
+     * Classes that are being translated by {@link #threadPool}, in the order
+     * in which they were read. They are added to {@link #outputDex} in this
+     * order, so the output does not depend on the number of threads.
+     */
+    private final ArrayDeque<Future<TranslatedClass>> pendingClasses =
+            new ArrayDeque<Future<TranslatedClass>>();
+
     /** true if any files are successfully processed */
     private boolean anyFilesProcessed;
 
@@ -328,7 +350,6 @@ public class Main {
     private int runMultiDex() throws IOException {
 
         assert !args.incremental;
-        assert args.numThreads == 1;
 
         if (args.mainDexListFile != null) {
             classesInMainDex = loadMainDexListFile(args.mainDexListFile);
@@ -494,6 +515,7 @@ public class Main {
                         anyFilesProcessed = true;
                     }
                 }
+                addPendingClasses(0);
 
                 if (dexOutputArrays.size() > 1) {
                     throw new DexException("Too many classes in " + Arguments.MAIN_DEX_LIST_OPTION
@@ -519,11 +541,16 @@ public class Main {
                     }
                 }
             }
+            addPendingClasses(0);
         } catch (StopProcessing ex) {
             /*
              * Ignore it and just let the error reporting do
              * their things.
              */
+            for (Future<TranslatedClass> pending : pendingClasses) {
+                pending.cancel(true);
+            }
+            pendingClasses.clear();
         }
 
         if (args.numThreads > 1) {
@@ -591,25 +618,13 @@ public class Main {
         opener = new ClassPathOpener(pathname, false, filter,
                 new ClassPathOpener.Consumer() {
             public boolean processFileBytes(String name, long lastModified, byte[] bytes) {
-                if (args.numThreads > 1) {
-                    threadPool.execute(new ParallelProcessor(name, lastModified, bytes));
-                    return false;
-                } else {
-                    return Main.this.processFileBytes(name, lastModified, bytes);
-                }
+                return Main.this.processFileBytes(name, lastModified, bytes);
             }
             public void onException(Exception ex) {
                 if (ex instanceof StopProcessing) {
                     throw (StopProcessing) ex;
-                } else if (ex instanceof SimException) {
-                    dxConsole.err.println("\nEXCEPTION FROM SIMULATION:");
-                    dxConsole.err.println(ex.getMessage() + "\n");
-                    dxConsole.err.println(((SimException) ex).getContext());
-                } else {
-                    dxConsole.err.println("\nUNEXPECTED TOP-LEVEL EXCEPTION:");
-                    ex.printStackTrace(dxConsole.err);
                 }
-                errors++;
+                reportException(ex);
             }
             public void onProcessArchiveStart(File file) {
                 if (args.verbose) {
@@ -622,6 +637,22 @@ public class Main {
         return opener.process();
     }
 
+    /**
+     * Reports an exception thrown while processing a file, and counts it as
+     * an error.
+     */
+    private void reportException(Throwable ex) {
+        if (ex instanceof SimException) {
+            dxConsole.err.println("\nEXCEPTION FROM SIMULATION:");
+            dxConsole.err.println(ex.getMessage() + "\n");
+            dxConsole.err.println(((SimException) ex).getContext());
+        } else {
+            dxConsole.err.println("\nUNEXPECTED TOP-LEVEL EXCEPTION:");
+            ex.printStackTrace(dxConsole.err);
+        }
+        errors++;
+    }
+
     /**
      * Processes one file, which may be either a class or a resource.
      *
@@ -684,16 +715,45 @@ public class Main {
             checkClassName(name);
         }
 
+        if (threadPool != null) {
+            pendingClasses.add(threadPool.submit(new ClassTranslator(name, bytes)));
+            addPendingClasses(args.numThreads * PENDING_CLASSES_PER_THREAD);
+            return true;
+        }
+
+        DirectClassFile cf = parseClass(name, bytes);
+        startNewDexFileIfFull(cf.getConstantPool().size());
+
+        try {
+            ClassDefItem clazz =
+                CfTranslator.translate(cf, bytes, args.cfOptions, args.dexOptions, args.optimizerOptions, outputDex);
+            outputDex.add(clazz);
+            return true;
+
+        } catch (ParseException ex) {
+            reportParseException(ex);
+        }
+        errors++;
+        return false;
+    }
+
+    private DirectClassFile parseClass(String name, byte[] bytes) {
         DirectClassFile cf =
             new DirectClassFile(bytes, name, args.cfOptions.strictNameCheck);
 
         cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
         cf.getMagic();
+        return cf;
+    }
 
+    /**
+     * In multi-dex mode, starts a new output dex file if a class with the
+     * given constant pool size might not fit in the current one.
+     */
+    private void startNewDexFileIfFull(int constantPoolSize) {
         int numMethodIds = outputDex.getMethodIds().items().size();
         int numFieldIds = outputDex.getFieldIds().items().size();
         int numTypeIds = outputDex.getTypeIds().items().size();
-        int constantPoolSize = cf.getConstantPool().size();
 
         if (args.multiDex && ((numMethodIds + constantPoolSize > args.maxNumberOfIdxPerDex) ||
             (numFieldIds + constantPoolSize > args.maxNumberOfIdxPerDex) ||
@@ -703,25 +763,58 @@ public class Main {
                     > args.maxNumberOfIdxPerDex))) {
           createDexFile();
         }
+    }
+
+    private void reportParseException(ParseException ex) {
+        dxConsole.err.println("\ntrouble processing:");
+        if (args.debug) {
+            ex.printStackTrace(dxConsole.err);
+        } else {
+            ex.printContext(dxConsole.err);
+        }
+    }
 
-        try {
-            ClassDefItem clazz =
-                CfTranslator.translate(cf, bytes, args.cfOptions, args.dexOptions, args.optimizerOptions, outputDex);
-            synchronized (outputDex) {
-                outputDex.add(clazz);
+    /**
+     * Adds translated classes to the output in the order in which they were
+     * read, until no more than {@code maxPending} classes remain in
+     * translation. This has the same effect on the output as translating the
+     * classes one at a time, including where multi-dex output is split.
+     */
+    private void addPendingClasses(int maxPending) {
+        while (!pendingClasses.isEmpty() &&
+                (pendingClasses.size() > maxPending || pendingClasses.peek().isDone())) {
+            TranslatedClass translated;
+            try {
+                translated = pendingClasses.remove().get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Dexing interrupted.", ex);
+            } catch (ExecutionException ex) {
+                reportException(ex.getCause());
+                continue;
             }
-            return true;
 
-        } catch (ParseException ex) {
-            dxConsole.err.println("\ntrouble processing:");
-            if (args.debug) {
-                ex.printStackTrace(dxConsole.err);
-            } else {
-                ex.printContext(dxConsole.err);
+            startNewDexFileIfFull(translated.constantPoolSize);
+            if (translated.parseException != null) {
+                reportParseException(translated.parseException);
+                errors++;
+                continue;
+            }
+
+            // Intern the references that translating the class interned in
+            // its own dex file, just as translating it straight into the
+            // output would have done.
+            for (Item item : translated.dexFile.getFieldIds().items()) {
+                outputDex.getFieldIds().intern(((FieldIdItem) item).getFieldRef());
             }
+            for (Item item : translated.dexFile.getMethodIds().items()) {
+                outputDex.getMethodIds().intern(((MethodIdItem) item).getMethodRef());
+            }
+            for (Item item : translated.dexFile.getTypeIds().items()) {
+                outputDex.getTypeIds().intern(((TypeIdItem) item).getDefiningClass());
+            }
+            outputDex.add(translated.classDef);
         }
-        errors++;
-        return false;
     }
 
     /**
@@ -1504,12 +1597,6 @@ public class Main {
                 throw new UsageException();
             }
 
-            if (multiDex && numThreads != 1) {
-                System.out.println(NUM_THREADS_OPTION + " is ignored when used with "
-                    + MULTI_DEX_OPTION);
-                numThreads = 1;
-            }
-
             if (multiDex && incremental) {
                 System.err.println(INCREMENTAL_OPTION + " is not supported with "
                     + MULTI_DEX_OPTION);
@@ -1548,33 +1635,48 @@ public class Main {
         }
     }
 
-    /** Runnable helper class to process files in multiple threads */
-    private class ParallelProcessor implements Runnable {
+    /** The result of translating one class on its own. */
+    private static class TranslatedClass {
+        final int constantPoolSize;
+        final DexFile dexFile;
+        final ClassDefItem classDef;
+        final ParseException parseException;
 
-        String path;
-        long lastModified;
-        byte[] bytes;
+        TranslatedClass(int constantPoolSize, DexFile dexFile, ClassDefItem classDef,
+                ParseException parseException) {
+            this.constantPoolSize = constantPoolSize;
+            this.dexFile = dexFile;
+            this.classDef = classDef;
+            this.parseException = parseException;
+        }
+    }
 
-        /**
-         * Constructs an instance.
-         *
-         * @param path {@code non-null;} filename of element. May not be a valid
-         * filesystem path.
-         * @param bytes {@code non-null;} file data
-         */
-        private ParallelProcessor(String path, long lastModified, byte bytes[]) {
-            this.path = path;
-            this.lastModified = lastModified;
+    /**
+     * Translates one class in a thread of the thread pool. The class is
+     * translated into a dex file of its own, so that threads do not contend
+     * for the output dex file and the output does not depend on the order in
+     * which the threads finish.
+     */
+    private class ClassTranslator implements Callable<TranslatedClass> {
+
+        private final String name;
+        private final byte[] bytes;
+
+        private ClassTranslator(String name, byte[] bytes) {
+            this.name = name;
             this.bytes = bytes;
         }
 
-        /**
-         * Task run by each thread in the thread pool. Runs processFileBytes
-         * with the given path and bytes.
-         */
-        public void run() {
-            if (Main.this.processFileBytes(path, lastModified, bytes)) {
-                anyFilesProcessed = true;
+        public TranslatedClass call() {
+            DirectClassFile cf = parseClass(name, bytes);
+            int constantPoolSize = cf.getConstantPool().size();
+            DexFile dexFile = new DexFile(args.dexOptions);
+            try {
+                ClassDefItem clazz = CfTranslator.translate(
+                        cf, bytes, args.cfOptions, args.dexOptions, args.optimizerOptions, dexFile);
+                return new TranslatedClass(constantPoolSize, dexFile, clazz, null);
+            } catch (ParseException ex) {
+                return new TranslatedClass(constantPoolSize, null, null, ex);
             }
         }
     }